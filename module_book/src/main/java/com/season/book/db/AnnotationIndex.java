@@ -0,0 +1,236 @@
+package com.season.book.db;
+
+import java.util.List;
+
+/**
+ * 章节内标注(书摘、书签)的区间索引
+ * 1.按开始位置排序保存，在有序数组上隐式构建平衡二叉树，每个节点记录子树的最大结束位置
+ * 2.查询与某区间相交的标注为O(log n + k)，结果按开始位置排列，查询不分配内存
+ * 3.增删时按二分位置插入或移除，最大结束位置在下次查询时重建
+ * 4.标注的位置被修改后需要调用{@link #update()}
+ * 5.非线程安全，只在主线程使用
+ */
+public final class AnnotationIndex<T> {
+
+	/**
+	 * 获取标注的区间，结束位置包含在区间内
+	 */
+	public interface RangeGetter<T>{
+		int getStart(T item);
+		int getEnd(T item);
+	}
+
+	private final RangeGetter<T> mRangeGetter;
+	private Object[] mItems;
+	private int[] mStarts;
+	private int[] mEnds;
+	/** 以该下标为根的子树的最大结束位置*/
+	private int[] mMaxEnds;
+	private int mSize;
+	private boolean isDirty;
+
+	public AnnotationIndex(RangeGetter<T> rangeGetter){
+		mRangeGetter = rangeGetter;
+		mItems = new Object[8];
+		mStarts = new int[8];
+		mEnds = new int[8];
+		mMaxEnds = new int[8];
+	}
+
+	public int size(){
+		return mSize;
+	}
+
+	public void add(T item){
+		int start = mRangeGetter.getStart(item);
+		int end = Math.max(start, mRangeGetter.getEnd(item));
+		ensureCapacity(mSize + 1);
+		//相同开始位置的排在后面，保持添加顺序
+		int index = upperBound(start);
+		System.arraycopy(mItems, index, mItems, index + 1, mSize - index);
+		System.arraycopy(mStarts, index, mStarts, index + 1, mSize - index);
+		System.arraycopy(mEnds, index, mEnds, index + 1, mSize - index);
+		mItems[index] = item;
+		mStarts[index] = start;
+		mEnds[index] = end;
+		mSize++;
+		isDirty = true;
+	}
+
+	/**
+	 * 按对象本身移除
+	 * @return 没有该标注返回false
+	 */
+	public boolean remove(T item){
+		int index = indexOf(item);
+		if(index < 0){
+			return false;
+		}
+		System.arraycopy(mItems, index + 1, mItems, index, mSize - index - 1);
+		System.arraycopy(mStarts, index + 1, mStarts, index, mSize - index - 1);
+		System.arraycopy(mEnds, index + 1, mEnds, index, mSize - index - 1);
+		mSize--;
+		mItems[mSize] = null;
+		isDirty = true;
+		return true;
+	}
+
+	/**
+	 * 标注的位置被修改后重新排序
+	 */
+	public void update(){
+		Object[] items = new Object[mSize];
+		System.arraycopy(mItems, 0, items, 0, mSize);
+		clear();
+		for(Object item : items){
+			add(cast(item));
+		}
+	}
+
+	public void clear(){
+		for(int i = 0;i < mSize;i++){
+			mItems[i] = null;
+		}
+		mSize = 0;
+		isDirty = true;
+	}
+
+	/**
+	 * 查找与[start,end]相交的标注，按开始位置排列
+	 * @param out 结果添加到该列表
+	 */
+	public void query(int start, int end, List<T> out){
+		if(mSize == 0 || start > end){
+			return;
+		}
+		buildIfNeed();
+		query(0, mSize, start, end, out);
+	}
+
+	/**
+	 * 是否有与[start,end]相交的标注
+	 */
+	public boolean hasOverlap(int start, int end){
+		return findFirst(start, end) != null;
+	}
+
+	/**
+	 * @return 与[start,end]相交且开始位置最小的标注，没有返回NULL
+	 */
+	public T findFirst(int start, int end){
+		if(mSize == 0 || start > end){
+			return null;
+		}
+		buildIfNeed();
+		int index = findFirst(0, mSize, start, end);
+		return index >= 0 ? cast(mItems[index]) : null;
+	}
+
+	private void query(int low, int high, int start, int end, List<T> out){
+		if(low >= high){
+			return;
+		}
+		int mid = (low + high) >>> 1;
+		if(mMaxEnds[mid] < start){
+			return;
+		}
+		query(low, mid, start, end, out);
+		if(mStarts[mid] > end){
+			return;
+		}
+		if(mEnds[mid] >= start){
+			out.add(cast(mItems[mid]));
+		}
+		query(mid + 1, high, start, end, out);
+	}
+
+	private int findFirst(int low, int high, int start, int end){
+		if(low >= high){
+			return -1;
+		}
+		int mid = (low + high) >>> 1;
+		if(mMaxEnds[mid] < start){
+			return -1;
+		}
+		int index = findFirst(low, mid, start, end);
+		if(index >= 0 || mStarts[mid] > end){
+			return index;
+		}
+		if(mEnds[mid] >= start){
+			return mid;
+		}
+		return findFirst(mid + 1, high, start, end);
+	}
+
+	private void buildIfNeed(){
+		if(isDirty){
+			build(0, mSize);
+			isDirty = false;
+		}
+	}
+
+	private int build(int low, int high){
+		if(low >= high){
+			return Integer.MIN_VALUE;
+		}
+		int mid = (low + high) >>> 1;
+		int maxEnd = Math.max(mEnds[mid], Math.max(build(low, mid), build(mid + 1, high)));
+		mMaxEnds[mid] = maxEnd;
+		return maxEnd;
+	}
+
+	/**
+	 * 第一个开始位置大于start的下标
+	 */
+	private int upperBound(int start){
+		int low = 0;
+		int high = mSize;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(mStarts[mid] <= start){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int indexOf(T item){
+		//位置没有修改时在相同开始位置的范围内查找
+		int start = mRangeGetter.getStart(item);
+		for(int i = upperBound(start) - 1;i >= 0 && mStarts[i] == start;i--){
+			if(mItems[i] == item){
+				return i;
+			}
+		}
+		for(int i = 0;i < mSize;i++){
+			if(mItems[i] == item){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity <= mItems.length){
+			return;
+		}
+		int newCapacity = Math.max(capacity, mItems.length * 2);
+		Object[] items = new Object[newCapacity];
+		int[] starts = new int[newCapacity];
+		int[] ends = new int[newCapacity];
+		System.arraycopy(mItems, 0, items, 0, mSize);
+		System.arraycopy(mStarts, 0, starts, 0, mSize);
+		System.arraycopy(mEnds, 0, ends, 0, mSize);
+		mItems = items;
+		mStarts = starts;
+		mEnds = ends;
+		mMaxEnds = new int[newCapacity];
+	}
+
+	@SuppressWarnings("unchecked")
+	private T cast(Object item){
+		return (T) item;
+	}
+}
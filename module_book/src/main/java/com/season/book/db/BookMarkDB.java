@@ -8,8 +8,6 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -37,9 +35,17 @@ public class BookMarkDB{
     }
 
     private List<BookMark> mBookMarks;
-    private HashMap<String, Boolean> mFastCache;
+    /**
+     * 各章节书签位置的区间索引，与mBookMarks同步修改
+     */
+    private HashMap<Integer, AnnotationIndex<BookMark>> mBookMarkIndexes;
+    /**
+     * 查询过的页面结束位置，章节和开始位置为键，删除书签时定位所在页
+     */
+    private HashMap<Long, Integer> mPageEnds;
     private BookMarkDB() {
-        mFastCache = new HashMap<String, Boolean>();
+        mBookMarkIndexes = new HashMap<Integer, AnnotationIndex<BookMark>>();
+        mPageEnds = new HashMap<Long, Integer>();
     }
     /**
      * 加载所有用户书签
@@ -50,62 +56,76 @@ public class BookMarkDB{
             return;
         }
         mBookMarks = getUserBookMark(contentId);
+        mBookMarkIndexes.clear();
+        mPageEnds.clear();
+        if(mBookMarks != null){
+            for(BookMark bookMark : mBookMarks){
+                addToIndex(bookMark);
+            }
+        }
+    }
+
+    private static final AnnotationIndex.RangeGetter<BookMark> BOOK_MARK_RANGE = new AnnotationIndex.RangeGetter<BookMark>() {
+        @Override
+        public int getStart(BookMark item) {
+            return item.getPosition();
+        }
+
+        @Override
+        public int getEnd(BookMark item) {
+            return item.getPosition();
+        }
+    };
+
+    private void addToIndex(BookMark bookMark){
+        AnnotationIndex<BookMark> index = mBookMarkIndexes.get(bookMark.getChapterID());
+        if(index == null){
+            index = new AnnotationIndex<BookMark>(BOOK_MARK_RANGE);
+            mBookMarkIndexes.put(bookMark.getChapterID(), index);
+        }
+        index.add(bookMark);
     }
+
+    private void removeFromIndex(BookMark bookMark){
+        AnnotationIndex<BookMark> index = mBookMarkIndexes.get(bookMark.getChapterID());
+        if(index != null){
+            index.remove(bookMark);
+        }
+    }
+
     //构建唯一码
-    private String buildKey(int chapterId, int pageStart, int pageEnd){
-        return chapterId +"-"+pageStart +"-"+pageEnd;
+    private long buildKey(int chapterId, int pageStart){
+        return ((long) chapterId << 32) | (pageStart & 0xffffffffL);
     }
 
     /**
      * 找到该书签页的结束字符位置
      */
     private int findPageEnd(int chapterId, int pageStart){
-        String mapKey = chapterId +"-"+pageStart+"-";
-        Set<Map.Entry<String, Boolean>> set = mFastCache.entrySet();
-        for (Map.Entry<String, Boolean> entry : set){
-            String key = entry.getKey();
-            if (key.startsWith(mapKey)){
-                try {
-                    String res = key.substring(mapKey.length());
-                    return Integer.parseInt(res);
-                }catch (Exception e){
-                    e.printStackTrace();
-                }
-            }
-        }
-        return pageStart;
+        Integer pageEnd = mPageEnds.get(buildKey(chapterId, pageStart));
+        return pageEnd != null ? pageEnd : pageStart;
     }
 
     /**
      * 某个页面是否已经被标记为用户书签
      */
     public boolean isPageMarked(int chapterId, int pageStart, int pageEnd){
-        //LogUtil.e("findBookMarkPosition>>"+ chapterId +">>"+ pageStart +","+ pageEnd);
-        String key = buildKey(chapterId, pageStart, pageEnd);
-        if(mFastCache.containsKey(key)){
-            return mFastCache.get(key);
-        }
-        boolean res = findBookMarkPosition(chapterId, pageStart, pageEnd) != -1;
-        mFastCache.put(key, res);
-        return res;
+        mPageEnds.put(buildKey(chapterId, pageStart), pageEnd);
+        return findBookMark(chapterId, pageStart, pageEnd) != null;
     }
 
     /**
-     * 找到书签位置
+     * 找到页面[pageStart,pageEnd)内位置最前的书签
      */
-    private int findBookMarkPosition(int chapterId, int pageStart, int pageEnd){
-        if(mBookMarks != null && mBookMarks.size() > 0){
-            for(int i=0;i<mBookMarks.size();i++){
-                BookMark bookMark = mBookMarks.get(i);
-                if(bookMark.getChapterID() == chapterId){
-                    int position = bookMark.getPosition();
-                    if(position >= pageStart && position < pageEnd){
-                        return i;
-                    }
-                }
-            }
+    private BookMark findBookMark(int chapterId, int pageStart, int pageEnd){
+        if(pageEnd <= pageStart){
+            return null;
         }
-        return -1;
+        AnnotationIndex<BookMark> index = mBookMarkIndexes.get(chapterId);
+        if(index == null){
+            return null;
+        }
+        return index.findFirst(pageStart, pageEnd - 1);
     }
 
     /**
@@ -118,8 +138,8 @@ public class BookMarkDB{
         if(mBookMarks == null){
             mBookMarks = new ArrayList<BookMark>();
         }
-        mFastCache.clear();
         mBookMarks.add(bookMark);
+        addToIndex(bookMark);
         bookMark.setStatus(BookDigestsDB.STATUS_LOCAL);
         updateOrCreateUserBookMark(bookMark);
         return true;
@@ -139,9 +159,9 @@ public class BookMarkDB{
      * 删除用户书签
      */
     public boolean deleteBookMark(int position){
-        mFastCache.clear();
         if(position != -1){
             BookMark bookMark = mBookMarks.remove(position);
+            removeFromIndex(bookMark);
             softDeleteUserBookmark(bookMark);
             return true;
         }
@@ -156,13 +176,18 @@ public class BookMarkDB{
             return -1;
         }
         int endPosition = findPageEnd(bookMark.getChapterID(), bookMark.getPosition());
-        return findBookMarkPosition(bookMark.getChapterID(), bookMark.getPosition(), endPosition);
+        BookMark target = findBookMark(bookMark.getChapterID(), bookMark.getPosition(), endPosition);
+        if(target == null){
+            return -1;
+        }
+        for(int i=0;i<mBookMarks.size();i++){
+            if(mBookMarks.get(i) == target){
+                return i;
+            }
+        }
+        return -1;
     }
 
-
-
-
-
     public void resetShelfPosition(double position){
         this.mFirstShelfPosition = position;
     }
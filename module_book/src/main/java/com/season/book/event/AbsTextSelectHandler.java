@@ -16,10 +16,12 @@ import android.view.MotionEvent;
 import android.view.ViewConfiguration;
 
 import com.season.book.bean.BookDigests;
+import com.season.book.db.AnnotationIndex;
 import com.season.book.page.span.ColorSpan;
 import com.season.lib.util.LogUtil;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.TreeMap;
 
 
@@ -554,26 +556,30 @@ public abstract class AbsTextSelectHandler{
 	}
 	
 	
+	/**
+	 * 获取当前章节与[start,end]相交的书摘，按开始位置排列
+	 */
 	protected ArrayList<BookDigests> getBookDigests(int start, int end){
 		ArrayList<BookDigests> dataArrayList = new ArrayList<BookDigests>();
-		ArrayList<BookDigests> targetArrayList = mSelectData.getBookDigestsList();
-		if(targetArrayList == null){
-			return dataArrayList;
-		}
-		int position;
-		int count;
-		for(BookDigests bookDigests : targetArrayList){
-			position = bookDigests.getPosition();
-			count = bookDigests.getCount();
-			if(computeIntersect(position,position + count - 1,start,end) != null){
-				dataArrayList.add(bookDigests);
-				continue;
-			}
-			
+		AnnotationIndex<BookDigests> index = mSelectData.getBookDigestsIndex();
+		if(index != null){
+			index.query(start, end, dataArrayList);
 		}
 		return dataArrayList;
 	}
 	
+	/**
+	 * 获取当前章节与[start,end]相交且开始位置最小的书摘
+	 * @return 没有返回NULL
+	 */
+	protected BookDigests findBookDigests(int start, int end){
+		AnnotationIndex<BookDigests> index = mSelectData.getBookDigestsIndex();
+		if(index != null){
+			return index.findFirst(start, end);
+		}
+		return null;
+	}
+	
 	protected int[] computeIntersect(BookDigests bookDigests,int targetStar , int targetEnd){
 		int position = bookDigests.getPosition();
 		int count = bookDigests.getCount();
@@ -752,10 +758,7 @@ public abstract class AbsTextSelectHandler{
 		BookDigests bookDigests  = null;
 		int position = findIndexByLocation(currentPage,x, y);
 		if(position != -1){
-			ArrayList<BookDigests> bookDigestsList = getBookDigests(position, position);
-			if(bookDigestsList.size() > 0){
-				bookDigests = bookDigestsList.get(0);
-			}
+			bookDigests = findBookDigests(position, position);
 		}
 		return bookDigests;
 	}
@@ -780,17 +783,16 @@ public abstract class AbsTextSelectHandler{
 	 * @return
 	 */
 	public boolean postLongClick(int i){
-		ArrayList<BookDigests> bookDigestsList = getBookDigests(i, i);
-		if(bookDigestsList.size() > 0){
+		BookDigests bookDigests = findBookDigests(i, i);
+		if(bookDigests != null){
 			if(!isEdit){
-				onOpenEditView(mCurrentTouchPoint.x,mCurrentTouchPoint.y, bookDigestsList.get(0), this);
+				onOpenEditView(mCurrentTouchPoint.x,mCurrentTouchPoint.y, bookDigests, this);
 				isEdit = true;
 				return true;
 			}
 		}
-		bookDigestsList = getBookDigests(i - 1, i - 1);
-		if(bookDigestsList.size() > 0){
-			BookDigests bookDigests = bookDigestsList.get(0);
+		bookDigests = findBookDigests(i - 1, i - 1);
+		if(bookDigests != null){
 			if (bookDigests.getPosition() + bookDigests.getCount() == i){
 				LogUtil.i(TAG, "onOpenEditView");
 				if(mSelectorLocationListener != null){
@@ -953,6 +955,10 @@ public abstract class AbsTextSelectHandler{
 		 * 已经被选择的文本
 		 */
 		private TreeMap<Integer, ArrayList<BookDigests>> mBookDigestsMap = new TreeMap<Integer, ArrayList<BookDigests>>();
+		/**
+		 * 各章节书摘的区间索引，与mBookDigestsMap同步修改
+		 */
+		private HashMap<Integer, AnnotationIndex<BookDigests>> mBookDigestsIndexMap = new HashMap<Integer, AnnotationIndex<BookDigests>>();
 		
 		
 		public BookDigests getCurrentBookDigests() {
@@ -977,6 +983,10 @@ public abstract class AbsTextSelectHandler{
 			BookDigests tempBookDigests = findBookDigests(bookDigestsList ,bookDigests);
 			if(tempBookDigests != null){
 				tempBookDigests.set(bookDigests);
+				AnnotationIndex<BookDigests> index = mBookDigestsIndexMap.get(chaptersId);
+				if(index != null){
+					index.update();
+				}
 			}
 		}
 		
@@ -1002,6 +1012,10 @@ public abstract class AbsTextSelectHandler{
 			BookDigests tempBookDigests = findBookDigests( bookDigestsList ,bookDigests);
 			if(tempBookDigests != null){
 				bookDigestsList.remove(tempBookDigests);
+				AnnotationIndex<BookDigests> index = mBookDigestsIndexMap.get(chaptersId);
+				if(index != null){
+					index.remove(tempBookDigests);
+				}
 			}
 		}
 		
@@ -1045,6 +1059,7 @@ public abstract class AbsTextSelectHandler{
 				setBookDigestsList(chaptersId,bookDigestsList);
 			}
 			bookDigestsList.add(bookDigests);
+			mBookDigestsIndexMap.get(chaptersId).add(bookDigests);
 		}
 		
 		public ArrayList<BookDigests> getAllBookDigestsList() {
@@ -1073,15 +1088,45 @@ public abstract class AbsTextSelectHandler{
 			setBookDigestsList(mChaptersId, mBookDigestsList);
 		}
 		
+		/**
+		 * 设置章节的书摘，之后需通过{@link #addBookDigests(int, BookDigests)}等方法修改，否则索引不会更新
+		 */
 		public void setBookDigestsList(int chaptersId,ArrayList<BookDigests> mBookDigestsList) {
 			mBookDigestsMap.put(chaptersId, mBookDigestsList);
+			AnnotationIndex<BookDigests> index = new AnnotationIndex<BookDigests>(BOOK_DIGESTS_RANGE);
+			if(mBookDigestsList != null){
+				for(BookDigests bookDigests : mBookDigestsList){
+					index.add(bookDigests);
+				}
+			}
+			mBookDigestsIndexMap.put(chaptersId, index);
+		}
+		
+		public AnnotationIndex<BookDigests> getBookDigestsIndex() {
+			return mBookDigestsIndexMap.get(mChaptersId);
 		}
 		
 		public void clear(){
 			mBookDigestsMap.clear();
+			mBookDigestsIndexMap.clear();
 		}
 	}
 	
+	/**
+	 * 书摘覆盖[position,position + count - 1]，与{@link #computeIntersect(int, int, int, int)}的相交规则一致
+	 */
+	private static final AnnotationIndex.RangeGetter<BookDigests> BOOK_DIGESTS_RANGE = new AnnotationIndex.RangeGetter<BookDigests>() {
+		@Override
+		public int getStart(BookDigests item) {
+			return item.getPosition();
+		}
+		
+		@Override
+		public int getEnd(BookDigests item) {
+			return item.getPosition() + item.getCount() - 1;
+		}
+	};
+	
 	public interface ISelectorListener{
 		
 		void onInit(float x, float y, Bitmap bitmap, AbsTextSelectHandler textSelectHandler);
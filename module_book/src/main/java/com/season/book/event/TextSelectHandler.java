@@ -57,16 +57,8 @@ public class TextSelectHandler extends AbsTextSelectHandler {
 		if(bookDigestsList == null){
 			return;
 		}
-		ArrayList<BookDigests> chaptersBookDigestsList = null;
-		
 		for(BookDigests bookDigests : bookDigestsList){
-			chaptersBookDigestsList = mSelectData.getBookDigestsList( bookDigests.getChaptersId() );
-			
-			if( chaptersBookDigestsList == null ){
-				chaptersBookDigestsList = new ArrayList<BookDigests>();
-				mSelectData.setBookDigestsList( bookDigests.getChaptersId(), chaptersBookDigestsList);
-			}
-			chaptersBookDigestsList.add(bookDigests);
+			mSelectData.addBookDigests(bookDigests.getChaptersId(), bookDigests);
 		}
 	}
 	
@@ -14,8 +14,15 @@ public class PageBitmapPicture implements IPagePicture{
 	private Page mPage;
 	private Bitmap mBitmap;
 	private Canvas mCanvas;
+	/** 图片池，为NULL时图片自己创建和回收*/
+	private PageBitmapPool mPool;
 	
 	public PageBitmapPicture(int chapterIndex,int index,Page page){
+		this(chapterIndex, index, page, null);
+	}
+
+	PageBitmapPicture(int chapterIndex,int index,Page page,PageBitmapPool pool){
+		mPool = pool;
 		init(chapterIndex, index,page);
 	}
 	
@@ -30,7 +37,11 @@ public class PageBitmapPicture implements IPagePicture{
 	public void release() {
 		if(mBitmap != null) {
 			LogUtil.i("PageBitmapPicture", "<init> release bitmap");
-			mBitmap.recycle();
+			if(mPool != null){
+				mPool.recycle(mBitmap);
+			}else{
+				mBitmap.recycle();
+			}
 			mBitmap = null;
 			mCanvas = null;
 		}
@@ -41,6 +52,18 @@ public class PageBitmapPicture implements IPagePicture{
 		return mPageIndex == index && mChapterIndex == chapterIndex;
 	}
 
+	public int getChapterIndex(){
+		return mChapterIndex;
+	}
+
+	public int getPageIndex(){
+		return mPageIndex;
+	}
+
+	public Page getPage(){
+		return mPage;
+	}
+
 	@Override
 	public Bitmap getBitmap(){
 		return mBitmap;
@@ -48,26 +71,32 @@ public class PageBitmapPicture implements IPagePicture{
 
 	@Override
 	public void setBitmap(Bitmap bitmap, int width, int height){
-		this.mBitmap = Bitmap.createBitmap(width, height,Config.RGB_565);
-		this.mCanvas = new Canvas(mBitmap);
-		this.mCanvas.drawBitmap(bitmap, 0, 0, null);
+		getCanvas(width, height).drawBitmap(bitmap, 0, 0, null);
 	}
 
 
 	@Override
 	public Canvas getCanvas(int width, int height) {
+		if(mBitmap != null && (mBitmap.getWidth() != width || mBitmap.getHeight() != height)){
+			release();
+		}
 		if(mBitmap == null){
-			mBitmap = Bitmap.createBitmap(width, height,Config.RGB_565);
+			if(mPool != null){
+				mBitmap = mPool.obtain(width, height);
+			}else{
+				mBitmap = Bitmap.createBitmap(width, height,Config.RGB_565);
+			}
 			mCanvas = new Canvas(mBitmap);
-		}else{
-			mCanvas.drawColor(0,Mode.CLEAR);
 		}
+		mCanvas.drawColor(0,Mode.CLEAR);
 		return mCanvas;
 	}
 
 	@Override
 	public void onDraw(Canvas canvas) {
-		canvas.drawBitmap(mBitmap, 0, 0, null);
+		if(mBitmap != null){
+			canvas.drawBitmap(mBitmap, 0, 0, null);
+		}
 	}
 
 	@Override
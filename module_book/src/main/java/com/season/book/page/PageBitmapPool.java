@@ -0,0 +1,70 @@
+package com.season.book.page;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * 页图片池
+ * 1.页图片都是全屏大小，用完放回池里给下一页使用，翻页时不再反复创建和回收
+ * 2.尺寸变化(横竖屏切换)时池里的旧图片全部回收
+ * 3.只在主线程使用
+ */
+final class PageBitmapPool {
+	private final ArrayList<Bitmap> mBitmaps;
+	private int mMaxSize;
+	private int mWidth;
+	private int mHeight;
+	/** 创建的图片数，用于统计*/
+	private int mCreateCount;
+
+	PageBitmapPool(int maxSize){
+		mBitmaps = new ArrayList<Bitmap>(maxSize);
+		mMaxSize = maxSize;
+	}
+
+	void setMaxSize(int maxSize){
+		mMaxSize = maxSize;
+		while(mBitmaps.size() > mMaxSize){
+			mBitmaps.remove(mBitmaps.size() - 1).recycle();
+		}
+	}
+
+	Bitmap obtain(int width,int height){
+		if(width != mWidth || height != mHeight){
+			clear();
+			mWidth = width;
+			mHeight = height;
+		}
+		int size = mBitmaps.size();
+		if(size > 0){
+			return mBitmaps.remove(size - 1);
+		}
+		mCreateCount++;
+		return Bitmap.createBitmap(width, height, Config.RGB_565);
+	}
+
+	void recycle(Bitmap bitmap){
+		if(bitmap == null || bitmap.isRecycled()){
+			return;
+		}
+		if(bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight
+				|| mBitmaps.size() >= mMaxSize){
+			bitmap.recycle();
+			return;
+		}
+		mBitmaps.add(bitmap);
+	}
+
+	void clear(){
+		for(Bitmap bitmap : mBitmaps){
+			bitmap.recycle();
+		}
+		mBitmaps.clear();
+	}
+
+	int getCreateCount(){
+		return mCreateCount;
+	}
+}
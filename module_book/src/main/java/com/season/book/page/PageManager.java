@@ -1,5 +1,7 @@
 package com.season.book.page;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -8,6 +10,7 @@ import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.view.View;
 
 import com.season.book.page.layout.AbsPatch;
@@ -32,6 +35,10 @@ import com.season.lib.util.LogUtil;
  */
 public class PageManager implements PatchParent {
     private static final String TAG = PageManager.class.getSimpleName();
+    /**
+     * 默认翻页方向提前绘制的页数
+     */
+    private static final int DEFAULT_RENDER_AHEAD_SIZE = 2;
     /**
      * 请求绘制页结果：未初始化PageManager
      */
@@ -90,17 +97,33 @@ public class PageManager implements PatchParent {
      */
     private int mTempTotalPageSize;
     /**
-     * 临时页缓存
+     * 页图片缓存，包含当前页和提前绘制的页
+     */
+    private PageRenderCache mRenderCache;
+    /**
+     * 翻页方向提前绘制的页数
+     */
+    private int mRenderAheadSize = DEFAULT_RENDER_AHEAD_SIZE;
+    /**
+     * 最近的翻页方向是否是向后
+     */
+    private boolean isFlipNext = true;
+    /**
+     * 当前章节下标，用于计算页的距离
+     */
+    private int mCurrentChapterIndex;
+    /**
+     * 当前页下标，用于计算页的距离
      */
-    private IPagePicture mLastPagePicture;
+    private int mCurrentPageIndex;
     /**
-     * 当前绑定页缓存
+     * 空闲时提前绘制的任务
      */
-    private IPagePicture mBindPagePicture;
+    private MessageQueue.IdleHandler mRenderAheadHandler;
     /**
-     * 请求页缓存
+     * 本轮提前绘制的次数，避免缓存不足时反复淘汰和绘制
      */
-    private IPagePicture mNextPagePicture;
+    private int mRenderAheadCount;
     /**
      * 大小信息
      */
@@ -109,6 +132,26 @@ public class PageManager implements PatchParent {
      * 是否整本排版(如果为非只排版当前章节的前后两章)
      */
     private boolean isLayoutAll;
+    /**
+     * 整本分页表，整本排版时使用
+     */
+    private PageMap mPageMap;
+    /**
+     * 整本分页服务
+     */
+    private PaginationService mPagination;
+    /**
+     * 读取章节数据的锁，章节任务和分页服务共用
+     */
+    private final Object mSourceLock = new Object();
+    /**
+     * 章节解析结果缓存，排版参数变化时不需要重新解析
+     */
+    private StyleTextCache mStyleTextCache;
+    /**
+     * 解析结果缓存对应的书籍和章节数
+     */
+    private String mStyleTextCacheKey;
     /**
      * 首次绘制是否结束
      */
@@ -132,9 +175,13 @@ public class PageManager implements PatchParent {
         mNeedInitChapterList = new LinkedList<Integer>();
         mHandler = new Handler(Looper.getMainLooper());
         mThreadPool = new MulThreadPool();
-        mLastPagePicture = new PageBitmapPicture(-1, -1, null);
-        mNextPagePicture = new PageBitmapPicture(-1, -1, null);
-        mBindPagePicture = new PageBitmapPicture(-1, -1, null);
+        mRenderCache = new PageRenderCache(getRenderCacheSize(mRenderAheadSize), new PageRenderCache.DistanceProvider() {
+            @Override
+            public int getDistance(int chapterIndex, int pageIndex) {
+                return getReadingDistance(chapterIndex, pageIndex);
+            }
+        });
+        mStyleTextCache = new StyleTextCache();
         isLayoutAll = layoutAll;
     }
 
@@ -150,6 +197,11 @@ public class PageManager implements PatchParent {
             return;
         }
         LogUtil.e(TAG, "init start");
+        String styleTextCacheKey = settingParam.getContentId() + "-" + chapterSize;
+        if (!styleTextCacheKey.equals(mStyleTextCacheKey)) {
+            mStyleTextCache.clear();
+            mStyleTextCacheKey = styleTextCacheKey;
+        }
         mSizeInfo = new SizeInfo((int) settingParam.getSourcePaint().getTextSize(), settingParam.getPageRect());
         mSettingParam = settingParam;
         mTaskID = System.currentTimeMillis();
@@ -158,17 +210,15 @@ public class PageManager implements PatchParent {
         mNeedInitChapterList.clear();
         mTotalPageSize = null;
         mTempTotalPageSize = 0;
+        stopPagination();
         clearBindPage();
         for (int i = 0; i < chapterSize; i++) {
             mChapterList.add(new ChapterTask(i));
             mNeedInitChapterList.add(i);
         }
 
-        //确定排版章节数
-        int layoutSize = chapterSize;
-        if (!isLayoutAll) {
-            layoutSize = Math.min(3, chapterSize);
-        }
+        //确定排版章节数，整本排版时其余章节交给分页服务，只记录分页
+        int layoutSize = Math.min(3, chapterSize);
         //根据当前请求章节调整任务预先级
         for (int i = 0, j = requestChapterIndex + 1; i < layoutSize - 1; ) {
             if (j >= 0 && j < chapterSize) {
@@ -186,6 +236,65 @@ public class PageManager implements PatchParent {
         //章节任务在执行完成之后从mNeedHandleChapterList中获取有是否需要执行的任务继续执行。
         mChapterList.get(requestChapterIndex).startTask();
         mCallback.onLayoutChapterFinish(-1, 0, mChapterList.size());
+        if (isLayoutAll) {
+            startPagination();
+        }
+    }
+
+    /**
+     * 开始整本分页，分页参数不变时直接读取缓存
+     */
+    private void startPagination() {
+        final TaskListener taskListener = new TaskListener(this, mTaskID);
+        final PageMap pageMap = new PageMap(mSettingParam.getContentId(), mSettingParam, mChapterList.size());
+        mPageMap = pageMap;
+        mPagination = new PaginationService(mCallback, mSourceLock, mStyleTextCache, mSettingParam, mSizeInfo
+                , taskListener, pageMap, new PaginationService.Listener() {
+            @Override
+            public void onPaginated(final int chapterIndex) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!taskListener.isStop() && pageMap == mPageMap) {
+                            onChapterPaginated(chapterIndex);
+                        }
+                    }
+                });
+            }
+        });
+        mPagination.start();
+    }
+
+    private void stopPagination() {
+        if (mPagination != null) {
+            mPagination.stop();
+            mPagination = null;
+        }
+        mPageMap = null;
+    }
+
+    /**
+     * 章节分页完成，运行在主线程
+     *
+     * @param chapterIndex -1表示从缓存读取了全部分页
+     */
+    private void onChapterPaginated(int chapterIndex) {
+        int progress = mPageMap.getPaginatedSize();
+        int max = mPageMap.getChapterSize();
+        if (progress == max) {
+            if (chapterIndex >= 0) {
+                mPageMap.save();
+            }
+            LogUtil.e(TAG, "init end");
+        }
+        mCallback.onLayoutChapterFinish(chapterIndex, progress, max);
+    }
+
+    /**
+     * 是否可以用整本分页表计算页码
+     */
+    private boolean isPageMapComplete() {
+        return isLayoutAll && mPageMap != null && mPageMap.isComplete();
     }
 
     /**
@@ -372,9 +481,7 @@ public class PageManager implements PatchParent {
     public void setUnInit() {
         mTaskID = System.currentTimeMillis();
         mChapterList.clear();
-        mBindPagePicture.init(-1, -1, null);
-        mNextPagePicture.init(-1, -1, null);
-        mLastPagePicture.init(-1, -1, null);
+        mRenderCache.clear();
     }
 
     /**
@@ -583,6 +690,9 @@ public class PageManager implements PatchParent {
         if (mChapterList.size() <= 0) {
             return null;
         }
+        if (isPageMapComplete()) {
+            return mPageMap.findPageIndexByTotal(pageIndex);
+        }
         for (int i = 0; i < mChapterList.size(); i++) {
             ChapterTask chapterTask = mChapterList.get(i);
             LinkedList<Page> pages = chapterTask.getPages();
@@ -606,6 +716,9 @@ public class PageManager implements PatchParent {
         if (mChapterList.size() <= chapterIndex || chapterIndex < 0) {
             return 0;
         }
+        if (isPageMapComplete()) {
+            return mPageMap.getTotalPageIndex(chapterIndex, pageIndex);
+        }
         int realIndex = pageIndex;
         for (int i = 0; i < chapterIndex; i++) {
             ChapterTask chapterTask = mChapterList.get(i);
@@ -681,52 +794,32 @@ public class PageManager implements PatchParent {
      */
     private void drawContent(Canvas canvas, Page page, int chapterIndex, int pageIndex, int currentChapterIndex, int currentPageIndex) {
         boolean isNeedDraw = isFirstDraw || page.isFinish();
-        if (chapterIndex == currentChapterIndex && pageIndex == currentPageIndex) {
-            if (!mBindPagePicture.equals(chapterIndex, pageIndex)) {
-                mBindPagePicture.init(chapterIndex, pageIndex, page);
-                page.draw(mBindPagePicture.getCanvas(mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height()));
-            }
-            if (isNeedDraw) {
-                isFirstDraw = true;
-                mBindPagePicture.onDraw(canvas);
-            } else {
-                mCallback.drawWaitingContent(canvas, chapterIndex, isFirstDraw);
-            }
+        PageBitmapPicture picture = mRenderCache.get(chapterIndex, pageIndex);
+        if (picture == null) {
+            picture = mRenderCache.obtain(chapterIndex, pageIndex, page);
+            renderPage(picture, page, false);
+        }
+        if (isNeedDraw) {
+            isFirstDraw = true;
+            picture.onDraw(canvas);
         } else {
-            boolean isNext;
-            if (currentChapterIndex < chapterIndex) {
-                isNext = true;
-            } else if (currentChapterIndex == chapterIndex) {
-                isNext = chapterIndex < pageIndex;
-            } else {
-                isNext = false;
-            }
-            if (isNext) {
-                if (!mNextPagePicture.equals(chapterIndex, pageIndex)) {
-                    mNextPagePicture.init(chapterIndex, pageIndex, page);
-                    page.draw(mNextPagePicture.getCanvas(mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height()));
-                }
-                if (isNeedDraw) {
-                    isFirstDraw = true;
-                    mNextPagePicture.onDraw(canvas);
-                } else {
-                    mCallback.drawWaitingContent(canvas, chapterIndex, isFirstDraw);
-                }
-            } else {
-                if (!mLastPagePicture.equals(chapterIndex, pageIndex)) {
-                    mLastPagePicture.init(chapterIndex, pageIndex, page);
-                    page.draw(mLastPagePicture.getCanvas(mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height()));
-                }
-                if (isNeedDraw) {
-                    isFirstDraw = true;
-                    mLastPagePicture.onDraw(canvas);
-                } else {
-                    mCallback.drawWaitingContent(canvas, chapterIndex, isFirstDraw);
-                }
-            }
+            mCallback.drawWaitingContent(canvas, chapterIndex, isFirstDraw);
         }
     }
 
+    /**
+     * 绘制页图片
+     *
+     * @param picture
+     * @param page
+     * @param isPreRender 是否是提前绘制
+     */
+    private void renderPage(PageBitmapPicture picture, Page page, boolean isPreRender) {
+        long startTime = System.nanoTime();
+        page.draw(picture.getCanvas(mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height()));
+        mRenderCache.onRender(System.nanoTime() - startTime, isPreRender);
+    }
+
     /**
      * 预加载前后页面
      * @param currentChapterIndex
@@ -738,47 +831,26 @@ public class PageManager implements PatchParent {
         //有效绑定页，不需要解除绑定的页
         ArrayList<Page> effectiveCachePage = new ArrayList<Page>();
         long time = System.currentTimeMillis();
+        if (recordChapterIndex != currentChapterIndex || recordPageIndex != currentPageIndex) {
+            isFlipNext = recordChapterIndex < currentChapterIndex
+                    || (recordChapterIndex == currentChapterIndex && recordPageIndex < currentPageIndex);
+        }
+        mCurrentChapterIndex = currentChapterIndex;
+        mCurrentPageIndex = currentPageIndex;
         ChapterTask chapterTask = mChapterList.get(currentChapterIndex);
         Page currentPage = chapterTask.getPage(currentPageIndex);
         if (currentPage != null) {
             effectiveCachePage.add(currentPage);
         }
-        int[] nextPageIndex = getNextIndex(chapterTask, currentPageIndex);
-        if (nextPageIndex != null && nextPageIndex[0] >= 0) {
-            if (!mNextPagePicture.equals(nextPageIndex[0], nextPageIndex[1])) {
-                ChapterTask chapterTaskNext = mChapterList.get(nextPageIndex[0]);
-                chapterTaskNext.setBind(true);
-                Page page = chapterTaskNext.getPage(nextPageIndex[1]);
-                if (page != null) {
-                    bindPatch(nextPageIndex[0], nextPageIndex[1], page, chapterTaskNext.getStyleText());
-                    effectiveCachePage.add(page);
-                    mNextPagePicture.init(nextPageIndex[0], nextPageIndex[1], page);
-                    if (recordChapterIndex == nextPageIndex[0] && recordPageIndex == nextPageIndex[1]) {
-                        mNextPagePicture.setBitmap(mBindPagePicture.getBitmap(), mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height());
-                    } else {
-                        page.draw(mNextPagePicture.getCanvas(mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height()));
-                    }
-                }
-            }
+        Page nextPage = preRenderPage(getNextIndex(chapterTask, currentPageIndex), false);
+        if (nextPage != null) {
+            effectiveCachePage.add(nextPage);
         }
-        int[] lastPageIndex = getPreIndex(chapterTask, currentPageIndex);
-        if (lastPageIndex != null && lastPageIndex[0] >= 0) {
-            if (!mLastPagePicture.equals(lastPageIndex[0], lastPageIndex[1])) {
-                ChapterTask chapterTaskNext = mChapterList.get(lastPageIndex[0]);
-                chapterTaskNext.setBind(true);
-                Page page = chapterTaskNext.getPage(lastPageIndex[1]);
-                if (page != null) {
-                    bindPatch(lastPageIndex[0], lastPageIndex[1], page, chapterTaskNext.getStyleText());
-                    effectiveCachePage.add(page);
-                    mLastPagePicture.init(lastPageIndex[0], lastPageIndex[1], page);
-                    if (recordChapterIndex == lastPageIndex[0] && recordPageIndex == lastPageIndex[1]) {
-                        mLastPagePicture.setBitmap(mBindPagePicture.getBitmap(), mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height());
-                    } else {
-                        page.draw(mLastPagePicture.getCanvas(mSettingParam.getFullPageRect().width(), mSettingParam.getFullPageRect().height()));
-                    }
-                }
-            }
+        Page lastPage = preRenderPage(getPreIndex(chapterTask, currentPageIndex), false);
+        if (lastPage != null) {
+            effectiveCachePage.add(lastPage);
         }
+        mRenderCache.collectPages(effectiveCachePage);
         ArrayList<Page> oldCachePage = new ArrayList(mBindPageList);
         //释放未包含在有效绑定页列表里面的页
         for (Page bindsPage : oldCachePage) {
@@ -786,7 +858,141 @@ public class PageManager implements PatchParent {
                 unBindPatchParent(bindsPage);
             }
         }
-        LogUtil.i(TAG, "preLoadPage>> " + currentPageIndex + "  , " + recordPageIndex + " cost:" + (System.currentTimeMillis() - time));
+        scheduleRenderAhead();
+        LogUtil.i(TAG, "preLoadPage>> " + currentPageIndex + "  , " + recordPageIndex + " cost:" + (System.currentTimeMillis() - time)
+                + " " + mRenderCache.getMetrics());
+    }
+
+    /**
+     * 绑定并绘制页，已有图片时不再绘制
+     *
+     * @param pageIndex   第一个位置是章节下标，第二个位置是页下标
+     * @param isPreRender 是否是提前绘制
+     * @return 页未排版或章节未绑定返回NULL
+     */
+    private Page preRenderPage(int[] pageIndex, boolean isPreRender) {
+        if (pageIndex == null || pageIndex[0] < 0) {
+            return null;
+        }
+        ChapterTask chapterTask = mChapterList.get(pageIndex[0]);
+        chapterTask.setBind(true);
+        Page page = chapterTask.getPage(pageIndex[1]);
+        if (page != null) {
+            bindPatch(pageIndex[0], pageIndex[1], page, chapterTask.getStyleText());
+            if (!mRenderCache.contains(pageIndex[0], pageIndex[1])) {
+                renderPage(mRenderCache.obtain(pageIndex[0], pageIndex[1], page), page, isPreRender);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 设置翻页方向提前绘制的页数，反方向提前绘制一半
+     *
+     * @param renderAheadSize 0表示只缓存前后两页
+     */
+    public void setRenderAheadSize(int renderAheadSize) {
+        mRenderAheadSize = Math.max(0, renderAheadSize);
+        mRenderCache.setMaxSize(getRenderCacheSize(mRenderAheadSize));
+    }
+
+    /**
+     * 缓存的图片数：当前页、翻页方向、反方向，另外留一张给正在显示的翻页动画
+     */
+    private static int getRenderCacheSize(int renderAheadSize) {
+        return Math.max(1, renderAheadSize) + Math.max(1, renderAheadSize / 2) + 2;
+    }
+
+    /**
+     * 页图片缓存的统计信息
+     *
+     * @return
+     */
+    public String getRenderMetrics() {
+        return mRenderCache.getMetrics();
+    }
+
+    /**
+     * 主线程空闲时提前绘制翻页方向的页，每次只绘制一页，不影响翻页动画
+     * 绘制会回调界面的画笔，不能在子线程进行
+     */
+    private void scheduleRenderAhead() {
+        mRenderAheadCount = 0;
+        if (mRenderAheadSize <= 1 || mRenderAheadHandler != null) {
+            return;
+        }
+        mRenderAheadHandler = new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                if (isInit() && mRenderAheadCount++ < mRenderCache.getMaxSize() && renderAheadOnce()) {
+                    return true;
+                }
+                mRenderAheadHandler = null;
+                return false;
+            }
+        };
+        Looper.myQueue().addIdleHandler(mRenderAheadHandler);
+    }
+
+    /**
+     * 绘制一页还没有缓存的页
+     *
+     * @return 绘制了页返回true，没有需要绘制的页返回false
+     */
+    private boolean renderAheadOnce() {
+        if (mCurrentChapterIndex < 0 || mCurrentChapterIndex >= mChapterList.size()) {
+            return false;
+        }
+        return renderAheadOnce(isFlipNext, mRenderAheadSize)
+                || renderAheadOnce(!isFlipNext, Math.max(1, mRenderAheadSize / 2));
+    }
+
+    private boolean renderAheadOnce(boolean isNext, int size) {
+        int chapterIndex = mCurrentChapterIndex;
+        int pageIndex = mCurrentPageIndex;
+        for (int i = 0; i < size; i++) {
+            ChapterTask chapterTask = mChapterList.get(chapterIndex);
+            int[] index = isNext ? getNextIndex(chapterTask, pageIndex) : getPreIndex(chapterTask, pageIndex);
+            if (index == null || index[0] < 0) {
+                return false;
+            }
+            chapterIndex = index[0];
+            pageIndex = index[1];
+            if (mRenderCache.contains(chapterIndex, pageIndex)) {
+                continue;
+            }
+            //只绘制已绑定章节的页，章节未绑定时不为了提前绘制而重新解析
+            if (!mChapterList.get(chapterIndex).isBind) {
+                return false;
+            }
+            return preRenderPage(index, true) != null;
+        }
+        return false;
+    }
+
+    /**
+     * 页到当前页按阅读顺序的距离，反方向的页加倍
+     */
+    private int getReadingDistance(int chapterIndex, int pageIndex) {
+        int distance;
+        boolean isNext;
+        if (chapterIndex == mCurrentChapterIndex) {
+            distance = Math.abs(pageIndex - mCurrentPageIndex);
+            isNext = pageIndex > mCurrentPageIndex;
+        } else if (chapterIndex > mCurrentChapterIndex) {
+            distance = Math.max(0, getChapterPageSize(mCurrentChapterIndex) - mCurrentPageIndex) + pageIndex;
+            for (int i = mCurrentChapterIndex + 1; i < chapterIndex; i++) {
+                distance += Math.max(0, getChapterPageSize(i));
+            }
+            isNext = true;
+        } else {
+            distance = mCurrentPageIndex + Math.max(0, getChapterPageSize(chapterIndex) - pageIndex);
+            for (int i = chapterIndex + 1; i < mCurrentChapterIndex; i++) {
+                distance += Math.max(0, getChapterPageSize(i));
+            }
+            isNext = false;
+        }
+        return isNext == isFlipNext ? distance : distance * 2;
     }
 
     /**
@@ -811,15 +1017,7 @@ public class PageManager implements PatchParent {
     @Override
     public void invalidate(AbsPatch patch) {
         if (patch instanceof Page) {
-            if (mBindPagePicture.equals((Page) patch)) {
-                mBindPagePicture.init(-1, -1, null);
-            }
-            if (mNextPagePicture.equals((Page) patch)) {
-                mNextPagePicture.init(-1, -1, null);
-            }
-            if (mLastPagePicture.equals((Page) patch)) {
-                mLastPagePicture.init(-1, -1, null);
-            }
+            mRenderCache.invalidate((Page) patch);
         }
         mCallback.invalidateView(null);
     }
@@ -861,18 +1059,14 @@ public class PageManager implements PatchParent {
         if (!isInit()) {
             return;
         }
-        mBindPagePicture.init(-1, -1, null);
-        mNextPagePicture.init(-1, -1, null);
-        mLastPagePicture.init(-1, -1, null);
+        mRenderCache.clear();
     }
 
     /**
      * 横竖屏切换时回收图片 用来下次重新赋值宽高
      */
     public void onConfigurationChanged() {
-        mBindPagePicture.release();
-        mNextPagePicture.release();
-        mLastPagePicture.release();
+        mRenderCache.release();
     }
 
     /**
@@ -884,12 +1078,24 @@ public class PageManager implements PatchParent {
         }
         mThreadPool.destroy();
         mTaskID = System.currentTimeMillis();
+        stopPagination();
+        mStyleTextCache.clear();
 
         clearBindPage();
 
-        mBindPagePicture.release();
-        mNextPagePicture.release();
-        mLastPagePicture.release();
+        if (mRenderAheadHandler != null) {
+            Looper.myQueue().removeIdleHandler(mRenderAheadHandler);
+            mRenderAheadHandler = null;
+        }
+        LogUtil.i(TAG, "render metrics>> " + mRenderCache.getMetrics());
+        mRenderCache.release();
+    }
+
+    /**
+     * 清除章节解析结果缓存，章节内容变化(如简繁切换)时调用
+     */
+    public void clearStyleTextCache() {
+        mStyleTextCache.clear();
     }
 
     /**
@@ -923,6 +1129,9 @@ public class PageManager implements PatchParent {
             if (chapterTask.isLayout()) {
                 return chapterTask.getPages().size();
             }
+            if (isLayoutAll && mPageMap != null) {
+                return mPageMap.getChapterPageSize(chapterIndex);
+            }
         }
         return -1;
     }
@@ -933,6 +1142,9 @@ public class PageManager implements PatchParent {
      * @return
      */
     public int getTotalPageSize() {
+        if (isLayoutAll) {
+            return mPageMap != null ? mPageMap.getTotalPageSize() : -1;
+        }
         if (mTotalPageSize == null) {
             return -1;
         }
@@ -950,6 +1162,9 @@ public class PageManager implements PatchParent {
         if (getTotalPageSize() == -1) {
             return -1;
         }
+        if (isLayoutAll) {
+            return mPageMap.getTotalPageIndex(chapterIndex, pageIndex);
+        }
         int totalPageIndex = 0;
         for (ChapterTask chapterTask : mChapterList) {
             if (chapterTask.getIndex() < chapterIndex) {
@@ -970,6 +1185,9 @@ public class PageManager implements PatchParent {
      * @return
      */
     public int[] findPageIndexByTotal(int totalPageIndex) {
+        if (isPageMapComplete()) {
+            return mPageMap.findPageIndexByTotal(totalPageIndex);
+        }
         if (getTotalPageSize() > totalPageIndex) {
             for (int i = 0; i < mChapterList.size(); i++) {
                 ChapterTask chapterTask = mChapterList.get(i);
@@ -1011,6 +1229,9 @@ public class PageManager implements PatchParent {
      * @return
      */
     public int getLayoutChapterProgress() {
+        if (isLayoutAll) {
+            return mPageMap != null ? mPageMap.getPaginatedSize() : 0;
+        }
         return mChapterList.size() - mNeedInitChapterList.size();
     }
 
@@ -1051,6 +1272,8 @@ public class PageManager implements PatchParent {
         private int mIndex;
         private boolean isBind;
         private boolean isLayout;
+        /** 任务开始时间，用于统计首页耗时 */
+        private long mStartTime;
 
         private ChapterTask(int index) {
             mIndex = index;
@@ -1087,8 +1310,14 @@ public class PageManager implements PatchParent {
         private void startTask() {
             LogUtil.i(TAG, "startTask index=" + mIndex + " isLayout=" + isLayout + " isBind=" + isBind + " isNeedRunTask=" + isNeedRunTask());
             mCurrentRunChapterTask = this;
+            mStartTime = System.currentTimeMillis();
             final TaskListener taskListener = new TaskListener(PageManager.this, mTaskID);
 //			mTaskListener = taskListener;
+            StyleText cacheStyleText = mStyleTextCache.get(mIndex, mSizeInfo);
+            if (cacheStyleText != null) {
+                startCacheTask(taskListener, cacheStyleText);
+                return;
+            }
             final HtmlParser htmlParser = new HtmlParser(mCallback.getCssProvider()
                     , mCallback.getDataProvider(), taskListener, mSizeInfo);
             final Layout layout;
@@ -1101,11 +1330,26 @@ public class PageManager implements PatchParent {
                 @Override
                 public void run() {
                     try {
-
-                        htmlParser.start(mCallback.getChapterInputStream(mIndex));
+                        Reader plainText;
+                        synchronized (mSourceLock) {
+                            plainText = mCallback.getChapterPlainText(mIndex);
+                        }
+                        if (plainText != null) {
+                            boolean isParseFinish = startPlainText(plainText, htmlParser, layout, taskListener);
+                            if (taskListener.isStop()) {
+                                return;
+                            }
+                            if (isParseFinish) {
+                                mStyleTextCache.put(mIndex, htmlParser.getStyleText(), htmlParser.getSizeInfo());
+                            }
+                            onTaskFinish(taskListener, htmlParser.getStyleText());
+                            return;
+                        }
+                        startHtml(mCallback, mSourceLock, mIndex, htmlParser);
                         if (taskListener.isStop()) {
                             return;
                         }
+                        mStyleTextCache.put(mIndex, htmlParser.getStyleText(), htmlParser.getSizeInfo());
                         if (layout != null) {
                             layout.startLayout(0, htmlParser.getStyleText().getTotalLength() - 1);
                             layout.setCallback(null);
@@ -1117,14 +1361,7 @@ public class PageManager implements PatchParent {
                     } catch (Exception e) {
                         LogUtil.e(TAG, "htmlParser exception>>" + e.getMessage());
 
-                        StringBuffer temp = new StringBuffer();
-                        temp.append("<html><body><p>");
-                        temp.append("章节解析异常，错误信息：");
-                        temp.append("</p><p></p><p>");
-                        temp.append(e.toString());
-                        temp.append("</p></body></html>");
-
-                        htmlParser.start(temp.toString());
+                        htmlParser.start(getErrorContent(e));
                         if (taskListener.isStop()) {
                             return;
                         }
@@ -1142,7 +1379,76 @@ public class PageManager implements PatchParent {
             });
         }
 
+        /**
+         * 解析结果有缓存时只排版
+         */
+        private void startCacheTask(final TaskListener taskListener, final StyleText styleText) {
+            final Layout layout;
+            if (!isLayout) {
+                layout = new Layout(styleText, mSettingParam, this, taskListener);
+            } else {
+                layout = null;
+            }
+            mThreadPool.addTask(new Runnable() {
+                @Override
+                public void run() {
+                    if (layout != null) {
+                        layout.startLayout(0, styleText.getTotalLength() - 1);
+                        layout.setCallback(null);
+                    }
+                    if (taskListener.isStop()) {
+                        return;
+                    }
+                    onTaskFinish(taskListener, styleText);
+                }
+            });
+        }
 
+        /**
+         * 纯文本章节：当前线程边解析边排版，排版快到已解析的末尾时再读取下一块
+         *
+         * @return 是否完整解析
+         */
+        private boolean startPlainText(final Reader plainText, final HtmlParser htmlParser, final Layout layout
+                , final TaskListener taskListener) {
+            if (layout == null) {
+                try {
+                    htmlParser.startPlainText(plainText);
+                } finally {
+                    closeReader(plainText);
+                }
+                return true;
+            }
+            final boolean[] isParseFinish = new boolean[1];
+            try {
+                htmlParser.beginPlainText(plainText);
+                layout.startLayoutAndParse(new Layout.ParserSource() {
+                    @Override
+                    public boolean parseNext() {
+                        try {
+                            if (htmlParser.parsePlainTextBlock()) {
+                                return true;
+                            }
+                            isParseFinish[0] = !taskListener.isStop();
+                        } catch (Exception e) {
+                            LogUtil.e(TAG, "plainText exception>>" + e.getMessage());
+                        }
+                        return false;
+                    }
+                });
+            } finally {
+                closeReader(plainText);
+            }
+            layout.setCallback(null);
+            return isParseFinish[0];
+        }
+
+        private void closeReader(Reader reader) {
+            try {
+                reader.close();
+            } catch (Exception e) {
+            }
+        }
 
         /**
          * 任务执行结束点，并执行下一个任务,绑定章节
@@ -1162,7 +1468,12 @@ public class PageManager implements PatchParent {
                     } else {
                         mStyleText = null;
                     }
-                    if (mNeedInitChapterList.contains(mIndex)) {
+                    if (isLayoutAll) {
+                        //章节任务的排版结果为准，和分页表不一致时更新
+                        if (mPageMap != null && mPageMap.putChapter(mIndex, getPageEnds())) {
+                            onChapterPaginated(mIndex);
+                        }
+                    } else if (mNeedInitChapterList.contains(mIndex)) {
                         mNeedInitChapterList.remove(Integer.valueOf(mIndex));
                         if (mNeedInitChapterList.size() == 0) {
                             mTotalPageSize = mTempTotalPageSize;
@@ -1190,6 +1501,9 @@ public class PageManager implements PatchParent {
                         return;
                     }
                     mPages.add(page);
+                    if (mPages.size() == 1) {
+                        LogUtil.i(TAG, "first page index=" + mIndex + " cost:" + (System.currentTimeMillis() - mStartTime));
+                    }
                     mCallback.onLayoutPageFinish(mIndex, mPages.size() - 1, page.getEnd(), totalLength);
                     mTempTotalPageSize++;
                 }
@@ -1216,6 +1530,15 @@ public class PageManager implements PatchParent {
             return mIndex;
         }
 
+        private int[] getPageEnds() {
+            int[] pageEnds = new int[mPages.size()];
+            int i = 0;
+            for (Page page : mPages) {
+                pageEnds[i++] = page.getEnd();
+            }
+            return pageEnds;
+        }
+
         private LinkedList<Page> getPages() {
             return mPages;
         }
@@ -1260,6 +1583,45 @@ public class PageManager implements PatchParent {
         }
     }
 
+    /**
+     * 解析章节HTML，有数据流时边读取边解析，否则读取整章内容
+     */
+    static void startHtml(PageManagerCallback callback, Object sourceLock, int chapterIndex, HtmlParser htmlParser) {
+        Reader html;
+        synchronized (sourceLock) {
+            html = callback.getChapterHtml(chapterIndex);
+        }
+        if (html != null) {
+            try {
+                htmlParser.start(html);
+            } finally {
+                try {
+                    html.close();
+                } catch (IOException e) {
+                }
+            }
+            return;
+        }
+        String source;
+        synchronized (sourceLock) {
+            source = callback.getChapterInputStream(chapterIndex);
+        }
+        htmlParser.start(source);
+    }
+
+    /**
+     * 章节解析异常时显示的内容
+     */
+    static String getErrorContent(Exception e) {
+        StringBuffer temp = new StringBuffer();
+        temp.append("<html><body><p>");
+        temp.append("章节解析异常，错误信息：");
+        temp.append("</p><p></p><p>");
+        temp.append(e.toString());
+        temp.append("</p></body></html>");
+        return temp.toString();
+    }
+
     public static class TaskListener {
         private boolean isStop;
         private long mTaskID;
@@ -1316,6 +1678,22 @@ public class PageManager implements PatchParent {
          */
         String getChapterInputStream(int chapterIndex);
 
+        /**
+         * 获取章节HTML数据流，不为NULL时不再调用{@link #getChapterInputStream(int)}
+         *
+         * @param chapterIndex
+         * @return 边读取边解析的HTML，NULL表示使用{@link #getChapterInputStream(int)}
+         */
+        Reader getChapterHtml(int chapterIndex);
+
+        /**
+         * 获取章节纯文本数据，不为NULL时不再调用{@link #getChapterInputStream(int)}
+         *
+         * @param chapterIndex
+         * @return 按行分段的纯文本，NULL表示使用HTML数据
+         */
+        Reader getChapterPlainText(int chapterIndex);
+
         /**
          * 获取Css加载器
          *
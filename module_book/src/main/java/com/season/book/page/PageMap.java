@@ -0,0 +1,283 @@
+package com.season.book.page;
+
+import com.season.lib.BaseContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * 整本书的分页表
+ * 1.每章只记录各页结束字符的位置，不保存Page对象
+ * 2.按书籍ID和排版参数{@link SettingParam#getKey()}持久化，参数不变时再次打开直接得到总页数
+ * 3.排版线程写入，主线程读取，方法都加锁
+ * 文件格式：MAGIC, VERSION, 章节数, KEY长度, KEY(UTF-8), 每章(页数, int[页数])
+ */
+public final class PageMap {
+	private static final int MAGIC = 0x50474d50;
+	private static final int VERSION = 1;
+	private static final int HEAD_LENGTH = 4 + 4 + 4 + 4;
+	private static final String CHARSET = "UTF-8";
+
+	private final String mKey;
+	private final int[][] mPageEnds;
+	private int mPaginatedSize;
+	/** 各章第一页的总页码，分页完成后才生成*/
+	private int[] mChapterOffsets;
+
+	public PageMap(String contentId, SettingParam settingParam, int chapterSize){
+		this(contentId + "|" + settingParam.getKey(), chapterSize);
+	}
+
+	private PageMap(String key, int chapterSize){
+		mKey = key;
+		mPageEnds = new int[chapterSize][];
+	}
+
+	public int getChapterSize(){
+		return mPageEnds.length;
+	}
+
+	/**
+	 * 记录章节分页结果
+	 * @param pageEnds 各页结束字符位置
+	 * @return 与已有结果不一致返回true
+	 */
+	public synchronized boolean putChapter(int chapterIndex,int[] pageEnds){
+		if(chapterIndex < 0 || chapterIndex >= mPageEnds.length){
+			return false;
+		}
+		int[] old = mPageEnds[chapterIndex];
+		if(old == null){
+			mPaginatedSize++;
+		}else if(old.length == pageEnds.length){
+			mPageEnds[chapterIndex] = pageEnds;
+			return false;
+		}
+		mPageEnds[chapterIndex] = pageEnds;
+		mChapterOffsets = null;
+		return true;
+	}
+
+	public synchronized boolean hasChapter(int chapterIndex){
+		return chapterIndex >= 0 && chapterIndex < mPageEnds.length && mPageEnds[chapterIndex] != null;
+	}
+
+	/**
+	 * 已分页的章节数
+	 */
+	public synchronized int getPaginatedSize(){
+		return mPaginatedSize;
+	}
+
+	public synchronized boolean isComplete(){
+		return mPaginatedSize == mPageEnds.length;
+	}
+
+	/**
+	 * @return 章节页数，未分页返回-1
+	 */
+	public synchronized int getChapterPageSize(int chapterIndex){
+		if(!hasChapter(chapterIndex)){
+			return -1;
+		}
+		return mPageEnds[chapterIndex].length;
+	}
+
+	/**
+	 * @return 总页数，未全部分页返回-1
+	 */
+	public synchronized int getTotalPageSize(){
+		int[] offsets = getChapterOffsets();
+		if(offsets == null){
+			return -1;
+		}
+		return offsets[offsets.length - 1];
+	}
+
+	/**
+	 * @return 相对于总页数的位置，未全部分页返回-1
+	 */
+	public synchronized int getTotalPageIndex(int chapterIndex,int pageIndex){
+		int[] offsets = getChapterOffsets();
+		if(offsets == null || chapterIndex < 0 || chapterIndex >= mPageEnds.length){
+			return -1;
+		}
+		return offsets[chapterIndex] + pageIndex;
+	}
+
+	/**
+	 * @return 第一个位置是章节下标，第二个位置是页下标，超出范围或未全部分页返回NULL
+	 */
+	public synchronized int[] findPageIndexByTotal(int totalPageIndex){
+		int[] offsets = getChapterOffsets();
+		if(offsets == null || totalPageIndex < 0 || totalPageIndex >= offsets[offsets.length - 1]){
+			return null;
+		}
+		//最后一个起始页码不大于totalPageIndex的章节，没有页的章节会被跳过
+		int low = 0;
+		int high = mPageEnds.length - 1;
+		while(low < high){
+			int mid = (low + high + 1) >>> 1;
+			if(offsets[mid] <= totalPageIndex){
+				low = mid;
+			}else{
+				high = mid - 1;
+			}
+		}
+		return new int[]{low, totalPageIndex - offsets[low]};
+	}
+
+	/**
+	 * 根据字符位置查找页的位置
+	 * @return 未分页返回-1
+	 */
+	public synchronized int findPageIndex(int chapterIndex,int charIndex){
+		if(!hasChapter(chapterIndex)){
+			return -1;
+		}
+		int[] pageEnds = mPageEnds[chapterIndex];
+		int low = 0;
+		int high = pageEnds.length - 1;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(pageEnds[mid] < charIndex){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return high;
+	}
+
+	private int[] getChapterOffsets(){
+		if(mChapterOffsets == null && mPaginatedSize == mPageEnds.length && mPageEnds.length > 0){
+			int[] offsets = new int[mPageEnds.length + 1];
+			for(int i = 0;i < mPageEnds.length;i++){
+				offsets[i + 1] = offsets[i] + mPageEnds[i].length;
+			}
+			mChapterOffsets = offsets;
+		}
+		return mChapterOffsets;
+	}
+
+	private synchronized byte[] toBytes() throws Exception{
+		byte[] keyBytes = mKey.getBytes(CHARSET);
+		int length = HEAD_LENGTH + keyBytes.length;
+		for(int[] pageEnds : mPageEnds){
+			length += 4 + pageEnds.length * 4;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(mPageEnds.length);
+		buffer.putInt(keyBytes.length);
+		buffer.put(keyBytes);
+		for(int[] pageEnds : mPageEnds){
+			buffer.putInt(pageEnds.length);
+			for(int end : pageEnds){
+				buffer.putInt(end);
+			}
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * 从数据读取分页，KEY或章节数不一致返回false
+	 */
+	private synchronized boolean fromBytes(byte[] data) throws Exception{
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if(data.length < HEAD_LENGTH
+				|| buffer.getInt() != MAGIC
+				|| buffer.getInt() != VERSION
+				|| buffer.getInt() != mPageEnds.length){
+			return false;
+		}
+		int keyLength = buffer.getInt();
+		if(keyLength <= 0 || keyLength > buffer.remaining()
+				|| !mKey.equals(new String(data, buffer.position(), keyLength, CHARSET))){
+			return false;
+		}
+		buffer.position(buffer.position() + keyLength);
+		int[][] pages = new int[mPageEnds.length][];
+		for(int i = 0;i < pages.length;i++){
+			if(buffer.remaining() < 4){
+				return false;
+			}
+			int size = buffer.getInt();
+			if(size < 0 || size * 4L > buffer.remaining()){
+				return false;
+			}
+			pages[i] = new int[size];
+			for(int j = 0;j < size;j++){
+				pages[i][j] = buffer.getInt();
+			}
+		}
+		if(buffer.hasRemaining()){
+			return false;
+		}
+		System.arraycopy(pages, 0, mPageEnds, 0, pages.length);
+		mPaginatedSize = pages.length;
+		mChapterOffsets = null;
+		return true;
+	}
+
+	private File getSaveFile(){
+		String fileName = Integer.toHexString(mKey.hashCode()) + ".map";
+		return new File(BaseContext.getInstance().getCacheDir() + "/pages/" + fileName);
+	}
+
+	/**
+	 * 读取缓存的分页，在子线程调用
+	 * @return 读取成功返回true
+	 */
+	public boolean read(){
+		File saveFile = getSaveFile();
+		if(!saveFile.exists() || !saveFile.isFile() || saveFile.length() <= HEAD_LENGTH){
+			return false;
+		}
+		try {
+			byte[] data = new byte[(int) saveFile.length()];
+			RandomAccessFile reader = new RandomAccessFile(saveFile, "r");
+			try {
+				reader.readFully(data);
+			} finally {
+				reader.close();
+			}
+			return fromBytes(data);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 全部分页完成后保存
+	 */
+	public void save(){
+		if(!isComplete()){
+			return;
+		}
+		final File saveFile = getSaveFile();
+		new Thread(){
+			public void run(){
+				saveFile.getParentFile().mkdirs();
+				File tempFile = new File(saveFile.getPath() + ".tmp");
+				try {
+					FileOutputStream out = new FileOutputStream(tempFile);
+					try {
+						out.write(toBytes());
+					} finally {
+						out.close();
+					}
+					if(!tempFile.renameTo(saveFile)){
+						saveFile.delete();
+						tempFile.renameTo(saveFile);
+					}
+				} catch (Exception e) {
+					tempFile.delete();
+				}
+			}
+		}.start();
+	}
+}
@@ -0,0 +1,191 @@
+package com.season.book.page;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.season.book.page.layout.Page;
+
+/**
+ * 页图片缓存
+ * 1.缓存当前页和翻页方向前后若干页的图片，图片从{@link PageBitmapPool}获取
+ * 2.缓存满时淘汰离当前页最远的页
+ * 3.记录命中率和绘制耗时
+ * 4.只在主线程使用
+ */
+final class PageRenderCache {
+
+	/**
+	 * 页到当前页的距离，越大越先被淘汰
+	 */
+	interface DistanceProvider{
+		int getDistance(int chapterIndex,int pageIndex);
+	}
+
+	private final ArrayList<PageBitmapPicture> mPictures;
+	private final PageBitmapPool mPool;
+	private final DistanceProvider mDistanceProvider;
+	private int mMaxSize;
+
+	private int mHitCount;
+	private int mMissCount;
+	private int mRenderCount;
+	private int mPreRenderCount;
+	private long mRenderTime;
+	private long mMaxRenderTime;
+
+	PageRenderCache(int maxSize,DistanceProvider distanceProvider){
+		mPictures = new ArrayList<PageBitmapPicture>(maxSize);
+		mPool = new PageBitmapPool(maxSize + 1);
+		mDistanceProvider = distanceProvider;
+		mMaxSize = maxSize;
+	}
+
+	void setMaxSize(int maxSize){
+		mMaxSize = maxSize;
+		mPool.setMaxSize(maxSize + 1);
+		while(mPictures.size() > mMaxSize){
+			mPictures.remove(findEvictIndex()).release();
+		}
+	}
+
+	int getMaxSize(){
+		return mMaxSize;
+	}
+
+	/**
+	 * 获取页图片并计入命中率
+	 * @return 没有缓存返回NULL
+	 */
+	PageBitmapPicture get(int chapterIndex,int pageIndex){
+		PageBitmapPicture picture = find(chapterIndex, pageIndex);
+		if(picture != null){
+			mHitCount++;
+		}else{
+			mMissCount++;
+		}
+		return picture;
+	}
+
+	boolean contains(int chapterIndex,int pageIndex){
+		return find(chapterIndex, pageIndex) != null;
+	}
+
+	/**
+	 * 获取一个用于绘制该页的图片，优先使用空闲的，缓存满时淘汰最远的页
+	 */
+	PageBitmapPicture obtain(int chapterIndex,int pageIndex,Page page){
+		PageBitmapPicture picture = find(chapterIndex, pageIndex);
+		if(picture == null){
+			picture = find(-1, -1);
+		}
+		if(picture == null){
+			if(mPictures.size() < mMaxSize){
+				picture = new PageBitmapPicture(-1, -1, null, mPool);
+				mPictures.add(picture);
+			}else{
+				picture = mPictures.get(findEvictIndex());
+			}
+		}
+		picture.init(chapterIndex, pageIndex, page);
+		return picture;
+	}
+
+	/**
+	 * 记录一次绘制
+	 * @param nanos 绘制耗时
+	 * @param isPreRender 是否是提前绘制
+	 */
+	void onRender(long nanos,boolean isPreRender){
+		mRenderCount++;
+		if(isPreRender){
+			mPreRenderCount++;
+		}
+		mRenderTime += nanos;
+		if(nanos > mMaxRenderTime){
+			mMaxRenderTime = nanos;
+		}
+	}
+
+	/**
+	 * 页内容变化，对应图片失效
+	 */
+	void invalidate(Page page){
+		for(PageBitmapPicture picture : mPictures){
+			if(picture.getPage() == page){
+				picture.init(-1, -1, null);
+			}
+		}
+	}
+
+	/**
+	 * 全部图片失效，图片保留给下次使用
+	 */
+	void clear(){
+		for(PageBitmapPicture picture : mPictures){
+			picture.init(-1, -1, null);
+		}
+	}
+
+	/**
+	 * 回收全部图片
+	 */
+	void release(){
+		for(PageBitmapPicture picture : mPictures){
+			picture.release();
+		}
+		mPictures.clear();
+		mPool.clear();
+	}
+
+	/**
+	 * 收集缓存中的页，这些页需要保持绑定
+	 */
+	void collectPages(List<Page> pages){
+		for(PageBitmapPicture picture : mPictures){
+			Page page = picture.getPage();
+			if(page != null && !pages.contains(page)){
+				pages.add(page);
+			}
+		}
+	}
+
+	String getMetrics(){
+		int requestCount = mHitCount + mMissCount;
+		StringBuilder builder = new StringBuilder();
+		builder.append("hit:").append(mHitCount)
+				.append(" miss:").append(mMissCount)
+				.append(" rate:").append(requestCount > 0 ? mHitCount * 100 / requestCount : 0).append('%')
+				.append(" render:").append(mRenderCount)
+				.append(" preRender:").append(mPreRenderCount)
+				.append(" avg:").append(mRenderCount > 0 ? mRenderTime / mRenderCount / 1000 / 1000f : 0).append("ms")
+				.append(" max:").append(mMaxRenderTime / 1000 / 1000f).append("ms")
+				.append(" bitmaps:").append(mPool.getCreateCount());
+		return builder.toString();
+	}
+
+	private PageBitmapPicture find(int chapterIndex,int pageIndex){
+		for(PageBitmapPicture picture : mPictures){
+			if(picture.equals(chapterIndex, pageIndex)){
+				return picture;
+			}
+		}
+		return null;
+	}
+
+	private int findEvictIndex(){
+		int evictIndex = 0;
+		int maxDistance = -1;
+		for(int i = 0;i < mPictures.size();i++){
+			PageBitmapPicture picture = mPictures.get(i);
+			if(picture.getPage() == null){
+				return i;
+			}
+			int distance = mDistanceProvider.getDistance(picture.getChapterIndex(), picture.getPageIndex());
+			if(distance > maxDistance){
+				maxDistance = distance;
+				evictIndex = i;
+			}
+		}
+		return evictIndex;
+	}
+}
@@ -0,0 +1,223 @@
+package com.season.book.page;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+import com.season.book.page.layout.Layout;
+import com.season.book.page.layout.Page;
+import com.season.book.page.paser.HtmlParser;
+import com.season.book.page.paser.html.DataProvider;
+import com.season.book.page.paser.html.ICssProvider;
+import com.season.book.page.paser.html.tag.SizeInfo;
+import com.season.lib.support.os.MulThreadPool;
+import com.season.lib.util.LogUtil;
+
+/**
+ * 整本分页服务
+ * 1.多个线程同时排版不同的章节，线程数由CPU核数和可用内存决定
+ * 2.每章排版完只把页的结束位置写入{@link PageMap}，StyleText和Page随即释放
+ * 3.读取章节数据时和章节任务共用一把锁，插件不需要支持并发读取
+ * 4.分页表有缓存时直接读取，不再排版
+ * 5.章节解析结果有缓存时只排版，但不写入缓存，避免挤掉阅读中的章节
+ * 6.每个排版线程使用自己的{@link ICssProvider}，切换样式表时不影响其它线程
+ */
+final class PaginationService {
+	private static final String TAG = PaginationService.class.getSimpleName();
+	/** 每个排版线程预留的内存*/
+	private static final long WORKER_MEMORY = 8 * 1024 * 1024;
+
+	/**
+	 * 分页进度回调，运行在排版线程
+	 */
+	interface Listener{
+		/**
+		 * @param chapterIndex 分页完成的章节，-1表示从缓存读取了全部分页
+		 */
+		void onPaginated(int chapterIndex);
+	}
+
+	private final PageManager.PageManagerCallback mCallback;
+	private final Object mSourceLock;
+	private final StyleTextCache mStyleTextCache;
+	private final SettingParam mSettingParam;
+	private final SizeInfo mSizeInfo;
+	private final PageManager.TaskListener mTask;
+	private final PageMap mPageMap;
+	private final Listener mListener;
+	private final DataProvider mDataProvider;
+	private final AtomicInteger mNextChapter;
+	private final MulThreadPool mThreadPool;
+	private volatile boolean isStop;
+
+	PaginationService(PageManager.PageManagerCallback callback, Object sourceLock, StyleTextCache styleTextCache
+			, SettingParam settingParam, SizeInfo sizeInfo, PageManager.TaskListener task, PageMap pageMap, Listener listener){
+		mCallback = callback;
+		mSourceLock = sourceLock;
+		mStyleTextCache = styleTextCache;
+		mSettingParam = settingParam;
+		mSizeInfo = sizeInfo;
+		mTask = task;
+		mPageMap = pageMap;
+		mListener = listener;
+		//分页只读取图片尺寸，图片样式绘制时才解码，直接使用阅读的数据提供者
+		mDataProvider = callback.getDataProvider();
+		mNextChapter = new AtomicInteger();
+		mThreadPool = new MulThreadPool();
+	}
+
+	void start(){
+		mThreadPool.addTask(new Runnable(){
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				long startTime = System.currentTimeMillis();
+				if(mPageMap.read()){
+					LogUtil.i(TAG, "read page map cost:" + (System.currentTimeMillis() - startTime));
+					if(!isStop()){
+						mListener.onPaginated(-1);
+					}
+					return;
+				}
+				int workerSize = getWorkerSize();
+				for(int i = 1;i < workerSize;i++){
+					mThreadPool.addTask(new Worker(i));
+				}
+				LogUtil.i(TAG, "paginate workers=" + workerSize);
+				new Worker(0).run();
+			}
+		});
+	}
+
+	void stop(){
+		isStop = true;
+		mThreadPool.destroy();
+	}
+
+	private boolean isStop(){
+		return isStop || mTask.isStop();
+	}
+
+	/**
+	 * 留一个核给主线程和当前章节任务，每个线程按{@link #WORKER_MEMORY}占用不超过最大内存的四分之一
+	 */
+	private static int getWorkerSize(){
+		int cpu = Runtime.getRuntime().availableProcessors();
+		long byMemory = Runtime.getRuntime().maxMemory() / 4 / WORKER_MEMORY;
+		return (int) Math.max(1, Math.min(cpu - 1, byMemory));
+	}
+
+	private static boolean hasFreeMemory(){
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return runtime.maxMemory() - used > WORKER_MEMORY * 2;
+	}
+
+	/**
+	 * 排版一章，只返回各页结束位置
+	 * @return 任务已停止返回NULL
+	 */
+	private int[] paginate(int chapterIndex, ICssProvider cssProvider){
+		StyleText cacheStyleText = mStyleTextCache.get(chapterIndex, mSizeInfo);
+		if(cacheStyleText != null){
+			return layout(cacheStyleText);
+		}
+		HtmlParser htmlParser = new HtmlParser(cssProvider, mDataProvider, mTask, mSizeInfo);
+		try {
+			Reader plainText;
+			synchronized (mSourceLock) {
+				plainText = mCallback.getChapterPlainText(chapterIndex);
+			}
+			if(plainText != null){
+				try {
+					htmlParser.startPlainText(plainText);
+				} finally {
+					try {
+						plainText.close();
+					} catch (IOException e) {
+					}
+				}
+			}else{
+				PageManager.startHtml(mCallback, mSourceLock, chapterIndex, htmlParser);
+			}
+		} catch (Exception e) {
+			htmlParser.start(PageManager.getErrorContent(e));
+		}
+		if(isStop()){
+			return null;
+		}
+		return layout(htmlParser.getStyleText());
+	}
+
+	private int[] layout(StyleText styleText){
+		PageEnds pageEnds = new PageEnds();
+		Layout layout = new Layout(styleText, mSettingParam, pageEnds, mTask);
+		layout.startLayout(0, styleText.getTotalLength() - 1);
+		if(isStop()){
+			return null;
+		}
+		return pageEnds.toArray();
+	}
+
+	private final class Worker implements Runnable{
+		private final int mWorkerIndex;
+		private final ICssProvider mCssProvider;
+
+		private Worker(int workerIndex){
+			mWorkerIndex = workerIndex;
+			ICssProvider cssProvider = mCallback.getCssProvider();
+			mCssProvider = cssProvider != null ? cssProvider.copy() : null;
+		}
+
+		@Override
+		public void run() {
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			while(!isStop()){
+				//内存不足时只保留一个线程
+				if(mWorkerIndex > 0 && !hasFreeMemory()){
+					return;
+				}
+				int chapterIndex = mNextChapter.getAndIncrement();
+				if(chapterIndex >= mPageMap.getChapterSize()){
+					return;
+				}
+				if(mPageMap.hasChapter(chapterIndex)){
+					continue;
+				}
+				int[] pageEnds = paginate(chapterIndex, mCssProvider);
+				if(pageEnds == null){
+					return;
+				}
+				if(mPageMap.putChapter(chapterIndex, pageEnds)){
+					mListener.onPaginated(chapterIndex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 收集页的结束位置，Page对象不保留
+	 */
+	private static final class PageEnds implements Layout.LayoutCallback{
+		private int[] mEnds = new int[16];
+		private int mSize;
+
+		@Override
+		public void onLayoutFinishPage(PageManager.TaskListener taskListener, Page page, int totalLength) {
+			if(mSize == mEnds.length){
+				int[] temp = new int[mSize * 2];
+				System.arraycopy(mEnds, 0, temp, 0, mSize);
+				mEnds = temp;
+			}
+			mEnds[mSize++] = page.getEnd();
+		}
+
+		private int[] toArray(){
+			int[] res = new int[mSize];
+			System.arraycopy(mEnds, 0, res, 0, mSize);
+			return res;
+		}
+	}
+}
@@ -46,6 +46,7 @@ public class SettingParam {
 					lineSpace + "-" + 
 					sourcePaint.getTextSize() + "-" +
 					paragraphSpace + "-" +
+					indent + "-" +
 					pageRect.width() + "-" +
 					pageRect.height();
 	}
@@ -54,6 +55,9 @@ public class SettingParam {
 		return contentId;
 	}
 	
+	/**
+	 * 排版参数标识，相同标识的排版结果相同
+	 */
 	public String getKey(){
 		return key;
 	}
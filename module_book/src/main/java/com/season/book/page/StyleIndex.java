@@ -0,0 +1,187 @@
+package com.season.book.page;
+
+/**
+ * StyleText区间索引
+ * 1.解析线程按字符顺序追加区间，区间有序且不重叠，数组分段存储，扩容不复制已有数据
+ * 2.每追加一个区间通过volatile的数量发布，排版线程查找时不需要加锁
+ * 3.顺序访问使用{@link Cursor}，同一区间内的字符直接命中，不再逐字符二分查找
+ */
+public final class StyleIndex {
+	private static final int SEGMENT_SHIFT = 8;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final StyleText mRoot;
+	private volatile Segment[] mSegments;
+	private volatile int mSize;
+
+	StyleIndex(StyleText root){
+		mRoot = root;
+		mSegments = new Segment[4];
+	}
+
+	/**
+	 * 追加区间，只能在解析线程调用；与已有区间重叠的忽略
+	 */
+	void add(int start,int end,StyleText styleText){
+		int size = mSize;
+		if(end < start || (size > 0 && start <= getEnd(mSegments, size - 1))){
+			return;
+		}
+		Segment[] segments = mSegments;
+		int segmentIndex = size >> SEGMENT_SHIFT;
+		if(segmentIndex >= segments.length){
+			Segment[] temp = new Segment[segments.length * 2];
+			System.arraycopy(segments, 0, temp, 0, segments.length);
+			segments = temp;
+			mSegments = segments;
+		}
+		Segment segment = segments[segmentIndex];
+		if(segment == null){
+			segment = new Segment();
+			segments[segmentIndex] = segment;
+		}
+		int i = size & SEGMENT_MASK;
+		segment.mStarts[i] = start;
+		segment.mEnds[i] = end;
+		segment.mValues[i] = styleText;
+		mSize = size + 1;
+	}
+
+	/**
+	 * 数据源重新填充时清空，只能在解析线程调用
+	 */
+	void clear(){
+		mSegments = new Segment[4];
+		mSize = 0;
+	}
+
+	public int size(){
+		return mSize;
+	}
+
+	/**
+	 * 查找字符所在的StyleText，不在任何区间内返回根
+	 */
+	public StyleText find(int index){
+		int size = mSize;
+		Segment[] segments = mSegments;
+		int position = search(segments, size, index);
+		if(position < 0){
+			return mRoot;
+		}
+		return getValue(segments, position);
+	}
+
+	/**
+	 * 创建顺序查找游标，游标只能在一个线程使用
+	 */
+	public Cursor newCursor(){
+		return new Cursor();
+	}
+
+	/**
+	 * @return 包含index的区间位置，没有返回-1
+	 */
+	private static int search(Segment[] segments,int size,int index){
+		int low = 0;
+		int high = size - 1;
+		while(low <= high){
+			int mid = (low + high) >>> 1;
+			if(getStart(segments, mid) > index){
+				high = mid - 1;
+			}else if(getEnd(segments, mid) < index){
+				low = mid + 1;
+			}else{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private static int getStart(Segment[] segments,int position){
+		return segments[position >> SEGMENT_SHIFT].mStarts[position & SEGMENT_MASK];
+	}
+
+	private static int getEnd(Segment[] segments,int position){
+		return segments[position >> SEGMENT_SHIFT].mEnds[position & SEGMENT_MASK];
+	}
+
+	private static StyleText getValue(Segment[] segments,int position){
+		return segments[position >> SEGMENT_SHIFT].mValues[position & SEGMENT_MASK];
+	}
+
+	private static final class Segment{
+		private final int[] mStarts = new int[SEGMENT_SIZE];
+		private final int[] mEnds = new int[SEGMENT_SIZE];
+		private final StyleText[] mValues = new StyleText[SEGMENT_SIZE];
+	}
+
+	/**
+	 * 顺序查找游标，记住上一次命中的样式段[mRunStart, mRunEnd]
+	 */
+	public final class Cursor{
+		private int mRunStart = 0;
+		private int mRunEnd = -1;
+		private int mPosition = -1;
+		private StyleText mRunStyleText;
+
+		private Cursor(){
+		}
+
+		/**
+		 * 查找字符所在的StyleText，不在任何区间内返回根
+		 */
+		public StyleText find(int index){
+			if(index >= mRunStart && index <= mRunEnd){
+				return mRunStyleText;
+			}
+			int size = mSize;
+			Segment[] segments = mSegments;
+			int position = -1;
+			//顺序访问时先看下一个区间
+			int next = mPosition + 1;
+			if(index > mRunEnd && next < size && getStart(segments, next) <= index){
+				if(getEnd(segments, next) >= index){
+					position = next;
+				}else{
+					position = search(segments, size, index);
+				}
+			}else{
+				position = search(segments, size, index);
+			}
+			if(position >= 0){
+				mPosition = position;
+				mRunStart = getStart(segments, position);
+				mRunEnd = getEnd(segments, position);
+				mRunStyleText = getValue(segments, position);
+				return mRunStyleText;
+			}
+			//区间之间的空隙属于根，末尾之后的空隙还会追加区间，不缓存
+			int low = 0;
+			int high = size - 1;
+			while(low <= high){
+				int mid = (low + high) >>> 1;
+				if(getStart(segments, mid) > index){
+					high = mid - 1;
+				}else{
+					low = mid + 1;
+				}
+			}
+			if(low < size){
+				mPosition = low - 1;
+				mRunStart = high >= 0 ? getEnd(segments, high) + 1 : 0;
+				mRunEnd = getStart(segments, low) - 1;
+				mRunStyleText = mRoot;
+			}
+			return mRoot;
+		}
+
+		/**
+		 * 当前样式段的结束位置
+		 */
+		public int getRunEnd(){
+			return mRunEnd;
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package com.season.book.page;
 
-import java.util.TreeMap;
-
 import android.text.style.BackgroundColorSpan;
 import android.text.style.CharacterStyle;
 
@@ -30,11 +28,10 @@ public final class StyleText{
 	private CharacterStyle[] mTotalSpans;
 	private SpannableStringBuilder mDataSource;
 	private ArrayMap<StyleText> mStyleMap;
-	private TreeMap<Comparable<Intervalo>, StyleText> mStyleTreeMap;
+	private StyleIndex mStyleIndex;
 	private StyleText mParent;
 	private StyleText mRootParent;
 	private StyleText mPanleStyleText;
-	private StyleMapKey mStyleMapKey;
 	private FloatSpan mFloatSpan;
 	private int mPanleType;
 	private int mCNWidth;
@@ -69,16 +66,15 @@ public final class StyleText{
 		mEnd = -1;
 		mSelfSpans = new CharacterStyle[0];
 		mTotalSpans = new CharacterStyle[0];
-		mStyleMapKey = new StyleMapKey(0);
 		if(rootParent == null){
 			mRootParent = this;
 			mDataSource = new SpannableStringBuilder();
-			mStyleTreeMap = new TreeMap<Comparable<Intervalo>, StyleText>();
+			mStyleIndex = new StyleIndex(this);
 			mStyleMap = new ArrayMap<StyleText>();
 		}else{
 			mRootParent = rootParent;
 			mDataSource = rootParent.mDataSource;
-			mStyleTreeMap = rootParent.mStyleTreeMap;
+			mStyleIndex = rootParent.mStyleIndex;
 			mStyleMap = rootParent.mStyleMap;
 			isCover = rootParent.isCover;
 		}
@@ -508,22 +504,33 @@ public final class StyleText{
 	}
 	
 	public final void putIntervalo(Intervalo intervalo){
-		mRootParent.mStyleTreeMap.put(intervalo, this);
+		mStyleIndex.add(intervalo.mStart, intervalo.mEnd, this);
 	}
 
+	/**
+	 * 数据源重新填充前清空区间索引
+	 */
+	public final void clearIntervalo(){
+		mStyleIndex.clear();
+	}
 	
 	public final int getIntervaloSzie(){
-		return mRootParent.mStyleTreeMap.size();
+		return mStyleIndex.size();
 	}
 	
 	public final synchronized StyleText findStyleTextById(int id){
 		return mStyleMap.get(id);
 	}
 	
-	public final synchronized StyleText findStyleText(int index){
-		mStyleMapKey.mIndex = index;
-		StyleText styleText = mStyleTreeMap.get(mStyleMapKey);
-		return styleText != null ? styleText : mRootParent;
+	public final StyleText findStyleText(int index){
+		return mStyleIndex.find(index);
+	}
+
+	/**
+	 * 顺序查找用的游标，排版时按样式段命中
+	 */
+	public final StyleIndex.Cursor createStyleCursor(){
+		return mStyleIndex.newCursor();
 	}
 	
 	public static final StyleText createRoot(){
@@ -553,22 +560,4 @@ public final class StyleText{
 			return 0;
 		}
 	}
-	
-	private class StyleMapKey implements Comparable<Intervalo>{
-		private int mIndex;
-		StyleMapKey(int index){
-			mIndex = index;
-		}
-		
-		@Override
-		public int compareTo(Intervalo another) {
-			if(mIndex < another.mStart){
-				return -1;
-			}
-			if(mIndex > another.mEnd){
-				return 1;
-			}
-			return 0;
-		}
-	}
 }
@@ -0,0 +1,84 @@
+package com.season.book.page;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.season.book.page.paser.html.tag.SizeInfo;
+
+/**
+ * 章节解析结果缓存
+ * 1.按章节缓存解析好的StyleText，字号、行距等排版参数变化时只需重新排版
+ * 2.解析用到了尺寸(em、百分比)的章节同时记录尺寸，尺寸变化后失效
+ * 3.按字符总数限制大小，超出时淘汰最久未使用的章节
+ * 4.章节任务和分页服务在不同线程访问，方法都加锁
+ */
+final class StyleTextCache {
+	/** 缓存的最大字符数*/
+	private static final int MAX_LENGTH = 1024 * 1024;
+
+	private final LinkedHashMap<Integer, Entry> mEntries;
+	private int mLength;
+
+	StyleTextCache(){
+		mEntries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * @param sizeInfo 当前排版尺寸
+	 * @return 没有缓存或缓存已失效返回NULL
+	 */
+	synchronized StyleText get(int chapterIndex,SizeInfo sizeInfo){
+		Entry entry = mEntries.get(chapterIndex);
+		if(entry == null){
+			return null;
+		}
+		if(entry.mSizeInfo != null && !entry.mSizeInfo.isSameSize(sizeInfo)){
+			remove(chapterIndex);
+			return null;
+		}
+		return entry.mStyleText;
+	}
+
+	/**
+	 * @param sizeInfo 解析时使用的尺寸
+	 */
+	synchronized void put(int chapterIndex,StyleText styleText,SizeInfo sizeInfo){
+		int length = styleText.getTotalLength();
+		if(length > MAX_LENGTH){
+			return;
+		}
+		remove(chapterIndex);
+		mEntries.put(chapterIndex, new Entry(styleText, sizeInfo.isUsed() ? sizeInfo : null));
+		mLength += length;
+		Iterator<Map.Entry<Integer, Entry>> iterator = mEntries.entrySet().iterator();
+		while(mLength > MAX_LENGTH && iterator.hasNext()){
+			Entry eldest = iterator.next().getValue();
+			mLength -= eldest.mStyleText.getTotalLength();
+			iterator.remove();
+		}
+	}
+
+	synchronized void clear(){
+		mEntries.clear();
+		mLength = 0;
+	}
+
+	private void remove(int chapterIndex){
+		Entry entry = mEntries.remove(chapterIndex);
+		if(entry != null){
+			mLength -= entry.mStyleText.getTotalLength();
+		}
+	}
+
+	private static final class Entry{
+		private final StyleText mStyleText;
+		/** 解析依赖的尺寸，无关时为NULL*/
+		private final SizeInfo mSizeInfo;
+
+		private Entry(StyleText styleText,SizeInfo sizeInfo){
+			mStyleText = styleText;
+			mSizeInfo = sizeInfo;
+		}
+	}
+}
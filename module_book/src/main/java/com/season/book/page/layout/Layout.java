@@ -3,12 +3,12 @@ package com.season.book.page.layout;
 import java.util.List;
 
 import android.graphics.Rect;
-import android.text.TextPaint;
 
 import com.season.book.page.Constant;
 import com.season.book.page.LinkedList;
 import com.season.book.page.PageManager;
 import com.season.book.page.SettingParam;
+import com.season.book.page.StyleIndex;
 import com.season.book.page.StyleText;
 import com.season.book.page.Util;
 import com.season.book.page.span.BlockquoteSpan;
@@ -24,6 +24,8 @@ public class Layout{
 	private static final String TAG = Layout.class.getSimpleName();
 	private SettingParam mSettingParam;
 	private StyleText mStyleText;
+	/** 按样式段顺序查找StyleText，同一段内的字符不再重复查找*/
+	private StyleIndex.Cursor mStyleCursor;
 	private LayoutCallback mCallback;
 	/** 表示预先申请的后面几页，在构造新的page时会优先使用这些page，没有的情况才重新生成新的page*/
 	private LinkedList<Page> mNextPages;
@@ -33,8 +35,8 @@ public class Layout{
 	private Page mCurrentPage;
 	/** 代表当前正在计算的行，如果为空说明是行的开始位置。*/
 	private Line mCurrentLine;
-	/** 是否需要等待数据解析*/
-	private volatile boolean isWaitingParser;
+	/** 边解析边排版时的数据来源，解析结束后为NULL*/
+	private ParserSource mParserSource;
 	/** 是否开始布局*/
 	private volatile boolean isStartLayout;
 	/** Char大小缓存*/
@@ -43,8 +45,8 @@ public class Layout{
 	private Rect[] mRectCaches;
 	/** Rect对象缓存大小*/
 	private int mRectCacheSize;
-	/** 画笔*/
-	private TextPaint mTextPaint;
+	/** 按样式段测量字符*/
+	private RunMeasurer mRunMeasurer;
 	/** 页内容区域*/
 	private Rect mPageRect;
 	/** 临时区域对象用于获取Rect值*/
@@ -67,7 +69,6 @@ public class Layout{
 		mPageRect = mSettingParam.getPageRect();
 		mCallback = callback;
 		mTask = task;
-		mTextPaint = new TextPaint();
 		mTempEnabledRect = new Rect();
 		mCharRect = new Rect();
 		mRectCaches = new Rect[10];
@@ -103,6 +104,7 @@ public class Layout{
 	
 	private void init(StyleText styleText){
 		mStyleText = styleText;
+		mStyleCursor = styleText != null ? styleText.createStyleCursor() : null;
 		mCurrentPageSize = 0;
 		if(mNextPages == null){
 			mNextPages = new LinkedList<Page>();
@@ -155,22 +157,21 @@ public class Layout{
 	
 	public void startLayout(int start,int end){
 		if(!isStartLayout){
-			isWaitingParser = false;
+			mParserSource = null;
 			layout(start,end);
 		}
 	}
 	
-	public void startLayoutAndWaitingParser(){
+	/**
+	 * 边解析边排版，在同一个线程上排版快到末尾时解析下一块，StyleText不会被其它线程修改
+	 */
+	public void startLayoutAndParse(ParserSource parserSource){
 		if(!isStartLayout){
-			isWaitingParser = true;
+			mParserSource = parserSource;
 			layout(0, -1);
 		}
 	}
 	
-	public void finishParser(){
-		isWaitingParser = false;
-	}
-	
 	private synchronized void layout(int start,int end){
 		long startTime = System.currentTimeMillis();
 		if(mStyleText == null){
@@ -178,6 +179,8 @@ public class Layout{
 		}
 		mLayoutPageSize = 0;
 		isStartLayout = true;
+		mRunMeasurer = RunMeasurer.get();
+		mRunMeasurer.begin(mSettingParam.getSourcePaint());
 		int i = start;
 		if(mCurrentPage == null){
 			mCurrentPage = createPage();
@@ -186,11 +189,11 @@ public class Layout{
 			if(mTask.isStop()){
 				return;
 			}
-			if(isWaitingParser){
+			if(mParserSource != null){
 				if(i < mStyleText.getTotalLength() - 500){
 					i = handleChar(i);
-				}else{
-					sleep();
+				}else if(!mParserSource.parseNext()){
+					mParserSource = null;
 				}
 			}else{
 				if(i < mStyleText.getTotalLength()){
@@ -232,7 +235,7 @@ public class Layout{
 			return ++index;
 		}
 		boolean isOutOfBounds = false;
-		StyleText styleText = mStyleText.findStyleText(index);
+		StyleText styleText = mStyleCursor.find(index);
 		Rect charRect = measureText(index,styleText);
 		FloatSpan floatSpan = styleText.getFloatSpan();
 		boolean isPanleStart = styleText.isPanleStart(index);
@@ -257,7 +260,7 @@ public class Layout{
 			int newLineWidth = charRect.right;
 			int newLineHeight = charRect.bottom;
 			for(int j = index + 1;j <= floatLine.getEnd();j++){
-				StyleText floatStyleText = mStyleText.findStyleText(j);
+				StyleText floatStyleText = mStyleCursor.find(j);
 				charRect = measureText(index,floatStyleText);
 				newLineWidth += charRect.right;
 				newLineHeight = Math.max(newLineHeight, charRect.bottom);
@@ -541,9 +544,7 @@ public class Layout{
 	 * @param index
 	 */
 	private final Rect measureText(int index,StyleText styleText){
-		mTextPaint.set(mSettingParam.getSourcePaint());
-		Util.measureText(styleText, mTextPaint, index, mPageRect.width(), mPageRect.height(), mCharRect);
-		return mCharRect;
+		return mRunMeasurer.measure(styleText, index, mPageRect.width(), mPageRect.height(), mCharRect);
 	}
 	
 	final void recycleRects(List<Rect> rects){
@@ -590,13 +591,18 @@ public class Layout{
 		return line;
 	}
 	
-	private final void sleep(){
-		try {
-			Thread.sleep(50);
-		} catch (InterruptedException e) {}
-	}
-	
 	public interface LayoutCallback{
 		public void onLayoutFinishPage(PageManager.TaskListener taskListener,Page page,int totalLength);
 	}
+
+	/**
+	 * 分块解析的数据来源，在排版线程调用
+	 */
+	public interface ParserSource{
+		/**
+		 * 解析下一块数据追加到StyleText
+		 * @return 已全部解析返回false
+		 */
+		public boolean parseNext();
+	}
 }
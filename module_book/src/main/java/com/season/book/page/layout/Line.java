@@ -12,13 +12,13 @@ import android.graphics.RectF;
 import android.os.Build;
 import android.text.TextPaint;
 import android.text.style.CharacterStyle;
-import android.util.SparseArray;
 import android.view.View;
 
 import com.season.book.page.span.ColorSpan;
 import com.season.book.page.Constant;
 import com.season.book.page.PatchParent;
 import com.season.book.page.SettingParam;
+import com.season.book.page.StyleIndex;
 import com.season.book.page.StyleText;
 import com.season.book.page.Util;
 import com.season.book.page.span.AlignSpan;
@@ -32,9 +32,11 @@ import com.season.lib.util.LogUtil;
 
 public class Line extends Patch{
 	private static final String TAG = Line.class.getSimpleName();;
-	private SparseArray<RectF> mTextSizeMap;
-	private SoftReference<SparseArray<RectF>> mCacheTextSizeMap;
+	/** 字符位置，每个字符依次存left,top,right,bottom，left为NaN表示该字符不绘制*/
+	private float[] mTextRects;
+	private SoftReference<float[]> mCacheTextRects;
 	private TextPaint mTextPaint;
+	private RectF mTempTextRect;
 	private Paint mWhiteDotPaint;
 	private RectF mTempBgRect;
 	private int mDefaultFontSize;
@@ -42,8 +44,9 @@ public class Line extends Patch{
 	
 	Line(SettingParam settingParam) {
 		super(settingParam);
-		mCacheTextSizeMap = new SoftReference<SparseArray<RectF>>(null);
+		mCacheTextRects = new SoftReference<float[]>(null);
 		mTextPaint = new TextPaint();
+		mTempTextRect = new RectF();
 		mTempBgRect = new RectF();
 		mWhiteDotPaint = new Paint();
 		mWhiteDotPaint.setColor(Color.WHITE);
@@ -83,10 +86,13 @@ public class Line extends Patch{
 	 * 计算当前Line所包含的所有字符的位置信息，就是内部对文字进行排版布局
 	 * @return
 	 */
-	private SparseArray<RectF> measureLine(){
-		SparseArray<RectF> textSizeMap = new SparseArray<RectF>();
-		Rect rect = null;
-		RectF newRect = null;
+	private float[] measureLine(){
+		float[] textRects = new float[(getEnd() - getStart() + 1) * 4];
+		Rect rect = new Rect();
+		Rect pageRect = mSettingParam.getPageRect();
+		RunMeasurer runMeasurer = RunMeasurer.get();
+		runMeasurer.begin(getSourcePaint());
+		StyleIndex.Cursor styleCursor = mStyleText.createStyleCursor();
 		CharacterStyle [] characterStyles = null;
 		int startLeft = measureStartLeft();
 		boolean isSingleParagraph = getStart() == getEnd() && isParagraphStart();
@@ -94,52 +100,65 @@ public class Line extends Patch{
 			startLeft -= getIndentWidth();
 		}
 		float endBottom = measureEndBottom() + offsetY;
-		for(int i = getStart();i <= getEnd();i++){
-			StyleText styleText = mStyleText.findStyleText(i);
+		int maxW = getMaxWidth() - measureStartLeft() + mLeft - mRightPadding;
+		int maxH = getMaxHeight() - mTopPadding - mBottomPadding;
+		boolean isFullScreen = isFullScreen();
+		for(int i = getStart(),j = 0;i <= getEnd();i++,j += 4){
+			StyleText styleText = styleCursor.find(i);
 			characterStyles = styleText.getTotalSpans();
 			//过滤包含浮动部分，因为已经抽出
 			if(getLayoutType() == Constant.LAYOUT_TYPE_NOTHING){
 				Object filterStyle = Util.findLastSpans(characterStyles, FloatSpan.class);
 				if(filterStyle != null){
+					textRects[j] = Float.NaN;
 					continue;
 				}
 			}
-			rect = measureText(i, styleText);
-			newRect = checkBounds(rect);
-			newRect.offset(startLeft,endBottom - newRect.height());
-			startLeft += newRect.width();
-			textSizeMap.put(i, new RectF(newRect));
-		}
-		return optimizationsLayout(textSizeMap);
-	}
-	
-	private final RectF checkBounds(Rect rect){
-		float w = rect.width();
-		float h = rect.height();
-		int maxW = getMaxWidth() - measureStartLeft() + mLeft - mRightPadding;
-		int maxH = getMaxHeight() - mTopPadding - mBottomPadding;
-		if(isFullScreen()){
-			if(w > maxW){
-				w = maxW;
-			}
-			if(h > maxH){
-				h = maxH;
-			}
-		}else{
-			if(w > maxW || h > maxH){
-				float gapW = w - maxW;
-				float gapH = h - maxH;
-				if(gapW > gapH){
-					h = h * maxW / w;
+			runMeasurer.measure(styleText, i, pageRect.width(), pageRect.height(), rect);
+			float w = rect.width();
+			float h = rect.height();
+			if(isFullScreen){
+				if(w > maxW){
 					w = maxW;
-				}else{
-					w = w * maxH / h;
+				}
+				if(h > maxH){
 					h = maxH;
 				}
+			}else{
+				if(w > maxW || h > maxH){
+					float gapW = w - maxW;
+					float gapH = h - maxH;
+					if(gapW > gapH){
+						h = h * maxW / w;
+						w = maxW;
+					}else{
+						w = w * maxH / h;
+						h = maxH;
+					}
+				}
 			}
+			textRects[j] = rect.left + startLeft;
+			textRects[j + 1] = rect.top + endBottom - h;
+			textRects[j + 2] = rect.left + w + startLeft;
+			textRects[j + 3] = rect.top + endBottom;
+			startLeft += w;
 		}
-		return new RectF(rect.left, rect.top,rect.left + w, rect.top + h);
+		return optimizationsLayout(textRects);
 	}
+
+	/**
+	 * 读取字符位置
+	 * @return 该字符不绘制返回false
+	 */
+	private boolean getTextRect(float[] textRects,int index,RectF rect){
+		int j = (index - getStart()) * 4;
+		if(j < 0 || j >= textRects.length || Float.isNaN(textRects[j])){
+			return false;
+		}
+		rect.set(textRects[j], textRects[j + 1], textRects[j + 2], textRects[j + 3]);
+		return true;
+	}
+
 	/**
 	 * <p>计算行内容结束的位置，用于控制底部对齐</p>
 	 * <p>内容结束位置的计算，注意每一个字的大小可能都不一样</p>
@@ -223,26 +242,18 @@ public class Line extends Patch{
 		}
 		return false;
 	}
-	/**
-	 * 计算一个字符的宽高
-	 * @param index
-	 * @param styleText 当前字符所包含的样式
-	 * @return
-	 */
-	private Rect measureText(int index,StyleText styleText){
-		Rect pageRect = mSettingParam.getPageRect();
-		Rect container = new Rect();
-		mTextPaint.set(getSourcePaint());
-		Util.measureText(styleText, mTextPaint, index, pageRect.width(),pageRect.height(), container);
-		return container;
-	}
 	/**
 	 * 微调美化已经计算好的排版,处理左右对齐
-	 * @param textSizeMap
+	 * @param textRects
 	 * @return
 	 */
-	private SparseArray<RectF> optimizationsLayout(SparseArray<RectF> textSizeMap){
-		int textSize = textSizeMap.size();
+	private float[] optimizationsLayout(float[] textRects){
+		int textSize = 0;
+		for(int j = 0;j < textRects.length;j += 4){
+			if(!Float.isNaN(textRects[j])){
+				textSize++;
+			}
+		}
 		float surplusWidth = getMaxWidth() - getWidth();
 		boolean isSingleParagraph = getStart() == getEnd();
 		if(isSingleParagraph && isParagraphStart()){
@@ -252,15 +263,15 @@ public class Line extends Patch{
 		if(surplusWidth <= mDefaultFontSize){
 			if(textSize > 1){
 				surplusWidth = surplusWidth / (textSize - 1);
-				for(int i = 0 ;i < textSizeMap.size();i++){
-					RectF rect = textSizeMap.get(textSizeMap.keyAt(i));
-					rect.set(rect.left + i * surplusWidth,rect.top,rect.right + ( i + 1 ) * surplusWidth ,rect.bottom);
+				for(int i = 0,j = 0;j < textRects.length;j += 4){
+					if(!Float.isNaN(textRects[j])){
+						textRects[j] += i * surplusWidth;
+						textRects[j + 2] += (i + 1) * surplusWidth;
+						i++;
+					}
 				}
 			}else{
-				for(int i = 0 ;i < textSizeMap.size();i++){
-					RectF rect = textSizeMap.get(textSizeMap.keyAt(i));
-					rect.set(rect.left + surplusWidth / 2,rect.top,rect.right + surplusWidth / 2,rect.bottom);
-				}
+				offsetTextRects(textRects, surplusWidth / 2);
 			}
 		}else if(getLayoutType() == Constant.LAYOUT_TYPE_NOTHING){
 			AlignSpan alignSpan = null;
@@ -286,13 +297,19 @@ public class Line extends Patch{
 						surplusWidth -= getIndentWidth() / 2;
 					}
 				}
-				for(int i = 0 ;i < textSizeMap.size();i++){
-					RectF rect = textSizeMap.get(textSizeMap.keyAt(i));
-					rect.set(rect.left + surplusWidth,rect.top,rect.right + surplusWidth,rect.bottom);
-				}
+				offsetTextRects(textRects, surplusWidth);
+			}
+		}
+		return textRects;
+	}
+
+	private static void offsetTextRects(float[] textRects,float dx){
+		for(int j = 0;j < textRects.length;j += 4){
+			if(!Float.isNaN(textRects[j])){
+				textRects[j] += dx;
+				textRects[j + 2] += dx;
 			}
 		}
-		return textSizeMap;
 	}
 
 	/**
@@ -313,11 +330,11 @@ public class Line extends Patch{
 	 * 获取当前line所有字符的位置信息
 	 * @return
 	 */
-	private SparseArray<RectF> getTextSizeMap(){
-		if(mTextSizeMap == null){
-			mTextSizeMap = measureLine();
+	private float[] getTextRects(){
+		if(mTextRects == null){
+			mTextRects = measureLine();
 		}
-		return mTextSizeMap;
+		return mTextRects;
 	}
 
 
@@ -327,17 +344,16 @@ public class Line extends Patch{
 			LogUtil.e(TAG, "draw unBind");
 			return;
 		}
-		SparseArray<RectF> textSizeMap = getTextSizeMap();
+		float[] textRects = getTextRects();
+		RectF rect = mTempTextRect;
 		mTextPaint.set(getSourcePaint());
 		
 		for(int i = getStart();i < getEnd();i++){
-			RectF rect = textSizeMap.get(i);
-			handlerDraw(canvas, rect, i, mTextPaint);
+			handlerDraw(canvas, getTextRect(textRects, i, rect) ? rect : null, i, mTextPaint);
 			mTextPaint.set(getSourcePaint());
 		}
 		if(mStyleText.charAt(getEnd()) != '\n' && mStyleText.charAt(getEnd()) != '\u2029'){
-			RectF rect = textSizeMap.get(getEnd());
-			handlerDraw(canvas, rect, getEnd(), mTextPaint);
+			handlerDraw(canvas, getTextRect(textRects, getEnd(), rect) ? rect : null, getEnd(), mTextPaint);
 		}
 //		mTextPaint.setColor(Color.RED);
 //		canvas.drawLine(getLeft(),getTop(), getRight(), getTop(), mTextPaint);
@@ -452,17 +468,18 @@ public class Line extends Patch{
 	@Override
 	public void bindPatchParent(PatchParent parent, StyleText styleText) {
 		super.bindPatchParent(parent, styleText);
-		mTextSizeMap = mCacheTextSizeMap.get();
-		if(mTextSizeMap == null){
-			mTextSizeMap = measureLine();
+		mTextRects = mCacheTextRects.get();
+		if(mTextRects == null){
+			mTextRects = measureLine();
 		}
-		mCacheTextSizeMap.clear();
+		mCacheTextRects.clear();
 	}
 
 	@Override
 	public void unBindPatchParent() {
+		StyleIndex.Cursor styleCursor = mStyleText.createStyleCursor();
 		for(int i = getStart();i <= getEnd();i++){
-			StyleText styleText = mStyleText.findStyleText(i);
+			StyleText styleText = styleCursor.find(i);
 			CharacterStyle [] characterStyles = styleText.getTotalSpans();
 			for (CharacterStyle characterStyle : characterStyles) {
 				if(characterStyle instanceof ResourceSpan){
@@ -470,9 +487,9 @@ public class Line extends Patch{
 				}
 			}
 		}
-		if(mTextSizeMap != null){
-			mCacheTextSizeMap = new SoftReference<SparseArray<RectF>>(mTextSizeMap);
-			mTextSizeMap = null;
+		if(mTextRects != null){
+			mCacheTextRects = new SoftReference<float[]>(mTextRects);
+			mTextRects = null;
 		}
 		super.unBindPatchParent();
 	}
@@ -493,14 +510,17 @@ public class Line extends Patch{
 	@Override
 	public boolean dispatchClick(View v, int x, int y) {
 		if(mParent != null){
-			SparseArray<RectF> textSizeMap = getTextSizeMap();
+			float[] textRects = getTextRects();
+			RectF rect = new RectF();
 			RectF clickRectF = new RectF();
 			for(int i = getStart();i <= getEnd();i++){
-				RectF rect = textSizeMap.get(i);
+				if(!getTextRect(textRects, i, rect)){
+					continue;
+				}
 				int errorBand = DimenUtil.DIPToPX(5);
 				int left = (int) (rect.left - errorBand);
 				int right = (int) (rect.right + errorBand);
-				if(rect != null && left <= x && right >= x){
+				if(left <= x && right >= x){
 					StyleText styleText = mStyleText.findStyleText(i);
 					CharacterStyle [] characterStyles = styleText.getTotalSpans();
 					ClickActionSpan clickableSpan = Util.findLastSpans(characterStyles, ClickActionSpan.class);
@@ -553,11 +573,11 @@ public class Line extends Patch{
 	@Override
 	public int findIndexByLocation(int x, int y, boolean isAccurate) {
 		if(mParent != null){
-			SparseArray<RectF> textSizeMap = getTextSizeMap();
+			float[] textRects = getTextRects();
+			RectF rect = new RectF();
 			int oldIndex = getStart();
 			for(int i = getStart();i <= getEnd();i++){
-				RectF rect = textSizeMap.get(i);
-				if(rect != null){
+				if(getTextRect(textRects, i, rect)){
 					if(rect.left > x){
 						if(!isAccurate){
 							return oldIndex;
@@ -581,9 +601,8 @@ public class Line extends Patch{
 	@Override
 	public Rect findRectByPosition(int position) {
 		if(mParent != null){
-			SparseArray<RectF> textSizeMap = getTextSizeMap();
-			RectF rectF = textSizeMap.get(position);
-			if(rectF != null){
+			RectF rectF = new RectF();
+			if(getTextRect(getTextRects(), position, rectF)){
 				return new Rect((int)rectF.left, (int)rectF.top, (int)rectF.right, (int)rectF.bottom);
 			}
 		}
@@ -0,0 +1,158 @@
+package com.season.book.page.layout;
+
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.style.CharacterStyle;
+import android.text.style.MetricAffectingSpan;
+
+import com.season.book.page.Constant;
+import com.season.book.page.StyleText;
+import com.season.book.page.Util;
+
+/**
+ * 按样式段测量字符宽高
+ * 1.同一StyleText的连续字符只设置一次画笔，不再逐字符复制画笔和应用样式
+ * 2.字宽按字体(大小、字型、缩放、粗体)缓存：非ASCII字符共用“测”的宽度，ASCII字符查表
+ * 3.测量规则与{@link Util#measureText}一致，替换字符(图片等)仍交给它处理
+ * 4.每个线程一个实例，不需要加锁
+ * 5.不在StyleText上记录字宽，解析结果可以在不同字号下重复排版
+ */
+final class RunMeasurer {
+	private static final String DEFAULT_CN_CHAR = "测";
+	private static final int MAX_FONT_SIZE = 8;
+
+	private static final ThreadLocal<RunMeasurer> sMeasurer = new ThreadLocal<RunMeasurer>(){
+		@Override
+		protected RunMeasurer initialValue() {
+			return new RunMeasurer();
+		}
+	};
+
+	private final TextPaint mPaint;
+	private final TextPaint mReplacementPaint;
+	private final char[] mChar;
+	private final FontWidths[] mFonts;
+	private int mFontSize;
+	private int mNextFont;
+
+	private TextPaint mSourcePaint;
+	private StyleText mRunStyleText;
+	private FontWidths mRunFont;
+
+	private RunMeasurer(){
+		mPaint = new TextPaint();
+		mReplacementPaint = new TextPaint();
+		mChar = new char[1];
+		mFonts = new FontWidths[MAX_FONT_SIZE];
+	}
+
+	static RunMeasurer get(){
+		return sMeasurer.get();
+	}
+
+	/**
+	 * 开始一次测量，画笔可能已经修改过，清除上一个样式段
+	 */
+	void begin(TextPaint sourcePaint){
+		mSourcePaint = sourcePaint;
+		mRunStyleText = null;
+		mRunFont = null;
+	}
+
+	/**
+	 * 测量index位置字符的宽高
+	 * @param styleText 字符所在的StyleText
+	 */
+	Rect measure(StyleText styleText,int index,int maxW,int maxH,Rect container){
+		char c = styleText.charAt(index);
+		if(c == Constant.REPLACEMENT_SPAN_CHAR){
+			mReplacementPaint.set(mSourcePaint);
+			Util.measureText(styleText, mReplacementPaint, index, maxW, maxH, container);
+			return container;
+		}
+		if(styleText != mRunStyleText){
+			startRun(styleText);
+		}
+		if(c <= 127){
+			container.set(0, 0, c == '\n' ? 0 : mRunFont.getAsciiWidth(c), mRunFont.mHeight);
+		}else{
+			container.set(0, 0, mRunFont.mCNWidth, mRunFont.mHeight);
+		}
+		return container;
+	}
+
+	private void startRun(StyleText styleText){
+		mRunStyleText = styleText;
+		mPaint.set(mSourcePaint);
+		CharacterStyle[] characterStyles = styleText.getTotalSpans();
+		for(CharacterStyle characterStyle : characterStyles){
+			if(characterStyle instanceof MetricAffectingSpan){
+				((MetricAffectingSpan) characterStyle).updateMeasureState(mPaint);
+			}
+		}
+		mRunFont = findFont(mPaint);
+	}
+
+	private FontWidths findFont(TextPaint paint){
+		float textSize = paint.getTextSize();
+		Typeface typeface = paint.getTypeface();
+		float textScaleX = paint.getTextScaleX();
+		boolean isFakeBold = paint.isFakeBoldText();
+		for(int i = 0;i < mFontSize;i++){
+			FontWidths font = mFonts[i];
+			if(font.mTextSize == textSize && font.mTypeface == typeface
+					&& font.mTextScaleX == textScaleX && font.isFakeBold == isFakeBold){
+				return font;
+			}
+		}
+		FontWidths font = new FontWidths(paint);
+		if(mFontSize < MAX_FONT_SIZE){
+			mFonts[mFontSize++] = font;
+		}else{
+			mFonts[mNextFont] = font;
+			mNextFont = (mNextFont + 1) % MAX_FONT_SIZE;
+		}
+		return font;
+	}
+
+	/**
+	 * 一种字体下的字宽
+	 */
+	private final class FontWidths{
+		private final float mTextSize;
+		private final Typeface mTypeface;
+		private final float mTextScaleX;
+		private final boolean isFakeBold;
+		private final int mCNWidth;
+		private final int mHeight;
+		/** ASCII字宽，-1表示未测量*/
+		private final short[] mAsciiWidths;
+		/** 测量ASCII用的画笔，和样式段画笔分开，样式段切换时不受影响*/
+		private final TextPaint mFontPaint;
+
+		private FontWidths(TextPaint paint){
+			mTextSize = paint.getTextSize();
+			mTypeface = paint.getTypeface();
+			mTextScaleX = paint.getTextScaleX();
+			isFakeBold = paint.isFakeBoldText();
+			mFontPaint = new TextPaint(paint);
+			mCNWidth = (short) paint.measureText(DEFAULT_CN_CHAR);
+			mHeight = (short) paint.getFontSpacing();
+			mAsciiWidths = new short[128];
+			for(int i = 0;i < mAsciiWidths.length;i++){
+				mAsciiWidths[i] = -1;
+			}
+		}
+
+		private int getAsciiWidth(char c){
+			short width = mAsciiWidths[c];
+			if(width < 0){
+				mChar[0] = c;
+				width = (short) mFontPaint.measureText(mChar, 0, 1);
+				mAsciiWidths[c] = width;
+			}
+			return width;
+		}
+	}
+}
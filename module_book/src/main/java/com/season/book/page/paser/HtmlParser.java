@@ -1,5 +1,6 @@
 package com.season.book.page.paser;
 
+import java.io.Reader;
 import java.io.StringReader;
 import javax.xml.parsers.SAXParserFactory;
 import org.xml.sax.InputSource;
@@ -8,6 +9,7 @@ import org.xml.sax.XMLReader;
 import com.season.book.page.paser.html.DataProvider;
 import com.season.book.page.paser.html.ICssProvider;
 import com.season.book.page.paser.html.SurfingHtmlToSpannedConverter;
+import com.season.book.page.paser.html.XhtmlReader;
 import com.season.book.page.paser.html.tag.SizeInfo;
 import com.season.book.page.StyleText;
 import com.season.book.page.PageManager;
@@ -19,18 +21,32 @@ import com.season.book.page.PageManager;
 public class HtmlParser {
 
 	public static final String TAG = HtmlParser.class.getSimpleName();
+	/** 使用系统的SAX解析器，默认使用{@link XhtmlReader}*/
+	private static final boolean USE_SAX_PARSER = false;
 	private SurfingHtmlToSpannedConverter mConverter;
+	private SizeInfo mSizeInfo;
 
 	public HtmlParser(ICssProvider cssProvider, DataProvider imageGetter, PageManager.TaskListener task
 			, SizeInfo sizeInfo) {
-		XMLReader parser = null;
+		XMLReader parser = createReader();
+		mSizeInfo = sizeInfo.copy();
+		mConverter = new SurfingHtmlToSpannedConverter(cssProvider, imageGetter, parser, task,mSizeInfo);
+	}
+	
+	/**
+	 * 章节解析器，阅读和搜索提取文字共用，保证两边的文字位置一致
+	 */
+	public static XMLReader createReader(){
+		if(!USE_SAX_PARSER){
+			return new XhtmlReader();
+		}
 		try {
 			//tagsoup 的解析方式
 //			parser = new Parser();
 //			parser.setProperty(Parser.schemaProperty,new HTMLSchema());
 			//原始的SAX解析方式 
 			SAXParserFactory factory = SAXParserFactory.newInstance();
-			parser = factory.newSAXParser().getXMLReader();
+			return factory.newSAXParser().getXMLReader();
 		} catch (org.xml.sax.SAXNotRecognizedException e) {
 			// Should not happen.
 			throw new RuntimeException(e);
@@ -39,17 +55,52 @@ public class HtmlParser {
 			throw new RuntimeException(e);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
-		}		
-		mConverter = new SurfingHtmlToSpannedConverter(cssProvider, imageGetter, parser, task,sizeInfo);
+		}
 	}
 	
 	public StyleText getStyleText(){
 		return mConverter.getStyleText();
 	}
 
+	/**
+	 * 本次解析使用的尺寸，{@link SizeInfo#isUsed()}为false时解析结果和字号、页宽无关
+	 */
+	public SizeInfo getSizeInfo(){
+		return mSizeInfo;
+	}
+
 	
 	public final void start(String source) throws RuntimeException{
 		mConverter.convert(new InputSource(new StringReader(source)));
 	}
 
+	/**
+	 * HTML数据流，边读取边解析
+	 */
+	public final void start(Reader source) throws RuntimeException{
+		mConverter.convert(new InputSource(source));
+	}
+
+	/**
+	 * 纯文本内容，按行分段，不经过HTML解析
+	 */
+	public final void startPlainText(Reader source) throws RuntimeException{
+		mConverter.convertPlainText(source);
+	}
+
+	/**
+	 * 纯文本内容，只开始解析，之后调用{@link #parsePlainTextBlock()}逐块解析，
+	 * 用于在排版线程上边解析边排版
+	 */
+	public final void beginPlainText(Reader source) throws RuntimeException{
+		mConverter.startPlainText(source);
+	}
+
+	/**
+	 * @return 还有数据返回true
+	 */
+	public final boolean parsePlainTextBlock() throws RuntimeException{
+		return mConverter.parsePlainTextBlock();
+	}
+
 }
\ No newline at end of file
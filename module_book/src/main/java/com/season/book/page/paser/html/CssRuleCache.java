@@ -0,0 +1,245 @@
+package com.season.book.page.paser.html;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.season.book.page.paser.html.css.CSSParser;
+import com.season.book.page.paser.html.css.PropertyValue;
+import com.season.book.page.paser.html.css.Rule;
+import com.season.book.page.paser.html.css.Selector;
+import com.season.lib.BaseContext;
+
+/**
+ * 进程内共享的样式表解析缓存
+ * 1.按样式表内容的哈希查找，同一本书的章节、再次打开同一本书都不再重复解析
+ * 2.内存中按LRU保留，超过字符总数上限时淘汰最久未使用的
+ * 3.解析结果另存到缓存目录，进程重启后直接读取，文件格式变化时修改{@link #VERSION}
+ * 4.缓存的规则多个线程共享，不能修改
+ */
+public final class CssRuleCache {
+	private static final int MAGIC = 0x43535352;
+	private static final int VERSION = 1;
+	/** 内存缓存的样式表字符总数上限*/
+	private static final int MAX_CACHE_CHARS = 1024 * 1024;
+
+	private static final LinkedHashMap<String, Entry> sCache = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private static int sCacheChars;
+	private static boolean isDiskCacheEnable = true;
+
+	private static int sHitCount;
+	private static int sDiskHitCount;
+	private static int sParseCount;
+
+	private static final class Entry{
+		private final List<Rule> mRules;
+		private final int mLength;
+
+		private Entry(List<Rule> rules, int length){
+			mRules = rules;
+			mLength = length;
+		}
+	}
+
+	private CssRuleCache(){
+	}
+
+	/**
+	 * 是否把解析结果保存到缓存目录，默认保存
+	 */
+	public static synchronized void setDiskCacheEnable(boolean enable){
+		isDiskCacheEnable = enable;
+	}
+
+	/**
+	 * 样式表内容的哈希，用作缓存的key
+	 */
+	public static String getKey(String css){
+		//64位FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0;i < css.length();i++){
+			hash ^= css.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return Long.toHexString(hash) + "_" + Integer.toHexString(css.length());
+	}
+
+	/**
+	 * 获取样式表的规则，没有缓存时解析并缓存，在子线程调用
+	 * @param css 样式表内容
+	 * @return 不可修改的列表，格式错误时返回空列表
+	 */
+	public static List<Rule> getRules(String css){
+		if(css == null){
+			return Collections.emptyList();
+		}
+		return getRules(getKey(css), css);
+	}
+
+	/**
+	 * @param key {@link #getKey(String)}
+	 */
+	public static List<Rule> getRules(String key, String css){
+		synchronized (CssRuleCache.class) {
+			Entry entry = sCache.get(key);
+			if(entry != null){
+				sHitCount++;
+				return entry.mRules;
+			}
+		}
+		boolean isDiskCache;
+		synchronized (CssRuleCache.class) {
+			isDiskCache = isDiskCacheEnable;
+		}
+		List<Rule> rules = isDiskCache ? read(key) : null;
+		if(rules != null){
+			synchronized (CssRuleCache.class) {
+				sDiskHitCount++;
+			}
+		}else{
+			rules = parse(css);
+			synchronized (CssRuleCache.class) {
+				sParseCount++;
+			}
+			if(isDiskCache){
+				save(key, rules);
+			}
+		}
+		rules = Collections.unmodifiableList(rules);
+		put(key, new Entry(rules, css.length()));
+		return rules;
+	}
+
+	public static synchronized void clear(){
+		sCache.clear();
+		sCacheChars = 0;
+	}
+
+	public static synchronized String getMetrics(){
+		StringBuilder builder = new StringBuilder();
+		builder.append("hit:").append(sHitCount)
+				.append(" disk:").append(sDiskHitCount)
+				.append(" parse:").append(sParseCount)
+				.append(" sheets:").append(sCache.size())
+				.append(" chars:").append(sCacheChars);
+		return builder.toString();
+	}
+
+	private static List<Rule> parse(String css){
+		try {
+			List<Rule> rules = CSSParser.parse(css);
+			if(rules != null){
+				return rules;
+			}
+		} catch (Exception e) {
+		}
+		return new ArrayList<Rule>(0);
+	}
+
+	private static synchronized void put(String key, Entry entry){
+		Entry oldEntry = sCache.put(key, entry);
+		if(oldEntry != null){
+			sCacheChars -= oldEntry.mLength;
+		}
+		sCacheChars += entry.mLength;
+		Iterator<Map.Entry<String, Entry>> iterator = sCache.entrySet().iterator();
+		while(sCacheChars > MAX_CACHE_CHARS && sCache.size() > 1 && iterator.hasNext()){
+			sCacheChars -= iterator.next().getValue().mLength;
+			iterator.remove();
+		}
+	}
+
+	private static File getSaveFile(String key){
+		return new File(BaseContext.getInstance().getCacheDir() + "/css/" + key + ".rules");
+	}
+
+	/**
+	 * @return 没有缓存或文件损坏返回NULL
+	 */
+	private static List<Rule> read(String key){
+		File saveFile = null;
+		try {
+			saveFile = getSaveFile(key);
+			if(!saveFile.isFile()){
+				return null;
+			}
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(saveFile)));
+			try {
+				if(in.readInt() != MAGIC || in.readInt() != VERSION){
+					return null;
+				}
+				int ruleCount = in.readInt();
+				List<Rule> rules = new ArrayList<Rule>(ruleCount);
+				for(int i = 0;i < ruleCount;i++){
+					Rule rule = new Rule();
+					int selectorCount = in.readInt();
+					for(int j = 0;j < selectorCount;j++){
+						rule.addSelector(new Selector(in.readUTF(), rule));
+					}
+					int valueCount = in.readInt();
+					for(int j = 0;j < valueCount;j++){
+						rule.addPropertyValue(new PropertyValue(in.readUTF(), in.readUTF()));
+					}
+					rules.add(rule);
+				}
+				return rules;
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			if(saveFile != null){
+				saveFile.delete();
+			}
+			return null;
+		}
+	}
+
+	private static void save(String key, List<Rule> rules){
+		File tempFile = null;
+		try {
+			File saveFile = getSaveFile(key);
+			saveFile.getParentFile().mkdirs();
+			tempFile = new File(saveFile.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(rules.size());
+				for(Rule rule : rules){
+					List<Selector> selectors = rule.getSelectors();
+					out.writeInt(selectors.size());
+					for(Selector selector : selectors){
+						out.writeUTF(selector.getName());
+					}
+					List<PropertyValue> propertyValues = rule.getPropertyValues();
+					out.writeInt(propertyValues.size());
+					for(PropertyValue propertyValue : propertyValues){
+						out.writeUTF(propertyValue.getProperty());
+						out.writeUTF(propertyValue.getValue());
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if(!tempFile.renameTo(saveFile)){
+				saveFile.delete();
+				tempFile.renameTo(saveFile);
+			}
+		} catch (Exception e) {
+			//超过writeUTF长度限制(如data:URI)等情况只缓存在内存
+			if(tempFile != null){
+				tempFile.delete();
+			}
+		}
+	}
+}
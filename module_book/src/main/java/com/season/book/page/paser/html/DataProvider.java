@@ -34,4 +34,9 @@ public interface DataProvider {
 	InputStream getDataStream(String source) throws IOException;
 	
 	boolean hasData(String source);
+	/**
+	 * 书籍的缓存标识，用于保存图片尺寸等解析结果
+	 * @return NULL表示不保存到缓存目录
+	 */
+	String getCacheKey();
 }
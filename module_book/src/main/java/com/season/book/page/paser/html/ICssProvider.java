@@ -22,4 +22,9 @@ public interface ICssProvider {
 	 * @return 
 	 */
 	public List<PropertyValue> getClassInfo(List<TagInfo> tagInfos);
+	/**
+	 * 创建一个独立的提供者，并发解析的线程各用一个，互不替换对方的样式
+	 * @return 
+	 */
+	public ICssProvider copy();
 }
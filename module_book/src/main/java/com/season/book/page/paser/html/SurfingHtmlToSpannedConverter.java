@@ -1,6 +1,7 @@
 package com.season.book.page.paser.html;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -11,6 +12,7 @@ import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
 
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
@@ -26,6 +28,7 @@ import android.text.style.TextAppearanceSpan;
 import android.text.style.TypefaceSpan;
 import android.text.style.UnderlineSpan;
 
+import com.season.book.page.paser.html.css.CssProperty;
 import com.season.book.page.paser.html.css.PropertyValue;
 import com.season.book.page.paser.html.tag.SizeInfo;
 import com.season.book.page.paser.html.tag.TagHandler;
@@ -66,6 +69,13 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 	private TagHandler mTagHandler;
 	private boolean isScript;
 	private SizeInfo mSizeInfo;
+	/** 纯文本每次读取的字符数*/
+	private static final int PLAIN_TEXT_BLOCK_SIZE = 8 * 1024;
+	/** 分块解析中的纯文本，解析结束后为NULL*/
+	private Reader mPlainTextSource;
+	private char[] mPlainTextBuffer;
+	private Attributes mPlainTextAttributes;
+	private boolean isLastCR;
 	public SurfingHtmlToSpannedConverter(ICssProvider cssProvider,DataProvider imageGetter
 			, XMLReader parser,TaskListener task,SizeInfo sizeInfo) {
 		mRootStyleText = StyleText.createRoot();
@@ -89,6 +99,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 	public void convert(InputSource source) throws RuntimeException{
 		long startTime = System.currentTimeMillis();
 		mSpannableStringBuilder.clear();
+		mRootStyleText.clearIntervalo();
 		mReader.setContentHandler(this);
 		Exception e = null;
 		try {
@@ -108,6 +119,80 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 		}
 	}
 	
+	/**
+	 * 纯文本直接转换，不生成HTML：每行作为一个p标签，按块读取并追加
+	 * 换行规则与{@link com.season.book.plugin.PluginManager#getFixHtml(String)}一致
+	 */
+	public void convertPlainText(Reader source) throws RuntimeException{
+		startPlainText(source);
+		while(parsePlainTextBlock()){
+		}
+	}
+
+	/**
+	 * 开始分块解析纯文本，之后由排版线程调用{@link #parsePlainTextBlock()}，边解析边排版
+	 */
+	public void startPlainText(Reader source) throws RuntimeException{
+		mSpannableStringBuilder.clear();
+		mRootStyleText.clearIntervalo();
+		mPlainTextSource = source;
+		mPlainTextBuffer = new char[PLAIN_TEXT_BLOCK_SIZE];
+		mPlainTextAttributes = new AttributesImpl();
+		isLastCR = false;
+		try {
+			startElement("", "html", "html", mPlainTextAttributes);
+			startElement("", "body", "body", mPlainTextAttributes);
+			startElement("", "p", "p", mPlainTextAttributes);
+		} catch (SAXException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * 读取并追加下一块纯文本，读完时结束全部标签
+	 * @return 还有数据返回true；读完或任务已停止返回false
+	 */
+	public boolean parsePlainTextBlock() throws RuntimeException{
+		if(mPlainTextSource == null){
+			return false;
+		}
+		char[] buffer = mPlainTextBuffer;
+		try {
+			int count = mPlainTextSource.read(buffer, 0, buffer.length);
+			if(count == -1){
+				mPlainTextSource = null;
+				mPlainTextBuffer = null;
+				endElement("", "p", "p");
+				endElement("", "body", "body");
+				endElement("", "html", "html");
+				return false;
+			}
+			int start = 0;
+			for (int i = 0; i < count; i++) {
+				char c = buffer[i];
+				if(c == '\r' || (c == '\n' && !isLastCR)){
+					characters(buffer, start, i - start);
+					endElement("", "p", "p");
+					startElement("", "p", "p", mPlainTextAttributes);
+					start = i + 1;
+				}
+				isLastCR = c == '\r';
+			}
+			characters(buffer, start, count - start);
+		} catch (IOException e) {
+			mPlainTextSource = null;
+			throw new RuntimeException(e);
+		} catch (SAXException e) {
+			mPlainTextSource = null;
+			throw new RuntimeException(e);
+		}
+		if(mTask.isStop()){
+			mPlainTextSource = null;
+			return false;
+		}
+		return true;
+	}
+
 	private boolean handleStartTag(TagInfo tagInfo) {
 		String tag = tagInfo.getTag();
 		int start = mSpannableStringBuilder.length();
@@ -181,11 +266,11 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 		handlerInlineCss(tagInfo);
 		for(int i = 0;i < tagInfo.mClassInfos.size();i++){
 			PropertyValue propertyValue = tagInfo.mClassInfos.get(i);
-			String tag = propertyValue.getProperty();
-			if(TextUtils.isEmpty(tag)){
+			int propertyId = propertyValue.getPropertyId();
+			if(propertyId == CssProperty.UNKNOWN){
 				continue;
 			}
-			CssHandler cssHandler = mCssHandlerMap.get(tag);
+			CssHandler cssHandler = CSS_HANDLERS[propertyId];
 			if(cssHandler != null){
 				cssHandler.handle(tagInfo, propertyValue);
 			}
@@ -472,60 +557,9 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 		TagInfo lastTagInfo = getLastTagInfo(mReadTagInfos);
 		mCharContainer.setLength(0);
 //		boolean isBody = "body".equals(lastTagInfo.getTag());
-		int noteStar = -1;
-		char noteChar = '$';
-		int index = 0;
-		int strLength = start + length;
-		for (int i = 0; i < length; i++) {
-			index = i + start;
-			char c = ch[index];
-			if(i != noteStar){
-				if(c == '/'){
-					if(index + 3 < strLength && ch[++index] == '*'){
-						noteChar = c;
-						noteStar = i;
-						continue;
-					}else if(index + 1 < strLength && ch[++index] == '/'){
-						noteChar = '@';
-						continue;
-					}
-				}else if(c == '<'){
-					if(index + 6 < strLength 
-							&& ch[++index] == '!'
-							&& ch[++index] == '-'
-							&& ch[++index] == '-'){
-						noteChar = c;
-						noteStar = i;
-						continue;
-					}
-				}
-			}
-			if(noteChar != '$'){
-				if(noteChar == '/'){
-					if(c == '*' && ++index < strLength && ch[index] == '/'){
-						noteChar = '$';
-						i++;
-					}else if(i == length - 1){
-						i = noteStar - 1;
-						noteChar = '$';
-					}
-				}else if(noteChar == '<'){
-					if(c == '-' && index + 2 < strLength 
-							&& ch[++index] == '-'
-							&& ch[++index] == '>'){
-						noteChar = '$';
-						i += 2;
-					}else if(i == length - 1){
-						i = noteStar - 1;
-						noteChar = '$';
-					}
-				}else if(noteChar == '@'){
-					if(c == '\n' || c == '\r'){
-						noteChar = '$';
-					}
-				}
-				continue;
-			}
+		//注释由XMLReader跳过，这里不再查找"/*"、"//"、"<!--"，否则正文中的"http://"之后会被丢掉
+		for (int i = start; i < start + length; i++) {
+			char c = ch[i];
 			if (c == ' ' ||c == '\n'  || c == '\t') {
 //				if(!isBody && c == ' '){
 //					char pred;
@@ -575,10 +609,15 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 	public void skippedEntity(String name) throws SAXException {
 	}
 	
-	private static HashMap<String,CssHandler> mCssHandlerMap = new HashMap<String, CssHandler>();
+	/** 按{@link CssProperty}编号存放的处理方法*/
+	private static final CssHandler[] CSS_HANDLERS = new CssHandler[CssProperty.COUNT];
+
+	private static void putCss(int propertyId, CssHandler cssHandler){
+		CSS_HANDLERS[propertyId] = cssHandler;
+	}
 	
 	static{
-		mCssHandlerMap.put("color", new CssHandler() {
+		putCss(CssProperty.COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				CharacterStyle span = handleColor(propertyValue.getValue());
@@ -587,7 +626,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("font-weight", new CssHandler() {
+		putCss(CssProperty.FONT_WEIGHT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				CharacterStyle span = null;
@@ -599,7 +638,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("font-style", new CssHandler() {
+		putCss(CssProperty.FONT_STYLE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				CharacterStyle span = null;
@@ -611,7 +650,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("float", new CssHandler() {
+		putCss(CssProperty.FLOAT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				CharacterStyle span = null;
@@ -626,7 +665,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("background", new CssHandler() {
+		putCss(CssProperty.BACKGROUND, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				boolean isParagraph = tagInfo.mTag.equals("body") || tagInfo.mTag.equals("div") || tagInfo.mTag.equals("p") || tagInfo.mTag.indexOf("h") != -1;
@@ -684,7 +723,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("background-size", new CssHandler() {
+		putCss(CssProperty.BACKGROUND_SIZE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				if(!tagInfo.mTag.equals("body") && !tagInfo.mTag.equals("div") && !tagInfo.mTag.equals("p") && tagInfo.mTag.indexOf("h") == -1){
@@ -709,7 +748,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("background-color.xml", new CssHandler() {
+		putCss(CssProperty.BACKGROUND_COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer c = Util.parseHtmlColor(propertyValue.getValue());
@@ -724,7 +763,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("margin", new CssHandler() {
+		putCss(CssProperty.MARGIN, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -791,7 +830,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("margin-left", new CssHandler() {
+		putCss(CssProperty.MARGIN_LEFT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -800,7 +839,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("margin-right", new CssHandler() {
+		putCss(CssProperty.MARGIN_RIGHT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -809,7 +848,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("margin-top", new CssHandler() {
+		putCss(CssProperty.MARGIN_TOP, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -818,7 +857,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("margin-bottom", new CssHandler() {
+		putCss(CssProperty.MARGIN_BOTTOM, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -827,7 +866,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("padding", new CssHandler() {
+		putCss(CssProperty.PADDING, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -894,7 +933,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("padding-left", new CssHandler() {
+		putCss(CssProperty.PADDING_LEFT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -903,7 +942,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("padding-right", new CssHandler() {
+		putCss(CssProperty.PADDING_RIGHT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -912,7 +951,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("padding-top", new CssHandler() {
+		putCss(CssProperty.PADDING_TOP, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -921,7 +960,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("padding-bottom", new CssHandler() {
+		putCss(CssProperty.PADDING_BOTTOM, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Integer size = tagInfo.handleSize(propertyValue.getValue());
@@ -931,7 +970,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border", new CssHandler() {
+		putCss(CssProperty.BORDER, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -967,7 +1006,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-top", new CssHandler() {
+		putCss(CssProperty.BORDER_TOP, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -1007,7 +1046,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-right", new CssHandler() {
+		putCss(CssProperty.BORDER_RIGHT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -1046,7 +1085,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("border-bottom", new CssHandler() {
+		putCss(CssProperty.BORDER_BOTTOM, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -1086,7 +1125,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-left", new CssHandler() {
+		putCss(CssProperty.BORDER_LEFT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -1126,7 +1165,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-style", new CssHandler() {
+		putCss(CssProperty.BORDER_STYLE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				String[] values = propertyValue.getValue().split(" ");
@@ -1148,7 +1187,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-top-style", new CssHandler() {
+		putCss(CssProperty.BORDER_TOP_STYLE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1160,7 +1199,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-right-style", new CssHandler() {
+		putCss(CssProperty.BORDER_RIGHT_STYLE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1172,7 +1211,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-bottom-style", new CssHandler() {
+		putCss(CssProperty.BORDER_BOTTOM_STYLE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1184,7 +1223,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-left-style", new CssHandler() {
+		putCss(CssProperty.BORDER_LEFT_STYLE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1196,7 +1235,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-width", new CssHandler() {
+		putCss(CssProperty.BORDER_WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1266,7 +1305,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("border-top-width", new CssHandler() {
+		putCss(CssProperty.BORDER_TOP_WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1279,7 +1318,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("border-right-width", new CssHandler() {
+		putCss(CssProperty.BORDER_RIGHT_WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1292,7 +1331,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("border-bottom-width", new CssHandler() {
+		putCss(CssProperty.BORDER_BOTTOM_WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1305,7 +1344,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("border-left-width", new CssHandler() {
+		putCss(CssProperty.BORDER_LEFT_WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1319,7 +1358,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-color.xml", new CssHandler() {
+		putCss(CssProperty.BORDER_COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1343,7 +1382,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-top-color.xml", new CssHandler() {
+		putCss(CssProperty.BORDER_TOP_COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1354,7 +1393,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-right-color.xml", new CssHandler() {
+		putCss(CssProperty.BORDER_RIGHT_COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1365,7 +1404,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-bottom-color.xml", new CssHandler() {
+		putCss(CssProperty.BORDER_BOTTOM_COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1376,7 +1415,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("border-left-color.xml", new CssHandler() {
+		putCss(CssProperty.BORDER_LEFT_COLOR, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				Border border = tagInfo.mStyleText.getBorder();
@@ -1387,7 +1426,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 			}
 		});
 		
-		mCssHandlerMap.put("font-size", new CssHandler() {
+		putCss(CssProperty.FONT_SIZE, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				CharacterStyle span = handleFontSize(propertyValue.getValue());
@@ -1396,7 +1435,7 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("text-align", new CssHandler() {
+		putCss(CssProperty.TEXT_ALIGN, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				CharacterStyle span = null;
@@ -1412,25 +1451,25 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 				}
 			}
 		});
-		mCssHandlerMap.put("width", new CssHandler() {
+		putCss(CssProperty.WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				tagInfo.mWidthValue = propertyValue.getValue();
 			}
 		});
-		mCssHandlerMap.put("height", new CssHandler() {
+		putCss(CssProperty.HEIGHT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				tagInfo.mHeightValue = propertyValue.getValue();
 			}
 		});
-		mCssHandlerMap.put("max-width", new CssHandler() {
+		putCss(CssProperty.MAX_WIDTH, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				tagInfo.mWidthValue = propertyValue.getValue();
 			}
 		});
-		mCssHandlerMap.put("max-height", new CssHandler() {
+		putCss(CssProperty.MAX_HEIGHT, new CssHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, PropertyValue propertyValue) {
 				tagInfo.mHeightValue = propertyValue.getValue();
@@ -1504,8 +1543,8 @@ public class SurfingHtmlToSpannedConverter implements ContentHandler {
 		mHtmlHandlerMap.put("blockquote", new HtmlHandler() {
 			@Override
 			public void handle(TagInfo tagInfo, SurfingHtmlToSpannedConverter converter) {
-				tagInfo.mStyleText.setMarginLeft(tagInfo.mSizeInfo.mEmUnit * 2);
-				tagInfo.mStyleText.setMarginRight(tagInfo.mSizeInfo.mEmUnit * 2);
+				tagInfo.mStyleText.setMarginLeft(tagInfo.mSizeInfo.getEmUnit() * 2);
+				tagInfo.mStyleText.setMarginRight(tagInfo.mSizeInfo.getEmUnit() * 2);
 				start(tagInfo,converter.mSpannableStringBuilder,new BlockquoteSpan());
 			}
 		});
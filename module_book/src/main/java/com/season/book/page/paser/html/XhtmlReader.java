@@ -0,0 +1,1010 @@
+package com.season.book.page.paser.html;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * 章节XHTML的流式解析，实现XMLReader，可直接替换SAX解析器驱动{@link SurfingHtmlToSpannedConverter}
+ * 1.在char[]窗口上扫描，没有实体和回车的文字直接按窗口区间回调characters，不复制
+ * 2.标签名、属性名经名字表转换成整数编号和固定的String，同一个名字只创建一次
+ * 3.每层元素复用一个属性对象，属性值读取时才创建String
+ * 4.注释、DOCTYPE、处理指令跳过，CDATA按文字回调；XML实体和常用HTML命名实体直接转换，未知实体忽略
+ * 5.容错：br、img等空元素不需要结束标签；结束标签不匹配时关闭到匹配的元素，没有匹配的忽略；文档结束时关闭全部元素
+ * 6.script、style的内容按原文读取到结束标签
+ * 7.不处理命名空间，localName和qName相同
+ */
+public class XhtmlReader implements XMLReader {
+	private static final int BUFFER_SIZE = 4 * 1024;
+	/** 实体的最大长度，超过时按普通文字处理*/
+	private static final int MAX_ENTITY_LENGTH = 32;
+	private static final String FEATURE_NAMESPACES = "http://xml.org/sax/features/namespaces";
+	private static final String FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+
+	private static final int FLAG_VOID = 1;
+	private static final int FLAG_RAW_TEXT = 2;
+	private static final String[] VOID_ELEMENTS = {"br", "img", "hr", "meta", "link", "input", "col",
+		"area", "base", "param", "source", "wbr", "embed", "track"};
+	private static final String[] RAW_TEXT_ELEMENTS = {"script", "style"};
+	/** 预先放入名字表的常用名字*/
+	private static final String[] COMMON_NAMES = {"html", "head", "title", "body", "p", "div", "span", "a",
+		"b", "i", "u", "em", "strong", "small", "big", "sup", "sub", "font", "cite", "dfn", "tt", "blockquote",
+		"h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "li", "table", "tbody", "tr", "td", "th", "pre", "code",
+		"center", "section", "figure", "figcaption", "svg", "image", "audio", "video",
+		"class", "id", "style", "href", "src", "alt", "type", "rel", "width", "height", "xmlns", "xml:lang",
+		"lang", "dir", "name", "content", "charset", "http-equiv", "epub:type", "xmlns:epub", "xlink:href",
+		"imgs", "qp", "cli", "data-scale", "color", "face"};
+
+	private static final HashMap<String, String> HTML_ENTITIES = new HashMap<String, String>();
+
+	static{
+		String[] entities = {"nbsp", "\u00A0", "ensp", "\u2002", "emsp", "\u2003", "thinsp", "\u2009",
+			"zwnj", "\u200C", "zwj", "\u200D", "lrm", "\u200E", "rlm", "\u200F", "shy", "\u00AD",
+			"mdash", "—", "ndash", "–", "hellip", "…", "middot", "·", "bull", "•",
+			"ldquo", "“", "rdquo", "”", "lsquo", "‘", "rsquo", "’", "sbquo", "‚",
+			"bdquo", "„", "laquo", "«", "raquo", "»", "lsaquo", "‹", "rsaquo", "›",
+			"prime", "′", "Prime", "″", "dagger", "†", "Dagger", "‡", "permil", "‰",
+			"copy", "©", "reg", "®", "trade", "™", "deg", "°", "plusmn", "±",
+			"times", "×", "divide", "÷", "micro", "µ", "para", "¶", "sect", "§",
+			"cent", "¢", "pound", "£", "yen", "¥", "euro", "€", "curren", "¤",
+			"iexcl", "¡", "iquest", "¿", "not", "¬", "macr", "¯", "acute", "´",
+			"uml", "¨", "cedil", "¸", "ordf", "ª", "ordm", "º", "oline", "‾",
+			"sup1", "¹", "sup2", "²", "sup3", "³", "frac14", "¼", "frac12", "½",
+			"frac34", "¾", "larr", "←", "uarr", "↑", "rarr", "→", "darr", "↓",
+			"harr", "↔", "le", "≤", "ge", "≥", "ne", "≠", "asymp", "≈",
+			"infin", "∞", "minus", "−", "hearts", "♥", "loz", "◊"};
+		for (int i = 0; i < entities.length; i += 2) {
+			HTML_ENTITIES.put(entities[i], entities[i + 1]);
+		}
+	}
+
+	/** 常用名字只建立一次，每次解析复制编号表，名字String共用*/
+	private static final NameTable COMMON_NAME_TABLE = new NameTable();
+
+	static{
+		for (String name : COMMON_NAMES) {
+			COMMON_NAME_TABLE.add(name);
+		}
+		for (String name : VOID_ELEMENTS) {
+			COMMON_NAME_TABLE.addFlag(COMMON_NAME_TABLE.add(name), FLAG_VOID);
+		}
+		for (String name : RAW_TEXT_ELEMENTS) {
+			COMMON_NAME_TABLE.addFlag(COMMON_NAME_TABLE.add(name), FLAG_RAW_TEXT);
+		}
+	}
+
+	private ContentHandler mContentHandler;
+	private DTDHandler mDTDHandler;
+	private EntityResolver mEntityResolver;
+	private ErrorHandler mErrorHandler;
+
+	private Reader mReader;
+	private char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPosition;
+	private int mLimit;
+	private boolean isEnd;
+	/** 实体转换后的文字和属性值*/
+	private char[] mTextBuffer = new char[256];
+
+	private NameTable mNames;
+	/** 打开的元素，按层复用属性对象*/
+	private int[] mStackIds = new int[32];
+	private XhtmlAttributes[] mStackAttributes = new XhtmlAttributes[32];
+	private int mDepth;
+
+	@Override
+	public void parse(InputSource input) throws IOException, SAXException {
+		Reader reader = input.getCharacterStream();
+		if (reader == null) {
+			InputStream stream = input.getByteStream();
+			if (stream == null) {
+				throw new SAXException("XhtmlReader only supports character or byte streams");
+			}
+			reader = createReader(stream, input.getEncoding());
+		}
+		mReader = reader;
+		mPosition = 0;
+		mLimit = 0;
+		isEnd = false;
+		mDepth = 0;
+		mNames = new NameTable(COMMON_NAME_TABLE);
+		try {
+			parseDocument(mContentHandler != null ? mContentHandler : new DefaultHandler());
+		} finally {
+			mReader = null;
+			for (int i = 0; i < mStackAttributes.length && mStackAttributes[i] != null; i++) {
+				mStackAttributes[i].clear();
+			}
+		}
+	}
+
+	@Override
+	public void parse(String systemId) throws IOException, SAXException {
+		throw new SAXNotSupportedException("XhtmlReader does not resolve system ids: " + systemId);
+	}
+
+	/**
+	 * 字节流按BOM或XML声明的编码读取，默认UTF-8
+	 */
+	private static Reader createReader(InputStream stream, String encoding) throws IOException {
+		if (encoding == null) {
+			BufferedInputStream input = new BufferedInputStream(stream);
+			byte[] head = new byte[128];
+			input.mark(head.length);
+			int count = 0;
+			int read;
+			while (count < head.length && (read = input.read(head, count, head.length - count)) != -1) {
+				count += read;
+			}
+			input.reset();
+			encoding = detectEncoding(head, count);
+			stream = input;
+		}
+		return new InputStreamReader(stream, encoding);
+	}
+
+	private static String detectEncoding(byte[] head, int count) {
+		if (count >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+			return "UTF-16BE";
+		}
+		if (count >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+			return "UTF-16LE";
+		}
+		String declaration = new String(head, 0, count, java.nio.charset.Charset.forName("ISO-8859-1"));
+		if (declaration.startsWith("<?xml")) {
+			int end = declaration.indexOf("?>");
+			int index = declaration.indexOf("encoding");
+			if (index != -1 && (end == -1 || index < end)) {
+				int start = index + 8;
+				while (start < declaration.length() && declaration.charAt(start) != '"' && declaration.charAt(start) != '\'') {
+					start++;
+				}
+				if (start < declaration.length()) {
+					int valueEnd = declaration.indexOf(declaration.charAt(start), start + 1);
+					if (valueEnd != -1) {
+						return declaration.substring(start + 1, valueEnd).trim();
+					}
+				}
+			}
+		}
+		return "UTF-8";
+	}
+
+	private void parseDocument(ContentHandler handler) throws IOException, SAXException {
+		handler.startDocument();
+		if (ensure(1) && mBuffer[mPosition] == '\uFEFF') {
+			mPosition++;
+		}
+		while (mPosition < mLimit || fill()) {
+			if (mBuffer[mPosition] == '<') {
+				if (!parseMarkup(handler)) {
+					break;
+				}
+			} else {
+				parseText(handler);
+			}
+		}
+		while (mDepth > 0) {
+			popElement(handler);
+		}
+		handler.endDocument();
+	}
+
+	// ------------------------------------------------------------ 缓冲
+
+	/**
+	 * 保留mPosition之后的数据并继续读取，缓冲已满时扩大
+	 * @return 已到文档结束返回false
+	 */
+	private boolean fill() throws IOException {
+		if (isEnd) {
+			return false;
+		}
+		if (mPosition > 0) {
+			System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+			mLimit -= mPosition;
+			mPosition = 0;
+		} else if (mLimit == mBuffer.length) {
+			mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+		}
+		int count = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+		if (count == -1) {
+			isEnd = true;
+			return false;
+		}
+		mLimit += count;
+		return true;
+	}
+
+	/**
+	 * 保证mPosition之后至少有count个字符
+	 */
+	private boolean ensure(int count) throws IOException {
+		while (mLimit - mPosition < count) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 从mPosition + offset开始查找字符串
+	 * @return 相对mPosition的位置，文档结束时返回-1
+	 */
+	private int find(String target, int offset) throws IOException {
+		char first = target.charAt(0);
+		int length = target.length();
+		while (true) {
+			int last = mLimit - length;
+			for (int i = mPosition + offset; i <= last; i++) {
+				if (mBuffer[i] == first && regionMatches(i, target, false)) {
+					return i - mPosition;
+				}
+			}
+			offset = Math.max(offset, mLimit - mPosition - length + 1);
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	private boolean regionMatches(int index, String target, boolean ignoreCase) {
+		for (int j = 0; j < target.length(); j++) {
+			char c = mBuffer[index + j];
+			char t = target.charAt(j);
+			if (c != t && !(ignoreCase && Character.toLowerCase(c) == Character.toLowerCase(t))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(String target) throws IOException {
+		return ensure(target.length()) && regionMatches(mPosition, target, false);
+	}
+
+	/**
+	 * 查找标签结束的'>'，跳过引号中的内容
+	 * @return 相对mPosition的位置，文档结束时返回-1
+	 */
+	private int findTagEnd(int offset) throws IOException {
+		char quote = 0;
+		while (true) {
+			for (int i = mPosition + offset; i < mLimit; i++) {
+				char c = mBuffer[i];
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>') {
+					return i - mPosition;
+				}
+			}
+			offset = mLimit - mPosition;
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+	}
+
+	private static boolean isNameStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || c > 0x7F;
+	}
+
+	// ------------------------------------------------------------ 标记
+
+	/**
+	 * mPosition处为'<'
+	 * @return 文档在标记中结束返回false
+	 */
+	private boolean parseMarkup(ContentHandler handler) throws IOException, SAXException {
+		if (!ensure(2)) {
+			emitText(handler, mPosition, mPosition + 1);
+			mPosition++;
+			return true;
+		}
+		char c = mBuffer[mPosition + 1];
+		if (c == '/') {
+			int end = findTagEnd(2);
+			if (end == -1) {
+				return false;
+			}
+			int start = mPosition + 2;
+			int nameEnd = start;
+			int tagEnd = mPosition + end;
+			while (nameEnd < tagEnd && !isWhitespace(mBuffer[nameEnd])) {
+				nameEnd++;
+			}
+			int id = mNames.lookup(mBuffer, start, nameEnd - start);
+			mPosition += end + 1;
+			closeElement(handler, id);
+		} else if (c == '!') {
+			if (startsWith("<!--")) {
+				int end = find("-->", 4);
+				if (end == -1) {
+					return false;
+				}
+				mPosition += end + 3;
+			} else if (startsWith("<![CDATA[")) {
+				int end = find("]]>", 9);
+				if (end == -1) {
+					return false;
+				}
+				emitText(handler, mPosition + 9, mPosition + end);
+				mPosition += end + 3;
+			} else {
+				int end = findDeclarationEnd();
+				if (end == -1) {
+					return false;
+				}
+				mPosition += end + 1;
+			}
+		} else if (c == '?') {
+			int end = find("?>", 2);
+			if (end == -1) {
+				return false;
+			}
+			mPosition += end + 2;
+		} else if (isNameStart(c)) {
+			int end = findTagEnd(1);
+			if (end == -1) {
+				return false;
+			}
+			parseStartTag(handler, end);
+		} else {
+			// 不是标记的'<'按文字处理
+			emitText(handler, mPosition, mPosition + 1);
+			mPosition++;
+		}
+		return true;
+	}
+
+	/**
+	 * DOCTYPE等声明，跳过内部子集[...]
+	 */
+	private int findDeclarationEnd() throws IOException {
+		int offset = 2;
+		int depth = 0;
+		char quote = 0;
+		while (true) {
+			for (int i = mPosition + offset; i < mLimit; i++) {
+				char c = mBuffer[i];
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '[') {
+					depth++;
+				} else if (c == ']') {
+					depth--;
+				} else if (c == '>' && depth <= 0) {
+					return i - mPosition;
+				}
+			}
+			offset = mLimit - mPosition;
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * 解析开始标签，标签已完整在缓冲中
+	 * @param end '>'相对mPosition的位置
+	 */
+	private void parseStartTag(ContentHandler handler, int end) throws IOException, SAXException {
+		char[] buffer = mBuffer;
+		int tagEnd = mPosition + end;
+		boolean isEmpty = false;
+		int last = tagEnd - 1;
+		while (last > mPosition && isWhitespace(buffer[last])) {
+			last--;
+		}
+		if (buffer[last] == '/') {
+			isEmpty = true;
+			tagEnd = last;
+		}
+		int index = mPosition + 1;
+		int nameStart = index;
+		while (index < tagEnd && !isWhitespace(buffer[index]) && buffer[index] != '/') {
+			index++;
+		}
+		int id = mNames.lookup(buffer, nameStart, index - nameStart);
+		XhtmlAttributes attributes = obtainAttributes(mDepth);
+		while (index < tagEnd) {
+			char c = buffer[index];
+			if (isWhitespace(c) || c == '/') {
+				index++;
+				continue;
+			}
+			int attrStart = index;
+			while (index < tagEnd && !isWhitespace(buffer[index]) && buffer[index] != '='
+					&& buffer[index] != '/') {
+				index++;
+			}
+			String name = mNames.getName(mNames.lookup(buffer, attrStart, index - attrStart));
+			while (index < tagEnd && isWhitespace(buffer[index])) {
+				index++;
+			}
+			if (index >= tagEnd || buffer[index] != '=') {
+				attributes.add(name, buffer, 0, 0);
+				continue;
+			}
+			index++;
+			while (index < tagEnd && isWhitespace(buffer[index])) {
+				index++;
+			}
+			int valueStart;
+			int valueEnd;
+			if (index < tagEnd && (buffer[index] == '"' || buffer[index] == '\'')) {
+				char quote = buffer[index];
+				valueStart = index + 1;
+				valueEnd = valueStart;
+				while (valueEnd < mPosition + end && buffer[valueEnd] != quote) {
+					valueEnd++;
+				}
+				index = valueEnd + 1;
+			} else {
+				valueStart = index;
+				while (index < tagEnd && !isWhitespace(buffer[index])) {
+					index++;
+				}
+				valueEnd = index;
+			}
+			if (needDecode(buffer, valueStart, valueEnd, true)) {
+				int length = decode(buffer, valueStart, valueEnd, true);
+				attributes.add(name, mTextBuffer, 0, length);
+			} else {
+				attributes.add(name, buffer, valueStart, valueEnd - valueStart);
+			}
+		}
+		mPosition += end + 1;
+		pushElement(id, attributes);
+		String name = mNames.getName(id);
+		handler.startElement("", name, name, attributes);
+		int flags = mNames.getFlags(id);
+		if (isEmpty || (flags & FLAG_VOID) != 0) {
+			popElement(handler);
+		} else if ((flags & FLAG_RAW_TEXT) != 0) {
+			parseRawText(handler, name);
+		}
+	}
+
+	/**
+	 * script、style的内容读取到结束标签为止
+	 */
+	private void parseRawText(ContentHandler handler, String name) throws IOException, SAXException {
+		int offset = 0;
+		while (true) {
+			int end = find("</", offset);
+			if (end == -1) {
+				emitText(handler, mPosition, mLimit);
+				mPosition = mLimit;
+				return;
+			}
+			if (ensure(end + 2 + name.length() + 1)) {
+				int nameStart = mPosition + end + 2;
+				char next = mBuffer[nameStart + name.length()];
+				if (regionMatches(nameStart, name, true) && (next == '>' || isWhitespace(next))) {
+					emitText(handler, mPosition, mPosition + end);
+					mPosition += end;
+					return;
+				}
+			}
+			offset = end + 2;
+		}
+	}
+
+	// ------------------------------------------------------------ 文字
+
+	/**
+	 * mPosition处不是'<'，读取到下一个'<'或缓冲结束
+	 */
+	private void parseText(ContentHandler handler) throws IOException, SAXException {
+		char[] buffer = mBuffer;
+		int start = mPosition;
+		int index = start;
+		int limit = mLimit;
+		while (index < limit && buffer[index] != '<') {
+			index++;
+		}
+		int end = index;
+		if (index == limit && !isEnd) {
+			// 文字被缓冲截断，末尾不完整的实体和回车留到下次
+			if (buffer[end - 1] == '\r') {
+				end--;
+			}
+			for (int i = end - 1; i >= start && i >= end - MAX_ENTITY_LENGTH; i--) {
+				if (buffer[i] == ';') {
+					break;
+				}
+				if (buffer[i] == '&') {
+					end = i;
+					break;
+				}
+			}
+			if (end == start) {
+				fill();
+				return;
+			}
+		}
+		mPosition = end;
+		emitText(handler, start, end);
+	}
+
+	private void emitText(ContentHandler handler, int start, int end) throws SAXException {
+		if (mDepth == 0 || start >= end) {
+			return;
+		}
+		if (needDecode(mBuffer, start, end, false)) {
+			int length = decode(mBuffer, start, end, false);
+			handler.characters(mTextBuffer, 0, length);
+		} else {
+			handler.characters(mBuffer, start, end - start);
+		}
+	}
+
+	private static boolean needDecode(char[] buffer, int start, int end, boolean isAttribute) {
+		for (int i = start; i < end; i++) {
+			char c = buffer[i];
+			if (c == '&' || c == '\r' || (isAttribute && (c == '\n' || c == '\t'))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 转换实体和换行，结果放在mTextBuffer
+	 * @param isAttribute 属性值中的换行、制表符转成空格
+	 * @return 转换后的长度
+	 */
+	private int decode(char[] buffer, int start, int end, boolean isAttribute) {
+		if (mTextBuffer.length < end - start) {
+			mTextBuffer = new char[Math.max(end - start, mTextBuffer.length * 2)];
+		}
+		char[] out = mTextBuffer;
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			char c = buffer[i];
+			if (c == '\r') {
+				if (i + 1 < end && buffer[i + 1] == '\n') {
+					i++;
+				}
+				out[length++] = isAttribute ? ' ' : '\n';
+			} else if (isAttribute && (c == '\n' || c == '\t')) {
+				out[length++] = ' ';
+			} else if (c == '&') {
+				int semicolon = -1;
+				for (int j = i + 1; j < end && j <= i + MAX_ENTITY_LENGTH; j++) {
+					char e = buffer[j];
+					if (e == ';') {
+						semicolon = j;
+						break;
+					}
+					if (!Character.isLetterOrDigit(e) && e != '#') {
+						break;
+					}
+				}
+				if (semicolon == -1) {
+					out[length++] = c;
+					continue;
+				}
+				length = decodeEntity(buffer, i + 1, semicolon, out, length);
+				i = semicolon;
+			} else {
+				out[length++] = c;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * 未知的实体忽略，和SAX解析器跳过未定义的实体一致
+	 */
+	private static int decodeEntity(char[] buffer, int start, int end, char[] out, int length) {
+		if (start < end && buffer[start] == '#') {
+			int codePoint = 0;
+			int radix = 10;
+			int index = start + 1;
+			if (index < end && (buffer[index] == 'x' || buffer[index] == 'X')) {
+				radix = 16;
+				index++;
+			}
+			if (index == end) {
+				return length;
+			}
+			for (; index < end; index++) {
+				int digit = Character.digit(buffer[index], radix);
+				if (digit < 0 || codePoint > 0x10FFFF) {
+					return length;
+				}
+				codePoint = codePoint * radix + digit;
+			}
+			if (!Character.isValidCodePoint(codePoint)) {
+				return length;
+			}
+			return length + Character.toChars(codePoint, out, length);
+		}
+		int count = end - start;
+		if (count == 2 && buffer[start + 1] == 't') {
+			if (buffer[start] == 'l') {
+				out[length++] = '<';
+				return length;
+			} else if (buffer[start] == 'g') {
+				out[length++] = '>';
+				return length;
+			}
+		}
+		String name = new String(buffer, start, count);
+		if (name.equals("amp")) {
+			out[length++] = '&';
+		} else if (name.equals("quot")) {
+			out[length++] = '"';
+		} else if (name.equals("apos")) {
+			out[length++] = '\'';
+		} else {
+			String value = HTML_ENTITIES.get(name);
+			if (value != null) {
+				out[length++] = value.charAt(0);
+			}
+		}
+		return length;
+	}
+
+	// ------------------------------------------------------------ 元素
+
+	private XhtmlAttributes obtainAttributes(int depth) {
+		if (depth == mStackAttributes.length) {
+			mStackAttributes = Arrays.copyOf(mStackAttributes, depth * 2);
+			mStackIds = Arrays.copyOf(mStackIds, depth * 2);
+		}
+		XhtmlAttributes attributes = mStackAttributes[depth];
+		if (attributes == null) {
+			attributes = new XhtmlAttributes();
+			mStackAttributes[depth] = attributes;
+		} else {
+			attributes.clear();
+		}
+		return attributes;
+	}
+
+	private void pushElement(int id, XhtmlAttributes attributes) {
+		mStackIds[mDepth] = id;
+		mStackAttributes[mDepth] = attributes;
+		mDepth++;
+	}
+
+	private void popElement(ContentHandler handler) throws SAXException {
+		mDepth--;
+		String name = mNames.getName(mStackIds[mDepth]);
+		handler.endElement("", name, name);
+	}
+
+	/**
+	 * 关闭到最近的同名元素，没有同名元素时忽略
+	 */
+	private void closeElement(ContentHandler handler, int id) throws SAXException {
+		for (int i = mDepth - 1; i >= 0; i--) {
+			if (mStackIds[i] == id) {
+				while (mDepth > i) {
+					popElement(handler);
+				}
+				return;
+			}
+		}
+	}
+
+	// ------------------------------------------------------------ XMLReader
+
+	@Override
+	public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+		if (FEATURE_NAMESPACES.equals(name)) {
+			return false;
+		}
+		if (FEATURE_NAMESPACE_PREFIXES.equals(name)) {
+			return true;
+		}
+		throw new SAXNotRecognizedException(name);
+	}
+
+	@Override
+	public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+		if (getFeature(name) != value) {
+			throw new SAXNotSupportedException(name);
+		}
+	}
+
+	@Override
+	public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+		throw new SAXNotRecognizedException(name);
+	}
+
+	@Override
+	public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+		throw new SAXNotRecognizedException(name);
+	}
+
+	@Override
+	public void setEntityResolver(EntityResolver resolver) {
+		mEntityResolver = resolver;
+	}
+
+	@Override
+	public EntityResolver getEntityResolver() {
+		return mEntityResolver;
+	}
+
+	@Override
+	public void setDTDHandler(DTDHandler handler) {
+		mDTDHandler = handler;
+	}
+
+	@Override
+	public DTDHandler getDTDHandler() {
+		return mDTDHandler;
+	}
+
+	@Override
+	public void setContentHandler(ContentHandler handler) {
+		mContentHandler = handler;
+	}
+
+	@Override
+	public ContentHandler getContentHandler() {
+		return mContentHandler;
+	}
+
+	@Override
+	public void setErrorHandler(ErrorHandler handler) {
+		mErrorHandler = handler;
+	}
+
+	@Override
+	public ErrorHandler getErrorHandler() {
+		return mErrorHandler;
+	}
+
+	/**
+	 * 名字表：相同的字符序列返回同一个编号，编号对应固定的String
+	 */
+	private static final class NameTable {
+		private String[] mNames;
+		private int[] mHashes;
+		private int[] mFlags;
+		/** 开放寻址，存放编号+1*/
+		private int[] mSlots;
+		private int mCount;
+
+		NameTable() {
+			mNames = new String[128];
+			mHashes = new int[128];
+			mFlags = new int[128];
+			mSlots = new int[256];
+		}
+
+		NameTable(NameTable table) {
+			mNames = table.mNames.clone();
+			mHashes = table.mHashes.clone();
+			mFlags = table.mFlags.clone();
+			mSlots = table.mSlots.clone();
+			mCount = table.mCount;
+		}
+
+		int add(String name) {
+			char[] chars = name.toCharArray();
+			return lookup(chars, 0, chars.length);
+		}
+
+		int lookup(char[] buffer, int start, int length) {
+			int hash = 0;
+			for (int i = start; i < start + length; i++) {
+				hash = 31 * hash + buffer[i];
+			}
+			int mask = mSlots.length - 1;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (mSlots[slot] != 0) {
+				int id = mSlots[slot] - 1;
+				if (mHashes[id] == hash && equals(mNames[id], buffer, start, length)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int id = mCount++;
+			if (id == mNames.length) {
+				mNames = Arrays.copyOf(mNames, id * 2);
+				mHashes = Arrays.copyOf(mHashes, id * 2);
+				mFlags = Arrays.copyOf(mFlags, id * 2);
+			}
+			mNames[id] = new String(buffer, start, length);
+			mHashes[id] = hash;
+			mSlots[slot] = id + 1;
+			if (mCount * 2 > mSlots.length) {
+				rehash();
+			}
+			return id;
+		}
+
+		private void rehash() {
+			mSlots = new int[mSlots.length * 2];
+			int mask = mSlots.length - 1;
+			for (int id = 0; id < mCount; id++) {
+				int slot = (mHashes[id] ^ (mHashes[id] >>> 16)) & mask;
+				while (mSlots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				mSlots[slot] = id + 1;
+			}
+		}
+
+		private static boolean equals(String name, char[] buffer, int start, int length) {
+			if (name.length() != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (name.charAt(i) != buffer[start + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		String getName(int id) {
+			return mNames[id];
+		}
+
+		int getFlags(int id) {
+			return mFlags[id];
+		}
+
+		void addFlag(int id, int flag) {
+			mFlags[id] |= flag;
+		}
+	}
+
+	/**
+	 * 复用的属性对象，属性值保存字符，读取时才创建String
+	 */
+	private static final class XhtmlAttributes implements Attributes {
+		private static final String TYPE_CDATA = "CDATA";
+		private String[] mNames = new String[8];
+		private String[] mValues = new String[8];
+		private int[] mStarts = new int[8];
+		private int[] mLengths = new int[8];
+		private char[] mChars = new char[128];
+		private int mCharCount;
+		private int mLength;
+
+		void clear() {
+			for (int i = 0; i < mLength; i++) {
+				mValues[i] = null;
+			}
+			mLength = 0;
+			mCharCount = 0;
+		}
+
+		/**
+		 * 重复的属性只保留第一个
+		 */
+		void add(String name, char[] value, int start, int length) {
+			if (getIndex(name) != -1) {
+				return;
+			}
+			if (mLength == mNames.length) {
+				int size = mLength * 2;
+				mNames = Arrays.copyOf(mNames, size);
+				mValues = Arrays.copyOf(mValues, size);
+				mStarts = Arrays.copyOf(mStarts, size);
+				mLengths = Arrays.copyOf(mLengths, size);
+			}
+			if (mCharCount + length > mChars.length) {
+				mChars = Arrays.copyOf(mChars, Math.max(mCharCount + length, mChars.length * 2));
+			}
+			System.arraycopy(value, start, mChars, mCharCount, length);
+			mNames[mLength] = name;
+			mStarts[mLength] = mCharCount;
+			mLengths[mLength] = length;
+			mCharCount += length;
+			mLength++;
+		}
+
+		@Override
+		public int getLength() {
+			return mLength;
+		}
+
+		@Override
+		public String getURI(int index) {
+			return index >= 0 && index < mLength ? "" : null;
+		}
+
+		@Override
+		public String getLocalName(int index) {
+			return getQName(index);
+		}
+
+		@Override
+		public String getQName(int index) {
+			return index >= 0 && index < mLength ? mNames[index] : null;
+		}
+
+		@Override
+		public String getType(int index) {
+			return index >= 0 && index < mLength ? TYPE_CDATA : null;
+		}
+
+		@Override
+		public String getValue(int index) {
+			if (index < 0 || index >= mLength) {
+				return null;
+			}
+			String value = mValues[index];
+			if (value == null) {
+				value = new String(mChars, mStarts[index], mLengths[index]);
+				mValues[index] = value;
+			}
+			return value;
+		}
+
+		@Override
+		public int getIndex(String uri, String localName) {
+			return uri == null || uri.length() == 0 ? getIndex(localName) : -1;
+		}
+
+		@Override
+		public int getIndex(String qName) {
+			for (int i = 0; i < mLength; i++) {
+				String name = mNames[i];
+				if (name == qName || name.equals(qName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public String getType(String uri, String localName) {
+			return getType(getIndex(uri, localName));
+		}
+
+		@Override
+		public String getType(String qName) {
+			return getType(getIndex(qName));
+		}
+
+		@Override
+		public String getValue(String uri, String localName) {
+			return getValue(getIndex(uri, localName));
+		}
+
+		@Override
+		public String getValue(String qName) {
+			return getValue(getIndex(qName));
+		}
+	}
+}
@@ -28,12 +28,18 @@ import com.season.book.page.paser.html.css.IncorrectFormatException.ErrorCode;
 
 /**
  * Main logic for the CSS parser.
+ * 逐字符处理char[]，名称和值用StringBuilder累积，不再装箱Character和拼接String
  * 
  * @author <a href="mailto:christoffer@christoffer.me">Christoffer Pettersson</a>
  */
 
 public final class CSSParser {
 
+	/**
+	 * 没有下一个字符
+	 */
+	private static final char NONE = 0;
+
 	/**
 	 * Reads CSS as a String and returns back a list of Rules.
 	 * 
@@ -50,7 +56,6 @@ public final class CSSParser {
 		int line = -1;
 		while ((line = cssInput.read(responseByteArray)) != -1) {
 			bab.write(responseByteArray, 0, line);
-			responseByteArray = new byte[1024];
 		}
 		cssInput.close();
 		return parse(new String(bab.toByteArray()));
@@ -64,33 +69,53 @@ public final class CSSParser {
 	 */
 
 	public static List<Rule> parse(final String css) throws Exception {
-		CSSParser parser = new CSSParser();
+		if (css == null) {
+			return new ArrayList<Rule>();
+		}
+		return parse(css.toCharArray(), 0, css.length());
+	}
+
+	/**
+	 * Reads CSS from a char array and returns back a list of Rules.
+	 * 
+	 * @param css The characters of the CSS.
+	 * @param offset The first character to parse.
+	 * @param length The number of characters to parse.
+	 * @return A list of Rules
+	 * @throws Exception If any errors occur.
+	 */
+
+	public static List<Rule> parse(final char[] css, final int offset, final int length) throws Exception {
 		List<Rule> rules = new ArrayList<Rule>();
 
-		if (css == null || css.trim() == null || css.trim().length() == 0) {
+		if (css == null || isBlank(css, offset, length)) {
 			return rules;
 		}
 
-		for (int i = 0; i < css.length(); i++) {
-			char c = css.charAt(i);
-			if (i < css.length() - 1) {
-				char nextC = css.charAt(i + 1);
-				parser.parse(rules, c, nextC);
-			} else {
-				parser.parse(rules, c, null);
-			}
-
+		CSSParser parser = new CSSParser();
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			parser.parse(rules, css[i], i < end - 1 ? css[i + 1] : NONE);
 		}
 		return rules;
 	}
 
+	private static boolean isBlank(final char[] css, final int offset, final int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (css[i] > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private final List<String> selectorNames;
-	private String selectorName;
-	private String propertyName;
-	private String valueName;
+	private final StringBuilder selectorName;
+	private final StringBuilder propertyName;
+	private final StringBuilder valueName;
 	private final List<PropertyValue> values;
 	private State state;
-	private Character previousChar;
+	private char previousChar;
 	private State beforeCommentMode;
 
 	/**
@@ -98,13 +123,12 @@ public final class CSSParser {
 	 */
 
 	private CSSParser() {
-		this.selectorName = "";
-		this.propertyName = "";
-		this.valueName = "";
-		//		this.map = new LinkedHashMap<String, String>();
+		this.selectorName = new StringBuilder();
+		this.propertyName = new StringBuilder();
+		this.valueName = new StringBuilder();
 		this.values = new LinkedList<PropertyValue>();
 		this.state = State.INSIDE_SELECTOR;
-		this.previousChar = null;
+		this.previousChar = NONE;
 		this.beforeCommentMode = null;
 		this.selectorNames = new ArrayList<String>();
 	}
@@ -114,14 +138,14 @@ public final class CSSParser {
 	 * 
 	 * @param rules The list of rules.
 	 * @param c The current currency.
-	 * @param nextC The next currency (or null).
+	 * @param nextC The next currency (or {@link #NONE}).
 	 * @throws Exception If any errors occurs.
 	 */
 
-	private void parse(final List<Rule> rules, final Character c, final Character nextC) throws Exception {
+	private void parse(final List<Rule> rules, final char c, final char nextC) throws Exception {
 
 		// Special case if we find a comment
-		if (Chars.SLASH.equals(c) && Chars.STAR.equals(nextC)) {
+		if (c == Chars.SLASH && nextC == Chars.STAR) {
 
 			// It's possible to find a comment in a comment
 			if (state != State.INSIDE_COMMENT) {
@@ -168,41 +192,37 @@ public final class CSSParser {
 	 * @throws IncorrectFormatException If any errors occur.
 	 */
 
-	private void parseValue(final Character c) throws IncorrectFormatException {
-
-		// Special case if the value is a data uri, the value can contain a ;
-		//		boolean valueHasDataURI = valueName.toLowerCase().indexOf("data:") != -1;
+	private void parseValue(final char c) throws IncorrectFormatException {
 
-		if (Chars.SEMI_COLON.equals(c)) {
+		if (c == Chars.SEMI_COLON) {
 
 			// Store it in the values map
-			PropertyValue pv = new PropertyValue(propertyName.trim(), valueName.trim());
+			PropertyValue pv = new PropertyValue(trim(propertyName), trim(valueName));
 			values.add(pv);
-			//			map.put(propertyName.trim(), valueName.trim());
-			propertyName = "";
-			valueName = "";
+			propertyName.setLength(0);
+			valueName.setLength(0);
 
 			state = State.INSIDE_PROPERTY_NAME;
 			return;
 
-		} else if (Chars.ROUND_BRACKET_BEG.equals(c)) {
+		} else if (c == Chars.ROUND_BRACKET_BEG) {
 
-			valueName += Chars.ROUND_BRACKET_BEG;
+			valueName.append(Chars.ROUND_BRACKET_BEG);
 
 			state = State.INSIDE_VALUE_ROUND_BRACKET;
 			return;
 
-		} else if (Chars.COLON.equals(c)) {
+		} else if (c == Chars.COLON) {
 
-			throw new IncorrectFormatException(ErrorCode.FOUND_COLON_WHILE_READING_VALUE, "The value '" + valueName.trim() + "' for property '" + propertyName.trim() + "' in the selector '" + selectorName.trim() + "' had a ':' character.");
+			throw new IncorrectFormatException(ErrorCode.FOUND_COLON_WHILE_READING_VALUE, "The value '" + trim(valueName) + "' for property '" + trim(propertyName) + "' in the selector '" + trim(selectorName) + "' had a ':' character.");
 
-		} else if (Chars.BRACKET_END.equals(c)) {
+		} else if (c == Chars.BRACKET_END) {
 
-			throw new IncorrectFormatException(ErrorCode.FOUND_END_BRACKET_BEFORE_SEMICOLON, "The value '" + valueName.trim() + "' for property '" + propertyName.trim() + "' in the selector '" + selectorName.trim() + "' should end with an ';', not with '}'.");
+			throw new IncorrectFormatException(ErrorCode.FOUND_END_BRACKET_BEFORE_SEMICOLON, "The value '" + trim(valueName) + "' for property '" + trim(propertyName) + "' in the selector '" + trim(selectorName) + "' should end with an ';', not with '}'.");
 
 		} else {
 
-			valueName += c;
+			valueName.append(c);
 			return;
 
 		}
@@ -216,17 +236,17 @@ public final class CSSParser {
 	 * @throws IncorrectFormatException If any error occurs.
 	 */
 
-	private void parseValueInsideRoundBrackets(final Character c) throws IncorrectFormatException {
+	private void parseValueInsideRoundBrackets(final char c) throws IncorrectFormatException {
 
-		if (Chars.ROUND_BRACKET_END.equals(c)) {
+		if (c == Chars.ROUND_BRACKET_END) {
 
-			valueName += Chars.ROUND_BRACKET_END;
+			valueName.append(Chars.ROUND_BRACKET_END);
 			state = State.INSIDE_VALUE;
 			return;
 
 		} else {
 
-			valueName += c;
+			valueName.append(c);
 			return;
 
 		}
@@ -241,18 +261,18 @@ public final class CSSParser {
 	 * @throws IncorrectFormatException If any error occurs
 	 */
 
-	private void parsePropertyName(final List<Rule> rules, final Character c) throws IncorrectFormatException {
+	private void parsePropertyName(final List<Rule> rules, final char c) throws IncorrectFormatException {
 
-		if (Chars.COLON.equals(c)) {
+		if (c == Chars.COLON) {
 
 			state = State.INSIDE_VALUE;
 			return;
 
-		} else if (Chars.SEMI_COLON.equals(c)) {
+		} else if (c == Chars.SEMI_COLON) {
 
-			throw new IncorrectFormatException(ErrorCode.FOUND_SEMICOLON_WHEN_READING_PROPERTY_NAME, "Unexpected character '" + c + "' for property '" + propertyName.trim() + "' in the selector '" + selectorName.trim() + "' should end with an ';', not with '}'.");
+			throw new IncorrectFormatException(ErrorCode.FOUND_SEMICOLON_WHEN_READING_PROPERTY_NAME, "Unexpected character '" + c + "' for property '" + trim(propertyName) + "' in the selector '" + trim(selectorName) + "' should end with an ';', not with '}'.");
 
-		} else if (Chars.BRACKET_END.equals(c)) {
+		} else if (c == Chars.BRACKET_END) {
 
 			Rule rule = new Rule();
 
@@ -261,13 +281,13 @@ public final class CSSParser {
 			 */
 
 			for (String s : selectorNames) {
-				Selector selector = new Selector(s.trim(), rule);
+				Selector selector = new Selector(s, rule);
 				rule.addSelector(selector);
 			}
 			selectorNames.clear();
 
-			Selector selector = new Selector(selectorName.trim(), rule);
-			selectorName = "";
+			Selector selector = new Selector(trim(selectorName), rule);
+			selectorName.setLength(0);
 			rule.addSelector(selector);
 
 			// Add the property values
@@ -275,17 +295,6 @@ public final class CSSParser {
 				rule.addPropertyValue(pv);
 			}
 
-			//			for (Entry<String, String> entry : map.entrySet()) {
-			//
-			//				String property = entry.getKey();
-			//				String value = entry.getValue();
-			//
-			//				PropertyValue propertyValue = new PropertyValue(property, value);
-			//				rule.addPropertyValue(propertyValue);
-			//
-			//			}
-
-			//			map.clear();
 			values.clear();
 
 			if (!rule.getPropertyValues().isEmpty()) {
@@ -296,7 +305,7 @@ public final class CSSParser {
 
 		} else {
 
-			propertyName += c;
+			propertyName.append(c);
 			return;
 
 		}
@@ -309,9 +318,9 @@ public final class CSSParser {
 	 * @param c The current character.
 	 */
 
-	private void parseComment(final Character c) {
+	private void parseComment(final char c) {
 
-		if (Chars.STAR.equals(previousChar) && Chars.SLASH.equals(c)) {
+		if (previousChar == Chars.STAR && c == Chars.SLASH) {
 
 			state = beforeCommentMode;
 			return;
@@ -327,25 +336,41 @@ public final class CSSParser {
 	 * @throws IncorrectFormatException If an error occurs.
 	 */
 
-	private void parseSelector(final Character c) throws IncorrectFormatException {
-		if (Chars.BRACKET_BEG.equals(c)) {
+	private void parseSelector(final char c) throws IncorrectFormatException {
+		if (c == Chars.BRACKET_BEG) {
 			state = State.INSIDE_PROPERTY_NAME;
 			return;
-		} else if (Chars.COMMA.equals(c)) {
+		} else if (c == Chars.COMMA) {
 
-			if (selectorName.trim() == null || selectorName.trim().length() == 0) {
+			String name = trim(selectorName);
+			if (name.length() == 0) {
 				throw new IncorrectFormatException(ErrorCode.FOUND_COLON_WHEN_READING_SELECTOR_NAME, "Found an ',' in a selector name without any actual name before it.");
 			}
 
-			selectorNames.add(selectorName.trim());
-			selectorName = "";
+			selectorNames.add(name);
+			selectorName.setLength(0);
 
-		} else if (Chars.SEMI_COLON.equals(c)){
-			selectorName = "";
+		} else if (c == Chars.SEMI_COLON){
+			selectorName.setLength(0);
 			return;
 		}else{
-			selectorName += c;
+			selectorName.append(c);
 			return;
 		}
 	}
+
+	/**
+	 * 去掉首尾空白，与{@link String#trim()}相同
+	 */
+	private static String trim(final StringBuilder builder) {
+		int start = 0;
+		int end = builder.length();
+		while (start < end && builder.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && builder.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return builder.substring(start, end);
+	}
 }
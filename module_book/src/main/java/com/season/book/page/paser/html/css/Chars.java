@@ -29,46 +29,46 @@ final class Chars {
 	 * The character '*'.
 	 */
 
-	static final Character STAR = '*';
+	static final char STAR = '*';
 
 	/**
 	 * The character '/'.
 	 */
-	static final Character SLASH = '/';
+	static final char SLASH = '/';
 
 	/**
 	 * The character ','.
 	 */
-	static final Character COMMA = ',';
+	static final char COMMA = ',';
 
 	/**
 	 * The character '{'.
 	 */
-	static final Character BRACKET_BEG = '{';
+	static final char BRACKET_BEG = '{';
 
 	/**
 	 * The character '}'.
 	 */
-	static final Character BRACKET_END = '}';
+	static final char BRACKET_END = '}';
 
 	/**
 	 * The character ':'.
 	 */
-	static final Character COLON = ':';
+	static final char COLON = ':';
 
 	/**
 	 * The character ';'.
 	 */
-	static final Character SEMI_COLON = ';';
+	static final char SEMI_COLON = ';';
 
 	/**
 	 * The character '('.
 	 */
-	static final Character ROUND_BRACKET_BEG = '(';
+	static final char ROUND_BRACKET_BEG = '(';
 
 	/**
 	 * The character ')'.
 	 */
-	static final Character ROUND_BRACKET_END = ')';
+	static final char ROUND_BRACKET_END = ')';
 
 }
@@ -0,0 +1,91 @@
+package com.season.book.page.paser.html.css;
+
+import java.util.HashMap;
+
+/**
+ * 转换时处理的CSS属性编号
+ * 1.属性名在解析后转换一次编号，转换HTML时按编号从数组取处理方法，不再按字符串查表
+ * 2.编号和{@link #NAMES}中的属性名一一对应，带.xml后缀的属性名和原来的处理表保持一致
+ */
+public final class CssProperty {
+	/** 不处理的属性*/
+	public static final int UNKNOWN = -1;
+
+	public static final int COLOR = 0;
+	public static final int FONT_WEIGHT = 1;
+	public static final int FONT_STYLE = 2;
+	public static final int FLOAT = 3;
+	public static final int BACKGROUND = 4;
+	public static final int BACKGROUND_SIZE = 5;
+	public static final int BACKGROUND_COLOR = 6;
+	public static final int MARGIN = 7;
+	public static final int MARGIN_LEFT = 8;
+	public static final int MARGIN_RIGHT = 9;
+	public static final int MARGIN_TOP = 10;
+	public static final int MARGIN_BOTTOM = 11;
+	public static final int PADDING = 12;
+	public static final int PADDING_LEFT = 13;
+	public static final int PADDING_RIGHT = 14;
+	public static final int PADDING_TOP = 15;
+	public static final int PADDING_BOTTOM = 16;
+	public static final int BORDER = 17;
+	public static final int BORDER_TOP = 18;
+	public static final int BORDER_RIGHT = 19;
+	public static final int BORDER_BOTTOM = 20;
+	public static final int BORDER_LEFT = 21;
+	public static final int BORDER_STYLE = 22;
+	public static final int BORDER_TOP_STYLE = 23;
+	public static final int BORDER_RIGHT_STYLE = 24;
+	public static final int BORDER_BOTTOM_STYLE = 25;
+	public static final int BORDER_LEFT_STYLE = 26;
+	public static final int BORDER_WIDTH = 27;
+	public static final int BORDER_TOP_WIDTH = 28;
+	public static final int BORDER_RIGHT_WIDTH = 29;
+	public static final int BORDER_BOTTOM_WIDTH = 30;
+	public static final int BORDER_LEFT_WIDTH = 31;
+	public static final int BORDER_COLOR = 32;
+	public static final int BORDER_TOP_COLOR = 33;
+	public static final int BORDER_RIGHT_COLOR = 34;
+	public static final int BORDER_BOTTOM_COLOR = 35;
+	public static final int BORDER_LEFT_COLOR = 36;
+	public static final int FONT_SIZE = 37;
+	public static final int TEXT_ALIGN = 38;
+	public static final int WIDTH = 39;
+	public static final int HEIGHT = 40;
+	public static final int MAX_WIDTH = 41;
+	public static final int MAX_HEIGHT = 42;
+
+	private static final String[] NAMES = {
+		"color", "font-weight", "font-style", "float", "background", "background-size", "background-color.xml",
+		"margin", "margin-left", "margin-right", "margin-top", "margin-bottom", "padding", "padding-left",
+		"padding-right", "padding-top", "padding-bottom", "border", "border-top", "border-right", "border-bottom",
+		"border-left", "border-style", "border-top-style", "border-right-style", "border-bottom-style",
+		"border-left-style", "border-width", "border-top-width", "border-right-width", "border-bottom-width",
+		"border-left-width", "border-color.xml", "border-top-color.xml", "border-right-color.xml",
+		"border-bottom-color.xml", "border-left-color.xml", "font-size", "text-align", "width", "height",
+		"max-width", "max-height"};
+
+	public static final int COUNT = NAMES.length;
+
+	private static final HashMap<String, Integer> IDS = new HashMap<String, Integer>();
+
+	static{
+		for (int i = 0; i < NAMES.length; i++) {
+			IDS.put(NAMES[i], i);
+		}
+	}
+
+	private CssProperty(){
+	}
+
+	/**
+	 * @return 不处理的属性返回{@link #UNKNOWN}
+	 */
+	public static int getId(String property){
+		if(property == null){
+			return UNKNOWN;
+		}
+		Integer id = IDS.get(property);
+		return id != null ? id : UNKNOWN;
+	}
+}
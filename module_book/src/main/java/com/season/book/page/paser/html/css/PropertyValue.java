@@ -27,6 +27,8 @@ public final class PropertyValue {
 
 	private String property;
 	private String value;
+	/** {@link CssProperty}编号，第一次使用时转换*/
+	private int propertyId = CssProperty.UNKNOWN - 1;
 
 	/**
 	 * Creates a new PropertyValue based on a property and its value.
@@ -75,6 +77,16 @@ public final class PropertyValue {
 		return property;
 	}
 
+	/**
+	 * 属性的{@link CssProperty}编号
+	 */
+	public int getPropertyId() {
+		if (propertyId < CssProperty.UNKNOWN) {
+			propertyId = CssProperty.getId(property);
+		}
+		return propertyId;
+	}
+
 	/**
 	 * Returns the value.
 	 * 
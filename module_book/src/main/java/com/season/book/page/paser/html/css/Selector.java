@@ -61,6 +61,13 @@ public final class Selector {
 //		return mSelectorItems;
 //	}
 	
+	/**
+	 * 原始的选择器文本
+	 */
+	public String getName() {
+		return name;
+	}
+	
 	public Rule getRule() {
 		return mRule;
 	}
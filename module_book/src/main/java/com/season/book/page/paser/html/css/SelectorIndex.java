@@ -0,0 +1,382 @@
+package com.season.book.page.paser.html.css;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import com.season.book.page.paser.html.tag.TagInfo;
+
+/**
+ * 编译后的选择器索引
+ * 1.解析CSS后把选择器一次性编译成复合选择器数组，匹配时不再拆分和拼接字符串
+ * 2.按最右边复合选择器的id、第一个class、标签名分桶，每个标签只检查可能匹配的选择器
+ * 3.支持后代(空格)和子(>)组合符，伪类、属性等不支持的选择器编译时丢弃
+ * 4.按标签路径缓存匹配结果，同一章节里相同结构的标签不再重复匹配
+ * 5.编译后不再修改，匹配缓存加锁，可以多个线程同时使用
+ */
+public final class SelectorIndex {
+	public static final SelectorIndex EMPTY = new SelectorIndex();
+	/** 匹配结果缓存的最大数量，超出时清空*/
+	private static final int MAX_MEMO_SIZE = 1024;
+
+	private final HashMap<String, ArrayList<CompiledSelector>> mIdSelectors;
+	private final HashMap<String, ArrayList<CompiledSelector>> mClassSelectors;
+	private final HashMap<String, ArrayList<CompiledSelector>> mTagSelectors;
+	private final ArrayList<CompiledSelector> mUniversalSelectors;
+	private final HashMap<String, List<PropertyValue>> mMemo;
+	private int mSize;
+
+	private SelectorIndex(){
+		mIdSelectors = new HashMap<String, ArrayList<CompiledSelector>>();
+		mClassSelectors = new HashMap<String, ArrayList<CompiledSelector>>();
+		mTagSelectors = new HashMap<String, ArrayList<CompiledSelector>>();
+		mUniversalSelectors = new ArrayList<CompiledSelector>();
+		mMemo = new HashMap<String, List<PropertyValue>>();
+	}
+
+	/**
+	 * 编译规则，规则顺序即层叠顺序
+	 */
+	public static SelectorIndex compile(List<Rule> rules){
+		SelectorIndex index = new SelectorIndex();
+		if(rules == null){
+			return index;
+		}
+		for(Rule rule : rules){
+			for(Selector selector : rule.getSelectors()){
+				CompiledSelector compiledSelector = CompiledSelector.compile(selector.getName(), rule, index.mSize);
+				if(compiledSelector != null){
+					index.add(compiledSelector);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * 编译成功的选择器数量
+	 */
+	public int size(){
+		return mSize;
+	}
+
+	private void add(CompiledSelector selector){
+		Compound key = selector.mCompounds[selector.mCompounds.length - 1];
+		if(key.mId != null){
+			getBucket(mIdSelectors, key.mId).add(selector);
+		}else if(key.mClasses.length > 0){
+			getBucket(mClassSelectors, key.mClasses[0]).add(selector);
+		}else if(key.mTag != null){
+			getBucket(mTagSelectors, key.mTag).add(selector);
+		}else{
+			mUniversalSelectors.add(selector);
+		}
+		mSize++;
+	}
+
+	private static ArrayList<CompiledSelector> getBucket(HashMap<String, ArrayList<CompiledSelector>> buckets, String key){
+		ArrayList<CompiledSelector> bucket = buckets.get(key);
+		if(bucket == null){
+			bucket = new ArrayList<CompiledSelector>(2);
+			buckets.put(key, bucket);
+		}
+		return bucket;
+	}
+
+	/**
+	 * 获取标签路径最后一个标签的样式，按权重从低到高排列，相同权重按规则顺序
+	 * @param tagPath 从根标签到当前标签
+	 * @return 不可修改的列表
+	 */
+	public List<PropertyValue> match(List<TagInfo> tagPath){
+		if(mSize == 0 || tagPath == null || tagPath.isEmpty()){
+			return Collections.emptyList();
+		}
+		String signature = getSignature(tagPath);
+		synchronized (mMemo) {
+			List<PropertyValue> propertyValues = mMemo.get(signature);
+			if(propertyValues != null){
+				return propertyValues;
+			}
+		}
+		List<PropertyValue> propertyValues = matchPath(toNodes(tagPath));
+		synchronized (mMemo) {
+			if(mMemo.size() >= MAX_MEMO_SIZE){
+				mMemo.clear();
+			}
+			mMemo.put(signature, propertyValues);
+		}
+		return propertyValues;
+	}
+
+	private List<PropertyValue> matchPath(Node[] path){
+		Node leaf = path[path.length - 1];
+		ArrayList<CompiledSelector> matched = new ArrayList<CompiledSelector>();
+		if(leaf.mId != null){
+			collect(mIdSelectors.get(leaf.mId), path, matched);
+		}
+		for(int i = 0;i < leaf.mClasses.length;i++){
+			if(!contains(leaf.mClasses, i, leaf.mClasses[i])){
+				collect(mClassSelectors.get(leaf.mClasses[i]), path, matched);
+			}
+		}
+		if(leaf.mTag != null){
+			collect(mTagSelectors.get(leaf.mTag), path, matched);
+		}
+		collect(mUniversalSelectors, path, matched);
+		if(matched.isEmpty()){
+			return Collections.emptyList();
+		}
+		Collections.sort(matched, CASCADE_ORDER);
+		ArrayList<PropertyValue> propertyValues = new ArrayList<PropertyValue>();
+		for(CompiledSelector selector : matched){
+			propertyValues.addAll(selector.mRule.getPropertyValues());
+		}
+		return Collections.unmodifiableList(propertyValues);
+	}
+
+	private static void collect(ArrayList<CompiledSelector> selectors, Node[] path, ArrayList<CompiledSelector> matched){
+		if(selectors == null){
+			return;
+		}
+		for(int i = 0;i < selectors.size();i++){
+			CompiledSelector selector = selectors.get(i);
+			if(selector.matches(path)){
+				matched.add(selector);
+			}
+		}
+	}
+
+	/**
+	 * values中end之前是否已有相同的值
+	 */
+	private static boolean contains(String[] values, int end, String value){
+		for(int i = 0;i < end;i++){
+			if(values[i].equals(value)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getSignature(List<TagInfo> tagPath){
+		StringBuilder builder = new StringBuilder(tagPath.size() * 16);
+		for(TagInfo tagInfo : tagPath){
+			builder.append(tagInfo.getTag());
+			if(tagInfo.getClazz() != null){
+				builder.append('.').append(tagInfo.getClazz());
+			}
+			if(tagInfo.getId() != null){
+				builder.append('#').append(tagInfo.getId());
+			}
+			builder.append('/');
+		}
+		return builder.toString();
+	}
+
+	private static Node[] toNodes(List<TagInfo> tagPath){
+		Node[] nodes = new Node[tagPath.size()];
+		Iterator<TagInfo> iterator = tagPath.iterator();
+		for(int i = 0;i < nodes.length;i++){
+			nodes[i] = new Node(iterator.next());
+		}
+		return nodes;
+	}
+
+	private static final Comparator<CompiledSelector> CASCADE_ORDER = new Comparator<CompiledSelector>() {
+		@Override
+		public int compare(CompiledSelector object1, CompiledSelector object2) {
+			if(object1.mWeight != object2.mWeight){
+				return object1.mWeight - object2.mWeight;
+			}
+			return object1.mOrder - object2.mOrder;
+		}
+	};
+
+	/**
+	 * 路径上的一个标签
+	 */
+	private static final class Node{
+		private final String mTag;
+		private final String mId;
+		private final String[] mClasses;
+
+		private Node(TagInfo tagInfo){
+			mTag = tagInfo.getTag();
+			String id = tagInfo.getId();
+			mId = id != null && id.trim().length() > 0 ? id.trim() : null;
+			mClasses = splitClasses(tagInfo.getClazz());
+		}
+	}
+
+	private static final String[] EMPTY_CLASSES = new String[0];
+
+	private static String[] splitClasses(String clazz){
+		if(clazz == null){
+			return EMPTY_CLASSES;
+		}
+		clazz = clazz.trim();
+		if(clazz.length() == 0){
+			return EMPTY_CLASSES;
+		}
+		return clazz.split("\\s+");
+	}
+
+	/**
+	 * 复合选择器，如p.title#top
+	 */
+	private static final class Compound{
+		/** 小写标签名，NULL表示任意标签*/
+		private String mTag;
+		private String mId;
+		private String[] mClasses = EMPTY_CLASSES;
+
+		/**
+		 * @return 包含不支持的语法返回NULL
+		 */
+		private static Compound compile(String text){
+			Compound compound = new Compound();
+			ArrayList<String> classes = null;
+			int length = text.length();
+			int start = 0;
+			char type = 0;
+			for(int i = 0;i <= length;i++){
+				char c = i < length ? text.charAt(i) : '.';
+				if(c == ':' || c == '[' || c == '(' || c == '+' || c == '~' || c == '@'){
+					return null;
+				}
+				if(c != '.' && c != '#'){
+					continue;
+				}
+				String name = text.substring(start, i);
+				if(type == 0){
+					if(name.length() > 0 && !name.equals("*")){
+						compound.mTag = name.toLowerCase();
+					}
+				}else if(name.length() == 0){
+					return null;
+				}else if(type == '#'){
+					compound.mId = name;
+				}else{
+					if(classes == null){
+						classes = new ArrayList<String>(2);
+					}
+					classes.add(name);
+				}
+				type = c;
+				start = i + 1;
+			}
+			if(classes != null){
+				compound.mClasses = classes.toArray(new String[classes.size()]);
+			}
+			return compound;
+		}
+
+		private int getWeight(){
+			return (mId != null ? 100 : 0) + mClasses.length * 10 + (mTag != null ? 1 : 0);
+		}
+
+		private boolean matches(Node node){
+			if(mTag != null && !mTag.equals(node.mTag)){
+				return false;
+			}
+			if(mId != null && !mId.equals(node.mId)){
+				return false;
+			}
+			for(String clazz : mClasses){
+				if(!contains(node.mClasses, node.mClasses.length, clazz)){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class CompiledSelector{
+		/** 从左到右的复合选择器*/
+		private final Compound[] mCompounds;
+		/** 第i个复合选择器和前一个之间是否是子组合符(>)，否则是后代组合符*/
+		private final boolean[] isChild;
+		private final Rule mRule;
+		private final int mWeight;
+		/** 编译顺序，权重相同时后出现的优先*/
+		private final int mOrder;
+
+		private CompiledSelector(Compound[] compounds, boolean[] child, Rule rule, int order){
+			mCompounds = compounds;
+			isChild = child;
+			mRule = rule;
+			mOrder = order;
+			int weight = 0;
+			for(Compound compound : compounds){
+				weight += compound.getWeight();
+			}
+			mWeight = weight;
+		}
+
+		/**
+		 * @return 为空或包含不支持的语法返回NULL
+		 */
+		private static CompiledSelector compile(String name, Rule rule, int order){
+			if(name == null){
+				return null;
+			}
+			String[] tokens = name.replace(">", " > ").trim().split("\\s+");
+			ArrayList<Compound> compounds = new ArrayList<Compound>(tokens.length);
+			boolean[] child = new boolean[tokens.length];
+			boolean isNextChild = false;
+			for(String token : tokens){
+				if(token.length() == 0){
+					continue;
+				}
+				if(token.equals(">")){
+					if(compounds.isEmpty() || isNextChild){
+						return null;
+					}
+					isNextChild = true;
+					continue;
+				}
+				Compound compound = Compound.compile(token);
+				if(compound == null){
+					return null;
+				}
+				child[compounds.size()] = isNextChild;
+				isNextChild = false;
+				compounds.add(compound);
+			}
+			if(compounds.isEmpty() || isNextChild){
+				return null;
+			}
+			return new CompiledSelector(compounds.toArray(new Compound[compounds.size()]), child, rule, order);
+		}
+
+		private boolean matches(Node[] path){
+			int last = mCompounds.length - 1;
+			return mCompounds[last].matches(path[path.length - 1])
+					&& matchesAncestors(last - 1, path, path.length - 2);
+		}
+
+		/**
+		 * 第compoundIndex个复合选择器及其左边的部分是否匹配path中pathIndex及之前的标签
+		 */
+		private boolean matchesAncestors(int compoundIndex, Node[] path, int pathIndex){
+			if(compoundIndex < 0){
+				return true;
+			}
+			boolean isParentOnly = isChild[compoundIndex + 1];
+			for(int i = pathIndex;i >= 0;i--){
+				if(mCompounds[compoundIndex].matches(path[i])
+						&& matchesAncestors(compoundIndex - 1, path, i - 1)){
+					return true;
+				}
+				if(isParentOnly){
+					return false;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -7,10 +7,41 @@ public class SizeInfo {
     public int mPageWidth;
     public int mPageHeight;
     public Rect mPageRect;
+    /** 解析时是否用到了尺寸，用到时解析结果和字号、页宽有关 */
+    private volatile boolean isUsed;
+
     public SizeInfo(int emUnit, Rect pageRect) {
         mEmUnit = emUnit;
         mPageRect = pageRect;
         mPageWidth = pageRect.width();
         mPageHeight = pageRect.height();
     }
+
+    public int getEmUnit() {
+        isUsed = true;
+        return mEmUnit;
+    }
+
+    public int getPageWidth() {
+        isUsed = true;
+        return mPageWidth;
+    }
+
+    public boolean isUsed() {
+        return isUsed;
+    }
+
+    /**
+     * 每次解析使用单独的副本，用来记录解析是否依赖尺寸
+     */
+    public SizeInfo copy() {
+        return new SizeInfo(mEmUnit, mPageRect);
+    }
+
+    /**
+     * 解析用到的尺寸是否一致
+     */
+    public boolean isSameSize(SizeInfo sizeInfo) {
+        return sizeInfo != null && mEmUnit == sizeInfo.mEmUnit && mPageWidth == sizeInfo.mPageWidth;
+    }
 }
@@ -61,11 +61,11 @@ public class TagInfo {
         if(!TextUtils.isEmpty(value)){
             try {
                 if(value.length() > 2 && value.indexOf("em") != -1){
-                    return (int) (Float.valueOf(value.substring(0, value.length() - 2)) * mSizeInfo.mEmUnit);
+                    return (int) (Float.valueOf(value.substring(0, value.length() - 2)) * mSizeInfo.getEmUnit());
                 }else if(value.length() > 2 && value.indexOf("px") != -1){
                     return (int) (Float.valueOf(value.substring(0, value.length() - 2)) * 1f);
                 }else if(value.length() > 1 && value.indexOf("%") != -1){
-                    return (int) (Float.valueOf(value.substring(0, value.length() - 1)) * mSizeInfo.mPageWidth / 100);
+                    return (int) (Float.valueOf(value.substring(0, value.length() - 1)) * mSizeInfo.getPageWidth() / 100);
                 }else if(TextUtils.isDigitsOnly(value)){
                     return (int) (Float.valueOf(value) * 1f);
                 }
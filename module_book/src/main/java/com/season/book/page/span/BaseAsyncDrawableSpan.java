@@ -1,14 +1,9 @@
 package com.season.book.page.span;
 
-import java.io.InputStream;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-
-import android.graphics.BitmapFactory;
-import android.graphics.BitmapFactory.Options;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 
 import com.season.book.page.paser.html.DataProvider;
@@ -16,18 +11,16 @@ import com.season.lib.util.LogUtil;
 
 /**
  * 异步图片样式
+ * 尺寸和图片都从{@link ImageLoader}获取，按绘制区域采样解码，位图由共用的缓存持有
  * @author lyw
  */
 public class BaseAsyncDrawableSpan extends ReplacementSpan implements ResourceSpan{
     private static final String TAG = BaseAsyncDrawableSpan.class.getSimpleName();
-	private static HashMap<String,Rect> mCacheImgRect = new HashMap<String,Rect>();
-	private static final int MAX_CACHE_IMG_RECT_SIZE = 500;
 
     protected DataProvider mDataProvider;
     private String mSrc;
     private Rect mImageRect;
     private Drawable mDrawable;
-    private SoftReference<Drawable> mCacheDrawable;
 
     private int mPresetWidth;
     private int mPresetHeight;
@@ -40,7 +33,6 @@ public class BaseAsyncDrawableSpan extends ReplacementSpan implements ResourceSp
         mSrc = src;
         mPresetWidth = (int)presetWidth;
         mPresetHeight = (int)presetHeight;
-		mCacheDrawable = new SoftReference<Drawable>(null);
     }
     /**
 	 * @return the mPresetWidth
@@ -94,8 +86,15 @@ public class BaseAsyncDrawableSpan extends ReplacementSpan implements ResourceSp
         		b = mDrawableContainer.getDefaultDrawable();
         	}else{
         		mDrawableContainer = new InteriorDrawableContainer(this, text, start, end);
-            	b = mDataProvider.getDrawable(mSrc, mDrawableContainer);
-            	mDrawableContainer.setDefaultDrawable(b);
+            	b = ImageLoader.load(mDataProvider, mSrc, right - left, bottom - top, mDrawableContainer);
+            	if(b instanceof BitmapDrawable){
+            		//已缓存，不会再回调
+            		mDrawableContainer.release();
+            		mDrawableContainer = null;
+            		setCachedDrawable(b);
+            	}else{
+            		mDrawableContainer.setDefaultDrawable(b);
+            	}
         	}
         }
         int w = right - left;
@@ -113,35 +112,7 @@ public class BaseAsyncDrawableSpan extends ReplacementSpan implements ResourceSp
     }
     
     private Rect getImgSize(String src){
-    	Rect rect = null;
-    	rect = mCacheImgRect.get(src);
-    	if(rect == null){
-    		try {
-    			InputStream is = mDataProvider.getDataStream(src);
-    			if (is != null) {
-    				rect = new Rect();
-    				Options opts = new BitmapFactory.Options();
-    				opts.inJustDecodeBounds = true;
-    				opts.inScreenDensity = mDataProvider.getContext().getResources()
-    						.getDisplayMetrics().densityDpi;
-    				opts.inTargetDensity = mDataProvider.getContext().getResources()
-    						.getDisplayMetrics().densityDpi;
-    				opts.inDensity = mDataProvider.getContext().getResources()
-    						.getDisplayMetrics().densityDpi;
-    				BitmapFactory.decodeStream(is, null, opts);
-    				is.close();
-    				rect.set(0, 0, opts.outWidth, opts.outHeight);
-    				if(mCacheImgRect.size() > MAX_CACHE_IMG_RECT_SIZE){
-    					mCacheImgRect.clear();
-    				}
-    				mCacheImgRect.put(src, new Rect(rect));
-    				return rect;
-    			}
-    		} catch (Exception e) {
-    			e.printStackTrace();
-    		}
-    	}
-		return rect;
+    	return ImageLoader.getBounds(mDataProvider, src);
     }
     
     public Rect getImageRect(){
@@ -179,8 +150,9 @@ public class BaseAsyncDrawableSpan extends ReplacementSpan implements ResourceSp
     }
     
     private Drawable getCachedDrawable() {
-    	if(mDrawable == null){
-    		mDrawable = mCacheDrawable.get();
+    	if(mDrawable != null && !ImageLoader.isAlive(mDrawable)){
+    		//位图已被缓存淘汰，重新加载
+    		mDrawable = null;
     	}
         return mDrawable;
     }
@@ -188,18 +160,31 @@ public class BaseAsyncDrawableSpan extends ReplacementSpan implements ResourceSp
 	@Override
 	public void release() {
 		LogUtil.i(TAG, "release");
-		if(mDrawable != null){
-			mCacheDrawable = new SoftReference<Drawable>(mDrawable);
-			mDrawable = null;
-		}
+		//位图由ImageLoader的缓存持有，再次绘制时从缓存获取
+		mDrawable = null;
 		if(mDrawableContainer != null){
     		mDrawableContainer.release();
     		mDrawableContainer = null;
     	}
 	}
 
+	/**
+	 * 绘制用的图片，位图已被缓存淘汰时返回NULL；只能在绘制时使用，不能长时间持有
+	 */
 	public Drawable getDrawable(){
-		return mDrawable;
+		return getCachedDrawable();
+	}
+
+	/**
+	 * 加载查看用的图片，通过{@link DataProvider}解码独立的一份，不受缓存淘汰影响
+	 * @param drawableContainer 解码完成后设置图片
+	 * @return 异步加载时返回默认图片
+	 */
+	public Drawable loadViewerDrawable(DataProvider.DrawableContainer drawableContainer){
+		if(mDataProvider == null){
+			return null;
+		}
+		return mDataProvider.getDrawable(mSrc, drawableContainer);
 	}
 	
 	private static class InteriorDrawableContainer implements DataProvider.DrawableContainer {
@@ -0,0 +1,122 @@
+package com.season.book.page.span;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * 书籍图片的位图缓存
+ * 1.所有图片样式共用，按位图字节数做LRU，上限为最大内存的八分之一
+ * 2.淘汰的可变位图放入复用池，解码时通过inBitmap复用
+ * 3.只在主线程放入和淘汰，已淘汰的位图不会再被绘制，复用时不会出现绘制中的位图被改写
+ */
+final class ImageBitmapCache {
+	/** 复用池最多保留的位图数*/
+	private static final int MAX_REUSE_SIZE = 3;
+
+	private static final LinkedHashMap<String, Bitmap> sCache = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+	/** 缓存中的位图，用于判断样式持有的位图是否已被淘汰*/
+	private static final IdentityHashMap<Bitmap, String> sAlive = new IdentityHashMap<Bitmap, String>();
+	private static final ArrayList<Bitmap> sReusable = new ArrayList<Bitmap>(MAX_REUSE_SIZE);
+	private static final long MAX_SIZE = Runtime.getRuntime().maxMemory() / 8;
+	private static long sSize;
+
+	private static int sHitCount;
+	private static int sMissCount;
+	private static int sReuseCount;
+
+	private ImageBitmapCache(){
+	}
+
+	static synchronized Bitmap get(String key){
+		Bitmap bitmap = sCache.get(key);
+		if(bitmap != null){
+			sHitCount++;
+		}else{
+			sMissCount++;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 位图是否还在缓存中，淘汰后可能已被复用
+	 */
+	static synchronized boolean isAlive(Bitmap bitmap){
+		return sAlive.containsKey(bitmap);
+	}
+
+	/**
+	 * 放入缓存，超出上限时淘汰最久未使用的，在主线程调用
+	 */
+	static synchronized void put(String key, Bitmap bitmap){
+		Bitmap oldBitmap = sCache.put(key, bitmap);
+		if(oldBitmap == bitmap){
+			return;
+		}
+		if(oldBitmap != null){
+			remove(oldBitmap);
+		}
+		sAlive.put(bitmap, key);
+		sSize += bitmap.getAllocationByteCount();
+		Iterator<Map.Entry<String, Bitmap>> iterator = sCache.entrySet().iterator();
+		while(sSize > MAX_SIZE && sCache.size() > 1 && iterator.hasNext()){
+			Bitmap evictBitmap = iterator.next().getValue();
+			iterator.remove();
+			remove(evictBitmap);
+		}
+	}
+
+	/**
+	 * 取出一个可以容纳byteCount字节的复用位图
+	 * @return 没有合适的返回NULL
+	 */
+	static synchronized Bitmap obtainReusable(int byteCount){
+		for(int i = 0;i < sReusable.size();i++){
+			Bitmap bitmap = sReusable.get(i);
+			if(bitmap.getAllocationByteCount() >= byteCount){
+				sReusable.remove(i);
+				sReuseCount++;
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 清空缓存和复用池，位图交给GC回收
+	 */
+	static synchronized void clear(){
+		sCache.clear();
+		sAlive.clear();
+		sReusable.clear();
+		sSize = 0;
+	}
+
+	static synchronized String getMetrics(){
+		int requestCount = sHitCount + sMissCount;
+		StringBuilder builder = new StringBuilder();
+		builder.append("hit:").append(sHitCount)
+				.append(" miss:").append(sMissCount)
+				.append(" rate:").append(requestCount > 0 ? sHitCount * 100 / requestCount : 0).append('%')
+				.append(" reuse:").append(sReuseCount)
+				.append(" bitmaps:").append(sCache.size())
+				.append(" size:").append(sSize / 1024).append("KB");
+		return builder.toString();
+	}
+
+	private static void remove(Bitmap bitmap){
+		sAlive.remove(bitmap);
+		sSize -= bitmap.getAllocationByteCount();
+		if(!bitmap.isMutable() || bitmap.isRecycled()){
+			return;
+		}
+		if(sReusable.size() >= MAX_REUSE_SIZE){
+			sReusable.remove(0);
+		}
+		sReusable.add(bitmap);
+	}
+}
@@ -0,0 +1,239 @@
+package com.season.book.page.span;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+
+import com.season.book.page.paser.html.DataProvider;
+import com.season.lib.BaseContext;
+
+/**
+ * 书籍图片尺寸缓存
+ * 1.只解码图片头获取宽高，结果按书籍保存，排版时不再重复读取图片
+ * 2.书籍有缓存标识时保存到缓存目录，再次打开直接读取；没有标识时只按数据源保存在内存中，不同书籍不共用
+ * 3.每本书的图片按最近使用淘汰
+ * 4.排版线程和主线程都会调用，方法都加锁
+ */
+final class ImageBoundsCache {
+	private static final int MAGIC = 0x494d4253;
+	private static final int VERSION = 1;
+	/** 内存中保留的书籍数*/
+	private static final int MAX_BOOK_SIZE = 4;
+	/** 每本书最多缓存的图片数*/
+	private static final int MAX_IMAGE_SIZE = 2000;
+
+	private static final LinkedHashMap<String, BookBounds> sBooks = new LinkedHashMap<String, BookBounds>(MAX_BOOK_SIZE, 0.75f, true);
+	/** 没有缓存标识的数据源，随数据源回收*/
+	private static final WeakHashMap<DataProvider, BookBounds> sUnkeyedBooks = new WeakHashMap<DataProvider, BookBounds>();
+
+	private static final class BookBounds{
+		private final String mKey;
+		/** 图片路径对应的宽、高，按访问顺序排列，超过上限时淘汰最久未用的*/
+		private final LinkedHashMap<String, int[]> mBounds = new LinkedHashMap<String, int[]>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+				return size() > MAX_IMAGE_SIZE;
+			}
+		};
+		private boolean isDirty;
+		private boolean isSaveScheduled;
+
+		private BookBounds(String key){
+			mKey = key;
+		}
+	}
+
+	private ImageBoundsCache(){
+	}
+
+	/**
+	 * 获取图片原始尺寸
+	 * @return 读取失败返回NULL
+	 */
+	static Rect get(DataProvider dataProvider, String src){
+		synchronized (ImageBoundsCache.class) {
+			int[] bounds = getBook(dataProvider).mBounds.get(src);
+			if(bounds != null){
+				return new Rect(0, 0, bounds[0], bounds[1]);
+			}
+		}
+		int[] bounds = decodeBounds(dataProvider, src);
+		if(bounds == null){
+			return null;
+		}
+		synchronized (ImageBoundsCache.class) {
+			BookBounds book = getBook(dataProvider);
+			book.mBounds.put(src, bounds);
+			if(book.mKey != null){
+				book.isDirty = true;
+				scheduleSave(book);
+			}
+		}
+		return new Rect(0, 0, bounds[0], bounds[1]);
+	}
+
+	private static int[] decodeBounds(DataProvider dataProvider, String src){
+		try {
+			InputStream is = dataProvider.getDataStream(src);
+			if(is == null){
+				return null;
+			}
+			try {
+				BitmapFactory.Options opts = new BitmapFactory.Options();
+				opts.inJustDecodeBounds = true;
+				BitmapFactory.decodeStream(is, null, opts);
+				if(opts.outWidth <= 0 || opts.outHeight <= 0){
+					return null;
+				}
+				return new int[]{opts.outWidth, opts.outHeight};
+			} finally {
+				is.close();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static BookBounds getBook(DataProvider dataProvider){
+		String key = dataProvider.getCacheKey();
+		if(key == null){
+			BookBounds book = sUnkeyedBooks.get(dataProvider);
+			if(book == null){
+				book = new BookBounds(null);
+				sUnkeyedBooks.put(dataProvider, book);
+			}
+			return book;
+		}
+		BookBounds book = sBooks.get(key);
+		if(book == null){
+			book = new BookBounds(key);
+			read(book);
+			sBooks.put(key, book);
+			Iterator<Map.Entry<String, BookBounds>> iterator = sBooks.entrySet().iterator();
+			while(sBooks.size() > MAX_BOOK_SIZE && iterator.hasNext()){
+				iterator.next();
+				iterator.remove();
+			}
+		}
+		return book;
+	}
+
+	/**
+	 * 合并短时间内的多次修改，在解码线程保存一次
+	 */
+	private static void scheduleSave(final BookBounds book){
+		if(book.isSaveScheduled){
+			return;
+		}
+		book.isSaveScheduled = true;
+		ImageLoader.execute(new Runnable() {
+			@Override
+			public void run() {
+				byte[] data;
+				synchronized (ImageBoundsCache.class) {
+					book.isSaveScheduled = false;
+					if(!book.isDirty){
+						return;
+					}
+					book.isDirty = false;
+					data = toBytes(book);
+				}
+				save(book.mKey, data);
+			}
+		});
+	}
+
+	private static File getSaveFile(String key){
+		return new File(BaseContext.getInstance().getCacheDir() + "/images/" + Integer.toHexString(key.hashCode()) + ".bounds");
+	}
+
+	private static void read(BookBounds book){
+		File saveFile = null;
+		try {
+			saveFile = getSaveFile(book.mKey);
+			if(!saveFile.isFile()){
+				return;
+			}
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(saveFile)));
+			try {
+				if(in.readInt() != MAGIC || in.readInt() != VERSION || !book.mKey.equals(in.readUTF())){
+					return;
+				}
+				int count = in.readInt();
+				for(int i = 0;i < count;i++){
+					String src = in.readUTF();
+					int width = in.readInt();
+					int height = in.readInt();
+					book.mBounds.put(src, new int[]{width, height});
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			book.mBounds.clear();
+			if(saveFile != null){
+				saveFile.delete();
+			}
+		}
+	}
+
+	private static byte[] toBytes(BookBounds book){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(book.mKey);
+			out.writeInt(book.mBounds.size());
+			for(Map.Entry<String, int[]> entry : book.mBounds.entrySet()){
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue()[0]);
+				out.writeInt(entry.getValue()[1]);
+			}
+			out.flush();
+		} catch (Exception e) {
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void save(String key, byte[] data){
+		if(data == null){
+			return;
+		}
+		File tempFile = null;
+		try {
+			File saveFile = getSaveFile(key);
+			saveFile.getParentFile().mkdirs();
+			tempFile = new File(saveFile.getPath() + ".tmp");
+			BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			if(!tempFile.renameTo(saveFile)){
+				saveFile.delete();
+				tempFile.renameTo(saveFile);
+			}
+		} catch (Exception e) {
+			if(tempFile != null){
+				tempFile.delete();
+			}
+		}
+	}
+}
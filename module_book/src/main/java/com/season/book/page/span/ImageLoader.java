@@ -0,0 +1,275 @@
+package com.season.book.page.span;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.season.book.page.paser.html.DataProvider;
+import com.season.lib.support.os.MulThreadPool;
+
+/**
+ * 书籍图片加载
+ * 1.图片尺寸从{@link ImageBoundsCache}获取，排版不需要解码图片
+ * 2.按绘制区域计算采样率解码，不再按原图大小解码
+ * 3.在{@link MulThreadPool}上解码，后提交的先解码，翻页后当前页的图片优先
+ * 4.解码结果放入共用的{@link ImageBitmapCache}，相同图片和采样率只解码一次
+ */
+public final class ImageLoader {
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+	private static final MulThreadPool sThreadPool = new MulThreadPool();
+	/** 等待执行的任务，后进先出；线程池每次取出最后提交的一个执行*/
+	private static final ArrayDeque<Runnable> sTasks = new ArrayDeque<Runnable>();
+	/** 正在解码的图片对应的等待者*/
+	private static final HashMap<String, ArrayList<DataProvider.DrawableContainer>> sPending
+			= new HashMap<String, ArrayList<DataProvider.DrawableContainer>>();
+
+	private ImageLoader(){
+	}
+
+	/**
+	 * 获取图片原始尺寸，可在任意线程调用
+	 * @return 读取失败返回NULL
+	 */
+	public static Rect getBounds(DataProvider dataProvider, String src){
+		return ImageBoundsCache.get(dataProvider, src);
+	}
+
+	/**
+	 * 加载图片，在主线程调用
+	 * @param reqWidth 绘制宽度
+	 * @param reqHeight 绘制高度
+	 * @param drawableContainer 异步解码完成后设置图片
+	 * @return 已缓存时返回图片且不会再回调drawableContainer，否则返回透明的默认图片
+	 */
+	public static Drawable load(final DataProvider dataProvider, final String src, int reqWidth, int reqHeight
+			, DataProvider.DrawableContainer drawableContainer){
+		Rect bounds = getBounds(dataProvider, src);
+		final int sampleSize = bounds != null ? getSampleSize(bounds.width(), bounds.height(), reqWidth, reqHeight) : 1;
+		String cacheKey = dataProvider.getCacheKey();
+		//没有缓存标识时按数据源区分，不同书籍的同名图片不共用
+		final String key = (cacheKey != null ? cacheKey : "@" + System.identityHashCode(dataProvider)) + "|" + src + "@" + sampleSize;
+		Bitmap bitmap = ImageBitmapCache.get(key);
+		if(bitmap != null){
+			return new BitmapDrawable(dataProvider.getContext().getResources(), bitmap);
+		}
+		synchronized (sPending) {
+			ArrayList<DataProvider.DrawableContainer> containers = sPending.get(key);
+			if(containers != null){
+				containers.add(drawableContainer);
+				return new ColorDrawable(Color.TRANSPARENT);
+			}
+			containers = new ArrayList<DataProvider.DrawableContainer>(1);
+			containers.add(drawableContainer);
+			sPending.put(key, containers);
+		}
+		final int byteCount = bounds != null ? getByteCount(bounds.width(), bounds.height(), sampleSize) : 0;
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				Bitmap bitmap = null;
+				//等待者都已失效时不再解码，翻页过快时跳过中间的页
+				if(hasValidContainer(key)){
+					bitmap = decode(dataProvider, src, sampleSize, byteCount);
+				}
+				final Bitmap result = bitmap;
+				sHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onDecoded(dataProvider, key, result);
+					}
+				});
+			}
+		});
+		return new ColorDrawable(Color.TRANSPARENT);
+	}
+
+	/**
+	 * 解码一份独立的图片，不放入缓存也不会被复用，用于全屏查看等长时间持有的场合，在主线程调用
+	 * @param reqWidth 显示宽度
+	 * @param reqHeight 显示高度
+	 * @param drawableContainer 解码完成后设置图片，失败时设置NULL
+	 * @return 透明的默认图片
+	 */
+	public static Drawable loadUncached(final DataProvider dataProvider, final String src, int reqWidth, int reqHeight
+			, final DataProvider.DrawableContainer drawableContainer){
+		Rect bounds = getBounds(dataProvider, src);
+		final int sampleSize = bounds != null ? getSampleSize(bounds.width(), bounds.height(), reqWidth, reqHeight) : 1;
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				Bitmap bitmap = null;
+				if(!drawableContainer.isInvalid()){
+					try {
+						bitmap = decode(dataProvider, src, sampleSize, (Bitmap) null);
+					} catch (OutOfMemoryError e) {
+						ImageBitmapCache.clear();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+				final Bitmap result = bitmap;
+				sHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if(drawableContainer.isInvalid()){
+							return;
+						}
+						drawableContainer.setDrawable(result != null ? new BitmapDrawable(dataProvider.getContext().getResources(), result) : null);
+					}
+				});
+			}
+		});
+		return new ColorDrawable(Color.TRANSPARENT);
+	}
+
+	/**
+	 * 图片样式持有的图片是否还能绘制，位图被缓存淘汰后可能已被复用
+	 */
+	public static boolean isAlive(Drawable drawable){
+		if(drawable instanceof BitmapDrawable){
+			Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+			return bitmap != null && ImageBitmapCache.isAlive(bitmap);
+		}
+		return true;
+	}
+
+	/**
+	 * 释放内存中的位图，如内存不足时
+	 */
+	public static void clearMemory(){
+		ImageBitmapCache.clear();
+	}
+
+	public static String getMetrics(){
+		int queueSize;
+		synchronized (sTasks) {
+			queueSize = sTasks.size();
+		}
+		return ImageBitmapCache.getMetrics() + " queue:" + queueSize;
+	}
+
+	static void execute(Runnable runnable){
+		synchronized (sTasks) {
+			sTasks.offerFirst(runnable);
+		}
+		sThreadPool.addTask(new Runnable() {
+			@Override
+			public void run() {
+				runLast();
+			}
+		});
+	}
+
+	/**
+	 * 线程池的任务不指定内容，执行时从{@link #sTasks}取出最后提交的任务
+	 */
+	private static void runLast(){
+		Runnable task;
+		synchronized (sTasks) {
+			task = sTasks.pollFirst();
+		}
+		if(task != null){
+			Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+			task.run();
+		}
+	}
+
+	private static boolean hasValidContainer(String key){
+		synchronized (sPending) {
+			ArrayList<DataProvider.DrawableContainer> containers = sPending.get(key);
+			if(containers != null){
+				for(DataProvider.DrawableContainer container : containers){
+					if(!container.isInvalid()){
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private static void onDecoded(DataProvider dataProvider, String key, Bitmap bitmap){
+		ArrayList<DataProvider.DrawableContainer> containers;
+		synchronized (sPending) {
+			containers = sPending.remove(key);
+		}
+		if(bitmap != null){
+			ImageBitmapCache.put(key, bitmap);
+		}
+		if(containers == null){
+			return;
+		}
+		for(DataProvider.DrawableContainer container : containers){
+			if(container.isInvalid()){
+				continue;
+			}
+			container.setDrawable(bitmap != null ? new BitmapDrawable(dataProvider.getContext().getResources(), bitmap) : null);
+		}
+	}
+
+	/**
+	 * 采样后的宽高都不小于绘制区域的最大2的幂
+	 */
+	static int getSampleSize(int width, int height, int reqWidth, int reqHeight){
+		int sampleSize = 1;
+		if(reqWidth <= 0 || reqHeight <= 0){
+			return sampleSize;
+		}
+		while(width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight){
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	private static int getByteCount(int width, int height, int sampleSize){
+		int sampleWidth = (width + sampleSize - 1) / sampleSize;
+		int sampleHeight = (height + sampleSize - 1) / sampleSize;
+		return sampleWidth * sampleHeight * 4;
+	}
+
+	private static Bitmap decode(DataProvider dataProvider, String src, int sampleSize, int byteCount){
+		Bitmap reusable = byteCount > 0 ? ImageBitmapCache.obtainReusable(byteCount) : null;
+		try {
+			return decode(dataProvider, src, sampleSize, reusable);
+		} catch (IllegalArgumentException e) {
+			//格式不支持复用
+			try {
+				return decode(dataProvider, src, sampleSize, null);
+			} catch (Exception e1) {
+			}
+		} catch (OutOfMemoryError e) {
+			ImageBitmapCache.clear();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static Bitmap decode(DataProvider dataProvider, String src, int sampleSize, Bitmap reusable) throws Exception{
+		InputStream is = dataProvider.getDataStream(src);
+		if(is == null){
+			return null;
+		}
+		try {
+			BitmapFactory.Options opts = new BitmapFactory.Options();
+			opts.inSampleSize = sampleSize;
+			opts.inMutable = true;
+			opts.inBitmap = reusable;
+			return BitmapFactory.decodeStream(is, null, opts);
+		} finally {
+			is.close();
+		}
+	}
+}
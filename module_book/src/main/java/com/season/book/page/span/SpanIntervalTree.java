@@ -0,0 +1,197 @@
+package com.season.book.page.span;
+
+import java.util.Arrays;
+
+/**
+ * {@link SpannableStringBuilder}的样式区间树
+ * 1.按开始位置排序的树堆(treap)，每个节点记录子树中最大的结束位置，查询时跳过不可能重叠的子树
+ * 2.节点编号即样式的槽位，位置和子节点都保存在int数组中，不创建节点对象
+ * 3.插入、删除期望O(log n)；区间查询只访问可能重叠的节点，结果放在调用方的数组中，查询不修改树的状态，可在多个线程同时查询
+ * 4.修改位置前需先{@link #remove(int)}，改完再{@link #insert(int, int, int)}
+ */
+final class SpanIntervalTree {
+	private static final int NIL = -1;
+
+	private int[] mStarts;
+	private int[] mEnds;
+	private int[] mMaxEnds;
+	private int[] mLefts;
+	private int[] mRights;
+	private int[] mPriorities;
+	private int mRoot = NIL;
+	private int mSeed = 0x2545F491;
+
+	/** split的两个结果*/
+	private int mSplitLeft;
+	private int mSplitRight;
+
+	SpanIntervalTree(int capacity) {
+		capacity = Math.max(capacity, 1);
+		mStarts = new int[capacity];
+		mEnds = new int[capacity];
+		mMaxEnds = new int[capacity];
+		mLefts = new int[capacity];
+		mRights = new int[capacity];
+		mPriorities = new int[capacity];
+	}
+
+	void ensureCapacity(int capacity) {
+		if (capacity <= mStarts.length) {
+			return;
+		}
+		capacity = Math.max(capacity, mStarts.length * 2);
+		mStarts = Arrays.copyOf(mStarts, capacity);
+		mEnds = Arrays.copyOf(mEnds, capacity);
+		mMaxEnds = Arrays.copyOf(mMaxEnds, capacity);
+		mLefts = Arrays.copyOf(mLefts, capacity);
+		mRights = Arrays.copyOf(mRights, capacity);
+		mPriorities = Arrays.copyOf(mPriorities, capacity);
+	}
+
+	int getStart(int slot) {
+		return mStarts[slot];
+	}
+
+	int getEnd(int slot) {
+		return mEnds[slot];
+	}
+
+	void clear() {
+		mRoot = NIL;
+	}
+
+	void insert(int slot, int start, int end) {
+		mStarts[slot] = start;
+		mEnds[slot] = end;
+		mMaxEnds[slot] = end;
+		mLefts[slot] = NIL;
+		mRights[slot] = NIL;
+		mSeed ^= mSeed << 13;
+		mSeed ^= mSeed >>> 17;
+		mSeed ^= mSeed << 5;
+		mPriorities[slot] = mSeed;
+		mRoot = insert(mRoot, slot);
+	}
+
+	private int insert(int node, int slot) {
+		if (node == NIL) {
+			return slot;
+		}
+		if (mPriorities[slot] > mPriorities[node]) {
+			split(node, slot);
+			mLefts[slot] = mSplitLeft;
+			mRights[slot] = mSplitRight;
+			update(slot);
+			return slot;
+		}
+		if (less(slot, node)) {
+			mLefts[node] = insert(mLefts[node], slot);
+		} else {
+			mRights[node] = insert(mRights[node], slot);
+		}
+		update(node);
+		return node;
+	}
+
+	/**
+	 * 按slot的位置把子树分成两部分，结果在mSplitLeft、mSplitRight
+	 */
+	private void split(int node, int slot) {
+		if (node == NIL) {
+			mSplitLeft = NIL;
+			mSplitRight = NIL;
+			return;
+		}
+		if (less(node, slot)) {
+			split(mRights[node], slot);
+			mRights[node] = mSplitLeft;
+			update(node);
+			mSplitLeft = node;
+		} else {
+			split(mLefts[node], slot);
+			mLefts[node] = mSplitRight;
+			update(node);
+			mSplitRight = node;
+		}
+	}
+
+	void remove(int slot) {
+		mRoot = remove(mRoot, slot);
+	}
+
+	private int remove(int node, int slot) {
+		if (node == NIL) {
+			return NIL;
+		}
+		if (node == slot) {
+			return merge(mLefts[node], mRights[node]);
+		}
+		if (less(slot, node)) {
+			mLefts[node] = remove(mLefts[node], slot);
+		} else {
+			mRights[node] = remove(mRights[node], slot);
+		}
+		update(node);
+		return node;
+	}
+
+	private int merge(int left, int right) {
+		if (left == NIL) {
+			return right;
+		}
+		if (right == NIL) {
+			return left;
+		}
+		if (mPriorities[left] > mPriorities[right]) {
+			mRights[left] = merge(mRights[left], right);
+			update(left);
+			return left;
+		}
+		mLefts[right] = merge(left, mLefts[right]);
+		update(right);
+		return right;
+	}
+
+	private boolean less(int a, int b) {
+		return mStarts[a] < mStarts[b] || (mStarts[a] == mStarts[b] && a < b);
+	}
+
+	private void update(int node) {
+		int maxEnd = mEnds[node];
+		int left = mLefts[node];
+		int right = mRights[node];
+		if (left != NIL && mMaxEnds[left] > maxEnd) {
+			maxEnd = mMaxEnds[left];
+		}
+		if (right != NIL && mMaxEnds[right] > maxEnd) {
+			maxEnd = mMaxEnds[right];
+		}
+		mMaxEnds[node] = maxEnd;
+	}
+
+	/**
+	 * 查找start <= queryEnd且end >= queryStart的样式
+	 * @param result 放结果的槽位，顺序不定；容量不够时只放前result.length个
+	 * @return 结果总数，大于result.length时需用更大的数组重新查询
+	 */
+	int query(int queryStart, int queryEnd, int[] result) {
+		return query(mRoot, queryStart, queryEnd, result, 0);
+	}
+
+	private int query(int node, int queryStart, int queryEnd, int[] result, int count) {
+		while (node != NIL && mMaxEnds[node] >= queryStart) {
+			count = query(mLefts[node], queryStart, queryEnd, result, count);
+			if (mStarts[node] > queryEnd) {
+				return count;
+			}
+			if (mEnds[node] >= queryStart) {
+				if (count < result.length) {
+					result[count] = node;
+				}
+				count++;
+			}
+			node = mRights[node];
+		}
+		return count;
+	}
+}
@@ -17,6 +17,8 @@
 package com.season.book.page.span;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 import android.text.Editable;
 import android.text.GetChars;
@@ -33,6 +35,10 @@ import com.season.lib.support.math.ArrayUtils;
 
 /**
  * This is the class for text whose content and markup can both be changed.
+ * <p>
+ * 文字按定长分块保存，末尾追加只分配新块，不复制已有文字；中间修改时重写修改位置之后的文字。
+ * 样式位置保存在{@link SpanIntervalTree}中，getSpans、nextSpanTransition只访问可能重叠的样式，
+ * 样式对象到槽位用IdentityHashMap，getSpanStart等不再遍历。
  */
 public class SpannableStringBuilder
 implements CharSequence, GetChars, Spannable, Editable, Appendable
@@ -59,19 +65,17 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
     public SpannableStringBuilder(CharSequence text, int start, int end) {
         int srclen = end - start;
 
-        int len = ArrayUtils.idealCharArraySize(srclen + 1);
-        mText = new char[len];
-        mGapStart = srclen;
-        mGapLength = len - srclen;
+        mChunks = new char[Math.max(1, (srclen + CHUNK_SIZE - 1) >> CHUNK_SHIFT)][];
+        ensureCapacity(srclen + 1);
+        writeChars(0, text, start, end);
+        mLength = srclen;
 
-        TextUtils.getChars(text, start, end, mText, 0);
-
-        mSpanCount = 0;
         int alloc = ArrayUtils.idealIntArraySize(0);
         mSpans = new Object[alloc];
-        mSpanStarts = new int[alloc];
-        mSpanEnds = new int[alloc];
         mSpanFlags = new int[alloc];
+        mSpanOrders = new int[alloc];
+        mFreeSlots = new int[alloc];
+        mSpanTree = new SpanIntervalTree(alloc);
 
         if (text instanceof Spanned) {
             Spanned sp = (Spanned) text;
@@ -121,94 +125,72 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
                                                 " >= length " + len);
         }
 
-        if (where >= mGapStart)
-            return mText[where + mGapLength];
-        else
-            return mText[where];
+        return mChunks[where >> CHUNK_SHIFT][where & CHUNK_MASK];
     }
 
     /**
      * Return the number of chars in the buffer.
      */
     public int length() {
-        return mText.length - mGapLength;
+        return mLength;
     }
 
-    private void resizeFor(int size) {
-        int newlen = ArrayUtils.idealCharArraySize(size + 1);
-        char[] newtext = new char[newlen];
-
-        int after = mText.length - (mGapStart + mGapLength);
-
-        System.arraycopy(mText, 0, newtext, 0, mGapStart);
-        System.arraycopy(mText, mText.length - after,
-                         newtext, newlen - after, after);
-
-        for (int i = 0; i < mSpanCount; i++) {
-            if (mSpanStarts[i] > mGapStart)
-                mSpanStarts[i] += newlen - mText.length;
-            if (mSpanEnds[i] > mGapStart)
-                mSpanEnds[i] += newlen - mText.length;
+    /**
+     * 保证可以保存length个字符，只有第一块小于{@link #CHUNK_SIZE}时会复制，最多复制一块
+     */
+    private void ensureCapacity(int length) {
+        while (mCapacity < length) {
+            if (mChunkCount > 0 && mChunks[mChunkCount - 1].length < CHUNK_SIZE) {
+                char[] last = mChunks[mChunkCount - 1];
+                int size = Math.min(CHUNK_SIZE,
+                                    Math.max(last.length * 2, length - mCapacity + last.length));
+                mChunks[mChunkCount - 1] = Arrays.copyOf(last, size);
+                mCapacity += size - last.length;
+            } else {
+                if (mChunkCount == mChunks.length) {
+                    mChunks = Arrays.copyOf(mChunks, mChunkCount * 2);
+                }
+                int size = CHUNK_SIZE;
+                if (mChunkCount == 0) {
+                    size = Math.min(CHUNK_SIZE, ArrayUtils.idealCharArraySize(length));
+                }
+                mChunks[mChunkCount++] = new char[size];
+                mCapacity += size;
+            }
         }
-
-        int oldlen = mText.length;
-        mText = newtext;
-        mGapLength += mText.length - oldlen;
-
-        if (mGapLength < 1)
-            new Exception("mGapLength < 1").printStackTrace();
     }
 
-    private void moveGapTo(int where) {
-        if (where == mGapStart)
-            return;
-
-        boolean atend = (where == length());
-
-        if (where < mGapStart) {
-            int overlap = mGapStart - where;
-
-            System.arraycopy(mText, where,
-                             mText, mGapStart + mGapLength - overlap, overlap);
-        } else /* where > mGapStart */ {
-            int overlap = where - mGapStart;
-
-            System.arraycopy(mText, where + mGapLength - overlap,
-                             mText, mGapStart, overlap);
+    /**
+     * 释放末尾不再使用的块
+     */
+    private void releaseChunks() {
+        int used = Math.max(1, (mLength + CHUNK_SIZE) >> CHUNK_SHIFT);
+        while (mChunkCount > used) {
+            mChunkCount--;
+            mCapacity -= mChunks[mChunkCount].length;
+            mChunks[mChunkCount] = null;
         }
+    }
 
-        // XXX be more clever
-        for (int i = 0; i < mSpanCount; i++) {
-            int start = mSpanStarts[i];
-            int end = mSpanEnds[i];
-
-            if (start > mGapStart)
-                start -= mGapLength;
-            if (start > where)
-                start += mGapLength;
-            else if (start == where) {
-                int flag = (mSpanFlags[i] & START_MASK) >> START_SHIFT;
-
-                if (flag == POINT || (atend && flag == PARAGRAPH))
-                    start += mGapLength;
-            }
-
-            if (end > mGapStart)
-                end -= mGapLength;
-            if (end > where)
-                end += mGapLength;
-            else if (end == where) {
-                int flag = (mSpanFlags[i] & END_MASK);
-
-                if (flag == POINT || (atend && flag == PARAGRAPH))
-                    end += mGapLength;
-            }
-
-            mSpanStarts[i] = start;
-            mSpanEnds[i] = end;
+    private void writeChars(int where, CharSequence tb, int tbstart, int tbend) {
+        while (tbstart < tbend) {
+            int offset = where & CHUNK_MASK;
+            int count = Math.min(CHUNK_SIZE - offset, tbend - tbstart);
+            TextUtils.getChars(tb, tbstart, tbstart + count,
+                               mChunks[where >> CHUNK_SHIFT], offset);
+            where += count;
+            tbstart += count;
         }
+    }
 
-        mGapStart = where;
+    private void writeChars(int where, char[] src, int srcstart, int srcend) {
+        while (srcstart < srcend) {
+            int offset = where & CHUNK_MASK;
+            int count = Math.min(CHUNK_SIZE - offset, srcend - srcstart);
+            System.arraycopy(src, srcstart, mChunks[where >> CHUNK_SHIFT], offset, count);
+            where += count;
+            srcstart += count;
+        }
     }
 
     // Documentation from interface
@@ -225,8 +207,8 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
     public SpannableStringBuilder delete(int start, int end) {
         SpannableStringBuilder ret = replace(start, end, "", 0, 0);
 
-        if (mGapLength > 2 * length())
-            resizeFor(length());
+        if (mCapacity - mLength > 2 * CHUNK_SIZE)
+            releaseChunks();
         
         return ret; // == this
     }
@@ -238,18 +220,16 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
     
     // Documentation from interface
     public void clearSpans() {
-        for (int i = mSpanCount - 1; i >= 0; i--) {
-            Object what = mSpans[i];
-            int ostart = mSpanStarts[i];
-            int oend = mSpanEnds[i];
+        int count = getSpanSlots();
+        int[] slots = mSlotBuffer;
 
-            if (ostart > mGapStart)
-                ostart -= mGapLength;
-            if (oend > mGapStart)
-                oend -= mGapLength;
+        for (int i = count - 1; i >= 0; i--) {
+            int slot = slots[i];
+            Object what = mSpans[slot];
+            int ostart = mSpanTree.getStart(slot);
+            int oend = mSpanTree.getEnd(slot);
 
-            mSpanCount = i;
-            mSpans[i] = null;
+            freeSpan(slot);
 
             sendSpanRemoved(what, ostart, oend);
         }
@@ -280,6 +260,11 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
     private int change(boolean notify, int start, int end,
                        CharSequence tb, int tbstart, int tbend) {
         checkRange("replace", start, end);
+        if (tb == this) {
+            tb = new SpannableStringBuilder(this, tbstart, tbend);
+            tbend -= tbstart;
+            tbstart = 0;
+        }
         int ret = tbend - tbstart;
         TextWatcher[] recipients = null;
 
@@ -287,50 +272,56 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
             recipients = sendTextWillChange(start, end - start,
                                             tbend - tbstart);
 
-        for (int i = mSpanCount - 1; i >= 0; i--) {
-            if ((mSpanFlags[i] & SPAN_PARAGRAPH) == SPAN_PARAGRAPH) {
-                int st = mSpanStarts[i];
-                if (st > mGapStart)
-                    st -= mGapLength;
+        if (mParagraphSpanCount > 0) {
+            int count = getSpanSlots();
+            int[] slots = mSlotBuffer;
 
-                int en = mSpanEnds[i];
-                if (en > mGapStart)
-                    en -= mGapLength;
+            for (int i = count - 1; i >= 0; i--) {
+                int slot = slots[i];
+                if ((mSpanFlags[slot] & SPAN_PARAGRAPH) == SPAN_PARAGRAPH) {
+                    int st = mSpanTree.getStart(slot);
+                    int en = mSpanTree.getEnd(slot);
 
-                int ost = st;
-                int oen = en;
-                int clen = length();
+                    int ost = st;
+                    int oen = en;
+                    int clen = length();
 
-                if (st > start && st <= end) {
-                    for (st = end; st < clen; st++)
-                        if (st > end && charAt(st - 1) == '\n')
-                            break;
-                }
+                    if (st > start && st <= end) {
+                        for (st = end; st < clen; st++)
+                            if (st > end && charAt(st - 1) == '\n')
+                                break;
+                    }
 
-                if (en > start && en <= end) {
-                    for (en = end; en < clen; en++)
-                        if (en > end && charAt(en - 1) == '\n')
-                            break;
-                }
+                    if (en > start && en <= end) {
+                        for (en = end; en < clen; en++)
+                            if (en > end && charAt(en - 1) == '\n')
+                                break;
+                    }
 
-                if (st != ost || en != oen)
-                    setSpan(mSpans[i], st, en, mSpanFlags[i]);
+                    if (st != ost || en != oen)
+                        setSpan(mSpans[slot], st, en, mSpanFlags[slot]);
+                }
             }
         }
 
-        moveGapTo(end);
-
-        if (tbend - tbstart >= mGapLength + (end - start))
-            resizeFor(mText.length - mGapLength +
-                      tbend - tbstart - (end - start));
-
-        mGapStart += tbend - tbstart - (end - start);
-        mGapLength -= tbend - tbstart - (end - start);
-
-        if (mGapLength < 1)
-            new Exception("mGapLength < 1").printStackTrace();
-
-        TextUtils.getChars(tb, tbstart, tbend, mText, start);
+        if (start == mLength) {
+            //末尾追加，只有结束在末尾的样式需要移动
+            ensureCapacity(mLength + ret + 1);
+            writeChars(mLength, tb, tbstart, tbend);
+            mLength += ret;
+            moveSpansAtEnd(start, ret);
+        } else {
+            boolean atend = (end == mLength);
+            int tail = mLength - end;
+            char[] tailChars = new char[tail];
+            getChars(end, mLength, tailChars, 0);
+
+            ensureCapacity(start + ret + tail + 1);
+            writeChars(start, tb, tbstart, tbend);
+            writeChars(start + ret, tailChars, 0, tail);
+            mLength = start + ret + tail;
+            moveSpans(start, end, ret, atend);
+        }
 
         if (tb instanceof Spanned) {
             Spanned sp = (Spanned) tb;
@@ -354,62 +345,135 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
             }
         }
 
-        // no need for span fixup on pure insertion
-        if (tbend > tbstart && end - start == 0) {
-            if (notify) {
-                sendTextChange(recipients, start, end - start, tbend - tbstart);
-                sendTextHasChanged(recipients);
-            }
-
-            return ret;
+        if (notify) {
+            sendTextChange(recipients, start, end - start, tbend - tbstart);
+            sendTextHasChanged(recipients);
         }
 
-        boolean atend = (mGapStart + mGapLength == mText.length);
-
-        for (int i = mSpanCount - 1; i >= 0; i--) {
-            if (mSpanStarts[i] >= start &&
-                mSpanStarts[i] < mGapStart + mGapLength) {
-                int flag = (mSpanFlags[i] & START_MASK) >> START_SHIFT;
+        return ret;
+    }
 
-                if (flag == POINT || (flag == PARAGRAPH && atend))
-                    mSpanStarts[i] = mGapStart + mGapLength;
-                else
-                    mSpanStarts[i] = start;
+    /**
+     * 在末尾追加count个字符后，移动结束在原末尾的POINT、PARAGRAPH端点
+     */
+    private void moveSpansAtEnd(int where, int count) {
+        if (count == 0 || mSpanCount == 0) {
+            return;
+        }
+        int found = mSpanTree.query(where, where, mSlotBuffer);
+        if (found == 0) {
+            return;
+        }
+        if (mSlotBuffer.length < found) {
+            mSlotBuffer = new int[found];
+            mSpanTree.query(where, where, mSlotBuffer);
+        }
+        int[] slots = mSlotBuffer;
+
+        for (int i = 0; i < found; i++) {
+            int slot = slots[i];
+            int st = mSpanTree.getStart(slot);
+            int en = mSpanTree.getEnd(slot);
+            int nst = movePoint(st, (mSpanFlags[slot] & START_MASK) >> START_SHIFT,
+                                where, where, count, true);
+            int nen = movePoint(en, mSpanFlags[slot] & END_MASK,
+                                where, where, count, true);
+
+            if (nst != st || nen != en) {
+                mSpanTree.remove(slot);
+                if (nen < nst) {
+                    freeSlot(slot);
+                } else {
+                    mSpanTree.insert(slot, nst, nen);
+                }
             }
+        }
+    }
 
-            if (mSpanEnds[i] >= start &&
-                mSpanEnds[i] < mGapStart + mGapLength) {
-                int flag = (mSpanFlags[i] & END_MASK);
-
-                if (flag == POINT || (flag == PARAGRAPH && atend))
-                    mSpanEnds[i] = mGapStart + mGapLength;
-                else
-                    mSpanEnds[i] = start;
-            }
+    /**
+     * 把[start, end)替换成count个字符后移动全部样式并重建区间树，
+     * 端点在替换范围内时POINT移到新文字之后，MARK留在新文字之前，
+     * PARAGRAPH在末尾时按POINT处理，结束在开始之前的样式删除
+     */
+    private void moveSpans(int start, int end, int count, boolean atend) {
+        if (mSpanCount == 0) {
+            return;
+        }
+        int found = getSpanSlots();
+        int[] slots = mSlotBuffer;
+
+        mSpanTree.clear();
+        for (int i = 0; i < found; i++) {
+            int slot = slots[i];
+            int flags = mSpanFlags[slot];
+            int st = mSpanTree.getStart(slot);
+            int en = mSpanTree.getEnd(slot);
+            int startFlag = (flags & START_MASK) >> START_SHIFT;
+            int endFlag = flags & END_MASK;
+            int nst = movePoint(st, startFlag, start, end, count, atend);
+            int nen = movePoint(en, endFlag, start, end, count, atend);
 
             // remove 0-length SPAN_EXCLUSIVE_EXCLUSIVE
             // XXX send notification on removal
-
-            if (mSpanEnds[i] < mSpanStarts[i]) {
-                System.arraycopy(mSpans, i + 1,
-                                 mSpans, i, mSpanCount - (i + 1));
-                System.arraycopy(mSpanStarts, i + 1,
-                                 mSpanStarts, i, mSpanCount - (i + 1));
-                System.arraycopy(mSpanEnds, i + 1,
-                                 mSpanEnds, i, mSpanCount - (i + 1));
-                System.arraycopy(mSpanFlags, i + 1,
-                                 mSpanFlags, i, mSpanCount - (i + 1));
-
-                mSpanCount--;
+            if (nen < nst || (nen == nst
+                    && !isAfter(en, endFlag, start, end, atend)
+                    && isAfter(st, startFlag, start, end, atend))) {
+                freeSlot(slot);
+            } else {
+                mSpanTree.insert(slot, nst, nen);
             }
         }
+    }
 
-        if (notify) {
-            sendTextChange(recipients, start, end - start, tbend - tbstart);
-            sendTextHasChanged(recipients);
+    private static int movePoint(int where, int flag, int start, int end,
+                                 int count, boolean atend) {
+        if (where < start)
+            return where;
+        if (where > end)
+            return where + count - (end - start);
+        if (isAfter(where, flag, start, end, atend))
+            return start + count;
+        return start;
+    }
+
+    /**
+     * 端点在替换后是否位于新文字之后
+     */
+    private static boolean isAfter(int where, int flag, int start, int end,
+                                   boolean atend) {
+        if (where < start)
+            return false;
+        if (where > end)
+            return true;
+        return flag == POINT || (flag == PARAGRAPH && atend);
+    }
+
+    /**
+     * 在where插入一个空格，端点在where的样式都移到空格之后，用于替换时保持两端样式
+     */
+    private void insertSpace(int where) {
+        int tail = mLength - where;
+        char[] tailChars = new char[tail + 1];
+        tailChars[0] = ' ';
+        getChars(where, mLength, tailChars, 1);
+        ensureCapacity(mLength + 2);
+        writeChars(where, tailChars, 0, tail + 1);
+        mLength++;
+
+        if (mSpanCount == 0) {
+            return;
         }
+        int found = getSpanSlots();
+        int[] slots = mSlotBuffer;
 
-        return ret;
+        mSpanTree.clear();
+        for (int i = 0; i < found; i++) {
+            int slot = slots[i];
+            int st = mSpanTree.getStart(slot);
+            int en = mSpanTree.getEnd(slot);
+
+            mSpanTree.insert(slot, st >= where ? st + 1 : st, en >= where ? en + 1 : en);
+        }
     }
 
     // Documentation from interface
@@ -446,7 +510,6 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
             // instead of this madness!
 
             checkRange("replace", start, end);
-            moveGapTo(end);
             TextWatcher[] recipients;
 
             recipients = sendTextWillChange(start, end - start,
@@ -454,23 +517,7 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
 
             int origlen = end - start;
 
-            if (mGapLength < 2)
-                resizeFor(length() + 1);
-
-            for (int i = mSpanCount - 1; i >= 0; i--) {
-                if (mSpanStarts[i] == mGapStart)
-                    mSpanStarts[i]++;
-
-                if (mSpanEnds[i] == mGapStart)
-                    mSpanEnds[i]++;
-            }
-
-            mText[mGapStart] = ' ';
-            mGapStart++;
-            mGapLength--;
-
-            if (mGapLength < 1)
-                new Exception("mGapLength < 1").printStackTrace();
+            insertSpace(end);
 
             int oldlen = (end + 1) - start;
 
@@ -524,9 +571,6 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
 
     public void setSpan(boolean send,
                          Object what, int start, int end, int flags) {
-        int nstart = start;
-        int nend = end;
-
         checkRange("setSpan", start, end);
 
         if ((flags & START_MASK) == (PARAGRAPH << START_SHIFT)) {
@@ -549,104 +593,143 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
             }
         }
 
-        if (start > mGapStart)
-            start += mGapLength;
-        else if (start == mGapStart) {
-            int flag = (flags & START_MASK) >> START_SHIFT;
+        Integer index = mSpanSlots.get(what);
+        if (index != null) {
+            int slot = index;
+            int ostart = mSpanTree.getStart(slot);
+            int oend = mSpanTree.getEnd(slot);
 
-            if (flag == POINT || (flag == PARAGRAPH && start == length()))
-                start += mGapLength;
-        }
+            mSpanTree.remove(slot);
+            mSpanTree.insert(slot, start, end);
+            setSpanFlags(slot, flags);
 
-        if (end > mGapStart)
-            end += mGapLength;
-        else if (end == mGapStart) {
-            int flag = (flags & END_MASK);
+            if (send) 
+                sendSpanChanged(what, ostart, oend, start, end);
 
-            if (flag == POINT || (flag == PARAGRAPH && end == length()))
-                end += mGapLength;
+            return;
         }
 
-        int count = mSpanCount;
-        Object[] spans = mSpans;
-
-        for (int i = 0; i < count; i++) {
-            if (spans[i] == what) {
-                int ostart = mSpanStarts[i];
-                int oend = mSpanEnds[i];
-
-                if (ostart > mGapStart)
-                    ostart -= mGapLength;
-                if (oend > mGapStart)
-                    oend -= mGapLength;
-
-                mSpanStarts[i] = start;
-                mSpanEnds[i] = end;
-                mSpanFlags[i] = flags;
-
-                if (send) 
-                    sendSpanChanged(what, ostart, oend, nstart, nend);
-
-                return;
+        int slot;
+        if (mFreeCount > 0) {
+            slot = mFreeSlots[--mFreeCount];
+        } else {
+            if (mSlotCount + 1 >= mSpans.length) {
+                int newsize = ArrayUtils.idealIntArraySize(mSlotCount + 1);
+
+                mSpans = Arrays.copyOf(mSpans, newsize);
+                mSpanFlags = Arrays.copyOf(mSpanFlags, newsize);
+                mSpanOrders = Arrays.copyOf(mSpanOrders, newsize);
+                mFreeSlots = Arrays.copyOf(mFreeSlots, newsize);
+                mSpanTree.ensureCapacity(newsize);
             }
+            slot = mSlotCount++;
         }
-
-        if (mSpanCount + 1 >= mSpans.length) {
-            int newsize = ArrayUtils.idealIntArraySize(mSpanCount + 1);
-            Object[] newspans = new Object[newsize];
-            int[] newspanstarts = new int[newsize];
-            int[] newspanends = new int[newsize];
-            int[] newspanflags = new int[newsize];
-
-            System.arraycopy(mSpans, 0, newspans, 0, mSpanCount);
-            System.arraycopy(mSpanStarts, 0, newspanstarts, 0, mSpanCount);
-            System.arraycopy(mSpanEnds, 0, newspanends, 0, mSpanCount);
-            System.arraycopy(mSpanFlags, 0, newspanflags, 0, mSpanCount);
-
-            mSpans = newspans;
-            mSpanStarts = newspanstarts;
-            mSpanEnds = newspanends;
-            mSpanFlags = newspanflags;
-        }
-
-        mSpans[mSpanCount] = what;
-        mSpanStarts[mSpanCount] = start;
-        mSpanEnds[mSpanCount] = end;
-        mSpanFlags[mSpanCount] = flags;
+        if (mNextSpanOrder == Integer.MAX_VALUE)
+            renumberSpans();
+
+        mSpans[slot] = what;
+        mSpanFlags[slot] = 0;
+        setSpanFlags(slot, flags);
+        mSpanOrders[slot] = mNextSpanOrder++;
+        mSpanSlots.put(what, slot);
+        mSpanTree.insert(slot, start, end);
         mSpanCount++;
 
         if (send)
-            sendSpanAdded(what, nstart, nend);
+            sendSpanAdded(what, start, end);
+    }
+
+    private void setSpanFlags(int slot, int flags) {
+        if ((mSpanFlags[slot] & SPAN_PARAGRAPH) == SPAN_PARAGRAPH)
+            mParagraphSpanCount--;
+        if ((flags & SPAN_PARAGRAPH) == SPAN_PARAGRAPH)
+            mParagraphSpanCount++;
+        mSpanFlags[slot] = flags;
     }
 
     /**
      * Remove the specified markup object from the buffer.
      */
     public void removeSpan(Object what) {
-        for (int i = mSpanCount - 1; i >= 0; i--) {
-            if (mSpans[i] == what) {
-                int ostart = mSpanStarts[i];
-                int oend = mSpanEnds[i];
+        Integer index = mSpanSlots.get(what);
+        if (index != null) {
+            int slot = index;
+            int ostart = mSpanTree.getStart(slot);
+            int oend = mSpanTree.getEnd(slot);
 
-                if (ostart > mGapStart)
-                    ostart -= mGapLength;
-                if (oend > mGapStart)
-                    oend -= mGapLength;
+            freeSpan(slot);
 
-                int count = mSpanCount - (i + 1);
+            sendSpanRemoved(what, ostart, oend);
+        }
+    }
 
-                System.arraycopy(mSpans, i + 1, mSpans, i, count);
-                System.arraycopy(mSpanStarts, i + 1, mSpanStarts, i, count);
-                System.arraycopy(mSpanEnds, i + 1, mSpanEnds, i, count);
-                System.arraycopy(mSpanFlags, i + 1, mSpanFlags, i, count);
+    private void freeSpan(int slot) {
+        mSpanTree.remove(slot);
+        freeSlot(slot);
+    }
 
-                mSpanCount--;
-                mSpans[mSpanCount] = null;
+    /**
+     * 释放槽位，调用前需已从区间树中删除
+     */
+    private void freeSlot(int slot) {
+        mSpanSlots.remove(mSpans[slot]);
+        setSpanFlags(slot, 0);
+        mSpans[slot] = null;
+        mFreeSlots[mFreeCount++] = slot;
+        mSpanCount--;
+    }
 
-                sendSpanRemoved(what, ostart, oend);
-                return;
+    /**
+     * 全部样式的槽位按添加顺序放在mSlotBuffer
+     * @return 样式数
+     */
+    private int getSpanSlots() {
+        if (mSlotBuffer.length < mSpanCount) {
+            mSlotBuffer = new int[mSpanCount];
+        }
+        int count = 0;
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            if (mSpans[slot] != null) {
+                mSlotBuffer[count++] = slot;
             }
         }
+        sortByOrder(mSlotBuffer, count);
+        return count;
+    }
+
+    private void sortByOrder(int[] slots, int count) {
+        int[] orders = mSpanOrders;
+        if (count <= 16) {
+            for (int i = 1; i < count; i++) {
+                int slot = slots[i];
+                int j = i - 1;
+                while (j >= 0 && orders[slots[j]] > orders[slot]) {
+                    slots[j + 1] = slots[j];
+                    j--;
+                }
+                slots[j + 1] = slot;
+            }
+            return;
+        }
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) orders[slots[i]] << 32) | slots[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            slots[i] = (int) keys[i];
+        }
+    }
+
+    /**
+     * 添加顺序用尽时按现有顺序重新编号
+     */
+    private void renumberSpans() {
+        int count = getSpanSlots();
+        for (int i = 0; i < count; i++) {
+            mSpanOrders[mSlotBuffer[i]] = i;
+        }
+        mNextSpanOrder = count;
     }
 
     /**
@@ -654,21 +737,9 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
      * markup object, or -1 if it is not attached to this buffer.
      */
     public int getSpanStart(Object what) {
-        int count = mSpanCount;
-        Object[] spans = mSpans;
-
-        for (int i = count - 1; i >= 0; i--) {
-            if (spans[i] == what) {
-                int where = mSpanStarts[i];
+        Integer index = mSpanSlots.get(what);
 
-                if (where > mGapStart)
-                    where -= mGapLength;
-
-                return where;
-            }
-        }
-
-        return -1;
+        return index != null ? mSpanTree.getStart(index) : -1;
     }
 
     /**
@@ -676,21 +747,9 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
      * markup object, or -1 if it is not attached to this buffer.
      */
     public int getSpanEnd(Object what) {
-        int count = mSpanCount;
-        Object[] spans = mSpans;
-
-        for (int i = count - 1; i >= 0; i--) {
-            if (spans[i] == what) {
-                int where = mSpanEnds[i];
-
-                if (where > mGapStart)
-                    where -= mGapLength;
+        Integer index = mSpanSlots.get(what);
 
-                return where;
-            }
-        }
-
-        return -1;
+        return index != null ? mSpanTree.getEnd(index) : -1;
     }
 
     /**
@@ -698,16 +757,9 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
      * markup object, or 0 if it is not attached to this buffer.
      */
     public int getSpanFlags(Object what) {
-        int count = mSpanCount;
-        Object[] spans = mSpans;
+        Integer index = mSpanSlots.get(what);
 
-        for (int i = count - 1; i >= 0; i--) {
-            if (spans[i] == what) {
-                return mSpanFlags[i];
-            }
-        }
-
-        return 0; 
+        return index != null ? mSpanFlags[index] : 0; 
     }
 
     /**
@@ -716,35 +768,15 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
      * a list of all the spans regardless of type.
      */
     public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
-        int spanCount = mSpanCount;
+        int found = mSpanCount == 0 ? 0 : querySlots(queryStart, queryEnd);
+        int[] slots = sQuerySlots.get();
         Object[] spans = mSpans;
-        int[] starts = mSpanStarts;
-        int[] ends = mSpanEnds;
-        int[] flags = mSpanFlags;
-        int gapstart = mGapStart;
-        int gaplen = mGapLength;
 
         int count = 0;
-        Object[] ret = null;
-        Object ret1 = null;
-
-        for (int i = 0; i < spanCount; i++) {
-            int spanStart = starts[i];
-            int spanEnd = ends[i];
-
-            if (spanStart > gapstart) {
-                spanStart -= gaplen;
-            }
-            if (spanEnd > gapstart) {
-                spanEnd -= gaplen;
-            }
-
-            if (spanStart > queryEnd) {
-                continue;
-            }
-            if (spanEnd < queryStart) {
-                continue;
-            }
+        for (int i = 0; i < found; i++) {
+            int slot = slots[i];
+            int spanStart = mSpanTree.getStart(slot);
+            int spanEnd = mSpanTree.getEnd(slot);
 
             if (spanStart != spanEnd && queryStart != queryEnd) {
                 if (spanStart == queryEnd)
@@ -753,55 +785,40 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
                     continue;
             }
 
-            if (kind != null && !kind.isInstance(spans[i])) {
+            if (kind != null && !kind.isInstance(spans[slot])) {
                 continue;
             }
 
-            if (count == 0) {
-                ret1 = spans[i];
-                count++;
-            } else {
-                if (count == 1) {
-                    ret = (Object[]) Array.newInstance(kind, spanCount - i + 1);
-                    ret[0] = ret1;
-                }
+            slots[count++] = slot;
+        }
 
-                int prio = flags[i] & SPAN_PRIORITY;
-                if (prio != 0) {
-                    int j;
+        if (count == 0) {
+            return (T[]) ArrayUtils.emptyArray(kind);
+        }
+        sortByOrder(slots, count);
 
-                    for (j = 0; j < count; j++) {
-                        int p = getSpanFlags(ret[j]) & SPAN_PRIORITY;
+        Object[] ret = (Object[]) Array.newInstance(kind, count);
+        for (int i = 0; i < count; i++) {
+            int slot = slots[i];
+            int prio = mSpanFlags[slot] & SPAN_PRIORITY;
+            if (i > 0 && prio != 0) {
+                int j;
 
-                        if (prio > p) {
-                            break;
-                        }
-                    }
+                for (j = 0; j < i; j++) {
+                    int p = getSpanFlags(ret[j]) & SPAN_PRIORITY;
 
-                    System.arraycopy(ret, j, ret, j + 1, count - j);
-                    ret[j] = spans[i];
-                    count++;
-                } else {
-                    ret[count++] = spans[i];
+                    if (prio > p) {
+                        break;
+                    }
                 }
-            }
-        }
 
-        if (count == 0) {
-            return (T[]) ArrayUtils.emptyArray(kind);
-        }
-        if (count == 1) {
-            ret = (Object[]) Array.newInstance(kind, 1);
-            ret[0] = ret1;
-            return (T[]) ret;
-        }
-        if (count == ret.length) {
-            return (T[]) ret;
+                System.arraycopy(ret, j, ret, j + 1, i - j);
+                ret[j] = spans[slot];
+            } else {
+                ret[i] = spans[slot];
+            }
         }
-
-        Object[] nret = (Object[]) Array.newInstance(kind, count);
-        System.arraycopy(ret, 0, nret, 0, count);
-        return (T[]) nret;
+        return (T[]) ret;
     }
 
     /**
@@ -810,35 +827,46 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
      * begins or ends.
      */
     public int nextSpanTransition(int start, int limit, Class kind) {
-        int count = mSpanCount;
+        if (mSpanCount == 0) {
+            return limit;
+        }
+        int found = querySlots(start, limit);
+        int[] slots = sQuerySlots.get();
         Object[] spans = mSpans;
-        int[] starts = mSpanStarts;
-        int[] ends = mSpanEnds;
-        int gapstart = mGapStart;
-        int gaplen = mGapLength;
 
         if (kind == null) {
             kind = Object.class;
         }
 
-        for (int i = 0; i < count; i++) {
-            int st = starts[i];
-            int en = ends[i];
-
-            if (st > gapstart)
-                st -= gaplen;
-            if (en > gapstart)
-                en -= gaplen;
+        for (int i = 0; i < found; i++) {
+            int st = mSpanTree.getStart(slots[i]);
+            int en = mSpanTree.getEnd(slots[i]);
 
-            if (st > start && st < limit && kind.isInstance(spans[i]))
+            if (st > start && st < limit && kind.isInstance(spans[slots[i]]))
                 limit = st;
-            if (en > start && en < limit && kind.isInstance(spans[i]))
+            if (en > start && en < limit && kind.isInstance(spans[slots[i]]))
                 limit = en;
         }
 
         return limit;
     }
 
+    /**
+     * 查询与区间重叠的样式，槽位放在当前线程的sQuerySlots中；
+     * 排版线程和主线程会同时读取，不能共用实例上的数组
+     * @return 结果数
+     */
+    private int querySlots(int start, int end) {
+        int[] slots = sQuerySlots.get();
+        int found = mSpanTree.query(start, end, slots);
+        if (found > slots.length) {
+            slots = new int[ArrayUtils.idealIntArraySize(found)];
+            sQuerySlots.set(slots);
+            mSpanTree.query(start, end, slots);
+        }
+        return found;
+    }
+
     /**
      * Return a new CharSequence containing a copy of the specified
      * range of this buffer, including the overlapping spans.
@@ -854,16 +882,12 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
     public void getChars(int start, int end, char[] dest, int destoff) {
         checkRange("getChars", start, end);
 
-        if (end <= mGapStart) {
-            System.arraycopy(mText, start, dest, destoff, end - start);
-        } else if (start >= mGapStart) {
-            System.arraycopy(mText, start + mGapLength,
-                             dest, destoff, end - start);
-        } else {
-            System.arraycopy(mText, start, dest, destoff, mGapStart - start);
-            System.arraycopy(mText, mGapStart + mGapLength,
-                             dest, destoff + (mGapStart - start),
-                             end - mGapStart);
+        while (start < end) {
+            int offset = start & CHUNK_MASK;
+            int count = Math.min(CHUNK_SIZE - offset, end - start);
+            System.arraycopy(mChunks[start >> CHUNK_SHIFT], offset, dest, destoff, count);
+            start += count;
+            destoff += count;
         }
     }
 
@@ -984,15 +1008,38 @@ implements CharSequence, GetChars, Spannable, Editable, Appendable
     private static final InputFilter[] NO_FILTERS = new InputFilter[0];
     private InputFilter[] mFilters = NO_FILTERS;
 
-    private char[] mText;
-    private int mGapStart;
-    private int mGapLength;
+    /** 每块的字符数*/
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private char[][] mChunks;
+    private int mChunkCount;
+    private int mCapacity;
+    private int mLength;
 
+    /** 样式按槽位保存，删除的槽位放入mFreeSlots复用*/
     private Object[] mSpans;
-    private int[] mSpanStarts;
-    private int[] mSpanEnds;
     private int[] mSpanFlags;
+    /** 添加顺序，getSpans按该顺序返回*/
+    private int[] mSpanOrders;
+    private int mNextSpanOrder;
+    private int[] mFreeSlots;
+    private int mFreeCount;
+    private int mSlotCount;
     private int mSpanCount;
+    private int mParagraphSpanCount;
+    /** 修改样式时使用的槽位数组，只在修改的线程使用*/
+    private int[] mSlotBuffer = new int[16];
+    /** 查询样式的槽位数组，每个线程一份*/
+    private static final ThreadLocal<int[]> sQuerySlots = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+    private final IdentityHashMap<Object, Integer> mSpanSlots = new IdentityHashMap<Object, Integer>();
+    private SpanIntervalTree mSpanTree;
 
     private static final int MARK = 1;
     private static final int POINT = 2;
@@ -7,6 +7,7 @@ import com.season.book.plugin.epub.Resource;
 import com.season.book.plugin.text.TextPlugin;
 import com.season.book.plugin.umd.UmdPlugin;
 
+import java.io.Reader;
 import java.util.ArrayList;
 
 /**
@@ -96,6 +97,26 @@ public abstract class PluginManager {
      */
     public abstract String getChapter(int chapterIndex) throws Exception;
 
+    /**
+     * 获取某位置章节的纯文本内容，不经过HTML生成和解析，直接按段落排版
+     * @param chapterIndex
+     * @return NULL表示不支持，使用{@link #getChapter(int)}
+     * @throws Exception
+     */
+    public Reader getChapterReader(int chapterIndex) throws Exception {
+        return null;
+    }
+
+    /**
+     * 获取某位置章节的HTML内容读取器，边读取边解析，不生成整章的字符串
+     * @param chapterIndex
+     * @return NULL表示不支持，使用{@link #getChapter(int)}
+     * @throws Exception
+     */
+    public Reader getChapterHtmlReader(int chapterIndex) throws Exception {
+        return null;
+    }
+
     /**
      * 获取修正内容信息
      * @param content
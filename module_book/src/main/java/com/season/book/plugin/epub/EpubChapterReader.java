@@ -0,0 +1,128 @@
+package com.season.book.plugin.epub;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/** EPUB章节解码
+ * 1.按BOM、XML声明、meta标签确定编码，都没有时使用UTF-8
+ * 2.章节流边解压边解码，不生成整章的byte[]和String
+ */
+final class EpubChapterReader {
+	/** 读取编码声明的字节数*/
+	private static final int HEAD_LENGTH = 2 * 1024;
+	/** 分段解码的缓存大小*/
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	private EpubChapterReader(){
+	}
+
+	/** 打开章节内容读取器，返回NULL时流已关闭
+	 * @param inputStream 章节数据流
+	 * @return 内容不是完整的HTML文档(需要{@link EpubPlugin#getFixHtml(String)}补全)返回NULL
+	 * @throws IOException
+	 */
+	static Reader open(InputStream inputStream) throws IOException{
+		BufferedInputStream in = new BufferedInputStream(inputStream, BUFFER_SIZE);
+		byte[] head = new byte[HEAD_LENGTH];
+		in.mark(HEAD_LENGTH);
+		int length = 0;
+		int count;
+		while(length < head.length && (count = in.read(head, length, head.length - length)) != -1){
+			length += count;
+		}
+		in.reset();
+		String headText = new String(head, 0, length, "ISO-8859-1");
+		int bomLength = getBomLength(head, length);
+		String charset = detectCharset(head, length, headText);
+		//UTF-16的标签不能按单字节查找，交给解析器处理
+		if(bomLength != 2 && headText.indexOf("<html") == -1){
+			in.close();
+			return null;
+		}
+		in.skip(bomLength);
+		return new InputStreamReader(in, charset);
+	}
+
+	/** 按声明的编码解码整章内容
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	static String decode(byte[] data) throws IOException{
+		int length = Math.min(data.length, HEAD_LENGTH);
+		int bomLength = getBomLength(data, length);
+		String charset = detectCharset(data, length, new String(data, 0, length, "ISO-8859-1"));
+		return new String(data, bomLength, data.length - bomLength, charset);
+	}
+
+	private static int getBomLength(byte[] head, int length){
+		if(length >= 3 && (head[0] & 0xff) == 0xef && (head[1] & 0xff) == 0xbb && (head[2] & 0xff) == 0xbf){
+			return 3;
+		}
+		if(length >= 2 && (((head[0] & 0xff) == 0xfe && (head[1] & 0xff) == 0xff)
+				|| ((head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xfe))){
+			return 2;
+		}
+		return 0;
+	}
+
+	private static String detectCharset(byte[] head, int length, String headText){
+		if(length >= 2 && (head[0] & 0xff) == 0xfe && (head[1] & 0xff) == 0xff){
+			return "UTF-16BE";
+		}
+		if(length >= 2 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xfe){
+			return "UTF-16LE";
+		}
+		String charset = null;
+		if(headText.startsWith("<?xml", getBomLength(head, length))){
+			int end = headText.indexOf("?>");
+			charset = findValue(headText, "encoding", end);
+		}
+		if(charset == null){
+			int end = headText.indexOf("</head");
+			charset = findValue(headText, "charset", end);
+		}
+		try {
+			if(charset != null && Charset.isSupported(charset)){
+				return charset;
+			}
+		} catch (Exception e) {
+		}
+		return DEFAULT_CHARSET;
+	}
+
+	/** 查找name=value或name="value"形式的值
+	 * @param end 查找范围，-1表示全部
+	 * @return 没有找到返回NULL
+	 */
+	private static String findValue(String text, String name, int end){
+		if(end < 0){
+			end = text.length();
+		}
+		int index = text.toLowerCase().indexOf(name);
+		if(index < 0 || index >= end){
+			return null;
+		}
+		index += name.length();
+		while(index < end && (text.charAt(index) == ' ' || text.charAt(index) == '=')){
+			index++;
+		}
+		if(index < end && (text.charAt(index) == '"' || text.charAt(index) == '\'')){
+			index++;
+		}
+		int start = index;
+		while(index < end){
+			char c = text.charAt(index);
+			if(c == '"' || c == '\'' || c == ';' || c == '>' || c == '?' || c == '/' || Character.isWhitespace(c)){
+				break;
+			}
+			index++;
+		}
+		return index > start ? text.substring(start, index) : null;
+	}
+}
@@ -0,0 +1,284 @@
+package com.season.book.plugin.epub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/** EPUB压缩包
+ * 1.每本书只打开一次压缩包，打开时按规范化路径建立目录索引，查找资源不再遍历
+ * 2.相对路径、带“../”的路径按文件名索引做后缀匹配
+ * 3.解压后的小文件按LRU缓存，超过上限时淘汰最久未使用的
+ * 4.记录命中率和解压耗时
+ * 5.多个线程读取，方法都加锁
+ */
+final class EpubContainer {
+	/** 解压缓存的最大字节数*/
+	private static final int MAX_CACHE_SIZE = 4 * 1024 * 1024;
+	/** 超过该大小的文件不缓存，直接从压缩包读取*/
+	private static final int MAX_ENTRY_SIZE = 512 * 1024;
+
+	private final String mFilePath;
+	private ZipFile mZipFile;
+	/** 规范化路径对应的压缩包条目*/
+	private final HashMap<String, ZipEntry> mEntries;
+	/** 文件名对应的规范化路径，用于后缀匹配*/
+	private final HashMap<String, ArrayList<String>> mNameEntries;
+	private final LinkedHashMap<String, byte[]> mCache;
+	private int mCacheSize;
+	private String mBasePath;
+
+	private int mHitCount;
+	private int mMissCount;
+	private long mReadTime;
+	private long mReadLength;
+
+	EpubContainer(String filePath){
+		mFilePath = filePath;
+		mEntries = new HashMap<String, ZipEntry>();
+		mNameEntries = new HashMap<String, ArrayList<String>>();
+		mCache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	}
+
+	/**
+	 * 打开压缩包并建立目录索引
+	 */
+	synchronized void open() throws IOException{
+		if(mZipFile != null){
+			return;
+		}
+		mZipFile = new ZipFile(mFilePath);
+		Enumeration<? extends ZipEntry> enumeration = mZipFile.entries();
+		while(enumeration.hasMoreElements()){
+			ZipEntry zipEntry = enumeration.nextElement();
+			if(zipEntry.isDirectory()){
+				continue;
+			}
+			String path = normalize(zipEntry.getName());
+			mEntries.put(path, zipEntry);
+			String name = getFileName(path);
+			ArrayList<String> paths = mNameEntries.get(name);
+			if(paths == null){
+				paths = new ArrayList<String>(1);
+				mNameEntries.put(name, paths);
+			}
+			paths.add(path);
+		}
+	}
+
+	/**
+	 * 设置相对路径的根目录，即OPF文件所在目录
+	 */
+	synchronized void setBasePath(String opfFilePath){
+		int index = opfFilePath.lastIndexOf('/');
+		mBasePath = index > 0 ? opfFilePath.substring(0, index + 1) : null;
+	}
+
+	/**
+	 * 查找资源在压缩包里的路径
+	 * 先精确匹配，再按OPF目录解析相对路径，最后按文件名做后缀匹配
+	 * @return 没有找到返回NULL
+	 */
+	synchronized String findEntryName(String href){
+		if(href == null){
+			return null;
+		}
+		String path = normalize(href);
+		if(path.length() == 0){
+			return null;
+		}
+		if(mEntries.containsKey(path)){
+			return path;
+		}
+		if(mBasePath != null){
+			String basePath = normalize(mBasePath + href);
+			if(mEntries.containsKey(basePath)){
+				return basePath;
+			}
+		}
+		ArrayList<String> paths = mNameEntries.get(getFileName(path));
+		if(paths != null){
+			for(String entryPath : paths){
+				if(isSuffix(entryPath, path) || isSuffix(path, entryPath)){
+					return entryPath;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return 没有该资源返回NULL
+	 */
+	synchronized byte[] getData(String href) throws IOException{
+		String path = findEntryName(href);
+		if(path == null){
+			return null;
+		}
+		byte[] data = mCache.get(path);
+		if(data != null){
+			mHitCount++;
+			return data;
+		}
+		mMissCount++;
+		data = read(mEntries.get(path));
+		put(path, data);
+		return data;
+	}
+
+	/**
+	 * 小文件从缓存读取，大文件(如音视频)直接返回压缩包的流，关闭流不会关闭压缩包
+	 * @return 没有该资源返回NULL
+	 */
+	synchronized InputStream getInputStream(String href) throws IOException{
+		String path = findEntryName(href);
+		if(path == null){
+			return null;
+		}
+		ZipEntry zipEntry = mEntries.get(path);
+		if(zipEntry.getSize() > MAX_ENTRY_SIZE){
+			mMissCount++;
+			return mZipFile.getInputStream(zipEntry);
+		}
+		return new ByteArrayInputStream(getData(path));
+	}
+
+	/**
+	 * 打开资源流，已缓存时从缓存读取，否则边解压边读取且不放入缓存(如章节内容，解析结果另有缓存)
+	 * @return 没有该资源返回NULL
+	 */
+	synchronized InputStream openStream(String href) throws IOException{
+		String path = findEntryName(href);
+		if(path == null){
+			return null;
+		}
+		byte[] data = mCache.get(path);
+		if(data != null){
+			mHitCount++;
+			return new ByteArrayInputStream(data);
+		}
+		mMissCount++;
+		return mZipFile.getInputStream(mEntries.get(path));
+	}
+
+	/**
+	 * 关闭压缩包并清空索引和缓存，之后读取都返回NULL
+	 */
+	synchronized void close(){
+		if(mZipFile != null){
+			try {
+				mZipFile.close();
+			} catch (IOException e) {
+			}
+			mZipFile = null;
+		}
+		mCache.clear();
+		mCacheSize = 0;
+		mEntries.clear();
+		mNameEntries.clear();
+	}
+
+	synchronized String getMetrics(){
+		int requestCount = mHitCount + mMissCount;
+		StringBuilder builder = new StringBuilder();
+		builder.append("hit:").append(mHitCount)
+				.append(" miss:").append(mMissCount)
+				.append(" rate:").append(requestCount > 0 ? mHitCount * 100 / requestCount : 0).append('%')
+				.append(" read:").append(mReadLength / 1024).append("KB")
+				.append(" avg:").append(mMissCount > 0 ? mReadTime / mMissCount / 1000 / 1000f : 0).append("ms")
+				.append(" cache:").append(mCacheSize / 1024).append("KB");
+		return builder.toString();
+	}
+
+	private byte[] read(ZipEntry zipEntry) throws IOException{
+		long startTime = System.nanoTime();
+		InputStream inputStream = mZipFile.getInputStream(zipEntry);
+		try {
+			long size = zipEntry.getSize();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int) size : 8 * 1024);
+			byte[] buffer = new byte[8 * 1024];
+			int length;
+			while((length = inputStream.read(buffer)) != -1){
+				out.write(buffer, 0, length);
+			}
+			byte[] data = out.toByteArray();
+			mReadLength += data.length;
+			return data;
+		} finally {
+			inputStream.close();
+			mReadTime += System.nanoTime() - startTime;
+		}
+	}
+
+	private void put(String path,byte[] data){
+		if(data.length > MAX_ENTRY_SIZE){
+			return;
+		}
+		mCache.put(path, data);
+		mCacheSize += data.length;
+		Iterator<Map.Entry<String, byte[]>> iterator = mCache.entrySet().iterator();
+		while(mCacheSize > MAX_CACHE_SIZE && iterator.hasNext()){
+			mCacheSize -= iterator.next().getValue().length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * 统一分隔符，去掉锚点、开头的“/”和“./”，解析“../”
+	 */
+	static String normalize(String href){
+		String path = href.replace('\\', '/');
+		int index = path.indexOf('#');
+		if(index >= 0){
+			path = path.substring(0, index);
+		}
+		if(path.indexOf("./") < 0 && path.indexOf("//") < 0 && !path.startsWith("/")){
+			return path;
+		}
+		String[] parts = path.split("/");
+		ArrayList<String> names = new ArrayList<String>(parts.length);
+		for(String part : parts){
+			if(part.length() == 0 || part.equals(".")){
+				continue;
+			}
+			if(part.equals("..")){
+				if(names.size() > 0){
+					names.remove(names.size() - 1);
+				}
+				continue;
+			}
+			names.add(part);
+		}
+		StringBuilder builder = new StringBuilder(path.length());
+		for(int i = 0;i < names.size();i++){
+			if(i > 0){
+				builder.append('/');
+			}
+			builder.append(names.get(i));
+		}
+		return builder.toString();
+	}
+
+	private static String getFileName(String path){
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * suffix是否是path按目录对齐的后缀
+	 */
+	private static boolean isSuffix(String path,String suffix){
+		if(!path.endsWith(suffix)){
+			return false;
+		}
+		int index = path.length() - suffix.length();
+		return index == 0 || path.charAt(index - 1) == '/';
+	}
+}
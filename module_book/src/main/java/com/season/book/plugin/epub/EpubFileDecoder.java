@@ -39,6 +39,7 @@ public class EpubFileDecoder extends DefaultHandler {
 
 	private BookInfo bookInfo;
 	private String filePath;
+	private EpubContainer container;
 	private String navFilePath;
 	private String navFileId;
 	private String ncxId;
@@ -50,6 +51,11 @@ public class EpubFileDecoder extends DefaultHandler {
 		this.filePath = filePath;
 	}
 
+	EpubFileDecoder(EpubContainer container, String filePath){
+		this(filePath);
+		this.container = container;
+	}
+
 	public String getNavFilePath(){
 		return navFilePath;
 	}
@@ -152,7 +158,7 @@ public class EpubFileDecoder extends DefaultHandler {
 			if(isManifest){
 				String href = attributes.getValue("href");
 				String id = attributes.getValue("id");
-				Resource resource = new Resource(filePath, href,id, attributes.getValue("media-type"));
+				Resource resource = new Resource(container, filePath, href,id, attributes.getValue("media-type"));
 				idResources.put(id, resource);
 				hrefResources.put(href, resource);
 				if("nav".equals(attributes.getValue("properties"))){
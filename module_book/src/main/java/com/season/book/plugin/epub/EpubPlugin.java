@@ -2,19 +2,15 @@ package com.season.book.plugin.epub;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import android.text.TextUtils;
 
-import com.season.lib.support.file.IOUtil;
 import com.season.lib.support.file.XMLUtil;
 import com.season.book.bean.Catalog;
 import com.season.book.plugin.PluginManager;
@@ -33,7 +29,9 @@ public class EpubPlugin extends PluginManager {
 	private HashMap<String, Resource> manifestIdResources;
 	private HashMap<String, Resource> manifestHrefResources;
 	private HashMap<String,Catalog> catalogHrefMap;
-	private HashMap<String, Resource> allResources = new HashMap<String, Resource>();
+	private HashMap<String, Resource> entryResources;
+	/** 书籍压缩包，整本书只打开一次 */
+	private EpubContainer container;
 
 	/** 书籍章节ID列表 */
 	private ArrayList<String> chapterIds = new ArrayList<String>();
@@ -44,57 +42,24 @@ public class EpubPlugin extends PluginManager {
 
 	public void init() throws Exception {
 		boolean hadContainerfile = false;
-		ZipFile zipFile = new ZipFile(filePath);
-		ZipEntry zipEntry = null;
-		Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
-		if(enumeration != null){
-			for (;enumeration.hasMoreElements();) {
-				zipEntry = enumeration.nextElement();
-				String name = zipEntry.getName();
-				//LogUtil.i(">>zip entry name: ", zipEntry.getName());
-				if(zipEntry.isDirectory()){
-					continue;
-				}
-				allResources.put(name, new Resource(filePath, name));
-				if(CONTAINER_FILE_LOCATION.equals(name)){//解析container.xml文件获取OPF文件路径
-					InputStream inputStream = zipFile.getInputStream(zipEntry);
-					byte[] data = IOUtil.toByteArray(inputStream);
-					inputStream.close();
-					ContainerDecoder handler = new ContainerDecoder();
-					if(XMLUtil.parserXml(handler, data)){
-						opfFilePath = handler.getOpfFilePath();
-						hadContainerfile = true;
-						LogUtil.i("opf file filePath: ", opfFilePath);
-					}
-				}
-				if(opfFilePath != null && opfFilePath.equals(name)){//查找OFP文件，并解析
-					InputStream inputStream = zipFile.getInputStream(zipEntry);
-					initBookInfo(inputStream);
-					inputStream.close();
-				}
+		container = new EpubContainer(filePath);
+		container.open();
+		byte[] containerData = container.getData(CONTAINER_FILE_LOCATION);
+		if(containerData != null){//解析container.xml文件获取OPF文件路径
+			ContainerDecoder handler = new ContainerDecoder();
+			if(XMLUtil.parserXml(handler, containerData)){
+				opfFilePath = handler.getOpfFilePath();
+				hadContainerfile = true;
+				LogUtil.i("opf file filePath: ", opfFilePath);
 			}
 		}
-		zipFile.close();
-		if(bookInfo == null){//如果之前没解析到，重新解析获取书籍信息
-			if(opfFilePath == null){
-				opfFilePath = DEFAULT_OPF_FILE_LOCATION;
-			}
-			zipFile = new ZipFile(filePath);
-			enumeration = zipFile.entries();
-			if(enumeration != null){
-				for (;enumeration.hasMoreElements();) {
-					zipEntry = enumeration.nextElement();
-					String name = zipEntry.getName();
-					//LogUtil.i("zip entry name: ", zipEntry.getName());
-					if(zipEntry.isDirectory()){
-						continue;
-					}
-					if(opfFilePath != null && opfFilePath.equals(name)){//查找OFP文件，并解析
-						initBookInfo(zipFile.getInputStream(zipEntry));
-					}
-				}
-			}
-			zipFile.close();
+		if(opfFilePath == null){
+			opfFilePath = DEFAULT_OPF_FILE_LOCATION;
+		}
+		container.setBasePath(opfFilePath);
+		byte[] opfData = container.getData(opfFilePath);
+		if(opfData != null){//查找OFP文件，并解析
+			initBookInfo(opfData);
 		}
 		if(!hadContainerfile){//没找到META-INF/container.xml文件，则认为不是正确的EPUB格式书籍
 			throw new Exception(filePath + " isn't a epub epub_book file!");
@@ -152,13 +117,12 @@ public class EpubPlugin extends PluginManager {
 	}
 
 	/** 初始化书籍信息
-	 * @param zis
+	 * @param data
 	 * @throws IOException
 	 */
-	private void initBookInfo(InputStream zis) throws IOException {
+	private void initBookInfo(byte[] data) throws IOException {
 		//LogUtil.i("initBookInfo: ");
-		byte[] data = IOUtil.toByteArray(zis);
-		EpubFileDecoder handler = new EpubFileDecoder(filePath);
+		EpubFileDecoder handler = new EpubFileDecoder(container, filePath);
 		if(XMLUtil.parserXml(handler, data)){
 			//解析书籍信息
 			bookInfo = handler.getBookInfo();
@@ -221,7 +185,10 @@ public class EpubPlugin extends PluginManager {
 
 	@Override
 	public void recyle() {
-		
+		if(container != null){
+			LogUtil.i("epub container: ", container.getMetrics());
+			container.close();
+		}
 	}
 
 	@Override
@@ -253,7 +220,22 @@ public class EpubPlugin extends PluginManager {
 	public String getChapter(int chapterID) throws Exception {
 		Resource resource = manifestIdResources.get(getChapterIds().get(chapterID));
 		if(resource != null){
-			return new String(resource.getData());
+			byte[] data = resource.getData();
+			if(data != null){
+				return EpubChapterReader.decode(data);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Reader getChapterHtmlReader(int chapterID) throws Exception {
+		Resource resource = manifestIdResources.get(getChapterIds().get(chapterID));
+		if(resource != null){
+			InputStream inputStream = resource.openStream();
+			if(inputStream != null){
+				return EpubChapterReader.open(inputStream);
+			}
 		}
 		return null;
 	}
@@ -263,21 +245,12 @@ public class EpubPlugin extends PluginManager {
 		if(!TextUtils.isEmpty(path)){
 			if(manifestHrefResources != null){
 				resource = manifestHrefResources.get(path);
-				if(resource == null){//校验是否获取到资源，如果无法获取到资源，重新遍历资源MAP
-					Set<String> keys = manifestHrefResources.keySet();
-					for(String key : keys){
-						if(key.endsWith(path) || path.endsWith(key)){
-							resource = manifestHrefResources.get(key);
-							break;
-						}
-					}
-				}
-				if(resource == null){
-					Set<String> keys = allResources.keySet();
-					for(String key : keys){
-						if(key.endsWith(path) || path.endsWith(key)){
-							resource = allResources.get(key);
-							break;
+				if(resource == null && container != null){//校验是否获取到资源，如果无法获取到资源，通过压缩包索引查找
+					String entryName = container.findEntryName(path);
+					if(entryName != null){
+						resource = getEntryResources().get(entryName);
+						if(resource == null){
+							resource = new Resource(container, filePath, entryName, null, null);
 						}
 					}
 				}
@@ -286,6 +259,22 @@ public class EpubPlugin extends PluginManager {
 		return resource;
 	}
 
+	/** 压缩包路径对应的清单资源，第一次查找时生成
+	 * @return
+	 */
+	private synchronized HashMap<String, Resource> getEntryResources(){
+		if(entryResources == null){
+			entryResources = new HashMap<String, Resource>();
+			for(Resource resource : manifestHrefResources.values()){
+				String entryName = container.findEntryName(resource.getHref());
+				if(entryName != null && !entryResources.containsKey(entryName)){
+					entryResources.put(entryName, resource);
+				}
+			}
+		}
+		return entryResources;
+	}
+
 	
 	public String contentCover;
 
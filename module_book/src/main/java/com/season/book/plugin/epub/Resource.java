@@ -17,12 +17,19 @@ import com.season.lib.support.file.IOUtil;
 public class Resource implements Serializable {
 	protected String href;
 	protected String filePath;
+	/** 书籍压缩包，为NULL时每次读取都打开压缩包查找*/
+	private transient EpubContainer container;
 	private static final long serialVersionUID = 2660177891925940292L;
 	
 	public Resource(String filePath, String href){
 		this.filePath = filePath;
 		this.href = href;
 	}
+
+	Resource(EpubContainer container, String filePath, String href, String id, String mediaType){
+		this(filePath, href, id, mediaType);
+		this.container = container;
+	}
 	protected String id;
 	protected String mediaType;
 
@@ -46,6 +53,9 @@ public class Resource implements Serializable {
 	}
 
 	public byte[] getData() throws IOException{
+		if(container != null){
+			return container.getData(href);
+		}
 		byte[] data = null;
 		InputStream inputStream = getDataStream();
 		if(inputStream != null){
@@ -56,6 +66,9 @@ public class Resource implements Serializable {
 	}
 
 	public InputStream getDataStream() throws IOException{
+		if(container != null){
+			return container.getInputStream(href);
+		}
 		ZipFile zipFile = new ZipFile(filePath);
 		ZipEntry zipEntry = null;
 		Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
@@ -74,6 +87,18 @@ public class Resource implements Serializable {
 		return null;
 	}
 	
+	/**
+	 * 打开资源流，不放入解压缓存，适合只读取一次的大文件
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException{
+		if(container != null){
+			return container.openStream(href);
+		}
+		return getDataStream();
+	}
+	
 	private class InteriorInputStream extends InputStream{
 		private InputStream mInputStream;
 		private ZipFile mZipFile;
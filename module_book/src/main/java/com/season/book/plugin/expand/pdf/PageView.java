@@ -8,8 +8,6 @@ import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Handler;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,12 +15,18 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 
 import com.season.book.plugin.expand.pdf.jni.LinkInfo;
+import com.season.book.plugin.expand.pdf.render.TileKey;
+import com.season.book.plugin.expand.pdf.render.TileScheduler;
 
 public abstract class PageView extends ViewGroup {
 	private static final int HIGHLIGHT_COLOR = 0x805555FF;	//搜索结果高亮色值
 	private static final int LINK_COLOR = 0x80FFCC88;
 	private static final int BACKGROUND_COLOR = 0xFFFFFFFF;
 	private static final int PROGRESS_DIALOG_DELAY = 200;
+	/** 整页图片先于瓦片渲染，瓦片按到可见区域中心的距离排序，预取的排在可见的之后*/
+	private static final int PRIORITY_ENTIRE = 0;
+	private static final int PRIORITY_VISIBLE = 1;
+	private static final int PRIORITY_PREFETCH = 1 << 20;
 	private final Context   mContext;
 	protected     int       mPageNumber;
 	private       Point     mParentSize;
@@ -31,17 +35,13 @@ public abstract class PageView extends ViewGroup {
 
 	private       ImageView mEntire; // Image rendered at minimum zoom
 	private       Bitmap    mEntireBm;
-	private       AsyncTask<Void,Void, LinkInfo[]> mDrawEntire;
 
-	private       Point     mPatchViewSize; // View size on the basis of which the patch was created
-	private       Rect      mPatchArea;
-	private       ImageView mPatch;
-	private       AsyncTask<PatchInfo,Void,PatchInfo> mDrawPatch;
+	private final TileScheduler<Bitmap> mTileScheduler;
+	private       TileView  mTileView; // Tiles rendered above minimum zoom
 	private       RectF     mSearchBoxes[];
 	private       LinkInfo  mLinks[];
 	private       View      mSearchView;
 	private       boolean   mIsBlank;
-	private       boolean   mUsingHardwareAcceleration;
 	private       boolean   mHighlightLinks;
 
 	private       ProgressBar mBusyIndicator;
@@ -49,14 +49,13 @@ public abstract class PageView extends ViewGroup {
 	
 	private PageViewCallback mPageViewCallback;
 	
-	public PageView(Context c, Point parentSize, PageViewCallback pageViewCallback) {
+	public PageView(Context c, Point parentSize, TileScheduler<Bitmap> tileScheduler, PageViewCallback pageViewCallback) {
 		super(c);
 		mContext    = c;
 		mParentSize = parentSize;
+		mTileScheduler = tileScheduler;
 		mPageViewCallback = pageViewCallback;
 		setBackgroundColor(BACKGROUND_COLOR);
-		mUsingHardwareAcceleration = Build.VERSION.SDK != null
-		&& Integer.valueOf(Build.VERSION.SDK) >= 14;
 	}
 	
 	protected abstract void drawPage(Bitmap bm, int sizeX, int sizeY, int patchX, int patchY, int patchWidth, int patchHeight);
@@ -64,10 +63,8 @@ public abstract class PageView extends ViewGroup {
 	
 	public void blank(int page) {
 		// Cancel pending render task
-		if (mDrawEntire != null) {
-			mDrawEntire.cancel(true);
-			mDrawEntire = null;
-		}
+		mTileScheduler.cancel(this);
+		removeHq();
 
 		mIsBlank = true;
 		mPageNumber = page;
@@ -78,9 +75,6 @@ public abstract class PageView extends ViewGroup {
 		if (mEntire != null)
 			mEntire.setImageBitmap(null);
 
-		if (mPatch != null)
-			mPatch.setImageBitmap(null);
-
 		if (mBusyIndicator == null) {
 			mBusyIndicator = new ProgressBar(mContext);
 			mBusyIndicator.setIndeterminate(true);
@@ -99,10 +93,8 @@ public abstract class PageView extends ViewGroup {
 		}
 		
 		// Cancel pending render task
-		if (mDrawEntire != null) {
-			mDrawEntire.cancel(true);
-			mDrawEntire = null;
-		}
+		mTileScheduler.cancel(this);
+		removeHq();
 
 		mIsBlank = false;
 
@@ -111,6 +103,8 @@ public abstract class PageView extends ViewGroup {
 			mEntire = new OpaqueImageView(mContext);
 			mEntire.setScaleType(ImageView.ScaleType.FIT_CENTER);
 			addView(mEntire);
+			mTileView = new TileView(mContext);
+			addView(mTileView);
 		}
 
 		PdfLog.d("parentSize.x : " + mParentSize.x + " parentSize.y : " + mParentSize.y
@@ -122,14 +116,8 @@ public abstract class PageView extends ViewGroup {
 		Point newSize = new Point((int)(size.x*mSourceScale), (int)(size.y*mSourceScale));
 		mSize = newSize;
 
-		if (mUsingHardwareAcceleration) {
-			// When hardware accelerated, updates to the bitmap seem to be
-			// ignored, so we recreate it. There may be another way around this
-			// that we are yet to find.
-			mEntire.setImageBitmap(null);
-			mEntireBm = null;
-		}
-
+		// The bitmap is detached from mEntire while it is redrawn and set again
+		// afterwards, so it can be reused for pages of the same size
 		if (mEntireBm == null || mEntireBm.getWidth() != newSize.x
 				              || mEntireBm.getHeight() != newSize.y) {
 			PdfLog.d("setPage_mSize.x: " + mSize.x + " mSize.y: " + mSize.y);
@@ -137,44 +125,46 @@ public abstract class PageView extends ViewGroup {
 		}
 
 		// Render the page in the background
-		mDrawEntire = new AsyncTask<Void,Void,LinkInfo[]>() {
-			protected LinkInfo[] doInBackground(Void... v) {
-				drawPage(mEntireBm, mSize.x, mSize.y, 0, 0, mSize.x, mSize.y);
-				return getLinkInfo();
+		mEntire.setImageBitmap(null);
+
+		if (mBusyIndicator == null) {
+			mBusyIndicator = new ProgressBar(mContext);
+			mBusyIndicator.setIndeterminate(true);
+			// XXX
+//			mBusyIndicator.setBackgroundResource(R.drawable.pdf_reading_loading_bg);
+			if(mPageViewCallback != null) {
+				mPageViewCallback.setLoadingBg(mBusyIndicator);
 			}
+			addView(mBusyIndicator);
+			mBusyIndicator.setVisibility(INVISIBLE);
+			mHandler.postDelayed(new Runnable() {
+				public void run() {
+					if (mBusyIndicator != null)
+						mBusyIndicator.setVisibility(VISIBLE);
+				}
+			}, PROGRESS_DIALOG_DELAY);
+		}
 
-			protected void onPreExecute() {
-				mEntire.setImageBitmap(null);
+		final Bitmap entireBm = mEntireBm;
+		final Point entireSize = mSize;
+		mTileScheduler.execute(this, PRIORITY_ENTIRE, new TileScheduler.RenderJob() {
+			private LinkInfo[] mLinkInfo;
 
-				if (mBusyIndicator == null) {
-					mBusyIndicator = new ProgressBar(mContext);
-					mBusyIndicator.setIndeterminate(true);
-					// XXX
-//					mBusyIndicator.setBackgroundResource(R.drawable.pdf_reading_loading_bg);
-					if(mPageViewCallback != null) {
-						mPageViewCallback.setLoadingBg(mBusyIndicator);
-					}
-					addView(mBusyIndicator);
-					mBusyIndicator.setVisibility(INVISIBLE);
-					mHandler.postDelayed(new Runnable() {
-						public void run() {
-							if (mBusyIndicator != null)
-								mBusyIndicator.setVisibility(VISIBLE);
-						}
-					}, PROGRESS_DIALOG_DELAY);
-				}
+			@Override
+			public void render() {
+				drawPage(entireBm, entireSize.x, entireSize.y, 0, 0, entireSize.x, entireSize.y);
+				mLinkInfo = getLinkInfo();
 			}
 
-			protected void onPostExecute(LinkInfo[] v) {
+			@Override
+			public void onRendered() {
 				removeView(mBusyIndicator);
 				mBusyIndicator = null;
-				mEntire.setImageBitmap(mEntireBm);
-				mLinks = v;
+				mEntire.setImageBitmap(entireBm);
+				mLinks = mLinkInfo;
 				invalidate();
 			}
-		};
-
-		mDrawEntire.execute();
+		});
 
 		if (mSearchView == null) {
 			mSearchView = new View(mContext) {
@@ -263,16 +253,9 @@ public abstract class PageView extends ViewGroup {
 			mSearchView.layout(0, 0, w, h);
 		}
 
-		if (mPatchViewSize != null) {
-			if (mPatchViewSize.x != w || mPatchViewSize.y != h) {
-				// Zoomed since patch was created
-				mPatchViewSize = null;
-				mPatchArea     = null;
-				if (mPatch != null)
-					mPatch.setImageBitmap(null);
-			} else {
-				mPatch.layout(mPatchArea.left, mPatchArea.top, mPatchArea.right, mPatchArea.bottom);
-			}
+		// Tiles are scaled with the view while zooming, until addHq picks a new level
+		if (mTileView != null) {
+			mTileView.layout(0, 0, w, h);
 		}
 
 		if (mBusyIndicator != null) {
@@ -285,77 +268,81 @@ public abstract class PageView extends ViewGroup {
 	
 	/**
 	 * 在缩放后，使页面变清晰
+	 * 1.按缩放比例选择瓦片级别，请求可见区域的瓦片，可见区域外一圈瓦片在缓存够用时预取
+	 * 2.上次请求还在排队的瓦片取消，完成的瓦片逐块显示，没有完成的位置显示整页图片
 	 */
 	public void addHq() {
+		if (mIsBlank || mTileView == null) {
+			return;
+		}
 		Rect viewArea = new Rect(getLeft(),getTop(),getRight(),getBottom());
-		// If the viewArea's size matches the unzoomed size, there is no need for an hq patch
-		if (viewArea.width() != mSize.x || viewArea.height() != mSize.y) {
-			Point patchViewSize = new Point(viewArea.width(), viewArea.height());
-			Rect patchArea = new Rect(0, 0, mParentSize.x, mParentSize.y);
-
-			// Intersect and test that there is an intersection
-			if (!patchArea.intersect(viewArea))
-				return;
-
-			// Offset patch area to be relative to the view top left
-			patchArea.offset(-viewArea.left, -viewArea.top);
-
-			// If being asked for the same area as last time, nothing to do
-			if (patchArea.equals(mPatchArea) && patchViewSize.equals(mPatchViewSize))
-				return;
-
-			// Stop the drawing of previous patch if still going
-			if (mDrawPatch != null) {
-				mDrawPatch.cancel(true);
-				mDrawPatch = null;
-			}
-
-			// Create and add the image view if not already done
-			if (mPatch == null) {
-				mPatch = new OpaqueImageView(mContext);
-				mPatch.setScaleType(ImageView.ScaleType.FIT_CENTER);
-				addView(mPatch);
-				mSearchView.bringToFront();
-			}
-
-			Bitmap bm = Bitmap.createBitmap(patchArea.width(), patchArea.height(), Bitmap.Config.ARGB_8888);
+		int level = TileKey.getLevel((float) viewArea.width() / mSize.x);
+		// If the viewArea's size matches the unzoomed size, there is no need for tiles
+		if (level == 0) {
+			removeHq();
+			return;
+		}
+		Rect visibleArea = new Rect(0, 0, mParentSize.x, mParentSize.y);
 
-			mDrawPatch = new AsyncTask<PatchInfo,Void,PatchInfo>() {
-				protected PatchInfo doInBackground(PatchInfo... v) {
-					drawPage(v[0].bm, v[0].patchViewSize.x, v[0].patchViewSize.y,
-									  v[0].patchArea.left, v[0].patchArea.top,
-									  v[0].patchArea.width(), v[0].patchArea.height());
-					return v[0];
-				}
+		// Intersect and test that there is an intersection
+		if (!visibleArea.intersect(viewArea))
+			return;
 
-				protected void onPostExecute(PatchInfo v) {
-					mPatchViewSize = v.patchViewSize;
-					mPatchArea     = v.patchArea;
-					mPatch.setImageBitmap(v.bm);
-					//requestLayout();
-					// Calling requestLayout here doesn't lead to a later call to layout. No idea
-					// why, but apparently others have run into the problem.
-					mPatch.layout(mPatchArea.left, mPatchArea.top, mPatchArea.right, mPatchArea.bottom);
-					invalidate();
+		// Offset visible area to be relative to the view top left
+		visibleArea.offset(-viewArea.left, -viewArea.top);
+
+		float levelScale = TileKey.getScale(level);
+		int levelWidth = (int) (mSize.x * levelScale);
+		int levelHeight = (int) (mSize.y * levelScale);
+		float viewToLevel = (float) levelWidth / viewArea.width();
+		int tileSize = mTileScheduler.getTileSize();
+		int lastColumn = (levelWidth - 1) / tileSize;
+		int lastRow = (levelHeight - 1) / tileSize;
+		int left = Math.max(0, (int) (visibleArea.left * viewToLevel) / tileSize);
+		int top = Math.max(0, (int) (visibleArea.top * viewToLevel) / tileSize);
+		int right = Math.min(lastColumn, (int) (visibleArea.right * viewToLevel - 1) / tileSize);
+		int bottom = Math.min(lastRow, (int) (visibleArea.bottom * viewToLevel - 1) / tileSize);
+		if ((right - left + 3) * (bottom - top + 3) <= mTileScheduler.getMaxTileCount() / 2) {
+			left = Math.max(0, left - 1);
+			top = Math.max(0, top - 1);
+			right = Math.min(lastColumn, right + 1);
+			bottom = Math.min(lastRow, bottom + 1);
+		}
+		float centerX = visibleArea.exactCenterX() * viewToLevel / tileSize - 0.5f;
+		float centerY = visibleArea.exactCenterY() * viewToLevel / tileSize - 0.5f;
+		float visibleLeft = visibleArea.left * viewToLevel / tileSize - 1;
+		float visibleTop = visibleArea.top * viewToLevel / tileSize - 1;
+		float visibleRight = visibleArea.right * viewToLevel / tileSize;
+		float visibleBottom = visibleArea.bottom * viewToLevel / tileSize;
+
+		// Stop the drawing of tiles from the last request that are not started yet
+		mTileScheduler.cancel(mTileView);
+		mTileView.setTiles(level, levelWidth, levelHeight, left, top, right, bottom);
+		for (int row = top; row <= bottom; row++) {
+			for (int column = left; column <= right; column++) {
+				float dx = column - centerX;
+				float dy = row - centerY;
+				int priority = (int) (dx * dx + dy * dy);
+				if (column <= visibleLeft || column >= visibleRight || row <= visibleTop || row >= visibleBottom) {
+					priority += PRIORITY_PREFETCH;
+				} else {
+					priority += PRIORITY_VISIBLE;
 				}
-			};
-
-			mDrawPatch.execute(new PatchInfo(bm, patchViewSize, patchArea));
+				mTileScheduler.requestTile(mTileView, new TileKey(mPageNumber, level, column, row),
+						levelWidth, levelHeight, priority, mTileView);
+			}
 		}
+		mTileView.invalidate();
 	}
 
 	public void removeHq() {
-			// Stop the drawing of the patch if still going
-			if (mDrawPatch != null) {
-				mDrawPatch.cancel(true);
-				mDrawPatch = null;
-			}
-
-			// And get rid of it
-			mPatchViewSize = null;
-			mPatchArea = null;
-			if (mPatch != null)
-				mPatch.setImageBitmap(null);
+		// Stop the drawing of the tiles if still going
+		if (mTileView != null) {
+			mTileScheduler.cancel(mTileView);
+			// And get rid of them
+			mTileView.setTiles(0, 0, 0, 0, 0, -1, -1);
+			mTileView.invalidate();
+		}
 	}
 	
 	public int getPage() {
@@ -367,20 +354,71 @@ public abstract class PageView extends ViewGroup {
 		return true;
 	}
 	
-	public interface PageViewCallback {
-		public void setLoadingBg(ProgressBar progressBar);
-	}
-}
+	/**
+	 * 显示当前级别已完成的瓦片，按视图和级别页面的比例缩放
+	 */
+	private class TileView extends View implements TileScheduler.TileListener {
+		private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+		private final Rect mSrc = new Rect();
+		private final RectF mDst = new RectF();
+		private int mLevel;
+		private int mLevelWidth;
+		private int mLevelHeight;
+		private int mLeft;
+		private int mTop;
+		private int mRight;
+		private int mBottom;
+
+		public TileView(Context context) {
+			super(context);
+		}
+
+		void setTiles(int level, int levelWidth, int levelHeight, int left, int top, int right, int bottom) {
+			mLevel = level;
+			mLevelWidth = levelWidth;
+			mLevelHeight = levelHeight;
+			mLeft = left;
+			mTop = top;
+			mRight = right;
+			mBottom = bottom;
+		}
+
+		@Override
+		public void onTileReady(TileKey key) {
+			if (key.page == mPageNumber && key.level == mLevel
+					&& key.column >= mLeft && key.column <= mRight && key.row >= mTop && key.row <= mBottom) {
+				invalidate();
+			}
+		}
 
-class PatchInfo {
-	public Bitmap bm;
-	public Point patchViewSize;
-	public Rect  patchArea;
+		@Override
+		protected void onDraw(Canvas canvas) {
+			if (mIsBlank || mLevel == 0) {
+				return;
+			}
+			float scale = (float) getWidth() / mLevelWidth;
+			int tileSize = mTileScheduler.getTileSize();
+			for (int row = mTop; row <= mBottom; row++) {
+				for (int column = mLeft; column <= mRight; column++) {
+					Bitmap tile = mTileScheduler.getTile(new TileKey(mPageNumber, mLevel, column, row));
+					if (tile == null) {
+						continue;
+					}
+					int x = column * tileSize;
+					int y = row * tileSize;
+					// Tiles on the right and bottom edge are only partly covered by the page
+					int width = Math.min(tileSize, mLevelWidth - x);
+					int height = Math.min(tileSize, mLevelHeight - y);
+					mSrc.set(0, 0, width, height);
+					mDst.set(x * scale, y * scale, (x + width) * scale, (y + height) * scale);
+					canvas.drawBitmap(tile, mSrc, mDst, mPaint);
+				}
+			}
+		}
+	}
 
-	public PatchInfo(Bitmap aBm, Point aPatchViewSize, Rect aPatchArea) {
-		bm = aBm;
-		patchViewSize = aPatchViewSize;
-		patchArea = aPatchArea;
+	public interface PageViewCallback {
+		public void setLoadingBg(ProgressBar progressBar);
 	}
 }
 
@@ -1,20 +1,31 @@
 package com.season.book.plugin.expand.pdf;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 
 import com.season.book.plugin.expand.pdf.jni.MuPDFCore;
+import com.season.book.plugin.expand.pdf.render.TileScheduler;
+
+import java.util.concurrent.Executor;
 
 public class PdfPageAdapter extends BaseAdapter {
+	/** 瓦片边长*/
+	private static final int TILE_SIZE = 256;
+	/** 瓦片缓存上限*/
+	private static final long MAX_TILE_CACHE_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 4, 48L * 1024 * 1024);
 	
 	private final Context mContext;
 	private final MuPDFCore mCore;
+	private final TileScheduler<Bitmap> mTileScheduler;
 	private final SparseArray<PointF> mPageSizes = new SparseArray<PointF>();
 	private PageView.PageViewCallback mPageViewCallback;
 	
@@ -22,6 +33,21 @@ public class PdfPageAdapter extends BaseAdapter {
 		mContext = c;
 		mCore = core;
 		mPageViewCallback = pageViewCallback;
+		final Handler handler = new Handler(Looper.getMainLooper());
+		mTileScheduler = new TileScheduler<Bitmap>(new PdfTileRenderer(core), TILE_SIZE, MAX_TILE_CACHE_BYTES, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				handler.post(command);
+			}
+		});
+	}
+
+	/**
+	 * 停止渲染并释放瓦片，在{@link MuPDFCore#onDestroy()}之前调用
+	 */
+	public void release() {
+		PdfLog.d("release " + mTileScheduler.getMetrics());
+		mTileScheduler.release();
 	}
 
 	@Override
@@ -46,7 +72,7 @@ public class PdfPageAdapter extends BaseAdapter {
 	public View getView(final int position, View convertView, ViewGroup parent) {
 		final PdfPageView pageView;
 		if(convertView == null) {
-			pageView = new PdfPageView(mContext, mCore, new Point(parent.getWidth(), parent.getHeight()), mPageViewCallback);
+			pageView = new PdfPageView(mContext, mCore, new Point(parent.getWidth(), parent.getHeight()), mTileScheduler, mPageViewCallback);
 		} else {
 			pageView = (PdfPageView) convertView;
 		}
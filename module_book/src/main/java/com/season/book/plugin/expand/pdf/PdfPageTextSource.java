@@ -0,0 +1,27 @@
+package com.season.book.plugin.expand.pdf;
+
+import android.graphics.RectF;
+
+import com.season.book.plugin.expand.pdf.jni.MuPDFCore;
+import com.season.book.search.PageTextSource;
+
+/**
+ * 用{@link MuPDFCore}查找命中区域，供{@link com.season.book.search.PageSearcher}使用
+ */
+public class PdfPageTextSource implements PageTextSource {
+	private final MuPDFCore mCore;
+
+	public PdfPageTextSource(MuPDFCore core) {
+		mCore = core;
+	}
+
+	@Override
+	public int getPageCount() {
+		return mCore.countPages();
+	}
+
+	@Override
+	public RectF[] searchPage(int page, String text) {
+		return mCore.searchPage(page, text);
+	}
+}
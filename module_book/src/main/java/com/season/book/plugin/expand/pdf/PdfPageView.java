@@ -6,12 +6,13 @@ import android.graphics.Point;
 
 import com.season.book.plugin.expand.pdf.jni.LinkInfo;
 import com.season.book.plugin.expand.pdf.jni.MuPDFCore;
+import com.season.book.plugin.expand.pdf.render.TileScheduler;
 
 public class PdfPageView extends PageView {
 	private final MuPDFCore mCore;
 	
-	public PdfPageView(Context c, MuPDFCore core, Point parentSize, PageViewCallback pageViewCallback) {
-		super(c, parentSize, pageViewCallback);
+	public PdfPageView(Context c, MuPDFCore core, Point parentSize, TileScheduler<Bitmap> tileScheduler, PageViewCallback pageViewCallback) {
+		super(c, parentSize, tileScheduler, pageViewCallback);
 		mCore = core;
 	}
 	
@@ -0,0 +1,37 @@
+package com.season.book.plugin.expand.pdf;
+
+import android.graphics.Bitmap;
+
+import com.season.book.plugin.expand.pdf.jni.MuPDFCore;
+import com.season.book.plugin.expand.pdf.render.TileRenderer;
+
+/**
+ * 用{@link MuPDFCore}渲染瓦片
+ */
+public class PdfTileRenderer implements TileRenderer<Bitmap> {
+	private final MuPDFCore mCore;
+
+	public PdfTileRenderer(MuPDFCore core) {
+		mCore = core;
+	}
+
+	@Override
+	public Bitmap createTile(int size) {
+		return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+	}
+
+	@Override
+	public void renderTile(int page, Bitmap tile, int pageWidth, int pageHeight, int x, int y, int size) {
+		mCore.drawPage(page, tile, pageWidth, pageHeight, x, y, size, size);
+	}
+
+	@Override
+	public int getByteCount(Bitmap tile) {
+		return tile.getRowBytes() * tile.getHeight();
+	}
+
+	@Override
+	public void recycleTile(Bitmap tile) {
+		//不主动recycle，已记录的显示列表可能还引用着淘汰的瓦片，交给GC回收
+	}
+}
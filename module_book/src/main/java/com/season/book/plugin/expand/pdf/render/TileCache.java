@@ -0,0 +1,87 @@
+package com.season.book.plugin.expand.pdf.render;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按字节数限制的瓦片LRU缓存
+ * 1.方法只在主线程调用，绘制时{@link #get(TileKey)}取用即更新最近使用，不计入命中率；
+ *   命中率只在请求时由{@link #contains(TileKey)}统计，每帧绘制不会重复计数
+ * 2.超出限制时淘汰最久未用的瓦片，交给{@link TileRenderer#recycleTile(Object)}释放
+ * 3.有意不复用淘汰的瓦片，新瓦片都由{@link TileRenderer#createTile(int)}创建：
+ *   没有重绘的视图，已记录的显示列表可能还引用着它，重新渲染会画到屏幕上
+ */
+final class TileCache<T> {
+	private final TileRenderer<T> mRenderer;
+	private final long mMaxBytes;
+	private final LinkedHashMap<TileKey, T> mTiles = new LinkedHashMap<TileKey, T>(32, 0.75f, true);
+	private long mBytes;
+
+	private int mHitCount;
+	private int mMissCount;
+	private int mEvictCount;
+
+	TileCache(TileRenderer<T> renderer, long maxBytes) {
+		mRenderer = renderer;
+		mMaxBytes = maxBytes;
+	}
+
+	T get(TileKey key) {
+		return mTiles.get(key);
+	}
+
+	/**
+	 * 请求瓦片时检查是否已缓存，计入命中率
+	 */
+	boolean contains(TileKey key) {
+		boolean isHit = mTiles.containsKey(key);
+		if (isHit) {
+			mHitCount++;
+		} else {
+			mMissCount++;
+		}
+		return isHit;
+	}
+
+	void put(TileKey key, T tile) {
+		T old = mTiles.put(key, tile);
+		mBytes += mRenderer.getByteCount(tile);
+		if (old != null && old != tile) {
+			mBytes -= mRenderer.getByteCount(old);
+			mRenderer.recycleTile(old);
+		}
+		trimToSize(mMaxBytes);
+	}
+
+	/**
+	 * 淘汰最久未用的瓦片，直到不超过maxBytes
+	 */
+	void trimToSize(long maxBytes) {
+		Iterator<Map.Entry<TileKey, T>> iterator = mTiles.entrySet().iterator();
+		while (mBytes > maxBytes && iterator.hasNext()) {
+			T tile = iterator.next().getValue();
+			iterator.remove();
+			mBytes -= mRenderer.getByteCount(tile);
+			mEvictCount++;
+			mRenderer.recycleTile(tile);
+		}
+	}
+
+	/**
+	 * 释放全部瓦片
+	 */
+	void clear() {
+		trimToSize(-1);
+	}
+
+	long getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "tiles:" + mTiles.size() + " size:" + mBytes / 1024 + "KB/" + mMaxBytes / 1024
+				+ "KB hit:" + mHitCount + " miss:" + mMissCount + " evict:" + mEvictCount;
+	}
+}
@@ -0,0 +1,73 @@
+package com.season.book.plugin.expand.pdf.render;
+
+/**
+ * 瓦片标识：页码、缩放级别、列、行
+ * 1.级别n的页面尺寸为适应屏幕尺寸的{@link #LEVEL_STEP}的n次方倍，级别0为整页图片，不分瓦片
+ * 2.列、行按瓦片边长划分级别n的页面，从0开始
+ */
+public final class TileKey {
+	/** 相邻级别的缩放倍数*/
+	public static final float LEVEL_STEP = 1.41421356f;
+	/** 最大级别，对应约11倍*/
+	public static final int MAX_LEVEL = 7;
+
+	public final int page;
+	public final int level;
+	public final int column;
+	public final int row;
+
+	public TileKey(int page, int level, int column, int row) {
+		this.page = page;
+		this.level = level;
+		this.column = column;
+		this.row = row;
+	}
+
+	/**
+	 * 不低于缩放比例的最小级别，保证瓦片不被放大显示
+	 * @param scale 相对适应屏幕尺寸的缩放比例
+	 */
+	public static int getLevel(float scale) {
+		int level = 0;
+		float levelScale = 1;
+		//留一点余量，避免浮点误差多升一级
+		while (levelScale * 1.01f < scale && level < MAX_LEVEL) {
+			levelScale *= LEVEL_STEP;
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * 级别相对适应屏幕尺寸的缩放比例
+	 */
+	public static float getScale(int level) {
+		return (float) Math.pow(LEVEL_STEP, level);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof TileKey)) {
+			return false;
+		}
+		TileKey key = (TileKey) o;
+		return page == key.page && level == key.level && column == key.column && row == key.row;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = page;
+		result = 31 * result + level;
+		result = 31 * result + column;
+		result = 31 * result + row;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "TileKey{" + page + " L" + level + " " + column + "," + row + "}";
+	}
+}
@@ -0,0 +1,28 @@
+package com.season.book.plugin.expand.pdf.render;
+
+/**
+ * 瓦片渲染接口，{@link TileScheduler}只通过它创建图片和调用本地渲染
+ * @param <T> 瓦片图片类型，Android上为Bitmap
+ */
+public interface TileRenderer<T> {
+
+	/**
+	 * 创建边长为size的瓦片图片，在渲染线程调用
+	 */
+	T createTile(int size);
+
+	/**
+	 * 把页面缩放到pageWidth*pageHeight，渲染(x, y)开始的size*size区域到tile，在渲染线程调用
+	 */
+	void renderTile(int page, T tile, int pageWidth, int pageHeight, int x, int y, int size);
+
+	/**
+	 * 瓦片占用的字节数
+	 */
+	int getByteCount(T tile);
+
+	/**
+	 * 释放淘汰的瓦片，瓦片不会再被渲染
+	 */
+	void recycleTile(T tile);
+}
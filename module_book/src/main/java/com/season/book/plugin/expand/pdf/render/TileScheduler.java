@@ -0,0 +1,307 @@
+package com.season.book.plugin.expand.pdf.render;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * PDF渲染调度
+ * 1.单独一个渲染线程按优先级依次执行，数值小的先执行，相同时先提交的先执行；本地渲染本身是串行的，多线程没有收益
+ * 2.瓦片完成后放入{@link TileCache}，同一瓦片排队或渲染中时不重复提交
+ * 3.请求方按client分组，{@link #cancel(Object)}移除该组还在排队的任务，正在渲染的完成后只入缓存不回调
+ * 4.除渲染外都在回调线程(主线程)执行，渲染线程每次渲染到新建的瓦片，不接触缓存
+ * @param <T> 瓦片图片类型
+ */
+public final class TileScheduler<T> {
+	private static final String TAG = TileScheduler.class.getSimpleName();
+
+	/**
+	 * 瓦片完成回调，在回调线程
+	 */
+	public interface TileListener {
+		void onTileReady(TileKey key);
+	}
+
+	/**
+	 * 瓦片以外的渲染任务，如整页图片
+	 */
+	public interface RenderJob {
+		/** 在渲染线程执行*/
+		void render();
+		/** 完成后在回调线程执行，取消后不执行*/
+		void onRendered();
+	}
+
+	private final TileRenderer<T> mRenderer;
+	private final TileCache<T> mCache;
+	private final Executor mCallbackExecutor;
+	private final int mTileSize;
+	private final int mTileBytes;
+
+	/** 以下在mQueue锁内修改*/
+	private final PriorityQueue<Task> mQueue = new PriorityQueue<Task>();
+	private final HashMap<TileKey, Task> mPendingTiles = new HashMap<TileKey, Task>();
+	private Task mRunningTask;
+	private long mSequence;
+	private boolean isRelease;
+	private Thread mThread;
+
+	private volatile int mRenderCount;
+	private volatile long mRenderTime;
+
+	/**
+	 * @param tileSize 瓦片边长
+	 * @param maxBytes 缓存瓦片的字节数上限
+	 * @param callbackExecutor 回调线程，Android上为主线程
+	 */
+	public TileScheduler(TileRenderer<T> renderer, int tileSize, long maxBytes, Executor callbackExecutor) {
+		mRenderer = renderer;
+		mTileSize = tileSize;
+		mTileBytes = tileSize * tileSize * 4;
+		mCache = new TileCache<T>(renderer, maxBytes);
+		mCallbackExecutor = callbackExecutor;
+	}
+
+	public int getTileSize() {
+		return mTileSize;
+	}
+
+	/**
+	 * 缓存最多能容纳的瓦片数，同时请求的瓦片不应超过它，否则会互相淘汰
+	 */
+	public int getMaxTileCount() {
+		return (int) (mCache.getMaxBytes() / mTileBytes);
+	}
+
+	/**
+	 * 取缓存的瓦片，在回调线程调用，绘制时每帧调用，不计入命中率
+	 * @return 没有返回NULL
+	 */
+	public T getTile(TileKey key) {
+		return mCache.get(key);
+	}
+
+	/**
+	 * 请求渲染瓦片，在回调线程调用
+	 * @param pageWidth 级别的页面宽度
+	 * @param pageHeight 级别的页面高度
+	 * @return 已在缓存中返回true，不再回调
+	 */
+	public boolean requestTile(Object client, TileKey key, int pageWidth, int pageHeight, int priority, TileListener listener) {
+		if (mCache.contains(key)) {
+			return true;
+		}
+		synchronized (mQueue) {
+			if (isRelease) {
+				return false;
+			}
+			Task task = mPendingTiles.get(key);
+			if (task != null) {
+				if (task == mRunningTask) {
+					//渲染中，改为通知新的请求方
+					task.client = client;
+					task.listener = listener;
+					task.isCancelled = false;
+					return false;
+				}
+				mQueue.remove(task);
+			}
+			task = new Task(client, priority, mSequence++);
+			task.key = key;
+			task.pageWidth = pageWidth;
+			task.pageHeight = pageHeight;
+			task.listener = listener;
+			mPendingTiles.put(key, task);
+			enqueue(task);
+		}
+		return false;
+	}
+
+	/**
+	 * 提交瓦片以外的渲染任务，在回调线程调用
+	 */
+	public void execute(Object client, int priority, RenderJob job) {
+		synchronized (mQueue) {
+			if (isRelease) {
+				return;
+			}
+			Task task = new Task(client, priority, mSequence++);
+			task.job = job;
+			enqueue(task);
+		}
+	}
+
+	private void enqueue(Task task) {
+		mQueue.add(task);
+		if (mThread == null) {
+			mThread = new Thread(TAG) {
+				@Override
+				public void run() {
+					loop();
+				}
+			};
+			mThread.setPriority(Thread.NORM_PRIORITY - 1);
+			mThread.start();
+		} else {
+			mQueue.notify();
+		}
+	}
+
+	/**
+	 * 取消client还在排队的任务，正在执行的任务不再回调
+	 */
+	public void cancel(Object client) {
+		synchronized (mQueue) {
+			Iterator<Task> iterator = mQueue.iterator();
+			while (iterator.hasNext()) {
+				Task task = iterator.next();
+				if (task.client == client) {
+					iterator.remove();
+					if (task.key != null) {
+						mPendingTiles.remove(task.key);
+					}
+				}
+			}
+			if (mRunningTask != null && mRunningTask.client == client) {
+				mRunningTask.isCancelled = true;
+			}
+		}
+	}
+
+	/**
+	 * 停止渲染线程并释放全部瓦片，在回调线程调用；不等待正在执行的本地渲染
+	 */
+	public void release() {
+		synchronized (mQueue) {
+			isRelease = true;
+			mQueue.clear();
+			mPendingTiles.clear();
+			if (mRunningTask != null) {
+				mRunningTask.isCancelled = true;
+			}
+			mQueue.notify();
+		}
+		mCache.clear();
+	}
+
+	private void loop() {
+		while (true) {
+			final Task task;
+			synchronized (mQueue) {
+				mRunningTask = null;
+				while (mQueue.isEmpty() && !isRelease) {
+					try {
+						mQueue.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (isRelease) {
+					return;
+				}
+				task = mQueue.poll();
+				mRunningTask = task;
+			}
+			long startTime = System.currentTimeMillis();
+			if (task.job != null) {
+				task.job.render();
+				mCallbackExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (mQueue) {
+							if (task.isCancelled || isRelease) {
+								return;
+							}
+						}
+						task.job.onRendered();
+					}
+				});
+			} else {
+				renderTile(task);
+			}
+			mRenderTime += System.currentTimeMillis() - startTime;
+			mRenderCount++;
+		}
+	}
+
+	private void renderTile(final Task task) {
+		T tile = null;
+		try {
+			tile = mRenderer.createTile(mTileSize);
+			mRenderer.renderTile(task.key.page, tile, task.pageWidth, task.pageHeight,
+					task.key.column * mTileSize, task.key.row * mTileSize, mTileSize);
+		} catch (OutOfMemoryError e) {
+			//内存不足时丢掉一半缓存，这块瓦片等下次请求
+			mCallbackExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					mCache.trimToSize(mCache.getMaxBytes() / 2);
+				}
+			});
+			synchronized (mQueue) {
+				if (mPendingTiles.get(task.key) == task) {
+					mPendingTiles.remove(task.key);
+				}
+			}
+			if (tile != null) {
+				mRenderer.recycleTile(tile);
+			}
+			return;
+		}
+		final T renderedTile = tile;
+		mCallbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				TileListener listener;
+				synchronized (mQueue) {
+					if (mPendingTiles.get(task.key) == task) {
+						mPendingTiles.remove(task.key);
+					}
+					if (isRelease) {
+						mRenderer.recycleTile(renderedTile);
+						return;
+					}
+					listener = task.isCancelled ? null : task.listener;
+				}
+				mCache.put(task.key, renderedTile);
+				if (listener != null) {
+					listener.onTileReady(task.key);
+				}
+			}
+		});
+	}
+
+	public String getMetrics() {
+		int renderCount = mRenderCount;
+		return mCache + " render:" + renderCount + " avg:" + (renderCount > 0 ? mRenderTime / renderCount : 0) + "ms";
+	}
+
+	private static final class Task implements Comparable<Task> {
+		final int priority;
+		final long sequence;
+		Object client;
+		boolean isCancelled;
+
+		TileKey key;
+		int pageWidth;
+		int pageHeight;
+		TileListener listener;
+
+		RenderJob job;
+
+		Task(Object client, int priority, long sequence) {
+			this.client = client;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Task another) {
+			if (priority != another.priority) {
+				return priority < another.priority ? -1 : 1;
+			}
+			return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+		}
+	}
+}
@@ -1,99 +1,181 @@
 package com.season.book.plugin.text;
 
-import android.text.TextUtils;
-
 import com.season.book.bean.Catalog;
 import com.season.lib.BaseContext;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 章节缓存
+ * 二进制索引文件，格式：
+ * 文件头(MAGIC, VERSION, 书籍大小, 书籍修改时间, 章节数, 编码长度)
+ * 编码名称(ASCII字节)
+ * 偏移表(int[章节数])
+ * 名称池(int[章节数 + 1]的名称边界, UTF-8名称字节)
+ * 书籍大小或修改时间变化时索引失效
  */
 public class TextChapterCache {
 
+	private static final int MAGIC = 0x54434958;
+	private static final int VERSION = 4;
+	private static final int HEAD_LENGTH = 4 + 4 + 8 + 8 + 4 + 4;
+	private static final String CHARSET = "UTF-8";
+
+	private static byte[] buildChapterIndex(File bookFile, String encode, ArrayList<Catalog> catalog) throws Exception {
+		int count = catalog.size();
+		byte[] encodeBytes = encode.getBytes(CHARSET);
+		byte[][] names = new byte[count][];
+		int poolLength = 0;
+		for (int i = 0; i < count; i++) {
+			String name = catalog.get(i).getText();
+			names[i] = name == null ? new byte[0] : name.getBytes(CHARSET);
+			poolLength += names[i].length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(HEAD_LENGTH + encodeBytes.length + count * 4 + (count + 1) * 4 + poolLength);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(bookFile.length());
+		buffer.putLong(bookFile.lastModified());
+		buffer.putInt(count);
+		buffer.putInt(encodeBytes.length);
+		buffer.put(encodeBytes);
+		for (int i = 0; i < count; i++) {
+			buffer.putInt(catalog.get(i).getIndex());
+		}
+		int nameEnd = 0;
+		buffer.putInt(nameEnd);
+		for (int i = 0; i < count; i++) {
+			nameEnd += names[i].length;
+			buffer.putInt(nameEnd);
+		}
+		for (int i = 0; i < count; i++) {
+			buffer.put(names[i]);
+		}
+		return buffer.array();
+	}
 
-	private static String buildChapterStr( ArrayList<Catalog> catalog) throws Exception{
-		if(catalog == null){
-			return "";
-		}
-		JSONArray json = new JSONArray();
-		for (int i = 0; i < catalog.size(); i++) {
-			JSONObject obj = new JSONObject();
-			Catalog chapter = catalog.get(i);
-			obj.put("name", chapter.getText());
-			obj.put("position", chapter.getIndex());
-			json.put(obj);
-		}
-		return json.toString();
+	/**
+	 * 校验文件头并读取编码，buffer停在编码之后
+	 * @return 索引失效返回NULL
+	 */
+	private static String readHead(File bookFile, ByteBuffer buffer) throws Exception {
+		if (buffer.remaining() < HEAD_LENGTH
+				|| buffer.getInt() != MAGIC
+				|| buffer.getInt() != VERSION
+				|| buffer.getLong() != bookFile.length()
+				|| buffer.getLong() != bookFile.lastModified()) {
+			return null;
+		}
+		buffer.getInt();
+		int encodeLength = buffer.getInt();
+		if (encodeLength <= 0 || encodeLength > buffer.remaining()) {
+			return null;
+		}
+		String encode = new String(buffer.array(), buffer.position(), encodeLength, CHARSET);
+		buffer.position(buffer.position() + encodeLength);
+		return encode;
 	}
 
-	private static List<Catalog> buildChapterList(String str) throws Exception{
-		if(TextUtils.isEmpty(str)){
+	private static List<Catalog> buildChapterList(File bookFile, byte[] data) throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (readHead(bookFile, buffer) == null) {
 			return null;
 		}
-		List<Catalog> res = new ArrayList<Catalog>();
-		JSONArray json = new JSONArray(str);
-		for (int i = 0; i < json.length(); i++) {
-			JSONObject obj = json.getJSONObject(i);
-			Catalog chapter = new Catalog(obj.getString("name"), obj.getInt("position"));
-			res.add(chapter);
+		int count = buffer.getInt(HEAD_LENGTH - 8);
+		if (count <= 0 || buffer.position() + count * 8L + 4 > data.length) {
+			return null;
+		}
+		int[] offsets = new int[count];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = buffer.getInt();
+		}
+		int[] nameEnds = new int[count + 1];
+		for (int i = 0; i <= count; i++) {
+			nameEnds[i] = buffer.getInt();
+		}
+		int poolStart = buffer.position();
+		if (poolStart + nameEnds[count] != data.length) {
+			return null;
+		}
+		List<Catalog> res = new ArrayList<Catalog>(count);
+		for (int i = 0; i < count; i++) {
+			String name = new String(data, poolStart + nameEnds[i], nameEnds[i + 1] - nameEnds[i], CHARSET);
+			res.add(new Catalog(name, offsets[i]));
 		}
 		return res;
 	}
-	
+
 	private static File getSaveFile(String filePath){
-		String chapterFileName = filePath.hashCode()+"2020";
+		String chapterFileName = filePath.hashCode()+".idx";
 		File saveDir = new File(BaseContext.getInstance().getCacheDir()+"/chapters/"+chapterFileName);
 		return saveDir;
 	}
-	
-	public static void save(String filePath, final ArrayList<Catalog> catalog){
+
+	public static void save(String filePath, final String encode, final ArrayList<Catalog> catalog){
+		final File bookFile = new File(filePath);
 		final File saveDir = getSaveFile(filePath);
-		if(saveDir.exists() && saveDir.isFile() && saveDir.length() > 4){
-			return;
-		}
 		new Thread(){
-			public void run(){ 
-				saveDir.getParentFile().mkdirs();  
+			public void run(){
+				saveDir.getParentFile().mkdirs();
 				try {
-					saveFile(saveDir, catalog);
+					saveFile(saveDir, buildChapterIndex(bookFile, encode, catalog));
 				} catch (Exception e) {
 				}
 			}
 		}.start();
 	}
 
-	private static void saveFile(File saveDir, ArrayList<Catalog> chapters) throws Exception{
-		saveDir.createNewFile(); // 创建新文件  
-        BufferedWriter out = new BufferedWriter(new FileWriter(saveDir));  
-        out.write(buildChapterStr(chapters)); // \r\n即为换行
-        out.flush(); // 把缓存区内容压入文件  
-        out.close(); // 最后记得关闭文件   
+	private static void saveFile(File saveDir, byte[] data) throws Exception{
+		File tempFile = new File(saveDir.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		if (!tempFile.renameTo(saveDir)) {
+			saveDir.delete();
+			tempFile.renameTo(saveDir);
+		}
 	}
-	
+
+	/**
+	 * 只读取文件头中缓存的编码
+	 * @return 没有缓存或已失效返回NULL
+	 */
+	public static String readEncode(String filePath) throws Exception {
+		File saveDir = getSaveFile(filePath);
+		if (saveDir.exists() && saveDir.isFile() && saveDir.length() > HEAD_LENGTH) {
+			byte[] data = new byte[(int) Math.min(saveDir.length(), HEAD_LENGTH + 64)];
+			RandomAccessFile reader = new RandomAccessFile(saveDir, "r");
+			try {
+				reader.readFully(data);
+			} finally {
+				reader.close();
+			}
+			return readHead(new File(filePath), ByteBuffer.wrap(data));
+		}
+		return null;
+	}
+
 	public static List<Catalog> readFile(String filePath) throws Exception {
 		File saveDir = getSaveFile(filePath);
-		if (saveDir.exists() && saveDir.isFile() && saveDir.length() > 4) {
-			StringBuffer res = new StringBuffer();
-			BufferedReader reader = new BufferedReader(new FileReader(saveDir));
-			String tempString = null; 
-			while ((tempString = reader.readLine()) != null) {
-				res.append(tempString);
+		if (saveDir.exists() && saveDir.isFile() && saveDir.length() > HEAD_LENGTH) {
+			byte[] data = new byte[(int) saveDir.length()];
+			RandomAccessFile reader = new RandomAccessFile(saveDir, "r");
+			try {
+				reader.readFully(data);
+			} finally {
+				reader.close();
 			}
-			reader.close();
-			return buildChapterList(res.toString());
+			return buildChapterList(new File(filePath), data);
 		}
 		return null;
 	}
-	
+
 }
@@ -0,0 +1,234 @@
+package com.season.book.plugin.text;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+
+/**
+ * TXT章节内容读取器
+ * 1.直接在映射内存的切片上解码，不逐字节复制
+ * 2.支持分段解码，首屏内容可以先排版
+ * 3.解码器和字符缓存在读取器之间复用，用完调用{@link #recycle()}或{@link #close()}
+ */
+public class TextChapterReader extends Reader {
+    /** 分段解码的字符数 */
+    public static final int CHUNK_SIZE = 8 * 1024;
+    /** 超过该大小的字符缓存不回收 */
+    private static final int MAX_POOL_BUFFER_SIZE = 2 * 1024 * 1024;
+    private static final int MAX_POOL_SIZE = 4;
+
+    private static final ArrayList<CharsetDecoder> sDecoderPool = new ArrayList<CharsetDecoder>();
+    private static final ArrayList<CharBuffer> sBufferPool = new ArrayList<CharBuffer>();
+
+    private final ByteBuffer mSource;
+    private final int mByteLength;
+    private CharsetDecoder mDecoder;
+    /** 解码器是否已结束 */
+    private boolean isDecodeEnd;
+    /** 目标空间只剩一个字符时，代理对的低位暂存在这里，-1表示没有 */
+    private int mPendingChar = -1;
+
+    /**
+     * @param source 章节字节切片，position到limit为章节内容
+     */
+    TextChapterReader(ByteBuffer source, Charset charset) {
+        mSource = source;
+        mByteLength = source.remaining();
+        mDecoder = obtainDecoder(charset);
+    }
+
+    /**
+     * 章节字节长度
+     */
+    public int getByteLength() {
+        return mByteLength;
+    }
+
+    /**
+     * 已读取的字节长度
+     */
+    public int getReadByteLength() {
+        return mByteLength - mSource.remaining();
+    }
+
+    /**
+     * 是否已全部解码
+     */
+    public boolean isEnd() {
+        return isDecodeEnd && mPendingChar < 0;
+    }
+
+    /**
+     * 解码到dst，直到dst写满或章节结束
+     *
+     * @return 解码的字符数，章节已结束返回-1
+     */
+    @Override
+    public int read(CharBuffer dst) {
+        int count = 0;
+        if (mPendingChar >= 0 && dst.hasRemaining()) {
+            dst.put((char) mPendingChar);
+            mPendingChar = -1;
+            count++;
+        }
+        if (isDecodeEnd) {
+            return count > 0 ? count : -1;
+        }
+        int start = dst.position();
+        CoderResult result = mDecoder.decode(mSource, dst, true);
+        if (result.isUnderflow()) {
+            result = mDecoder.flush(dst);
+            if (result.isUnderflow()) {
+                isDecodeEnd = true;
+            }
+        }
+        count += dst.position() - start;
+        if (count == 0 && dst.remaining() == 1 && !isDecodeEnd) {
+            //剩余空间放不下代理对
+            CharBuffer pair = CharBuffer.allocate(2);
+            if (read(pair) > 0) {
+                dst.put(pair.get(0));
+                if (pair.position() > 1) {
+                    mPendingChar = pair.get(1);
+                }
+                count = 1;
+            }
+        }
+        if (count == 0 && isEnd()) {
+            return -1;
+        }
+        return count;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        return read(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    /**
+     * 解码最多maxChars个字符追加到dst
+     *
+     * @return 解码的字符数，章节已结束返回-1
+     */
+    public int read(StringBuilder dst, int maxChars) {
+        if (isEnd()) {
+            return -1;
+        }
+        CharBuffer chunk = obtainBuffer(Math.min(maxChars, CHUNK_SIZE));
+        int count = 0;
+        try {
+            while (count < maxChars && !isEnd()) {
+                chunk.clear();
+                chunk.limit(Math.min(chunk.capacity(), maxChars - count));
+                int size = read(chunk);
+                if (size <= 0) {
+                    break;
+                }
+                dst.append(chunk.array(), chunk.arrayOffset(), size);
+                count += size;
+            }
+        } finally {
+            recycleBuffer(chunk);
+        }
+        return count;
+    }
+
+    /**
+     * 解码剩余的全部内容
+     */
+    public String readAll() {
+        if (isEnd()) {
+            return "";
+        }
+        int capacity = (int) (mSource.remaining() * (double) mDecoder.maxCharsPerByte()) + 16;
+        CharBuffer buffer = obtainBuffer(capacity);
+        try {
+            buffer.clear();
+            while (read(buffer) >= 0 && !isEnd()) {
+                buffer = grow(buffer);
+            }
+            return new String(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } finally {
+            recycleBuffer(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        recycle();
+    }
+
+    /**
+     * 回收解码器，回收后不能再读取
+     */
+    public void recycle() {
+        if (mDecoder != null) {
+            recycleDecoder(mDecoder);
+            mDecoder = null;
+        }
+        isDecodeEnd = true;
+        mPendingChar = -1;
+    }
+
+    private static CharBuffer grow(CharBuffer buffer) {
+        CharBuffer res = CharBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        res.put(buffer);
+        return res;
+    }
+
+    private static CharsetDecoder obtainDecoder(Charset charset) {
+        synchronized (sDecoderPool) {
+            for (int i = sDecoderPool.size() - 1; i >= 0; i--) {
+                if (sDecoderPool.get(i).charset().equals(charset)) {
+                    return sDecoderPool.remove(i).reset();
+                }
+            }
+        }
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static void recycleDecoder(CharsetDecoder decoder) {
+        synchronized (sDecoderPool) {
+            if (sDecoderPool.size() >= MAX_POOL_SIZE) {
+                sDecoderPool.remove(0);
+            }
+            sDecoderPool.add(decoder);
+        }
+    }
+
+    private static CharBuffer obtainBuffer(int capacity) {
+        synchronized (sBufferPool) {
+            for (int i = sBufferPool.size() - 1; i >= 0; i--) {
+                if (sBufferPool.get(i).capacity() >= capacity) {
+                    CharBuffer buffer = sBufferPool.remove(i);
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+        return CharBuffer.allocate(capacity);
+    }
+
+    private static void recycleBuffer(CharBuffer buffer) {
+        if (buffer.capacity() > MAX_POOL_BUFFER_SIZE) {
+            return;
+        }
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() >= MAX_POOL_SIZE) {
+                sBufferPool.remove(0);
+            }
+            sBufferPool.add(buffer);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.season.book.plugin.text;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.season.book.bean.Catalog;
+
+/**
+ * TXT章节扫描器
+ * 1.把内存映射的文件按换行切分成若干段，多线程并行扫描
+ * 2.逐字节判断行首是否为“第”，只有命中的行才解码成字符串并用正则确认
+ * 3.各段结果按顺序合并
+ * 只支持兼容ASCII的编码（GBK、UTF-8、Big5等），UNICODE编码仍走逐段落扫描
+ */
+class TextChapterScanner {
+
+    /** 章节标题 */
+    static final Pattern CHAPTER_PATTERN = Pattern.compile("(^\\s*第)(.{1,9})[章节卷集部篇回](\\s*)(.*)(\n|\r|\r\n)");
+    /** 每段最小字节数，小文件不拆分 */
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    /** 每次批量读取的字节数 */
+    private static final int READ_BLOCK_SIZE = 64 * 1024;
+
+    private final ByteBuffer mBuffer;
+    private final int mLength;
+    private final String mEncode;
+    /** “第”在当前编码下的字节 */
+    private final byte[] mPrefix;
+
+    TextChapterScanner(ByteBuffer buffer, int length, String encode) {
+        mBuffer = buffer;
+        mLength = length;
+        mEncode = encode;
+        mPrefix = getPrefixBytes(encode);
+    }
+
+    /**
+     * 当前编码是否支持字节级扫描
+     */
+    static boolean isSupport(String encode) {
+        return getPrefixBytes(encode) != null;
+    }
+
+    private static byte[] getPrefixBytes(String encode) {
+        try {
+            if (encode == null || !Charset.isSupported(encode)) {
+                return null;
+            }
+            Charset charset = Charset.forName(encode);
+            CharsetEncoder encoder = charset.newEncoder();
+            if (!encoder.canEncode('第')) {
+                return null;
+            }
+            byte[] enter = "\n".getBytes(charset);
+            if (enter.length != 1 || enter[0] != 0x0a) {
+                return null;
+            }
+            byte[] prefix = "第".getBytes(charset);
+            if (prefix.length == 0 || (prefix[0] & 0x80) == 0) {
+                return null;
+            }
+            return prefix;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 扫描全部章节
+     */
+    List<Catalog> scan() throws Exception {
+        int[] bounds = splitSegments();
+        int segmentCount = bounds.length - 1;
+        List<Catalog> res = new ArrayList<Catalog>();
+        if (segmentCount == 1) {
+            res.addAll(scanSegment(bounds[0], bounds[1]));
+            return res;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(segmentCount);
+        try {
+            List<Future<List<Catalog>>> futures = new ArrayList<Future<List<Catalog>>>(segmentCount);
+            for (int i = 0; i < segmentCount; i++) {
+                final int start = bounds[i];
+                final int end = bounds[i + 1];
+                futures.add(executor.submit(new Callable<List<Catalog>>() {
+                    @Override
+                    public List<Catalog> call() throws Exception {
+                        return scanSegment(start, end);
+                    }
+                }));
+            }
+            for (Future<List<Catalog>> future : futures) {
+                res.addAll(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return res;
+    }
+
+    /**
+     * 按CPU核数切分，每段的起点都在换行之后
+     */
+    private int[] splitSegments() {
+        int cpu = Math.max(1, Runtime.getRuntime().availableProcessors());
+        int count = (int) Math.max(1, Math.min(cpu, (long) mLength / MIN_SEGMENT_SIZE));
+        int[] bounds = new int[count + 1];
+        int size = 1;
+        bounds[0] = 0;
+        for (int i = 1; i < count; i++) {
+            int position = nextLineStart((int) ((long) mLength * i / count));
+            if (position > bounds[size - 1] && position < mLength) {
+                bounds[size++] = position;
+            }
+        }
+        bounds[size++] = mLength;
+        if (size == bounds.length) {
+            return bounds;
+        }
+        int[] res = new int[size];
+        System.arraycopy(bounds, 0, res, 0, size);
+        return res;
+    }
+
+    private int nextLineStart(int position) {
+        while (position < mLength) {
+            if (mBuffer.get(position++) == 0x0a) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 扫描[start, end)区间，区间起点必须是行首
+     */
+    private List<Catalog> scanSegment(int start, int end) throws Exception {
+        List<Catalog> res = new ArrayList<Catalog>();
+        ByteBuffer reader = mBuffer.duplicate();
+        byte[] block = new byte[READ_BLOCK_SIZE];
+        byte[] prefix = mPrefix;
+        int lineStart = start;
+        //-1：行首空白中；0~prefix.length：匹配“第”中；-2：不是候选行
+        int state = -1;
+        boolean isCandidate = false;
+        int position = start;
+        while (position < end) {
+            int count = Math.min(READ_BLOCK_SIZE, end - position);
+            reader.position(position);
+            reader.get(block, 0, count);
+            for (int i = 0; i < count; i++) {
+                byte b = block[i];
+                if (b == 0x0a) {
+                    if (isCandidate) {
+                        confirm(reader, lineStart, position + i + 1, res);
+                    }
+                    lineStart = position + i + 1;
+                    state = -1;
+                    isCandidate = false;
+                    continue;
+                }
+                if (state == -2) {
+                    continue;
+                }
+                if (state == -1) {
+                    if (isWhitespace(b)) {
+                        continue;
+                    }
+                    state = 0;
+                }
+                if (b == prefix[state]) {
+                    state++;
+                    if (state == prefix.length) {
+                        isCandidate = true;
+                        state = -2;
+                    }
+                } else {
+                    state = -2;
+                }
+            }
+            position += count;
+        }
+        if (isCandidate && lineStart < end) {
+            confirm(reader, lineStart, end, res);
+        }
+        return res;
+    }
+
+    private void confirm(ByteBuffer reader, int start, int end, List<Catalog> res) throws Exception {
+        byte[] line = new byte[end - start];
+        int restore = reader.position();
+        reader.position(start);
+        reader.get(line);
+        reader.position(restore);
+        Matcher matcher = CHAPTER_PATTERN.matcher(new String(line, mEncode));
+        if (matcher.find()) {
+            res.add(new Catalog(matcher.group(0), start));
+        }
+    }
+
+    /**
+     * 与正则\s一致：空格、\t、\x0B、\f、\r（换行单独处理）
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == 0x20 || b == 0x09 || b == 0x0b || b == 0x0c || b == 0x0d;
+    }
+}
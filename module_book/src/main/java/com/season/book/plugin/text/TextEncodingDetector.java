@@ -0,0 +1,313 @@
+package com.season.book.plugin.text;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * TXT编码识别
+ * 1.先判断BOM
+ * 2.在文件中均匀取若干窗口，逐字节做UTF-8合法性和GBK/Big5双字节检查，只计数不解码
+ * 3.结果不明确时，才把窗口数据交给{@link BytesEncodingDetect}统计打分
+ * 返回值都是Charset可用的名称，UTF-16明确字节序，分段解码时不依赖BOM
+ */
+class TextEncodingDetector {
+
+    static final String UTF8 = "UTF-8";
+    static final String GBK = "GBK";
+    static final String BIG5 = "Big5";
+    static final String UTF16LE = "UTF-16LE";
+    static final String UTF16BE = "UTF-16BE";
+
+    /** 窗口个数 */
+    private static final int WINDOW_COUNT = 8;
+    /** 每个窗口的字节数 */
+    private static final int WINDOW_SIZE = 4 * 1024;
+    /** 低位尾字节(0x40~0x7E)占比低于该值判为GBK，百分比 */
+    private static final int GBK_LOW_TRAIL_PERCENT = 5;
+    /** 低位尾字节占比高于该值判为Big5，百分比 */
+    private static final int BIG5_LOW_TRAIL_PERCENT = 20;
+
+    private final ByteBuffer mBuffer;
+    private final int mLength;
+
+    /** 非ASCII字节数 */
+    private int mHighBytes;
+    /** UTF-8多字节序列数 */
+    private int mUtf8Sequences;
+    /** UTF-8非法字节数 */
+    private int mUtf8Errors;
+    /** GBK双字节数 */
+    private int mGbkPairs;
+    /** GBK非法字节数 */
+    private int mGbkErrors;
+    /** Big5非法字节数 */
+    private int mBig5Errors;
+    /** 尾字节在0x40~0x7E之间的双字节数，GB2312区内不会出现 */
+    private int mLowTrailPairs;
+
+    TextEncodingDetector(ByteBuffer buffer, int length) {
+        mBuffer = buffer;
+        mLength = length;
+    }
+
+    /**
+     * 识别编码
+     */
+    String detect() {
+        String bom = detectBom();
+        if (bom != null) {
+            return bom;
+        }
+        byte[] sample = new byte[Math.min(mLength, WINDOW_COUNT * WINDOW_SIZE)];
+        int sampleLength = readWindows(sample);
+        if (isUtf16(sample, sampleLength)) {
+            return detectUtf16Order();
+        }
+        for (int i = 0; i < WINDOW_COUNT && i * WINDOW_SIZE < sampleLength; i++) {
+            int start = i * WINDOW_SIZE;
+            int end = Math.min(sampleLength, start + WINDOW_SIZE);
+            checkUtf8(sample, start, end);
+            checkDoubleBytes(sample, start, end);
+        }
+        if (mHighBytes == 0) {
+            return UTF8;
+        }
+        if (mUtf8Sequences > 0 && mUtf8Errors * 50 <= mUtf8Sequences) {
+            return UTF8;
+        }
+        if (mGbkPairs > 0) {
+            int lowTrailPercent = mLowTrailPairs * 100 / mGbkPairs;
+            if (mGbkErrors == 0 && (mBig5Errors > 0 || lowTrailPercent < GBK_LOW_TRAIL_PERCENT)) {
+                return GBK;
+            }
+            if (mBig5Errors == 0 && (mGbkErrors > 0 || lowTrailPercent > BIG5_LOW_TRAIL_PERCENT)) {
+                return BIG5;
+            }
+        }
+        byte[] rawtext = sample;
+        if (sampleLength != sample.length) {
+            rawtext = new byte[sampleLength];
+            System.arraycopy(sample, 0, rawtext, 0, sampleLength);
+        }
+        int encoding = new BytesEncodingDetect().detectEncoding(rawtext);
+        if (encoding == BytesEncodingDetect.UNICODE || encoding == BytesEncodingDetect.UNICODES
+                || encoding == BytesEncodingDetect.UNICODET) {
+            return detectUtf16Order();
+        }
+        return toCharsetName(encoding);
+    }
+
+    private String detectBom() {
+        if (mLength >= 2) {
+            int b0 = mBuffer.get(0) & 0xff;
+            int b1 = mBuffer.get(1) & 0xff;
+            if (b0 == 0xff && b1 == 0xfe) {
+                return UTF16LE;
+            }
+            if (b0 == 0xfe && b1 == 0xff) {
+                return UTF16BE;
+            }
+            if (mLength >= 3 && b0 == 0xef && b1 == 0xbb && (mBuffer.get(2) & 0xff) == 0xbf) {
+                return UTF8;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 均匀读取窗口到sample，除第一个窗口外起点对齐到多字节字符之后
+     *
+     * @return 读取的总字节数
+     */
+    private int readWindows(byte[] sample) {
+        ByteBuffer reader = mBuffer.duplicate();
+        int size = 0;
+        for (int i = 0; i < WINDOW_COUNT && size < sample.length; i++) {
+            int start = (int) ((long) mLength * i / WINDOW_COUNT);
+            if (i > 0) {
+                start = alignCharStart(start);
+            }
+            if (start >= mLength) {
+                break;
+            }
+            int count = Math.min(Math.min(WINDOW_SIZE, sample.length - size), mLength - start);
+            reader.position(start);
+            reader.get(sample, size, count);
+            size += count;
+            //到文件末尾了，后面的窗口只会重复
+            if (count < WINDOW_SIZE && size < sample.length) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 向后找一个小于0x40的字节，它不会是UTF-8、GBK或Big5的后续字节
+     */
+    private int alignCharStart(int position) {
+        int end = Math.min(mLength, position + WINDOW_SIZE);
+        for (int i = position; i < end; i++) {
+            if ((mBuffer.get(i) & 0xff) < 0x40) {
+                return i + 1;
+            }
+        }
+        return position;
+    }
+
+    private void checkUtf8(byte[] data, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int b = data[i] & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            mHighBytes++;
+            int trail;
+            if (b >= 0xc2 && b <= 0xdf) {
+                trail = 1;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                trail = 2;
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                trail = 3;
+            } else {
+                mUtf8Errors++;
+                i++;
+                continue;
+            }
+            if (i + trail >= end) {
+                //窗口末尾被截断的字符不计
+                break;
+            }
+            int j = 1;
+            while (j <= trail && (data[i + j] & 0xc0) == 0x80) {
+                j++;
+            }
+            if (j <= trail) {
+                mUtf8Errors++;
+                i++;
+            } else {
+                mUtf8Sequences++;
+                i += j;
+            }
+        }
+    }
+
+    private void checkDoubleBytes(byte[] data, int start, int end) {
+        //GBK：首字节0x81~0xFE，尾字节0x40~0xFE且不为0x7F
+        int i = start;
+        while (i < end) {
+            int b = data[i] & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            if (i + 1 >= end) {
+                break;
+            }
+            int t = data[i + 1] & 0xff;
+            if (b >= 0x81 && b <= 0xfe && t >= 0x40 && t <= 0xfe && t != 0x7f) {
+                mGbkPairs++;
+                if (t <= 0x7e) {
+                    mLowTrailPairs++;
+                }
+                i += 2;
+            } else {
+                mGbkErrors++;
+                i++;
+            }
+        }
+        //Big5：首字节0xA1~0xF9，尾字节0x40~0x7E或0xA1~0xFE
+        i = start;
+        while (i < end) {
+            int b = data[i] & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            if (i + 1 >= end) {
+                break;
+            }
+            int t = data[i + 1] & 0xff;
+            if (b >= 0xa1 && b <= 0xf9 && ((t >= 0x40 && t <= 0x7e) || (t >= 0xa1 && t <= 0xfe))) {
+                i += 2;
+            } else {
+                mBig5Errors++;
+                i++;
+            }
+        }
+    }
+
+    /**
+     * BOM的字节数，没有BOM返回0
+     */
+    static int getBomLength(ByteBuffer buffer, int length, String encode) {
+        if (length >= 2 && (UTF16LE.equals(encode) || UTF16BE.equals(encode))) {
+            int b0 = buffer.get(0) & 0xff;
+            int b1 = buffer.get(1) & 0xff;
+            if ((b0 == 0xff && b1 == 0xfe) || (b0 == 0xfe && b1 == 0xff)) {
+                return 2;
+            }
+        } else if (length >= 3 && UTF8.equals(encode) && (buffer.get(0) & 0xff) == 0xef
+                && (buffer.get(1) & 0xff) == 0xbb && (buffer.get(2) & 0xff) == 0xbf) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * 兼容ASCII的编码里不会出现0字节，0字节超过1/8时认为是没有BOM的UTF-16
+     */
+    private static boolean isUtf16(byte[] data, int length) {
+        int zeros = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == 0) {
+                zeros++;
+            }
+        }
+        return length > 0 && zeros * 8 > length;
+    }
+
+    /**
+     * 没有BOM的UTF-16从文件开头按0字节出现在偶数还是奇数位置判断字节序，中英文混排时ASCII字符的高位为0
+     */
+    private String detectUtf16Order() {
+        int evenZeros = 0;
+        int oddZeros = 0;
+        int length = Math.min(mLength, WINDOW_COUNT * WINDOW_SIZE);
+        for (int i = 0; i + 1 < length; i += 2) {
+            if (mBuffer.get(i) == 0) {
+                evenZeros++;
+            }
+            if (mBuffer.get(i + 1) == 0) {
+                oddZeros++;
+            }
+        }
+        return evenZeros > oddZeros ? UTF16BE : UTF16LE;
+    }
+
+    /**
+     * 统计结果转换为Charset名称
+     */
+    private static String toCharsetName(int encoding) {
+        if (encoding == BytesEncodingDetect.GB2312 || encoding == BytesEncodingDetect.GBK) {
+            return GBK;
+        }
+        if (encoding == BytesEncodingDetect.UTF8 || encoding == BytesEncodingDetect.UTF8S
+                || encoding == BytesEncodingDetect.UTF8T || encoding == BytesEncodingDetect.ASCII) {
+            return UTF8;
+        }
+        if (encoding == BytesEncodingDetect.BIG5 || encoding == BytesEncodingDetect.CNS11643) {
+            return BIG5;
+        }
+        String name = BytesEncodingDetect.nicename[encoding];
+        try {
+            if (Charset.isSupported(name)) {
+                return name;
+            }
+        } catch (Exception e) {
+        }
+        return GBK;
+    }
+}
@@ -2,9 +2,12 @@ package com.season.book.plugin.text;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -23,6 +26,8 @@ public class TextPlugin extends PluginManager {
     private FileChannel mFileChannel;
     private MappedByteBuffer mMappedByteBuffer = null;
     protected String mEncode = "UTF-8";
+    /** 正文起点，跳过BOM */
+    private int mContentStart;
 
     public TextPlugin(String filePath) {
         super(filePath);
@@ -35,23 +40,31 @@ public class TextPlugin extends PluginManager {
         mFileChannel =  mRandomAccessFile.getChannel();
         mMappedByteBuffer = mFileChannel.map(
                 FileChannel.MapMode.READ_ONLY, 0, mBufferLength);
-        byte[] encodings = new byte[400];
-        mRandomAccessFile.read(encodings);
-        BytesEncodingDetect be = new BytesEncodingDetect();
-
-        int position = be.detectEncoding(encodings);
-        position = position==22?6:position;
-        mEncode = BytesEncodingDetect.nicename[position];
+        mEncode = detectEncode();
+        mContentStart = TextEncodingDetector.getBomLength(mMappedByteBuffer, mBufferLength, mEncode);
 
         findChapters();
     }
 
+    /**
+     * 识别编码，优先使用索引中缓存的结果
+     */
+    private String detectEncode() {
+        try {
+            String encode = TextChapterCache.readEncode(filePath);
+            if (encode != null && Charset.isSupported(encode)) {
+                return encode;
+            }
+        } catch (Exception e) {
+        }
+        return new TextEncodingDetector(mMappedByteBuffer, mBufferLength).detect();
+    }
+
     public String getEncode(){
         return mEncode;
     }
 
     private void findChapters(){
-        int start = 0;
         try {
             List<Catalog> res = TextChapterCache.readFile(filePath);
             if(res != null && res.size() > 0){
@@ -61,27 +74,98 @@ public class TextPlugin extends PluginManager {
         } catch (Exception e1) {
             e1.printStackTrace();
         }
-        start = 0;
-        Pattern p = Pattern.compile("(^\\s*第)(.{1,9})[章节卷集部篇回](\\s*)(.*)(\n|\r|\r\n)");
+        try {
+            if (TextChapterScanner.isSupport(mEncode)) {
+                catalog.addAll(new TextChapterScanner(mMappedByteBuffer, mBufferLength, mEncode).scan());
+            } else {
+                findChaptersByParagraph();
+            }
+        } catch (Exception e) {
+            return;
+        }
+        if(catalog.size() == 0){
+            splitWindows();
+        }
+        TextChapterCache.save(filePath, mEncode, catalog);
+    }
+
+    /** 无章节时每个虚拟章节的字符数 */
+    private static final int WINDOW_CHAR_SIZE = 64 * 1024;
+
+    /**
+     * 没有章节标题的书籍按固定大小切分为虚拟章节，切分点对齐到段落结尾，
+     * 保证单章排版占用的内存不随文件大小增长
+     */
+    private void splitWindows() {
+        int windowSize = getWindowByteSize();
+        int start = mContentStart;
         while (start < mBufferLength) {
-            byte[] bts = readParagraphForward(start);
-            String str;
-            try {
-                str = new String(bts, mEncode);
-                Matcher matcher = p.matcher(str);
-                if (matcher.find()) {
-                    String name = matcher.group(0);
-                    catalog.add(new Catalog(name, start));
+            catalog.add(new Catalog("正文(" + (catalog.size() + 1) + ")", start));
+            start = alignParagraph(start + windowSize);
+        }
+        if (catalog.size() <= 1) {
+            catalog.clear();
+            catalog.add(new Catalog("正文", mContentStart));
+        }
+    }
+
+    /**
+     * 按编码估算虚拟章节的字节数
+     */
+    private int getWindowByteSize() {
+        float bytesPerChar = 2;
+        if (isUnicode()) {
+            return WINDOW_CHAR_SIZE * 2;
+        }
+        try {
+            bytesPerChar = Math.min(3, Charset.forName(mEncode).newEncoder().maxBytesPerChar());
+        } catch (Exception e) {
+        }
+        return (int) (WINDOW_CHAR_SIZE * Math.max(1, bytesPerChar));
+    }
+
+    /**
+     * 从position开始找到段落结尾的下一个位置
+     */
+    private int alignParagraph(int position) {
+        if (position >= mBufferLength) {
+            return mBufferLength;
+        }
+        if (isUnicode()) {
+            position -= position & 1;
+            while (position < mBufferLength - 1) {
+                byte b0 = getContentByte(position++);
+                byte b1 = getContentByte(position++);
+                if (isEnterKey(b0, b1)) {
+                    break;
+                }
+            }
+        } else {
+            while (position < mBufferLength) {
+                if (getContentByte(position++) == 0x0a) {
+                    break;
                 }
-            } catch (UnsupportedEncodingException e) {
-                return;
             }
-            start += bts.length;
         }
-        if(catalog.size() == 0){
-            catalog.add(new Catalog("正文", 0));
+        return Math.min(position, mBufferLength);
+    }
+
+    /**
+     * 逐段落解码查找章节，用于不兼容ASCII的编码
+     */
+    private void findChaptersByParagraph() throws UnsupportedEncodingException {
+        int start = mContentStart;
+        Pattern p = TextChapterScanner.CHAPTER_PATTERN;
+        while (start < mBufferLength) {
+            byte[] bts = readParagraphForward(start);
+            String str = new String(bts, mEncode);
+            Matcher matcher = p.matcher(str);
+            if (matcher.find()) {
+                String name = matcher.group(0);
+                catalog.add(new Catalog(name, start));
+            }
+            start += bts.length;
         }
-        TextChapterCache.save(filePath, catalog);
     }
 
     private int _lastEndPosition = -1;
@@ -145,7 +229,8 @@ public class TextPlugin extends PluginManager {
     }
 
     private boolean isUnicode() {
-        return mEncode.toUpperCase().equals("UNICODE");
+        String encode = mEncode.toUpperCase();
+        return encode.startsWith("UTF-16") || encode.equals("UNICODE");
     }
 
     public byte getContentByte(int position) {
@@ -169,23 +254,46 @@ public class TextPlugin extends PluginManager {
 
     @Override
     public String getChapter(int chapterIndex) throws Exception {
+        TextChapterReader reader = openChapter(chapterIndex);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            return reader.readAll();
+        } finally {
+            reader.recycle();
+        }
+    }
+
+    @Override
+    public Reader getChapterReader(int chapterIndex) throws Exception {
+        TextChapterReader reader = openChapter(chapterIndex);
+        if (reader != null && reader.getByteLength() == 0) {
+            reader.recycle();
+            return null;
+        }
+        return reader;
+    }
+
+    /**
+     * 打开章节内容读取器，可分段解码，用完需要调用{@link TextChapterReader#recycle()}
+     * @param chapterIndex
+     * @return 章节不存在返回NULL
+     */
+    public TextChapterReader openChapter(int chapterIndex) {
         if(mMappedByteBuffer == null){
             return null;
         }
-        int position = chapterIndex;
         ArrayList<Catalog> chapterIds = getCatalog();
-        if (position >= 0){
-            if (position >= chapterIds.size() - 1){
-                byte[] bytes = new byte[mBufferLength - chapterIds.get(position).getIndex()];
-                fillBytes(bytes, chapterIds.get(position).getIndex(), bytes.length);
-                return new String(bytes, mEncode);
-            }else{
-                byte[] bytes = new byte[chapterIds.get(position + 1).getIndex() - chapterIds.get(position).getIndex()];
-                fillBytes(bytes, chapterIds.get(position).getIndex(), bytes.length);
-                return new String(bytes, mEncode);
-            }
+        if (chapterIndex < 0 || chapterIndex >= chapterIds.size()) {
+            return null;
         }
-        return null;
+        int start = Math.max(mContentStart, chapterIds.get(chapterIndex).getIndex());
+        int end = chapterIndex == chapterIds.size() - 1 ? mBufferLength : chapterIds.get(chapterIndex + 1).getIndex();
+        ByteBuffer slice = mMappedByteBuffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return new TextChapterReader(slice, Charset.forName(mEncode));
     }
 
     @Override
@@ -200,10 +308,4 @@ public class TextPlugin extends PluginManager {
         return temp.toString();
     }
 
-    private void fillBytes(byte[] dst, int offset, int length){
-        for (int i = 0; i < length; i++){
-            dst[i] = mMappedByteBuffer.get(offset + i);
-        }
-    }
-
 }
@@ -1,17 +1,22 @@
 package com.season.book.plugin.umd;
 
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.lang.ref.SoftReference;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
-import android.util.SparseArray;
 
-
-/** 
+/**
  *  UMD文件格式数据块解析
+ *  1.整本书共用一个FileChannel按位置读取压缩块，不再每块打开文件
+ *  2.共用一个Inflater和读取缓存
+ *  3.解压后的块按LRU缓存，按块批量复制，不再逐字节缓存
  * @author laijp
  * @date 2014-1-16
  * @email 451360508@qq.com
@@ -36,112 +41,182 @@ public class UmdDataBlock {
 
 	}
 
+	/** 每块解压后的大小*/
+	private static final int BLOCK_SIZE = 0x8000;
+	/** 缓存的块数*/
+	private static final int MAX_CACHE_BLOCKS = 8;
+
 	private int contentLength;
-	private int[] chapOff; 
-	private ArrayList<BlockEntity> contentArr; 
-	private String fileName; 
-	private int mCurrentChapterIndex; 
+	private int[] chapOff;
+	private ArrayList<BlockEntity> contentArr;
+	private String fileName;
+	private int mCurrentChapterIndex;
+
+	private RandomAccessFile mFile;
+	private FileChannel mChannel;
+	private Inflater mInflater;
+	private ByteBuffer mCompressBuffer;
+	private byte[] mInflateBuffer;
+	/** 块下标对应的解压数据*/
+	private LinkedHashMap<Integer, byte[]> mBlocks;
 
 	public UmdDataBlock(int contentLength, int[] chapOff, ArrayList<BlockEntity> contentArr, String fileName) {
 		this.fileName = fileName;
-		this.contentArr = contentArr; 
-		this.chapOff = chapOff; 
+		this.contentArr = contentArr;
+		this.chapOff = chapOff;
 		this.contentLength = contentLength;
-		this.mByteHashmaps = new SparseArray<SoftReference<byte[]>>();
-		this.mByteMaps = new SparseArray<SoftReference<Byte>>();
+		this.mBlocks = new LinkedHashMap<Integer, byte[]>(MAX_CACHE_BLOCKS, 0.75f, true);
 	}
 
 	public int getCurrentChapterIndex() {
 		return mCurrentChapterIndex;
 	}
-	
+
 	public void setCurrentChapterIndex(int index) {
 		mCurrentChapterIndex = index;
 	}
-	
-	public void release(){
-		mByteMaps.clear();
-		mByteHashmaps.clear();
-	}
- 
-	private byte[] getDataBytesAtPosition(int position) throws Exception{ 
-		SoftReference<byte[]> byteRef = mByteHashmaps.get(position); 
-		if(byteRef != null && byteRef.get() != null){
-			return byteRef.get();
-		}else{
-			mByteHashmaps.clear();
-			InputStream is = new DataInputStream(new FileInputStream(fileName));  
-			byte[] bytes = getDataBlockBytes(is, position);
-			mByteHashmaps.put(position, new SoftReference<byte[]>(bytes)); 
-			is.close();  
-			return bytes;
-		}  
+
+	public synchronized void release(){
+		mBlocks.clear();
+		if(mInflater != null){
+			mInflater.end();
+			mInflater = null;
+		}
+		if(mFile != null){
+			try {
+				mFile.close();
+			} catch (IOException e) {
+			}
+			mFile = null;
+			mChannel = null;
+		}
+		mCompressBuffer = null;
+		mInflateBuffer = null;
 	}
-	
-	private SparseArray<SoftReference<Byte>> mByteMaps;
-	private SparseArray<SoftReference<byte[]>> mByteHashmaps;
-	private int oneBlockSize = 0x8000;
-	
-	private byte[] currentReadBlock;
-	private int currentBlock;
+
+	/**
+	 * 读取当前章节某位置的字节
+	 */
 	public byte read(int position) throws Exception{
-		int chapterStartIndex = chapOff[(int) mCurrentChapterIndex]; 
-		int realPosition = chapterStartIndex + position;
-		if(currentReadBlock == null || realPosition/oneBlockSize != currentBlock){
-			return getByteAtPosition(position);
-		}
-		int bytePosition = realPosition % oneBlockSize; 
-		return currentReadBlock[bytePosition]; 
+		return getByteAtPosition(position);
 	}
+
 	/**
-	 * 获取某位置的字节
+	 * 获取当前章节某位置的字节
 	 */
-	public byte getByteAtPosition(int position) throws Exception{
-		int chapterStartIndex = chapOff[(int) mCurrentChapterIndex]; 
-		int realPosition = chapterStartIndex + position;
-		SoftReference<Byte> bteRef = mByteMaps.get(realPosition); 
-		if(bteRef != null && bteRef.get() != null){
-			return bteRef.get();
-		} 
-		if(oneBlockSize <= 0){
-			InputStream is = new DataInputStream(new FileInputStream(fileName));  
-			oneBlockSize = getDataBytesAtPosition(0).length;
-			is.close();
+	public synchronized byte getByteAtPosition(int position) throws Exception{
+		int realPosition = chapOff[mCurrentChapterIndex] + position;
+		byte[] block = getBlock(realPosition / BLOCK_SIZE);
+		return block[realPosition % BLOCK_SIZE];
+	}
+
+	/**
+	 * 批量读取正文数据
+	 * @param pos 相对于正文开始的位置
+	 * @param dst
+	 * @param off
+	 * @param len
+	 * @return 读取的字节数，超出正文长度时小于len
+	 * @throws IOException
+	 */
+	public synchronized int read(int pos, byte[] dst, int off, int len) throws IOException{
+		int count = 0;
+		while(count < len && pos < contentLength){
+			int blockIndex = pos / BLOCK_SIZE;
+			if(blockIndex >= contentArr.size()){
+				break;
+			}
+			byte[] block = getBlock(blockIndex);
+			int blockOffset = pos % BLOCK_SIZE;
+			if(blockOffset >= block.length){
+				break;
+			}
+			int length = Math.min(len - count, block.length - blockOffset);
+			System.arraycopy(block, blockOffset, dst, off + count, length);
+			count += length;
+			pos += length;
 		}
-		int blockPosition = realPosition/oneBlockSize;
-		int bytePosition = realPosition % oneBlockSize; 
+		return count;
+	}
 
-		if(currentReadBlock != null && blockPosition == currentBlock){
-			return currentReadBlock[bytePosition]; 
+	/**
+	 * 获取某章节在正文中的开始位置
+	 * @param chapterIndex
+	 * @return
+	 */
+	public int getChapterStart(int chapterIndex) {
+		return chapOff[chapterIndex];
+	}
+
+	/**
+	 * 获取某位置的数据块，已缓存时直接返回
+	 */
+	private byte[] getBlock(int blockPosition) throws IOException{
+		byte[] block = mBlocks.get(blockPosition);
+		if(block != null){
+			return block;
+		}
+		byte[] spare = null;
+		if(mBlocks.size() >= MAX_CACHE_BLOCKS){
+			Iterator<Map.Entry<Integer, byte[]>> iterator = mBlocks.entrySet().iterator();
+			spare = iterator.next().getValue();
+			iterator.remove();
 		}
-		currentBlock = blockPosition;
-		currentReadBlock = getDataBytesAtPosition(currentBlock); 
-		byte res = currentReadBlock[bytePosition]; 
-		mByteMaps.put(realPosition, new SoftReference<Byte>(res)); 
-		return res; 
+		int length = inflateBlock(blockPosition);
+		block = spare != null && spare.length == length ? spare : new byte[length];
+		//正文是UTF-16LE，逐对交换为大端
+		for (int i = 0; i + 1 < length; i += 2) {
+			block[i] = mInflateBuffer[i + 1];
+			block[i + 1] = mInflateBuffer[i];
+		}
+		if((length & 1) != 0){
+			block[length - 1] = mInflateBuffer[length - 1];
+		}
+		mBlocks.put(blockPosition, block);
+		return block;
 	}
-	  
+
 	/**
-	 * 获取某位置的数据块 
+	 * 读取并解压某位置的数据块到{@link #mInflateBuffer}
+	 * @return 解压后的长度
 	 */
-	private byte[] getDataBlockBytes(InputStream is, int blockPosition) throws Exception{ 
-		long skipNum = 0;
-		long index = contentArr.get(blockPosition).index;
-		skipNum = index - (blockPosition>=0?0:(contentArr.get(blockPosition-1).index +(int) contentArr.get(blockPosition-1).length));//nn;
-		is.skip(skipNum);
-		int length = (int) contentArr.get(blockPosition).length; 
-		byte[] bytes = new byte[length];
-		is.read(bytes);
-		byte[] newBytes = new byte[0x8000];
-		Inflater inflater1 = new Inflater();
-		inflater1.setInput(bytes);
-		inflater1.inflate(newBytes);
-		int tempInflateLen = inflater1.getTotalOut();
-		byte[] resByte = new byte[tempInflateLen];
-		System.arraycopy(newBytes, 0, resByte, 0, tempInflateLen);  
-		inflater1.end();
-		byte[] res = IntergerUtil.getReverseBytes(resByte);
-		return res;
+	private int inflateBlock(int blockPosition) throws IOException{
+		if(mChannel == null){
+			mFile = new RandomAccessFile(fileName, "r");
+			mChannel = mFile.getChannel();
+			mInflater = new Inflater();
+			mInflateBuffer = new byte[BLOCK_SIZE];
+		}
+		BlockEntity blockEntity = contentArr.get(blockPosition);
+		int length = (int) blockEntity.length;
+		if(mCompressBuffer == null || mCompressBuffer.capacity() < length){
+			mCompressBuffer = ByteBuffer.allocate(Math.max(length, BLOCK_SIZE));
+		}
+		mCompressBuffer.clear();
+		mCompressBuffer.limit(length);
+		long position = blockEntity.index;
+		while(mCompressBuffer.hasRemaining()){
+			int count = mChannel.read(mCompressBuffer, position);
+			if(count < 0){
+				break;
+			}
+			position += count;
+		}
+		mInflater.reset();
+		mInflater.setInput(mCompressBuffer.array(), 0, mCompressBuffer.position());
+		int inflateLength = 0;
+		try {
+			while(inflateLength < BLOCK_SIZE && !mInflater.finished() && !mInflater.needsInput()){
+				int count = mInflater.inflate(mInflateBuffer, inflateLength, BLOCK_SIZE - inflateLength);
+				if(count == 0){
+					break;
+				}
+				inflateLength += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+		return inflateLength;
 	}
 
 	/**
@@ -157,8 +232,8 @@ public class UmdDataBlock {
 			chapterEndIndex = this.chapOff[(int) chapterIndex + 1];
 		} else {
 			chapterEndIndex = this.contentLength;
-		}  
+		}
 		return chapterEndIndex - chapterStartIndex;
 	}
- 
+
 }
@@ -10,6 +10,8 @@ import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 
 /**
@@ -328,15 +330,18 @@ public class UmdPlugin extends PluginManager {
         int mBufferLength = mUmdDataBlock.getCurrentChapterLength(chapterIndex);
         mUmdDataBlock.setCurrentChapterIndex(chapterIndex);
         byte[] bytes = new byte[mBufferLength];
-        fillBytes(bytes, 0, bytes.length);
-        return new String(bytes, "UNICODE");
+        int length = mUmdDataBlock.read(mUmdDataBlock.getChapterStart(chapterIndex), bytes, 0, bytes.length);
+        return new String(bytes, 0, length, "UNICODE");
 
     }
 
-    private void fillBytes(byte[] dst, int offset, int length) throws Exception {
-        for (int i = 0; i < length; i++){
-            dst[i] = mUmdDataBlock.getByteAtPosition(offset + i);
+    @Override
+    public Reader getChapterReader(int chapterIndex) throws Exception {
+        String content = getChapter(chapterIndex);
+        if (content == null || content.length() == 0) {
+            return null;
         }
+        return new StringReader(content);
     }
 
 }
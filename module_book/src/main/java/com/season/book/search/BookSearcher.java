@@ -0,0 +1,320 @@
+package com.season.book.search;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.season.book.plugin.PluginManager;
+import com.season.lib.BaseContext;
+import com.season.lib.util.LogUtil;
+
+/**
+ * 书内全文搜索
+ * 1.后台逐章读取文字建立{@link NgramIndex}索引，每满一段保存并记录进度，下次打开从中断的段继续
+ * 2.已建立索引的章节先用索引排除不包含全部二元组的章节，候选章节和未建立的章节读取文字查找
+ * 3.每找到一章的结果就回调，新的搜索开始后旧的搜索停止
+ * 4.使用单独的插件实例，建立和搜索读取章节时共用一把锁，不影响阅读的插件
+ * 5.回调都在主线程
+ */
+public final class BookSearcher {
+	private static final String TAG = BookSearcher.class.getSimpleName();
+	/** 单次搜索最多返回的结果数*/
+	private static final int MAX_RESULT_SIZE = 500;
+	/** 一段最多包含的字数，限制建立时的内存*/
+	private static final int MAX_RUN_CHARS = 2 * 1024 * 1024;
+	/** 摘要中命中前后保留的字数*/
+	private static final int SNIPPET_BEFORE = 12;
+	private static final int SNIPPET_AFTER = 24;
+
+	/**
+	 * 索引建立进度
+	 */
+	public interface IndexListener{
+		void onIndexProgress(int indexedCount, int chapterCount);
+	}
+
+	/**
+	 * 搜索结果，按章节顺序分批返回
+	 */
+	public interface SearchListener{
+		void onSearchResult(List<SearchResult> results);
+		void onSearchFinish(String keyword, int resultCount);
+	}
+
+	private final String mFilePath;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Object mSourceLock = new Object();
+	private final AtomicInteger mSearchId = new AtomicInteger();
+	private PluginManager mPlugin;
+	private SearchIndexStore mStore;
+	private volatile boolean isIndexing;
+	private volatile boolean isRelease;
+
+	private volatile long mIndexTime;
+	private volatile long mLastSearchTime;
+
+	public BookSearcher(String filePath){
+		mFilePath = filePath;
+	}
+
+	/**
+	 * 开始后台建立索引，已建立完成时只回调进度
+	 */
+	public void startIndex(final IndexListener listener){
+		if(isIndexing || isRelease){
+			return;
+		}
+		isIndexing = true;
+		new Thread(TAG){
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				SearchIndexStore store = null;
+				try {
+					store = getStore();
+					store.open();
+					int chapterCount = store.getChapterCount();
+					postProgress(listener, store.getIndexedCount(), chapterCount);
+					ArrayList<int[]> chapterKeys = new ArrayList<int[]>();
+					int runChars = 0;
+					for(int i = store.getIndexedCount();i < chapterCount && !isRelease;i++){
+						long startTime = System.currentTimeMillis();
+						String text = extract(i);
+						if(text == null){
+							break;
+						}
+						chapterKeys.add(NgramIndex.getChapterKeys(text));
+						runChars += text.length();
+						if(chapterKeys.size() >= NgramIndex.MAX_RUN_CHAPTERS || runChars >= MAX_RUN_CHARS
+								|| i == chapterCount - 1){
+							store.append(NgramIndex.buildRun(chapterKeys), chapterKeys.size());
+							chapterKeys.clear();
+							runChars = 0;
+						}
+						mIndexTime += System.currentTimeMillis() - startTime;
+						postProgress(listener, i + 1, chapterCount);
+					}
+					LogUtil.i(TAG, "index " + getMetrics());
+				} catch (Exception e) {
+					LogUtil.e(TAG, e);
+				} finally {
+					if(store != null){
+						store.closeWriter();
+					}
+					isIndexing = false;
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * 搜索关键字，之前的搜索会停止
+	 */
+	public void search(final String keyword, final SearchListener listener){
+		final int searchId = mSearchId.incrementAndGet();
+		if(keyword == null || keyword.length() == 0 || isRelease){
+			return;
+		}
+		final char[] query = new char[keyword.length()];
+		for(int i = 0;i < query.length;i++){
+			query[i] = NgramIndex.fold(keyword.charAt(i));
+		}
+		new Thread(TAG){
+			@Override
+			public void run() {
+				long startTime = System.currentTimeMillis();
+				int resultCount = 0;
+				try {
+					SearchIndexStore store = getStore();
+					int[] keys = NgramIndex.getQueryKeys(query);
+					int chapterCount = store.getChapterCount();
+					int runIndex = -1;
+					long[] candidates = null;
+					for(int i = 0;i < chapterCount && resultCount < MAX_RESULT_SIZE;i++){
+						if(!isSearching(searchId)){
+							return;
+						}
+						int chapterRun = store.getRunIndex(i);
+						if(chapterRun >= 0){
+							if(chapterRun != runIndex){
+								runIndex = chapterRun;
+								candidates = store.getCandidates(runIndex, keys);
+							}
+							int local = i - store.getFirstChapter(runIndex);
+							if((candidates[local >>> 6] & (1L << local)) == 0){
+								continue;
+							}
+						}
+						String text = extract(i);
+						if(text == null){
+							return;
+						}
+						int[] positions = scan(text, query);
+						if(positions.length == 0){
+							continue;
+						}
+						int size = Math.min(positions.length, MAX_RESULT_SIZE - resultCount);
+						final List<SearchResult> results = new ArrayList<SearchResult>(size);
+						for(int j = 0;j < size;j++){
+							results.add(createResult(i, positions[j], query.length, text));
+						}
+						resultCount += size;
+						post(searchId, new Runnable() {
+							@Override
+							public void run() {
+								listener.onSearchResult(results);
+							}
+						});
+					}
+				} catch (Exception e) {
+					LogUtil.e(TAG, e);
+				}
+				mLastSearchTime = System.currentTimeMillis() - startTime;
+				final int finalResultCount = resultCount;
+				post(searchId, new Runnable() {
+					@Override
+					public void run() {
+						listener.onSearchFinish(keyword, finalResultCount);
+					}
+				});
+			}
+		}.start();
+	}
+
+	/**
+	 * 停止正在进行的搜索，不再回调
+	 */
+	public void stopSearch(){
+		mSearchId.incrementAndGet();
+	}
+
+	/**
+	 * 停止建立和搜索，释放插件，建立进度已保存
+	 */
+	public void release(){
+		isRelease = true;
+		stopSearch();
+		synchronized (mSourceLock) {
+			if(mPlugin != null){
+				mPlugin.recyle();
+				mPlugin = null;
+			}
+			if(mStore != null){
+				mStore.closeReader();
+			}
+		}
+	}
+
+	public String getMetrics(){
+		SearchIndexStore store;
+		synchronized (mSourceLock) {
+			store = mStore;
+		}
+		StringBuilder builder = new StringBuilder();
+		if(store != null){
+			builder.append("chapters:").append(store.getIndexedCount()).append('/').append(store.getChapterCount())
+					.append(" size:").append(store.getSize() / 1024).append("KB ");
+		}
+		builder.append("build:").append(mIndexTime).append("ms")
+				.append(" search:").append(mLastSearchTime).append("ms");
+		return builder.toString();
+	}
+
+	private boolean isSearching(int searchId){
+		return !isRelease && mSearchId.get() == searchId;
+	}
+
+	private void post(final int searchId, final Runnable runnable){
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(isSearching(searchId)){
+					runnable.run();
+				}
+			}
+		});
+	}
+
+	private void postProgress(final IndexListener listener, final int indexedCount, final int chapterCount){
+		if(listener == null){
+			return;
+		}
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(!isRelease){
+					listener.onIndexProgress(indexedCount, chapterCount);
+				}
+			}
+		});
+	}
+
+	private SearchIndexStore getStore() throws Exception{
+		synchronized (mSourceLock) {
+			if(isRelease){
+				throw new IllegalStateException("searcher is released");
+			}
+			if(mStore == null){
+				mPlugin = PluginManager.getPlugin(mFilePath);
+				mPlugin.init();
+				File file = new File(mFilePath);
+				String bookKey = mFilePath + "@" + file.length() + "@" + file.lastModified();
+				File dir = new File(BaseContext.getInstance().getCacheDir() + "/search/" + Integer.toHexString(bookKey.hashCode()));
+				SearchIndexStore store = new SearchIndexStore(dir, bookKey, mPlugin.getCatalog().size());
+				//还没建立过时，搜索也能用上次保存的进度
+				store.load();
+				mStore = store;
+			}
+			return mStore;
+		}
+	}
+
+	/**
+	 * @return 已释放返回NULL
+	 */
+	private String extract(int chapterIndex) throws Exception{
+		synchronized (mSourceLock) {
+			if(mPlugin == null){
+				return null;
+			}
+			return ChapterTextExtractor.extract(mPlugin, chapterIndex);
+		}
+	}
+
+	/**
+	 * 在章节文字中逐字比较，返回全部命中位置
+	 */
+	private static int[] scan(String text, char[] query){
+		int[] positions = new int[16];
+		int count = 0;
+		int last = text.length() - query.length;
+		for(int i = 0;i <= last;i++){
+			int j = 0;
+			while(j < query.length && NgramIndex.fold(text.charAt(i + j)) == query[j]){
+				j++;
+			}
+			if(j == query.length){
+				if(count == positions.length){
+					int[] newPositions = new int[count * 2];
+					System.arraycopy(positions, 0, newPositions, 0, count);
+					positions = newPositions;
+				}
+				positions[count++] = i;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(positions, 0, result, 0, count);
+		return result;
+	}
+
+	private static SearchResult createResult(int chapterIndex, int position, int length, String text){
+		int start = Math.max(0, position - SNIPPET_BEFORE);
+		int end = Math.min(text.length(), position + length + SNIPPET_AFTER);
+		return new SearchResult(chapterIndex, position, length, text.substring(start, end), position - start);
+	}
+}
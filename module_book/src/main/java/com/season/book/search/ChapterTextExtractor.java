@@ -0,0 +1,139 @@
+package com.season.book.search;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.season.book.page.Constant;
+import com.season.book.page.paser.HtmlParser;
+import com.season.book.plugin.PluginManager;
+
+/**
+ * 提取章节中排版的文字，位置和排版后的StyleText一致，可直接用于跳转
+ * 1.读取方式和阅读时相同：纯文本读取器、HTML读取器、整章HTML依次尝试
+ * 2.和SurfingHtmlToSpannedConverter一样只保留body中script以外的文字，去掉空格、换行、制表符
+ * 3.br换行，img占一个{@link Constant#REPLACEMENT_SPAN_CHAR}
+ */
+final class ChapterTextExtractor extends DefaultHandler {
+	private static final int READ_BLOCK_SIZE = 8 * 1024;
+
+	private final StringBuilder mText = new StringBuilder();
+	private boolean isReadingBody;
+	private boolean isScript;
+
+	private ChapterTextExtractor(){
+	}
+
+	/**
+	 * 调用方需保证插件不被并发读取
+	 * @return 读取失败时返回已读取的部分
+	 */
+	static String extract(PluginManager plugin, int chapterIndex) throws Exception{
+		Reader plainText = plugin.getChapterReader(chapterIndex);
+		if(plainText != null){
+			try {
+				return extractPlainText(plainText);
+			} finally {
+				plainText.close();
+			}
+		}
+		Reader html = plugin.getChapterHtmlReader(chapterIndex);
+		if(html == null){
+			String content = plugin.getChapter(chapterIndex);
+			if(content == null){
+				return "";
+			}
+			if(content.indexOf("<html") == -1){
+				content = plugin.getFixHtml(content);
+			}
+			html = new StringReader(content);
+		}
+		try {
+			return extractHtml(html);
+		} finally {
+			html.close();
+		}
+	}
+
+	private static String extractPlainText(Reader source) throws IOException{
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[READ_BLOCK_SIZE];
+		int count;
+		while ((count = source.read(buffer, 0, buffer.length)) != -1) {
+			for (int i = 0; i < count; i++) {
+				char c = buffer[i];
+				if(c != '\r' && !isSkipChar(c)){
+					text.append(c);
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	private static String extractHtml(Reader source) throws Exception{
+		ChapterTextExtractor extractor = new ChapterTextExtractor();
+		XMLReader parser = HtmlParser.createReader();
+		parser.setContentHandler(extractor);
+		try {
+			parser.parse(new InputSource(source));
+		} catch (SAXException e) {
+			//格式错误时阅读也只显示错误前的内容
+		}
+		return extractor.mText.toString();
+	}
+
+	private static boolean isSkipChar(char c){
+		return c == ' ' || c == '\n' || c == '\t' || c == Constant.REPLACEMENT_SPAN_CHAR;
+	}
+
+	private static String getTag(String localName, String qName){
+		return localName != null && localName.length() > 0 ? localName : qName;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		String tag = getTag(localName, qName);
+		if(tag.equals("script")){
+			isScript = true;
+		}else if(!isScript){
+			if(tag.equals("body")){
+				isReadingBody = true;
+			}else if(isReadingBody && tag.equals("img")){
+				mText.append(Constant.REPLACEMENT_SPAN_CHAR);
+			}
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		String tag = getTag(localName, qName);
+		if(!isScript && isReadingBody && tag.equals("br")){
+			mText.append('\n');
+		}
+		if(tag.equals("script")){
+			isScript = false;
+		}else if(tag.equals("body")){
+			isReadingBody = false;
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if(!isReadingBody || isScript){
+			return;
+		}
+		int end = start + length;
+		for (int i = start; i < end; i++) {
+			char c = ch[i];
+			if(!isSkipChar(c)){
+				mText.append(c);
+			}
+		}
+	}
+}
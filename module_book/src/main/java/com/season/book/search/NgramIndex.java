@@ -0,0 +1,282 @@
+package com.season.book.search;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二元组倒排索引段，一段包含连续的若干章节
+ * 1.相邻两个字符组成键，记录每个键出现在段内的哪些章节，最后一个字符和0组成键
+ * 2.查询时取包含全部二元组的章节作为候选，再读取候选章节的文字确定位置，不保存位置和原文
+ * 3.键按有符号整数递增，差值变长编码；章节少时逐个记录段内序号，多时记录位图
+ * 4.每{@link #SKIP_INTERVAL}个键记录一个跳表项，查询时只读取键所在的一小块
+ * 5.英文字母不区分大小写，全角字母数字按半角处理，转换前后字符数不变
+ *
+ * 段格式：键数、跳表项数、跳表(键、数据偏移)、数据(键差值、章节数、章节序号或位图)
+ */
+final class NgramIndex {
+	/** 一段最多包含的章节数*/
+	static final int MAX_RUN_CHAPTERS = 128;
+	/** 章节位图的long个数*/
+	static final int BITMAP_SIZE = MAX_RUN_CHAPTERS / 64;
+	private static final int SKIP_INTERVAL = 64;
+	/** 章节数达到该值时记录位图*/
+	private static final int BITMAP_THRESHOLD = BITMAP_SIZE * 8;
+
+	private NgramIndex(){
+	}
+
+	/**
+	 * 转换成查询时比较的字符
+	 */
+	static char fold(char c){
+		if(c >= '！' && c <= '～'){
+			c = (char) (c - 0xFEE0);
+		}
+		if(c >= 'A' && c <= 'Z'){
+			return (char) (c + 32);
+		}
+		return c;
+	}
+
+	private static int key(char first, char second){
+		return (first << 16) | second;
+	}
+
+	/**
+	 * 章节中出现的键，去重后递增排列
+	 */
+	static int[] getChapterKeys(CharSequence text){
+		int length = text.length();
+		int[] keys = new int[length];
+		for(int i = 0;i < length;i++){
+			char second = i + 1 < length ? fold(text.charAt(i + 1)) : 0;
+			keys[i] = key(fold(text.charAt(i)), second);
+		}
+		Arrays.sort(keys);
+		int count = 0;
+		for(int i = 0;i < length;i++){
+			if(count == 0 || keys[i] != keys[count - 1]){
+				keys[count++] = keys[i];
+			}
+		}
+		return Arrays.copyOf(keys, count);
+	}
+
+	/**
+	 * 查询需要的键，去重后递增排列，query需已经过{@link #fold(char)}转换
+	 * @return 单字查询返回NULL，不能用索引判断
+	 */
+	static int[] getQueryKeys(char[] query){
+		if(query.length < 2){
+			return null;
+		}
+		int[] keys = new int[query.length - 1];
+		for(int i = 0;i < keys.length;i++){
+			keys[i] = key(query[i], query[i + 1]);
+		}
+		Arrays.sort(keys);
+		int count = 0;
+		for(int i = 0;i < keys.length;i++){
+			if(count == 0 || keys[i] != keys[count - 1]){
+				keys[count++] = keys[i];
+			}
+		}
+		return Arrays.copyOf(keys, count);
+	}
+
+	/**
+	 * 建立索引段
+	 * @param chapterKeys 段内各章节的{@link #getChapterKeys(CharSequence)}，不超过{@link #MAX_RUN_CHAPTERS}章
+	 */
+	static byte[] buildRun(List<int[]> chapterKeys){
+		int total = 0;
+		for(int[] keys : chapterKeys){
+			total += keys.length;
+		}
+		//高32位为键，低32位为段内章节序号，排序后同一个键的章节连续且递增
+		long[] entries = new long[total];
+		int entryCount = 0;
+		for(int i = 0;i < chapterKeys.size();i++){
+			for(int key : chapterKeys.get(i)){
+				entries[entryCount++] = ((long) key << 32) | i;
+			}
+		}
+		Arrays.sort(entries);
+		int[] chapters = new int[MAX_RUN_CHAPTERS];
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ByteArrayOutputStream skip = new ByteArrayOutputStream();
+		int keyCount = 0;
+		int lastKey = 0;
+		int index = 0;
+		while(index < total){
+			int key = (int) (entries[index] >>> 32);
+			int count = 0;
+			while(index < total && (int) (entries[index] >>> 32) == key){
+				chapters[count++] = (int) entries[index];
+				index++;
+			}
+			if(keyCount % SKIP_INTERVAL == 0){
+				writeInt(skip, key);
+				writeInt(skip, data.size());
+				lastKey = key;
+			}
+			writeVarLong(data, (key - lastKey) & 0xFFFFFFFFL);
+			lastKey = key;
+			writeVarLong(data, count);
+			if(count < BITMAP_THRESHOLD){
+				for(int i = 0;i < count;i++){
+					data.write(chapters[i]);
+				}
+			}else{
+				long[] bitmap = new long[BITMAP_SIZE];
+				for(int i = 0;i < count;i++){
+					bitmap[chapters[i] >>> 6] |= 1L << chapters[i];
+				}
+				for(long value : bitmap){
+					writeInt(data, (int) (value >>> 32));
+					writeInt(data, (int) value);
+				}
+			}
+			keyCount++;
+		}
+		ByteArrayOutputStream run = new ByteArrayOutputStream(8 + skip.size() + data.size());
+		writeInt(run, keyCount);
+		writeInt(run, (keyCount + SKIP_INTERVAL - 1) / SKIP_INTERVAL);
+		byte[] skipBytes = skip.toByteArray();
+		run.write(skipBytes, 0, skipBytes.length);
+		byte[] dataBytes = data.toByteArray();
+		run.write(dataBytes, 0, dataBytes.length);
+		return run.toByteArray();
+	}
+
+	/**
+	 * 段的跳表，查询时常驻内存
+	 */
+	static final class SkipTable{
+		final int[] keys;
+		final int[] offsets;
+		/** 数据在段中的开始位置*/
+		final int dataStart;
+		final int dataLength;
+
+		SkipTable(byte[] head, int runLength){
+			int skipCount = getInt(head, 4);
+			keys = new int[skipCount];
+			offsets = new int[skipCount];
+			for(int i = 0;i < skipCount;i++){
+				keys[i] = getInt(head, 8 + i * 8);
+				offsets[i] = getInt(head, 12 + i * 8);
+			}
+			dataStart = getHeadLength(skipCount);
+			dataLength = runLength - dataStart;
+		}
+
+		/**
+		 * 键所在的块，-1表示没有
+		 */
+		int findBlock(int key){
+			int low = 0;
+			int high = keys.length;
+			while(low < high){
+				int mid = (low + high) >>> 1;
+				if(keys[mid] <= key){
+					low = mid + 1;
+				}else{
+					high = mid;
+				}
+			}
+			return low - 1;
+		}
+
+		int getBlockStart(int block){
+			return offsets[block];
+		}
+
+		int getBlockEnd(int block){
+			return block + 1 < offsets.length ? offsets[block + 1] : dataLength;
+		}
+	}
+
+	/**
+	 * 段头的字节数
+	 */
+	static int getHeadLength(int skipCount){
+		return 8 + skipCount * 8;
+	}
+
+	/**
+	 * 在一块数据中查找键，结果和bitmap按位与
+	 * @return 块中没有该键返回false
+	 */
+	static boolean andChapters(byte[] block, int blockKey, int key, long[] bitmap){
+		int index = 0;
+		int lastKey = blockKey;
+		long[] chapters = new long[BITMAP_SIZE];
+		while(index < block.length){
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do{
+				b = block[index++];
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			}while((b & 0x80) != 0);
+			int currentKey = lastKey + (int) value;
+			lastKey = currentKey;
+			int count = 0;
+			shift = 0;
+			do{
+				b = block[index++];
+				count |= (b & 0x7F) << shift;
+				shift += 7;
+			}while((b & 0x80) != 0);
+			if(count < BITMAP_THRESHOLD){
+				if(currentKey == key){
+					for(int i = 0;i < count;i++){
+						int chapter = block[index + i] & 0xFF;
+						chapters[chapter >>> 6] |= 1L << chapter;
+					}
+				}
+				index += count;
+			}else{
+				if(currentKey == key){
+					for(int i = 0;i < BITMAP_SIZE;i++){
+						chapters[i] = ((long) getInt(block, index + i * 8) << 32) | (getInt(block, index + i * 8 + 4) & 0xFFFFFFFFL);
+					}
+				}
+				index += BITMAP_SIZE * 8;
+			}
+			if(currentKey == key){
+				for(int i = 0;i < BITMAP_SIZE;i++){
+					bitmap[i] &= chapters[i];
+				}
+				return true;
+			}
+			if(currentKey > key){
+				break;
+			}
+		}
+		return false;
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value){
+		while((value & ~0x7FL) != 0){
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int value){
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	static int getInt(byte[] buffer, int index){
+		return ((buffer[index] & 0xFF) << 24) | ((buffer[index + 1] & 0xFF) << 16)
+				| ((buffer[index + 2] & 0xFF) << 8) | (buffer[index + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,130 @@
+package com.season.book.search;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.season.lib.util.LogUtil;
+
+/**
+ * 按页的文档(PDF)全文搜索
+ * 1.在后台线程逐页调用{@link PageTextSource#searchPage(int, String)}取命中区域，不阻塞主线程
+ * 2.每找到一页就回调，新的搜索开始后旧的搜索停止
+ * 3.回调都在主线程
+ * 本地库只提供按页查找，没有提取文字的接口，所以不建立{@link NgramIndex}索引
+ */
+public final class PageSearcher {
+	private static final String TAG = PageSearcher.class.getSimpleName();
+	/** 单次搜索最多返回的命中区域数*/
+	private static final int MAX_RESULT_SIZE = 500;
+
+	/**
+	 * 搜索结果，按页码顺序逐页返回
+	 */
+	public interface SearchListener{
+		void onSearchResult(int page, RectF[] boxes);
+		void onSearchFinish(String keyword, int resultCount);
+	}
+
+	private final PageTextSource mSource;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final AtomicInteger mSearchId = new AtomicInteger();
+	private volatile boolean isRelease;
+
+	private volatile long mLastSearchTime;
+
+	public PageSearcher(PageTextSource source){
+		mSource = source;
+	}
+
+	/**
+	 * 搜索关键字，之前的搜索会停止
+	 */
+	public void search(final String keyword, final SearchListener listener){
+		final int searchId = mSearchId.incrementAndGet();
+		if(keyword == null || keyword.trim().length() == 0 || isRelease){
+			return;
+		}
+		new Thread(TAG){
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				long startTime = System.currentTimeMillis();
+				int resultCount = 0;
+				try {
+					int pageCount = mSource.getPageCount();
+					for(int i = 0;i < pageCount && resultCount < MAX_RESULT_SIZE;i++){
+						if(!isSearching(searchId)){
+							return;
+						}
+						RectF[] boxes = mSource.searchPage(i, keyword);
+						if(boxes == null || boxes.length == 0){
+							continue;
+						}
+						if(boxes.length > MAX_RESULT_SIZE - resultCount){
+							RectF[] newBoxes = new RectF[MAX_RESULT_SIZE - resultCount];
+							System.arraycopy(boxes, 0, newBoxes, 0, newBoxes.length);
+							boxes = newBoxes;
+						}
+						resultCount += boxes.length;
+						final int page = i;
+						final RectF[] finalBoxes = boxes;
+						post(searchId, new Runnable() {
+							@Override
+							public void run() {
+								listener.onSearchResult(page, finalBoxes);
+							}
+						});
+					}
+				} catch (Exception e) {
+					LogUtil.e(TAG, e);
+				}
+				mLastSearchTime = System.currentTimeMillis() - startTime;
+				final int finalResultCount = resultCount;
+				post(searchId, new Runnable() {
+					@Override
+					public void run() {
+						listener.onSearchFinish(keyword, finalResultCount);
+					}
+				});
+			}
+		}.start();
+	}
+
+	/**
+	 * 停止正在进行的搜索，不再回调
+	 */
+	public void stopSearch(){
+		mSearchId.incrementAndGet();
+	}
+
+	/**
+	 * 停止搜索，之后不能再使用
+	 */
+	public void release(){
+		isRelease = true;
+		stopSearch();
+	}
+
+	public String getMetrics(){
+		return "search:" + mLastSearchTime + "ms";
+	}
+
+	private boolean isSearching(int searchId){
+		return !isRelease && mSearchId.get() == searchId;
+	}
+
+	private void post(final int searchId, final Runnable runnable){
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(isSearching(searchId)){
+					runnable.run();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,17 @@
+package com.season.book.search;
+
+import android.graphics.RectF;
+
+/**
+ * 按页访问的文档，供{@link PageSearcher}查找命中区域，方法都在后台线程调用
+ */
+public interface PageTextSource {
+
+	int getPageCount();
+
+	/**
+	 * 页面中命中的区域
+	 * @return 没有命中返回NULL或空数组
+	 */
+	RectF[] searchPage(int page, String text);
+}
@@ -0,0 +1,305 @@
+package com.season.book.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * 书籍搜索索引文件
+ * 1.index.dat按章节顺序追加{@link NgramIndex}索引段
+ * 2.index.meta为文件头加定长的段记录，每写完一段追加一条，即为建立进度
+ * 3.打开时按完整的记录恢复进度，截掉没有记录的数据，中断后从下一段的第一章继续；只查询时只读加载进度
+ * 4.书籍标识或章节数变化时重新建立
+ * 5.查询时各段的跳表读取后常驻内存，每个键只读取所在的一块数据
+ *
+ * 文件头：MAGIC、VERSION、章节数、书籍标识(UTF)
+ * 段记录：段偏移(long)、段长度(int)、第一章(int)、章节数(int)
+ */
+final class SearchIndexStore {
+	private static final int MAGIC = 0x4e475258;
+	private static final int VERSION = 1;
+	private static final int RECORD_LENGTH = 8 + 4 + 4 + 4;
+
+	private final File mDataFile;
+	private final File mMetaFile;
+	private final String mBookKey;
+	private final int mChapterCount;
+	private int mHeadLength;
+
+	/** 段数和已建立的章节数，和下面的数组一起在锁内修改*/
+	private int mRunCount;
+	private int mIndexedCount;
+	private final long[] mOffsets;
+	private final int[] mLengths;
+	private final int[] mFirstChapters;
+	private final NgramIndex.SkipTable[] mSkipTables;
+
+	/** 已通过{@link #open()}或{@link #load()}读取过进度*/
+	private boolean isLoaded;
+
+	private RandomAccessFile mDataWriter;
+	private RandomAccessFile mMetaWriter;
+	private RandomAccessFile mDataReader;
+
+	SearchIndexStore(File dir, String bookKey, int chapterCount){
+		mDataFile = new File(dir, "index.dat");
+		mMetaFile = new File(dir, "index.meta");
+		mBookKey = bookKey;
+		mChapterCount = chapterCount;
+		mOffsets = new long[chapterCount];
+		mLengths = new int[chapterCount];
+		mFirstChapters = new int[chapterCount + 1];
+		mSkipTables = new NgramIndex.SkipTable[chapterCount];
+	}
+
+	/**
+	 * 读取已有进度，文件不匹配时清空重建，在建立线程调用
+	 */
+	synchronized void open() throws IOException{
+		mDataFile.getParentFile().mkdirs();
+		byte[] head = buildHead();
+		mHeadLength = head.length;
+		mMetaWriter = new RandomAccessFile(mMetaFile, "rw");
+		mDataWriter = new RandomAccessFile(mDataFile, "rw");
+		isLoaded = true;
+		if(!readMeta(mMetaWriter, mDataWriter.length(), head)){
+			mRunCount = 0;
+			mIndexedCount = 0;
+			mMetaWriter.setLength(0);
+			mMetaWriter.write(head);
+			mDataWriter.setLength(0);
+		}
+		//截掉中断时写了一半的记录和段
+		mMetaWriter.setLength(mHeadLength + (long) mRunCount * RECORD_LENGTH);
+		mDataWriter.setLength(getDataLength());
+	}
+
+	/**
+	 * 只读加载已有进度，不修改文件，在搜索线程调用；已打开或加载过时不再读取
+	 */
+	synchronized void load() throws IOException{
+		if(isLoaded){
+			return;
+		}
+		isLoaded = true;
+		byte[] head = buildHead();
+		mHeadLength = head.length;
+		if(!mMetaFile.exists() || !mDataFile.exists()){
+			return;
+		}
+		RandomAccessFile meta = new RandomAccessFile(mMetaFile, "r");
+		try {
+			if(!readMeta(meta, mDataFile.length(), head)){
+				mRunCount = 0;
+				mIndexedCount = 0;
+			}
+		} finally {
+			closeQuietly(meta);
+		}
+	}
+
+	private byte[] buildHead() throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(mChapterCount);
+		out.writeUTF(mBookKey);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private boolean readMeta(RandomAccessFile meta, long dataLength, byte[] head) throws IOException{
+		long length = meta.length();
+		if(length < head.length){
+			return false;
+		}
+		byte[] fileHead = new byte[head.length];
+		meta.seek(0);
+		meta.readFully(fileHead);
+		if(!Arrays.equals(head, fileHead)){
+			return false;
+		}
+		long recordCount = (length - head.length) / RECORD_LENGTH;
+		int runCount = 0;
+		int indexedCount = 0;
+		for(long i = 0;i < recordCount;i++){
+			long offset = meta.readLong();
+			int runLength = meta.readInt();
+			int firstChapter = meta.readInt();
+			int chapterCount = meta.readInt();
+			if(offset + runLength > dataLength || firstChapter != indexedCount
+					|| chapterCount <= 0 || indexedCount + chapterCount > mChapterCount){
+				break;
+			}
+			mOffsets[runCount] = offset;
+			mLengths[runCount] = runLength;
+			mFirstChapters[runCount] = firstChapter;
+			runCount++;
+			indexedCount += chapterCount;
+			mFirstChapters[runCount] = indexedCount;
+		}
+		mRunCount = runCount;
+		mIndexedCount = indexedCount;
+		return true;
+	}
+
+	private long getDataLength(){
+		return mRunCount > 0 ? mOffsets[mRunCount - 1] + mLengths[mRunCount - 1] : 0;
+	}
+
+	int getChapterCount(){
+		return mChapterCount;
+	}
+
+	/**
+	 * 已写入索引段的章节数，之前的章节都已建立
+	 */
+	synchronized int getIndexedCount(){
+		return mIndexedCount;
+	}
+
+	/**
+	 * 索引文件占用的字节数
+	 */
+	synchronized long getSize(){
+		return getDataLength() + mHeadLength + (long) mRunCount * RECORD_LENGTH;
+	}
+
+	/**
+	 * 追加下一段，先写段再写记录，记录写完才算建立完成
+	 * @param chapterCount 段内的章节数
+	 */
+	void append(byte[] run, int chapterCount) throws IOException{
+		int runIndex;
+		int firstChapter;
+		long offset;
+		synchronized (this) {
+			runIndex = mRunCount;
+			firstChapter = mIndexedCount;
+			offset = getDataLength();
+		}
+		mDataWriter.seek(offset);
+		mDataWriter.write(run);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_LENGTH);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(offset);
+		out.writeInt(run.length);
+		out.writeInt(firstChapter);
+		out.writeInt(chapterCount);
+		out.flush();
+		mMetaWriter.seek(mHeadLength + (long) runIndex * RECORD_LENGTH);
+		mMetaWriter.write(bytes.toByteArray());
+		synchronized (this) {
+			mOffsets[runIndex] = offset;
+			mLengths[runIndex] = run.length;
+			mFirstChapters[runIndex] = firstChapter;
+			mFirstChapters[runIndex + 1] = firstChapter + chapterCount;
+			mRunCount = runIndex + 1;
+			mIndexedCount = firstChapter + chapterCount;
+		}
+	}
+
+	/**
+	 * 章节所在的段
+	 * @return 未建立返回-1
+	 */
+	synchronized int getRunIndex(int chapterIndex){
+		if(chapterIndex < 0 || chapterIndex >= mIndexedCount){
+			return -1;
+		}
+		int index = Arrays.binarySearch(mFirstChapters, 0, mRunCount, chapterIndex);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	synchronized int getFirstChapter(int runIndex){
+		return mFirstChapters[runIndex];
+	}
+
+	/**
+	 * 段内包含全部键的章节，在搜索线程调用
+	 * @param keys 为NULL时全部章节都是候选
+	 * @return 段内章节序号的位图
+	 */
+	long[] getCandidates(int runIndex, int[] keys) throws IOException{
+		long[] bitmap = new long[NgramIndex.BITMAP_SIZE];
+		Arrays.fill(bitmap, -1L);
+		if(keys == null){
+			return bitmap;
+		}
+		long offset;
+		synchronized (this) {
+			offset = mOffsets[runIndex];
+		}
+		synchronized (mDataFile) {
+			NgramIndex.SkipTable skipTable = getSkipTable(runIndex);
+			for(int key : keys){
+				int block = skipTable.findBlock(key);
+				if(block < 0){
+					Arrays.fill(bitmap, 0);
+					return bitmap;
+				}
+				byte[] data = new byte[skipTable.getBlockEnd(block) - skipTable.getBlockStart(block)];
+				mDataReader.seek(offset + skipTable.dataStart + skipTable.getBlockStart(block));
+				mDataReader.readFully(data);
+				if(!NgramIndex.andChapters(data, skipTable.keys[block], key, bitmap)){
+					Arrays.fill(bitmap, 0);
+					return bitmap;
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	private NgramIndex.SkipTable getSkipTable(int runIndex) throws IOException{
+		NgramIndex.SkipTable skipTable = mSkipTables[runIndex];
+		if(skipTable != null){
+			return skipTable;
+		}
+		long offset;
+		int length;
+		synchronized (this) {
+			offset = mOffsets[runIndex];
+			length = mLengths[runIndex];
+		}
+		if(mDataReader == null){
+			mDataReader = new RandomAccessFile(mDataFile, "r");
+		}
+		byte[] count = new byte[8];
+		mDataReader.seek(offset);
+		mDataReader.readFully(count);
+		byte[] head = new byte[NgramIndex.getHeadLength(NgramIndex.getInt(count, 4))];
+		mDataReader.seek(offset);
+		mDataReader.readFully(head);
+		skipTable = new NgramIndex.SkipTable(head, length);
+		mSkipTables[runIndex] = skipTable;
+		return skipTable;
+	}
+
+	/**
+	 * 建立结束时在建立线程调用
+	 */
+	void closeWriter(){
+		closeQuietly(mDataWriter);
+		closeQuietly(mMetaWriter);
+	}
+
+	void closeReader(){
+		synchronized (mDataFile) {
+			closeQuietly(mDataReader);
+			mDataReader = null;
+		}
+	}
+
+	private static void closeQuietly(RandomAccessFile file){
+		if(file != null){
+			try {
+				file.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
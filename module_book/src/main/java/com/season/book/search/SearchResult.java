@@ -0,0 +1,45 @@
+package com.season.book.search;
+
+/**
+ * 搜索结果，章节位置和字符位置可直接用于{@link com.season.book.view.IReaderView#gotoChar(int, int, boolean)}
+ */
+public class SearchResult {
+	/** 章节位置*/
+	private final int chapterIndex;
+	/** 命中的开始字符位置*/
+	private final int charIndex;
+	/** 命中的字符数*/
+	private final int length;
+	/** 命中位置前后的文字*/
+	private final String snippet;
+	/** 命中在摘要中的开始位置*/
+	private final int snippetStart;
+
+	SearchResult(int chapterIndex, int charIndex, int length, String snippet, int snippetStart) {
+		this.chapterIndex = chapterIndex;
+		this.charIndex = charIndex;
+		this.length = length;
+		this.snippet = snippet;
+		this.snippetStart = snippetStart;
+	}
+
+	public int getChapterIndex() {
+		return chapterIndex;
+	}
+
+	public int getCharIndex() {
+		return charIndex;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public String getSnippet() {
+		return snippet;
+	}
+
+	public int getSnippetStart() {
+		return snippetStart;
+	}
+}
@@ -13,6 +13,7 @@ import android.text.Spanned;
 import android.text.TextUtils;
 import android.view.MotionEvent;
 
+import com.season.book.ReadSetting;
 import com.season.book.bean.BookDigests;
 import com.season.book.bean.BookMark;
 import com.season.book.db.DBConfig;
@@ -29,6 +30,9 @@ import com.season.book.page.SettingParam;
 import com.season.book.page.span.ClickActionSpan;
 import com.season.lib.util.LogUtil;
 
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -108,6 +112,15 @@ public abstract class BaseHtmlReadView extends BaseReadView implements ReaderMed
         }
 	}
 
+	@Override
+	public void onSettingChange(ReadSetting readSetting, String type) {
+		//简繁切换后章节内容变了，解析结果不能复用
+		if(type == ReadSetting.SETTING_TYPE_FONT_SIM && mPageManager != null){
+			mPageManager.clearStyleTextCache();
+		}
+		super.onSettingChange(readSetting, type);
+	}
+
 	@Override
 	protected void onLoadStyleSetting(boolean isReLayout) {
 		super.onLoadStyleSetting(isReLayout);
@@ -718,6 +731,76 @@ public abstract class BaseHtmlReadView extends BaseReadView implements ReaderMed
      */
     protected abstract String getChapterInputStream_(int chapterIndex);
 
+    /**
+     * 获取纯文本内容[简繁体切换]
+     * @param chapterIndex
+     * @return
+     */
+    @Override
+    public Reader getChapterPlainText(int chapterIndex) {
+        return toTraditional(getChapterPlainText_(chapterIndex));
+    }
+
+    /**
+     * 获取HTML数据流[简繁体切换]
+     * @param chapterIndex
+     * @return
+     */
+    @Override
+    public Reader getChapterHtml(int chapterIndex) {
+        return toTraditional(getChapterHtml_(chapterIndex));
+    }
+
+    /**
+     * 按设置把读取的内容转为繁体
+     * @param reader
+     * @return
+     */
+    private Reader toTraditional(Reader reader) {
+        if (reader != null && mReadSetting.isSimplified() == 1){
+            return new FilterReader(reader) {
+                @Override
+                public int read() throws IOException {
+                    char[] c = new char[1];
+                    return read(c, 0, 1) == -1 ? -1 : c[0];
+                }
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    int count = super.read(cbuf, off, len);
+                    if (count > 0) {
+                        try {
+                            String content = JChineseConvertor.getInstance().s2t(new String(cbuf, off, count));
+                            content.getChars(0, Math.min(count, content.length()), cbuf, off);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    return count;
+                }
+            };
+        }
+        return reader;
+    }
+
+    /**
+     * 获取HTML数据流[简体]，不支持时返回NULL
+     * @param chapterIndex
+     * @return
+     */
+    protected Reader getChapterHtml_(int chapterIndex) {
+        return null;
+    }
+
+    /**
+     * 获取纯文本内容[简体]，不支持时返回NULL
+     * @param chapterIndex
+     * @return
+     */
+    protected Reader getChapterPlainText_(int chapterIndex) {
+        return null;
+    }
+
     protected abstract int getChapterIndex(Catalog catalog);
 	
 	protected abstract Catalog getCatalogByIndex(int chapterIndex);
@@ -1,26 +1,24 @@
 package com.season.book.view;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 
 import com.season.book.bean.BookInfo;
 import com.season.book.bean.Catalog;
 import com.season.book.plugin.PluginManager;
 import com.season.book.plugin.epub.Resource;
-import com.season.lib.support.os.SinThreadPool;
 import com.season.book.page.paser.html.CssProvider;
 import com.season.book.page.paser.html.DataProvider;
 import com.season.book.page.paser.html.ICssProvider;
-import com.season.lib.support.bitmap.BitmapUtil;
+import com.season.book.page.span.ImageLoader;
 import com.season.lib.util.LogUtil;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 
 public class ReadView extends BaseHtmlReadView {
@@ -86,6 +84,26 @@ public class ReadView extends BaseHtmlReadView {
 		return content;
 	}
 
+	@Override
+	protected Reader getChapterHtml_(int chapterIndex) {
+		try {
+			return mPlugin.getChapterHtmlReader(chapterIndex);
+		} catch (Exception e) {
+			LogUtil.e(TAG, e);
+		}
+		return null;
+	}
+
+	@Override
+	protected Reader getChapterPlainText_(int chapterIndex) {
+		try {
+			return mPlugin.getChapterReader(chapterIndex);
+		} catch (Exception e) {
+			LogUtil.e(TAG, e);
+		}
+		return null;
+	}
+
 	@Override
 	public ICssProvider getCssProvider() {
 		return mCssProvider;
@@ -148,35 +166,15 @@ public class ReadView extends BaseHtmlReadView {
 		}
 	});
 	
+	/** 书籍文件路径、大小和修改时间*/
+	private String mCacheKey;
+
 	private DataProvider mDataProvider = new DataProvider() {
 		@Override
 		public Drawable getDrawable(final String source,final DrawableContainer drawableContainer) {
-			Drawable drawable = new ColorDrawable(Color.TRANSPARENT);
-            new SinThreadPool().addTask(new Runnable() {
-                Bitmap bitmap = null;
-
-                @Override
-                public void run() {
-                    if (drawableContainer.isInvalid()) {
-                        return;
-                    }
-                    try {
-                        bitmap = BitmapUtil.clipScreenBoundsBitmap(getDataStream(source));
-                    } catch (Exception e) {
-                    }
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            BitmapDrawable bitmapDrawable = null;
-                            if (bitmap != null) {
-                                bitmapDrawable = new BitmapDrawable(getResources(), bitmap);
-                            }
-                            drawableContainer.setDrawable(bitmapDrawable);
-                        }
-                    });
-                }
-            });
-			return drawable;
+			DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+			//调用方会长时间持有，如全屏查看，解码独立的一份，不使用会被淘汰复用的缓存位图
+			return ImageLoader.loadUncached(this, source, displayMetrics.widthPixels, displayMetrics.heightPixels, drawableContainer);
 		}
 
 		@Override
@@ -210,5 +208,14 @@ public class ReadView extends BaseHtmlReadView {
 			Resource resource = mPlugin.findResource(source);
 			return resource != null;
 		}
+
+		@Override
+		public String getCacheKey() {
+			if(mCacheKey == null && mBook != null && mBook.filePath != null){
+				File file = new File(mBook.filePath);
+				mCacheKey = mBook.filePath + "@" + file.length() + "@" + file.lastModified();
+			}
+			return mCacheKey;
+		}
 	};
 }
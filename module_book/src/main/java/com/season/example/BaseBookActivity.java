@@ -4,6 +4,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -39,10 +41,13 @@ import com.season.book.page.span.NoteSpan;
 import com.season.book.page.span.media.ReaderMediaPlayer;
 import com.season.book.page.span.media.VideoSpan;
 import com.season.example.popwindow.VideoWindow;
+import com.season.book.page.paser.html.DataProvider;
 import com.season.book.page.span.AsyncDrawableSpan;
 import com.season.book.page.span.ClickActionSpan;
 import com.season.book.page.span.ClickAsyncDrawableSpan;
 import com.season.book.page.span.UrlSpna;
+import com.season.book.search.BookSearcher;
+import com.season.book.search.SearchResult;
 import com.season.book.view.IReadCallback;
 import com.season.book.view.ReadView;
 import com.season.book.view.IReaderView;
@@ -81,6 +86,7 @@ public class BaseBookActivity extends PageTurningActivity implements
 	private BookInfo mBook;
 	private ReaderMenuPopWin mReaderMenuPopWin;
 	private RectF centerRect;
+	private BookSearcher mBookSearcher;
 
     @Override
     protected int getLayoutId() {
@@ -220,6 +226,32 @@ public class BaseBookActivity extends PageTurningActivity implements
 		if(mReadView != null){
 			mReadView.release();
 		}
+		if(mBookSearcher != null){
+			mBookSearcher.release();
+		}
+	}
+
+	/**
+	 * 全文搜索，只支持本地书籍；第一次搜索时开始在后台建立索引，结果逐章在主线程回调
+	 */
+	protected void searchBook(String keyword, BookSearcher.SearchListener listener){
+		if(mBook == null || mBook.netIndex > 0 || TextUtils.isEmpty(mBook.filePath)){
+			return;
+		}
+		if(mBookSearcher == null){
+			mBookSearcher = new BookSearcher(mBook.filePath);
+			mBookSearcher.startIndex(null);
+		}
+		mBookSearcher.search(keyword, listener);
+	}
+
+	/**
+	 * 跳转到搜索结果所在的页，页面未排版时排版完成后跳转
+	 */
+	protected void gotoSearchResult(SearchResult result){
+		if(mReadView != null){
+			mReadView.gotoChar(result.getChapterIndex(), result.getCharIndex(), true);
+		}
 	}
 	
 	private void initMenu() {
@@ -420,11 +452,28 @@ public class BaseBookActivity extends PageTurningActivity implements
 				if(mImgViewerPopWin == null){
 					mImgViewerPopWin = new ImgViewerPopWin(this);
 				}
-				mImgViewerPopWin.showImgViewer(((AsyncDrawableSpan)clickableSpan).getDrawable(), new Rect(
+				final Rect location = new Rect(
 						(int)localRect.left,
 						(int)localRect.top,
 						(int)localRect.right,
-						(int)localRect.bottom),mReadView.getContentView());
+						(int)localRect.bottom);
+				//绘制用的位图按显示区域采样且会被缓存复用，查看时单独解码一份
+				Drawable drawable = ((AsyncDrawableSpan)clickableSpan).loadViewerDrawable(new DataProvider.DrawableContainer() {
+					@Override
+					public void setDrawable(Drawable drawable) {
+						if(drawable != null){
+							mImgViewerPopWin.showImgViewer(drawable, location, mReadView.getContentView());
+						}
+					}
+
+					@Override
+					public boolean isInvalid() {
+						return isFinishing();
+					}
+				});
+				if(drawable instanceof BitmapDrawable){
+					mImgViewerPopWin.showImgViewer(drawable, location, mReadView.getContentView());
+				}
 				return true;
 			}else if(clickableSpan instanceof NoteSpan){
 				if(mNotePopWin == null){
@@ -230,6 +230,13 @@ public class WebService extends Service implements OnWebServListener, OnNetworkL
 	        }
 	}
 
+	@Override
+	public void onFileDownloaded(String fileName, long bytes, long millis) {
+		 if (mListener != null) {
+	            mListener.onFileDownloaded(fileName, bytes, millis);
+	        }
+	}
+
 	@Override
 	public void onComputerConnect() {
 		 if (mListener != null) {
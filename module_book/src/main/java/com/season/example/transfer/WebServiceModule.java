@@ -49,6 +49,11 @@ public abstract class WebServiceModule implements OnWebServListener,
      *  电脑连接成功
      */
     protected abstract void onComputerConnected();
+    /**
+     *  文件下载结束，bytes * 1000 / millis 即为吞吐量
+     */
+    protected void onFileDownload(String fileName, long bytes, long millis) {
+    }
     
 
 	public Resources getResources(){
@@ -204,6 +209,17 @@ public abstract class WebServiceModule implements OnWebServListener,
 		});
 	}
 
+	@Override
+	public void onFileDownloaded(final String fileName, final long bytes, final long millis) {
+		mActivity.runOnUiThread(new Runnable() {
+
+			@Override
+			public void run() {
+				onFileDownload(fileName, bytes, millis);
+			}
+		});
+	}
+
 	@Override
 	public void onComputerConnect() {
 		mActivity.runOnUiThread(new Runnable() {
@@ -152,6 +152,13 @@ public abstract class FileUploadBase {
     @Deprecated
     public static final int MAX_HEADER_SIZE = 1024;
 
+    /**
+     * The size of the buffer used by the <code>MultipartStream</code>
+     * (64 KB). Larger than the default 4 KB, so that uploads spend less
+     * time scanning for the boundary and copying small chunks.
+     */
+    public static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     // ----------------------------------------------------------- Data members
 
     /**
@@ -963,7 +970,7 @@ public abstract class FileUploadBase {
             	listener.setTotalSize(requestSize);
             }
             notifier = new MultipartStream.ProgressNotifier(listener, requestSize);
-            multi = new MultipartStream(input, boundary, notifier);
+            multi = new MultipartStream(input, boundary, STREAM_BUFFER_SIZE, notifier);
             multi.setHeaderEncoding(charEncoding); 
             skipPreamble = true;
             findNextItem();
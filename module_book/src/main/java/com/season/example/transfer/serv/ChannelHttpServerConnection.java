@@ -0,0 +1,21 @@
+package com.season.example.transfer.serv;
+
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import org.apache.http.impl.DefaultHttpServerConnection;
+
+/**
+ * @brief 可取得套接字通道的服务器端HTTP连接
+ * 下载时越过HttpCore的输出缓冲，直接用FileChannel.transferTo发送文件
+ */
+public class ChannelHttpServerConnection extends DefaultHttpServerConnection {
+
+    /**
+     * @return 套接字不是由通道创建时返回NULL
+     */
+    public SocketChannel getSocketChannel() {
+        Socket socket = getSocket();
+        return socket == null ? null : socket.getChannel();
+    }
+}
@@ -5,17 +5,28 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.channels.ServerSocketChannel;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.DefaultHttpResponseFactory;
-import org.apache.http.impl.DefaultHttpServerConnection;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandlerRegistry;
 import org.apache.http.protocol.HttpService;
 import org.apache.http.protocol.ResponseConnControl;
@@ -24,6 +35,7 @@ import org.apache.http.protocol.ResponseDate;
 import org.apache.http.protocol.ResponseServer;
 
 import android.content.Context;
+import android.os.Build;
 
 import com.season.example.transfer.serv.req.HttpDeleteHandler;
 import com.season.example.transfer.serv.req.HttpDownloadHandler;
@@ -36,6 +48,11 @@ import com.season.example.transfer.util.Constants;
 
 /**
  * @brief Web服务类
+ * 1.连接交给固定大小的线程池处理，同时处理的连接数不超过{@link #MAX_CONNECTIONS}
+ * 2.连接数已满时不再accept，新连接在系统的backlog中等待，由TCP背压限制客户端
+ * 3.有连接排队时，空闲的长连接处理完当前请求后关闭，让出工作线程；
+ *   等待请求的超时较短，读取请求内容的超时为{@link #SO_TIMEOUT}
+ * 4.连接可取得套接字通道时，下载使用FileChannel.transferTo
  * @author join
  */
 public class WebServerThread extends Thread { 
@@ -44,25 +61,49 @@ public class WebServerThread extends Thread {
     public static final int ERR_PORT_IN_USE = 0x0102;
     public static final int ERR_TEMP_NOT_FOUND = 0x0103; 
 
+    /** 工作线程数*/
+    static final int WORKER_SIZE = 4;
+    /** 同时处理和排队的连接数*/
+    static final int MAX_CONNECTIONS = WORKER_SIZE * 4;
+    /** 读取请求内容的超时，毫秒*/
+    static final int SO_TIMEOUT = 30000;
+
     private Context mContext;
     private ServerSocket serverSocket;
     static boolean isLoop;
 
     private OnWebServListener mListener; 
-    private ExecutorService pool; // 线程池
+    private ThreadPoolExecutor pool; // 线程池
+    /** 连接许可，连接关闭时归还*/
+    private final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS);
+    /** 处理中的连接，关闭服务时一起关闭*/
+    private final HashSet<ChannelHttpServerConnection> connections = new HashSet<ChannelHttpServerConnection>();
 
     public WebServerThread(Context context) {
         super(); 
         isLoop = false;
         mContext = context;
-        pool = Executors.newCachedThreadPool();
+        pool = new ThreadPoolExecutor(WORKER_SIZE, WORKER_SIZE, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "WebWorker-" + (++count));
+                thread.setDaemon(true); // 设为守护线程
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
     }
 
     @Override
     public void run() {
         try {
-            // 创建服务器套接字
-            serverSocket = new ServerSocket();
+            // 创建服务器套接字，7.0以上由通道创建，下载时可零拷贝发送文件
+            // 更早的版本通道套接字的读取不受SO_TIMEOUT限制，仍使用普通套接字
+            serverSocket = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? ServerSocketChannel.open().socket() : new ServerSocket();
             InetSocketAddress inetSocketAddress = new InetSocketAddress(Constants.PORT);
             serverSocket.bind(inetSocketAddress);
 
@@ -75,12 +116,24 @@ public class WebServerThread extends Thread {
             httpproc.addInterceptor(new ResponseServer());
             httpproc.addInterceptor(new ResponseContent());
             httpproc.addInterceptor(new ResponseConnControl());
+            // 收到请求头后恢复读取超时，等待请求时的短超时不影响上传
+            httpproc.addInterceptor(new HttpRequestInterceptor() {
+                @Override
+                public void process(HttpRequest request, HttpContext context)
+                        throws HttpException, IOException {
+                    HttpConnection conn = (HttpConnection) context
+                            .getAttribute(ExecutionContext.HTTP_CONNECTION);
+                    if (conn != null) {
+                        conn.setSocketTimeout(SO_TIMEOUT);
+                    }
+                }
+            });
             // 创建HTTP服务
             HttpService httpService = new HttpService(httpproc,
                     new DefaultConnectionReuseStrategy(), new DefaultHttpResponseFactory());
             // 创建HTTP参数
             HttpParams params = new BasicHttpParams();
-            params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, 30000)
+            params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, SO_TIMEOUT)
                     .setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 8 * 1024)
                     .setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK, false)
                     .setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true)
@@ -93,7 +146,7 @@ public class WebServerThread extends Thread {
             reqistry.register(UrlPattern.DELETE, new HttpDeleteHandler(mContext, mListener));
             reqistry.register(UrlPattern.UPLOAD, new HttpUploadHandler(mContext, mListener));
             reqistry.register(UrlPattern.PROGRESS, new HttpProgressHandler(mListener));
-            reqistry.register(UrlPattern.DOWNLOAD, new HttpDownloadHandler());
+            reqistry.register(UrlPattern.DOWNLOAD, new HttpDownloadHandler(mListener));
             reqistry.register(UrlPattern.BROWSE, new HttpIndexHandler(mContext, mListener));
             reqistry.register(UrlPattern.GET_FILES, new HttpGetFilesHandler(mContext, mListener));
             // 设置HTTP请求执行器
@@ -105,16 +158,46 @@ public class WebServerThread extends Thread {
             /* 循环接收各客户端 */
             isLoop = true;
             while (isLoop && !Thread.interrupted()) {
-                // 接收客户端套接字
-                Socket socket = serverSocket.accept();
+                // 连接数已满时等待有连接关闭
+                connectionPermits.acquire();
+                Socket socket;
+                try {
+                    // 接收客户端套接字
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    connectionPermits.release();
+                    throw e;
+                }
                 // 绑定至服务器端HTTP连接
-                conn = new DefaultHttpServerConnection();
-                conn.bind(socket, params);
+                final ChannelHttpServerConnection conn = new ChannelHttpServerConnection();
+                try {
+                    conn.bind(socket, params);
+                } catch (IOException e) {
+                    connectionPermits.release();
+                    socket.close();
+                    continue;
+                }
+                synchronized (connections) {
+                    connections.add(conn);
+                }
                 // 派送至WorkerThread处理请求
-                Thread t = new WorkerThread(httpService, conn, mListener);
-                t.setDaemon(true); // 设为守护线程
-                pool.execute(t); // 执行
+                WorkerThread worker = new WorkerThread(httpService, conn, mListener, pool) {
+                    @Override
+                    protected void onClosed() {
+                        synchronized (connections) {
+                            connections.remove(conn);
+                        }
+                        connectionPermits.release();
+                    }
+                };
+                try {
+                    pool.execute(worker); // 执行
+                } catch (RejectedExecutionException e) {
+                    // 服务已关闭
+                    worker.close();
+                }
             }
+        } catch (InterruptedException e) {
         } catch (IOException e) {
             e.printStackTrace();
             if (isLoop) { // 以排除close造成的异常
@@ -137,15 +220,20 @@ public class WebServerThread extends Thread {
             }
         }
     }
-    DefaultHttpServerConnection conn;
-
     public void close() {
         isLoop = false; 
-        try {
-            if (conn != null) {
-            	conn.shutdown();
-            	conn.close();
+        interrupt();
+        pool.shutdownNow();
+        synchronized (connections) {
+            for (ChannelHttpServerConnection conn : connections) {
+                try {
+                    conn.shutdown();
+                } catch (IOException e) {
+                }
             }
+            connections.clear();
+        }
+        try {
             if (serverSocket != null) {
                 serverSocket.close();
             }
@@ -166,6 +254,13 @@ public class WebServerThread extends Thread {
         void onWebFileAdded(String fileName);
         
         void onWebFileUploadError(String fileName, String error);
+
+        /**
+         * 文件下载结束，包括中断
+         * @param bytes 已发送的字节数
+         * @param millis 耗时
+         */
+        void onFileDownloaded(String fileName, long bytes, long millis);
         
         void onLocalFileDeleted(String fileName);
         
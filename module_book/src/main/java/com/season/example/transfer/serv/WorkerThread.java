@@ -1,6 +1,8 @@
 package com.season.example.transfer.serv;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpServerConnection;
@@ -11,32 +13,53 @@ import org.apache.http.protocol.HttpService;
 import com.season.example.transfer.serv.WebServerThread.OnWebServListener;
 
 /**
- * @brief Web服务工作线程
+ * @brief Web服务工作任务，在线程池中处理一个连接
+ * 1.一个连接最多处理{@link #MAX_KEEP_ALIVE_REQUESTS}个请求
+ * 2.有其他连接排队时，处理完当前请求即关闭，不占用工作线程等待下一个请求
+ * 3.等待请求时使用较短的{@link #KEEP_ALIVE_TIMEOUT}，空闲的长连接很快关闭；
+ *   收到请求头后由{@link WebServerThread}的拦截器恢复为{@link WebServerThread#SO_TIMEOUT}
  * @author join
  */
-public class WorkerThread extends Thread {
+public class WorkerThread implements Runnable {
+	/** 长连接最多处理的请求数*/
+	static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+	/** 等待下一个请求的超时，毫秒*/
+	static final int KEEP_ALIVE_TIMEOUT = 5000;
+
 	private final HttpService httpservice;
 	private final HttpServerConnection conn;
 	private final OnWebServListener listener;
+	private final ThreadPoolExecutor pool;
+	private boolean isClosed;
 
 	public WorkerThread(HttpService httpservice, HttpServerConnection conn,
-			OnWebServListener listener) {
+			OnWebServListener listener, ThreadPoolExecutor pool) {
 		super();
 		this.httpservice = httpservice;
 		this.conn = conn;
 		this.listener = listener;
+		this.pool = pool;
 	}
 
 	@Override
 	public void run() {
 		HttpContext context = new BasicHttpContext();
 		try {
+			int requestCount = 0;
 			while (WebServerThread.isLoop && !Thread.interrupted()
 					&& this.conn.isOpen()) {
+				this.conn.setSocketTimeout(KEEP_ALIVE_TIMEOUT);
 				this.httpservice.handleRequest(this.conn, context);
+				requestCount++;
+				if (requestCount >= MAX_KEEP_ALIVE_REQUESTS
+						|| !this.pool.getQueue().isEmpty()) {
+					break;
+				}
 			}
 		} catch (ConnectionClosedException e) {
 			System.err.println("Client closed connection");
+		} catch (SocketTimeoutException e) {
+			System.err.println("Connection timed out");
 		} catch (IOException e) {
 			System.err.println("I/O error: " + e.getMessage());
 			if (listener != null && e.getMessage() != null
@@ -47,10 +70,30 @@ public class WorkerThread extends Thread {
 			System.err.println("Unrecoverable HTTP protocol violation: "
 					+ e.getMessage());
 		} finally {
-			try {
-				this.conn.shutdown();
-			} catch (IOException ignore) {
+			close();
+		}
+	}
+
+	/**
+	 * 关闭连接，只回调一次{@link #onClosed()}
+	 */
+	void close() {
+		synchronized (this) {
+			if (isClosed) {
+				return;
 			}
+			isClosed = true;
 		}
+		try {
+			this.conn.shutdown();
+		} catch (IOException ignore) {
+		}
+		onClosed();
+	}
+
+	/**
+	 * 连接已关闭，归还连接数
+	 */
+	protected void onClosed() {
 	}
 }
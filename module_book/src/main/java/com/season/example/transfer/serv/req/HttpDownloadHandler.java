@@ -1,32 +1,53 @@
 package com.season.example.transfer.serv.req;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
-import org.apache.http.HttpEntity;
+import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.entity.ContentProducer;
-import org.apache.http.entity.EntityTemplate;
+import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
 
+import com.season.example.transfer.serv.ChannelHttpServerConnection;
+import com.season.example.transfer.serv.WebServerThread.OnWebServListener;
+import com.season.example.transfer.serv.support.FileRegionEntity;
 import com.season.example.transfer.serv.support.HttpGetParser;
 import com.season.example.transfer.util.Constants;
 
 /**
  * @brief 下载请求处理
+ * 1.文件经{@link FileRegionEntity}发送，连接有套接字通道时零拷贝
+ * 2.支持单个和多个Range，多个时返回multipart/byteranges，无法满足时返回416
+ * 3.支持ETag、Last-Modified的条件请求和If-Range
+ * 4.每次发送结束通过{@link OnWebServListener#onFileDownloaded(String, long, long)}回调字节数和耗时
  * @author join
  */
 public class HttpDownloadHandler implements HttpRequestHandler {
-  
+    /** 超过该数量的Range忽略，返回整个文件*/
+    private static final int MAX_RANGES = 16;
+    private static final String BOUNDARY = "TRANSFER_BYTERANGES";
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private OnWebServListener mListener;
+
+    public HttpDownloadHandler(OnWebServListener listener) {
+        this.mListener = listener;
+    }
 
     @Override
     public void handle(HttpRequest request, HttpResponse response, HttpContext context)
@@ -40,52 +61,235 @@ public class HttpDownloadHandler implements HttpRequestHandler {
         }
         fname = URLDecoder.decode(fname, Constants.ENCODING); 
         final File file = new File(Constants.UPLOAD_DIR, fname);
-        HttpEntity entity = new EntityTemplate(new ContentProducer() {
-            @Override
-            public void writeTo(OutputStream outstream) throws IOException { 
-            	write(file, outstream); 
-            }
-        });
-        response.setStatusCode(HttpStatus.SC_OK);
+        if (!file.isFile()) {
+            response.setStatusCode(HttpStatus.SC_NOT_FOUND);
+            return;
+        }
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = getETag(length, lastModified);
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", formatDate(lastModified));
+        response.setHeader("Accept-Ranges", "bytes");
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatusCode(HttpStatus.SC_NOT_MODIFIED);
+            return;
+        }
         response.addHeader("Content-Description", "File Transfer");
-        response.setHeader("Content-Type", "application/octet-stream");
         response.addHeader("Content-Disposition", "attachment;filename=" + encodeFilename(file));
         response.setHeader("Content-Transfer-Encoding", "binary");
-        // 在某平板自带浏览器上下载失败，比较下能成功下载的响应头，这里少了Content-Length。但设了，反而下不了了。
+
+        long[][] ranges = null;
+        Header rangeHeader = request.getFirstHeader("Range");
+        if (rangeHeader != null && isIfRangeMatched(request, etag, lastModified)) {
+            ranges = parseRanges(rangeHeader.getValue(), length);
+        }
+        SocketChannel channel = getSocketChannel(context);
+        FileRegionEntity entity;
+        if (ranges == null) {
+            response.setStatusCode(HttpStatus.SC_OK);
+            entity = createEntity(file, new long[] { 0 }, new long[] { length }, null, null, channel);
+            entity.setContentType(CONTENT_TYPE);
+        } else if (ranges[0].length == 0) {
+            response.setStatusCode(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + length);
+            return;
+        } else if (ranges[0].length == 1) {
+            long start = ranges[0][0];
+            long end = ranges[1][0];
+            response.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            entity = createEntity(file, ranges[0], new long[] { end - start + 1 }, null, null, channel);
+            entity.setContentType(CONTENT_TYPE);
+        } else {
+            int count = ranges[0].length;
+            long[] lengths = new long[count];
+            byte[][] heads = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                lengths[i] = ranges[1][i] - ranges[0][i] + 1;
+                heads[i] = ("\r\n--" + BOUNDARY + "\r\nContent-Type: " + CONTENT_TYPE
+                        + "\r\nContent-Range: bytes " + ranges[0][i] + "-" + ranges[1][i] + "/" + length
+                        + "\r\n\r\n").getBytes("US-ASCII");
+            }
+            byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes("US-ASCII");
+            response.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+            entity = createEntity(file, ranges[0], lengths, heads, tail, channel);
+            entity.setContentType("multipart/byteranges; boundary=" + BOUNDARY);
+        }
+        // 在某平板自带浏览器上下载失败，比较下能成功下载的响应头，这里少了Content-Length。
+        // 零拷贝和Range都需要确定的长度，这里统一带上Content-Length。
         response.setEntity(entity);
- 
     }
 
-    private String encodeFilename(File file) throws IOException { 
-        String filename = URLEncoder.encode(getFilename(file), Constants.ENCODING);
-        return filename.replace("+", "%20");
+    private FileRegionEntity createEntity(final File file, long[] starts, long[] lengths,
+            byte[][] heads, byte[] tail, SocketChannel channel) {
+        return new FileRegionEntity(file, starts, lengths, heads, tail, channel) {
+            @Override
+            protected void onTransferred(long bytes, long millis) {
+                if (mListener != null) {
+                    mListener.onFileDownloaded(file.getName(), bytes, millis);
+                }
+            }
+        };
+    }
+
+    private SocketChannel getSocketChannel(HttpContext context) {
+        Object conn = context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+        if (conn instanceof ChannelHttpServerConnection) {
+            return ((ChannelHttpServerConnection) conn).getSocketChannel();
+        }
+        return null;
+    }
+
+    private String getETag(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * If-None-Match优先，没有时比较If-Modified-Since
+     */
+    private boolean isNotModified(HttpRequest request, String etag, long lastModified) {
+        Header ifNoneMatch = request.getFirstHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String value = ifNoneMatch.getValue().trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            for (String tag : value.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Header ifModifiedSince = request.getFirstHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            long date = parseDate(ifModifiedSince.getValue());
+            return date != -1 && lastModified / 1000 <= date / 1000;
+        }
+        return false;
     }
 
-    private String getFilename(File file) {
-        return file.isFile() ? file.getName() : file.getName() + ".zip";
+    /**
+     * 没有If-Range或与当前文件一致时才处理Range
+     */
+    private boolean isIfRangeMatched(HttpRequest request, String etag, long lastModified) {
+        Header ifRange = request.getFirstHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.getValue().trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // 弱ETag不能用于Range
+            return value.equals(etag);
+        }
+        long date = parseDate(value);
+        return date != -1 && date / 1000 == lastModified / 1000;
     }
 
     /**
-     * @brief 写入文件
-     * @param inputFile 输入文件
-     * @param outstream 输出流
-     * @throws IOException
+     * 解析Range，按位置排序并合并重叠的区段
+     * @return 格式错误或区段过多时返回NULL，表示忽略Range；
+     *         否则[0]为开始位置，[1]为结束位置(含)，都无法满足时长度为0
      */
-    private void write(File inputFile, OutputStream outstream) throws IOException {
-        FileInputStream fis = new FileInputStream(inputFile);
+    static long[][] parseRanges(String value, long length) {
+        value = value.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        long[][] pairs = new long[specs.length][];
+        int count = 0;
         try {
-            int count;
-            byte[] buffer = new byte[Constants.BUFFER_LENGTH];
-            while ((count = fis.read(buffer)) != -1) {
-                outstream.write(buffer, 0, count);
+            for (String spec : specs) {
+                spec = spec.trim();
+                int index = spec.indexOf('-');
+                if (index == -1) {
+                    return null;
+                }
+                long start;
+                long end;
+                if (index == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, index));
+                    if (index == spec.length() - 1) {
+                        end = length - 1;
+                    } else {
+                        end = Long.parseLong(spec.substring(index + 1));
+                        if (end < start) {
+                            return null;
+                        }
+                        end = Math.min(end, length - 1);
+                    }
+                    if (start < 0) {
+                        return null;
+                    }
+                }
+                if (start >= length) {
+                    continue;
+                }
+                pairs[count++] = new long[] { start, end };
             }
-            outstream.flush();
-        } catch (IOException e) { 
-            e.printStackTrace();
-            throw e;
-        } finally {
-            fis.close();
-            outstream.close();
+        } catch (NumberFormatException e) {
+            return null;
         }
-    } 
+        Arrays.sort(pairs, 0, count, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int merged = 0;
+        for (int i = 0; i < count; i++) {
+            if (merged > 0 && pairs[i][0] <= ends[merged - 1] + 1) {
+                ends[merged - 1] = Math.max(ends[merged - 1], pairs[i][1]);
+            } else {
+                starts[merged] = pairs[i][0];
+                ends[merged] = pairs[i][1];
+                merged++;
+            }
+        }
+        return new long[][] { Arrays.copyOf(starts, merged), Arrays.copyOf(ends, merged) };
+    }
+
+    private static SimpleDateFormat createDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static String formatDate(long time) {
+        return createDateFormat().format(new Date(time));
+    }
+
+    /**
+     * @return 格式错误返回-1
+     */
+    private static long parseDate(String value) {
+        try {
+            return createDateFormat().parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private String encodeFilename(File file) throws IOException { 
+        String filename = URLEncoder.encode(file.getName(), Constants.ENCODING);
+        return filename.replace("+", "%20");
+    }
 }
@@ -1,17 +1,18 @@
 package com.season.example.transfer.serv.req;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
-import com.season.example.transfer.fileupload.FileItem;
-import com.season.example.transfer.fileupload.FileItemFactory;
+import com.season.example.transfer.fileupload.FileItemIterator;
+import com.season.example.transfer.fileupload.FileItemStream;
+import com.season.example.transfer.fileupload.FileUploadBase;
+import com.season.example.transfer.fileupload.FileUploadBase.FileUploadIOException;
 import com.season.example.transfer.fileupload.FileUploadException;
+import com.season.example.transfer.fileupload.InvalidFileNameException;
 import com.season.example.transfer.fileupload.ProgressListener;
-import com.season.example.transfer.fileupload.disk.DiskFileItemFactory;
 import com.season.example.transfer.fileupload.httpserv.HttpServFileUpload;
-import com.season.example.transfer.fileupload.httpserv.HttpServRequestContext;
+import com.season.example.transfer.fileupload.util.Streams;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
@@ -38,6 +39,9 @@ import com.season.example.transfer.util.SaverUtil;
  * @author join
  */
 public class HttpUploadHandler implements HttpRequestHandler { 
+	/** 上传中的临时文件后缀*/
+	private static final String TEMP_SUFFIX = ".part";
+
 	private Context mContext;
 	private OnWebServListener mListener;
 
@@ -90,44 +94,69 @@ public class HttpUploadHandler implements HttpRequestHandler {
 		} 
 
 	}
-	/** Process file upload 
-	 * @throws Exception */
+	/** Process file upload
+	 * 边解析边写入uploadDir下的临时文件，写完后重命名，不在内存或缓存目录中保留整个文件 */
 	private boolean processFileUpload(HttpRequest request, File uploadDir) {
-		boolean res = true;  
-		FileItemFactory factory = new DiskFileItemFactory(
-				Constants.THRESHOLD_UPLOAD, uploadDir);
-		HttpServFileUpload fileUpload = new HttpServFileUpload(factory); 
+		HttpServFileUpload fileUpload = new HttpServFileUpload();
 		fileUpload.setProgressListener(new MyProgressListener());
-		List<FileItem> fileItems = new ArrayList<FileItem>();
+		byte[] buffer = new byte[FileUploadBase.STREAM_BUFFER_SIZE];
+		String fileName = "";
 		try {
-			fileItems = fileUpload
-					.parseRequest(new HttpServRequestContext(request), mListener);
-		} catch (FileUploadException e) { 
-			e.printStackTrace();
-			res = false; 
-		}    
-		for (FileItem item : fileItems) {
-			if (!item.isFormField()) { 
-				String fileName = processUploadedFile(item, uploadDir);
+			FileItemIterator iter = fileUpload.getItemIterator(request);
+			while (iter.hasNext()) {
+				FileItemStream item = iter.next();
+				if (item.isFormField()) {
+					continue;
+				}
+				fileName = new File(item.getName()).getName();
+				if (TextUtils.isEmpty(fileName)) {
+					continue;
+				}
+				processUploadedFile(item, uploadDir, fileName, buffer);
 				if(mListener != null && SaverUtil.getSingleton(mContext).addFile2List(fileName)){
 					mListener.onWebFileAdded(fileName);
-				} 
+				}
 			}
-		} 
-		return res;
-	} 
-	  
-	/** Process a file upload [rename the tmp file]*/
-	private String processUploadedFile(FileItem item, File uploadDir) {
-		String fileName = item.getName();
-		File uploadedFile = new File(uploadDir, fileName);
-		try {
-			item.write(uploadedFile);
-		} catch (Exception e) {
-			e.printStackTrace();
+			return true;
+		} catch (FileUploadIOException e) {
+			return onUploadError(fileName, e.getCause());
+		} catch (FileUploadException e) {
+			return onUploadError(fileName, e);
+		} catch (InvalidFileNameException e) {
+			return onUploadError(fileName, e);
+		} catch (IOException e) {
+			return onUploadError(fileName, e);
+		}
+	}
+
+	private boolean onUploadError(String fileName, Throwable e) {
+		e.printStackTrace();
+		if(mListener != null){
+			mListener.onWebFileUploadError(fileName, e.getMessage());
 		}
-		return fileName;
+		return false;
 	}
 
+	/** Process a file upload [write to the tmp file and rename it]*/
+	private void processUploadedFile(FileItemStream item, File uploadDir,
+			String fileName, byte[] buffer) throws IOException {
+		File tempFile = new File(uploadDir, fileName + TEMP_SUFFIX);
+		boolean success = false;
+		try {
+			Streams.copy(item.openStream(), new FileOutputStream(tempFile), true, buffer);
+			File uploadedFile = new File(uploadDir, fileName);
+			if (uploadedFile.exists()) {
+				uploadedFile.delete();
+			}
+			success = tempFile.renameTo(uploadedFile);
+			if (!success) {
+				throw new IOException("Cannot rename " + tempFile + " to " + uploadedFile);
+			}
+		} finally {
+			if (!success) {
+				tempFile.delete();
+			}
+		}
+	}
 
 }
@@ -0,0 +1,250 @@
+package com.season.example.transfer.serv.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * @brief 文件区段实体，用于下载和Range请求
+ * 1.按顺序发送若干文件区段，每段前可带一段头部，最后可带一段尾部(multipart/byteranges)
+ * 2.有套接字通道时先刷出响应头，再用FileChannel.transferTo直接发送文件，不经过用户空间缓冲
+ * 3.没有通道时按块复制到输出流
+ * 4.{@link #getContent()}按同样的顺序读取，文件区段只读取选中的范围
+ * @author Join
+ */
+public class FileRegionEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_LENGTH = 64 * 1024;
+
+    private final File file;
+    private final long[] starts;
+    private final long[] lengths;
+    private final byte[][] heads;
+    private final byte[] tail;
+    private final SocketChannel channel;
+    /** 本次发送已发送的文件字节数，中断时包含发送了一部分的区段 */
+    private long transferred;
+
+    /**
+     * @param heads 每段之前的头部，可为NULL
+     * @param tail 最后的尾部，可为NULL
+     * @param channel 连接的套接字通道，可为NULL
+     */
+    public FileRegionEntity(File file, long[] starts, long[] lengths,
+            byte[][] heads, byte[] tail, SocketChannel channel) {
+        this.file = file;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.heads = heads;
+        this.tail = tail;
+        this.channel = channel;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = tail == null ? 0 : tail.length;
+        for (int i = 0; i < starts.length; i++) {
+            length += lengths[i];
+            if (heads != null) {
+                length += heads[i].length;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 依次读取头部、文件区段和尾部，文件区段读到时才打开
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            /** 头部和区段交替，偶数为头部，最后一个为尾部 */
+            private int part = heads == null ? 1 : 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return part < starts.length * 2 || (part == starts.length * 2 && tail != null);
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                int index = part / 2;
+                boolean isHead = part % 2 == 0;
+                part += heads == null ? 2 : 1;
+                if (index == starts.length) {
+                    return new ByteArrayInputStream(tail);
+                }
+                if (isHead) {
+                    return new ByteArrayInputStream(heads[index]);
+                }
+                return new RegionInputStream(file, starts[index], lengths[index]);
+            }
+        });
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        long startTime = System.currentTimeMillis();
+        transferred = 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fileChannel = raf.getChannel();
+            byte[] buffer = channel == null ? new byte[BUFFER_LENGTH] : null;
+            for (int i = 0; i < starts.length; i++) {
+                if (heads != null) {
+                    outstream.write(heads[i]);
+                }
+                if (channel != null) {
+                    // 响应头和分段头还在HttpCore的缓冲中，先刷出
+                    outstream.flush();
+                    transfer(fileChannel, starts[i], lengths[i]);
+                } else {
+                    copy(fileChannel, starts[i], lengths[i], outstream, buffer);
+                }
+            }
+            if (tail != null) {
+                outstream.write(tail);
+            }
+            outstream.flush();
+        } finally {
+            raf.close();
+            onTransferred(transferred, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void transfer(FileChannel fileChannel, long position, long count) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = fileChannel.transferTo(position, end - position, channel);
+            if (sent <= 0) {
+                throw new IOException("File truncated: " + file);
+            }
+            position += sent;
+            transferred += sent;
+        }
+    }
+
+    private void copy(FileChannel fileChannel, long position, long count,
+            OutputStream outstream, byte[] buffer) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long end = position + count;
+        while (position < end) {
+            byteBuffer.clear();
+            byteBuffer.limit((int) Math.min(buffer.length, end - position));
+            int read = fileChannel.read(byteBuffer, position);
+            if (read <= 0) {
+                throw new IOException("File truncated: " + file);
+            }
+            outstream.write(buffer, 0, read);
+            position += read;
+            transferred += read;
+        }
+    }
+
+    /**
+     * 发送结束或中断时回调
+     * @param bytes 已发送的文件字节数
+     * @param millis 耗时
+     */
+    protected void onTransferred(long bytes, long millis) {
+    }
+
+    /**
+     * 只读取文件中一个区段的输入流，第一次读取时才打开文件
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final File file;
+        private final long start;
+        private long remaining;
+        private RandomAccessFile raf;
+
+        RegionInputStream(File file, long start, long length) {
+            this.file = file;
+            this.start = start;
+            this.remaining = length;
+        }
+
+        private RandomAccessFile open() throws IOException {
+            if (raf == null) {
+                raf = new RandomAccessFile(file, "r");
+                raf.seek(start);
+            }
+            return raf;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = open().read();
+            if (b < 0) {
+                throw new IOException("File truncated: " + file);
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = open().read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new IOException("File truncated: " + file);
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skip = Math.min(Math.max(n, 0), remaining);
+            RandomAccessFile file = open();
+            file.seek(file.getFilePointer() + skip);
+            remaining -= skip;
+            return skip;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        }
+    }
+}
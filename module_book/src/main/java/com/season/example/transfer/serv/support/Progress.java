@@ -1,16 +1,16 @@
 package com.season.example.transfer.serv.support;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * 进度缓存类
+ * 进度缓存类，上传和进度查询在不同的工作线程中访问
  * @author Join
  */
 public class Progress {
 
-    private static Map<String, Integer> progressMap = new HashMap<String, Integer>(); 
-    private static Map<String, Long> sizeMap = new HashMap<String, Long>(); 
+    private static Map<String, Integer> progressMap = new ConcurrentHashMap<String, Integer>(); 
+    private static Map<String, Long> sizeMap = new ConcurrentHashMap<String, Long>(); 
 
     public static void update(String fileName,  long fileSize, int progress) { 
         progressMap.put(fileName, progress);  
@@ -0,0 +1,332 @@
+package com.season.book.plugin.expand.pdf.render;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link TileScheduler}的调度顺序、取消和释放
+ * 回调线程用队列模拟，测试线程取出执行；第一块瓦片渲染时阻塞，保证后续请求都在排队
+ */
+public class TileSchedulerTest {
+	private static final int TILE_SIZE = 16;
+	private static final long TIMEOUT = 5;
+
+	private FakeRenderer mRenderer;
+	private BlockingQueue<Runnable> mCallbacks;
+	private TileScheduler<int[]> mScheduler;
+
+	@Before
+	public void setUp() {
+		mRenderer = new FakeRenderer();
+		mCallbacks = new LinkedBlockingQueue<Runnable>();
+		mScheduler = new TileScheduler<int[]>(mRenderer, TILE_SIZE, 64 * TILE_SIZE * TILE_SIZE * 4, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				mCallbacks.add(command);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		mRenderer.unblock();
+		mScheduler.release();
+	}
+
+	@Test
+	public void rendersByPriorityThenRequestOrder() throws Exception {
+		Object client = new Object();
+		RecordListener listener = new RecordListener();
+		request(client, 0, 5, listener);
+		mRenderer.awaitBlocked();
+		request(client, 1, 3, listener);
+		request(client, 2, 1, listener);
+		request(client, 3, 3, listener);
+		request(client, 4, 2, listener);
+		mRenderer.unblock();
+		runCallbacks(5);
+
+		assertEquals(list(0, 2, 4, 1, 3), mRenderer.getRenderedPages());
+		assertEquals(list(0, 2, 4, 1, 3), listener.getReadyPages());
+		for (int page = 0; page < 5; page++) {
+			assertNotNull(mScheduler.getTile(key(page)));
+		}
+	}
+
+	@Test
+	public void entireJobRunsBeforeLowerPriorityTiles() throws Exception {
+		Object client = new Object();
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		request(client, 0, 5, null);
+		mRenderer.awaitBlocked();
+		request(client, 1, 3, null);
+		mScheduler.execute(client, 0, new TileScheduler.RenderJob() {
+			@Override
+			public void render() {
+				events.add("render:" + mRenderer.getRenderedPages().size());
+			}
+
+			@Override
+			public void onRendered() {
+				events.add("rendered");
+			}
+		});
+		mRenderer.unblock();
+		runCallbacks(3);
+
+		assertEquals(list(0, 1), mRenderer.getRenderedPages());
+		assertEquals(2, events.size());
+		assertEquals("render:1", events.get(0));
+		assertEquals("rendered", events.get(1));
+	}
+
+	@Test
+	public void requestInCacheReturnsTrue() throws Exception {
+		Object client = new Object();
+		request(client, 0, 1, null);
+		mRenderer.unblock();
+		runCallbacks(1);
+
+		assertTrue(request(client, 0, 1, null));
+		assertEquals(1, mRenderer.getRenderedPages().size());
+	}
+
+	@Test
+	public void onlyRequestsCountHits() throws Exception {
+		Object client = new Object();
+		request(client, 0, 1, null);
+		mRenderer.unblock();
+		runCallbacks(1);
+		request(client, 0, 1, null);
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(mScheduler.getTile(key(0)));
+			assertNull(mScheduler.getTile(key(1)));
+		}
+
+		assertTrue(mScheduler.getMetrics(), mScheduler.getMetrics().contains("hit:1 miss:1 "));
+	}
+
+	@Test
+	public void duplicateRequestRendersOnce() throws Exception {
+		Object client = new Object();
+		RecordListener listener = new RecordListener();
+		request(client, 0, 5, null);
+		mRenderer.awaitBlocked();
+		request(client, 1, 3, listener);
+		request(client, 1, 1, listener);
+		mRenderer.unblock();
+		runCallbacks(2);
+
+		assertEquals(list(0, 1), mRenderer.getRenderedPages());
+		assertEquals(list(1), listener.getReadyPages());
+	}
+
+	@Test
+	public void cancelDropsQueuedTasksAndRunningCallback() throws Exception {
+		Object cancelled = new Object();
+		Object other = new Object();
+		RecordListener cancelledListener = new RecordListener();
+		RecordListener otherListener = new RecordListener();
+		request(cancelled, 0, 1, cancelledListener);
+		mRenderer.awaitBlocked();
+		request(cancelled, 1, 1, cancelledListener);
+		request(other, 2, 2, otherListener);
+		request(cancelled, 3, 3, cancelledListener);
+		final boolean[] isJobRendered = new boolean[1];
+		mScheduler.execute(cancelled, 0, new TileScheduler.RenderJob() {
+			@Override
+			public void render() {
+				isJobRendered[0] = true;
+			}
+
+			@Override
+			public void onRendered() {
+			}
+		});
+		mScheduler.cancel(cancelled);
+		mRenderer.unblock();
+		runCallbacks(2);
+
+		assertEquals(list(0, 2), mRenderer.getRenderedPages());
+		assertFalse(isJobRendered[0]);
+		assertTrue(cancelledListener.getReadyPages().isEmpty());
+		assertEquals(list(2), otherListener.getReadyPages());
+		//正在渲染的瓦片完成后仍放入缓存
+		assertNotNull(mScheduler.getTile(key(0)));
+		assertNull(mScheduler.getTile(key(1)));
+
+		//取消后可以重新请求
+		request(cancelled, 1, 1, cancelledListener);
+		runCallbacks(1);
+		assertEquals(list(1), cancelledListener.getReadyPages());
+	}
+
+	@Test
+	public void releaseStopsRenderingAndRecyclesTiles() throws Exception {
+		Object client = new Object();
+		RecordListener listener = new RecordListener();
+		request(client, 0, 1, listener);
+		mRenderer.unblock();
+		runCallbacks(1);
+		mRenderer.block();
+		request(client, 1, 1, listener);
+		mRenderer.awaitBlocked();
+		request(client, 2, 1, listener);
+
+		mScheduler.release();
+		assertEquals(1, mRenderer.getRecycledCount());
+		assertNull(mScheduler.getTile(key(0)));
+
+		mRenderer.unblock();
+		//正在渲染的瓦片完成后直接释放，不回调
+		runCallbacks(1);
+		assertEquals(list(0), listener.getReadyPages());
+		assertEquals(2, mRenderer.getRecycledCount());
+		assertNull(mScheduler.getTile(key(1)));
+		assertEquals(list(0, 1), mRenderer.getRenderedPages());
+
+		//释放后的请求不再执行
+		assertFalse(request(client, 3, 1, listener));
+		assertNull(mCallbacks.poll(200, TimeUnit.MILLISECONDS));
+		assertEquals(list(0, 1), mRenderer.getRenderedPages());
+	}
+
+	@Test
+	public void evictedTilesAreNotRenderedAgain() throws Exception {
+		TileScheduler<int[]> scheduler = new TileScheduler<int[]>(mRenderer, TILE_SIZE, 2 * TILE_SIZE * TILE_SIZE * 4, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				mCallbacks.add(command);
+			}
+		});
+		try {
+			Object client = new Object();
+			mRenderer.unblock();
+			for (int page = 0; page < 4; page++) {
+				scheduler.requestTile(client, key(page), TILE_SIZE, TILE_SIZE, 1, null);
+				runCallbacks(1);
+			}
+			assertEquals(2, mRenderer.getRecycledCount());
+			assertEquals(4, mRenderer.getCreatedCount());
+			assertNull(scheduler.getTile(key(0)));
+			assertNotNull(scheduler.getTile(key(3)));
+		} finally {
+			scheduler.release();
+		}
+	}
+
+	private boolean request(Object client, int page, int priority, TileScheduler.TileListener listener) {
+		return mScheduler.requestTile(client, key(page), TILE_SIZE, TILE_SIZE, priority, listener);
+	}
+
+	private static TileKey key(int page) {
+		return new TileKey(page, 0, 0, 0);
+	}
+
+	private static List<Integer> list(Integer... pages) {
+		List<Integer> res = new ArrayList<Integer>();
+		Collections.addAll(res, pages);
+		return res;
+	}
+
+	/**
+	 * 在测试线程执行count个回调
+	 */
+	private void runCallbacks(int count) throws InterruptedException {
+		for (int i = 0; i < count; i++) {
+			Runnable callback = mCallbacks.poll(TIMEOUT, TimeUnit.SECONDS);
+			assertNotNull("callback timeout", callback);
+			callback.run();
+		}
+	}
+
+	private static final class RecordListener implements TileScheduler.TileListener {
+		private final List<Integer> mReadyPages = new ArrayList<Integer>();
+
+		@Override
+		public void onTileReady(TileKey key) {
+			mReadyPages.add(key.page);
+		}
+
+		List<Integer> getReadyPages() {
+			return mReadyPages;
+		}
+	}
+
+	/**
+	 * 记录渲染顺序，block后下一次渲染等待unblock
+	 */
+	private static final class FakeRenderer implements TileRenderer<int[]> {
+		private final List<Integer> mRenderedPages = Collections.synchronizedList(new ArrayList<Integer>());
+		private volatile CountDownLatch mGate = new CountDownLatch(1);
+		private volatile CountDownLatch mBlocked = new CountDownLatch(1);
+		private volatile int mCreatedCount;
+		private volatile int mRecycledCount;
+
+		@Override
+		public int[] createTile(int size) {
+			mCreatedCount++;
+			return new int[size * size];
+		}
+
+		@Override
+		public void renderTile(int page, int[] tile, int pageWidth, int pageHeight, int x, int y, int size) {
+			mBlocked.countDown();
+			try {
+				mGate.await(TIMEOUT, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+			tile[0] = page;
+			mRenderedPages.add(page);
+		}
+
+		@Override
+		public int getByteCount(int[] tile) {
+			return tile.length * 4;
+		}
+
+		@Override
+		public void recycleTile(int[] tile) {
+			mRecycledCount++;
+		}
+
+		void block() {
+			mBlocked = new CountDownLatch(1);
+			mGate = new CountDownLatch(1);
+		}
+
+		void unblock() {
+			mGate.countDown();
+		}
+
+		void awaitBlocked() throws InterruptedException {
+			assertTrue("render timeout", mBlocked.await(TIMEOUT, TimeUnit.SECONDS));
+		}
+
+		List<Integer> getRenderedPages() {
+			synchronized (mRenderedPages) {
+				return new ArrayList<Integer>(mRenderedPages);
+			}
+		}
+
+		int getCreatedCount() {
+			return mCreatedCount;
+		}
+
+		int getRecycledCount() {
+			return mRecycledCount;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.season.book.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link NgramIndex}和{@link SearchIndexStore}的建立、查询耗时，在开发机上直接运行main，不属于单元测试
+ * 1.章节从res/raw中的TXT书籍(GBK)随机截取，默认5000章 x 10000字，约等于100MB的GBK文本
+ * 2.逐个查询长度1~6的关键字，统计索引排除候选章节的耗时和候选章节的精确匹配耗时
+ * 3.非候选章节都用暴力查找校验，出现漏查时抛出异常
+ * 参数：[章节数] [每章字数] [索引目录]，在module_book目录下运行
+ */
+public class SearchIndexBenchmark {
+	private static final int QUERY_COUNT = 20;
+	private static final int MAX_RESULT_SIZE = 500;
+	private static final int MAX_RUN_CHARS = 2 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		int chapterCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int chapterLength = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		File dir = new File(args.length > 2 ? args[2] : "build/search-benchmark");
+		String corpus = read("src/main/res/raw/text_book.txt") + read("src/main/res/raw/azhf.txt");
+		Random random = new Random(7);
+
+		deleteFiles(dir);
+		SearchIndexStore store = new SearchIndexStore(dir, "benchmark", chapterCount);
+		store.open();
+		int[] offsets = new int[chapterCount];
+		long startTime = System.currentTimeMillis();
+		List<int[]> chapterKeys = new ArrayList<int[]>();
+		int runChars = 0;
+		for (int i = 0; i < chapterCount; i++) {
+			offsets[i] = random.nextInt(corpus.length() - chapterLength);
+			chapterKeys.add(NgramIndex.getChapterKeys(getChapter(corpus, offsets[i], chapterLength)));
+			runChars += chapterLength;
+			if (chapterKeys.size() >= NgramIndex.MAX_RUN_CHAPTERS || runChars >= MAX_RUN_CHARS
+					|| i == chapterCount - 1) {
+				store.append(NgramIndex.buildRun(chapterKeys), chapterKeys.size());
+				chapterKeys.clear();
+				runChars = 0;
+			}
+		}
+		long buildTime = System.currentTimeMillis() - startTime;
+		store.closeWriter();
+		System.out.println("chars:" + (long) chapterCount * chapterLength + " build:" + buildTime + "ms"
+				+ " size:" + store.getSize() / 1024 + "KB");
+
+		SearchIndexStore reader = new SearchIndexStore(dir, "benchmark", chapterCount);
+		reader.load();
+		System.out.println("indexed:" + reader.getIndexedCount() + "/" + chapterCount);
+		for (int length = 1; length <= 6; length++) {
+			long indexNanos = 0;
+			long scanNanos = 0;
+			long candidateCount = 0;
+			for (int q = 0; q < QUERY_COUNT; q++) {
+				int offset = offsets[random.nextInt(chapterCount)] + random.nextInt(chapterLength - length);
+				char[] query = corpus.substring(offset, offset + length).toCharArray();
+				for (int i = 0; i < query.length; i++) {
+					query[i] = NgramIndex.fold(query[i]);
+				}
+				int[] keys = NgramIndex.getQueryKeys(query);
+				int runIndex = -1;
+				long[] candidates = null;
+				int resultCount = 0;
+				for (int i = 0; i < chapterCount && resultCount < MAX_RESULT_SIZE; i++) {
+					long time = System.nanoTime();
+					int chapterRun = reader.getRunIndex(i);
+					if (chapterRun != runIndex) {
+						runIndex = chapterRun;
+						candidates = reader.getCandidates(runIndex, keys);
+					}
+					int local = i - reader.getFirstChapter(runIndex);
+					boolean isCandidate = (candidates[local >>> 6] & (1L << local)) != 0;
+					indexNanos += System.nanoTime() - time;
+					String chapter = getChapter(corpus, offsets[i], chapterLength);
+					if (!isCandidate) {
+						if (count(chapter, query) > 0) {
+							throw new IllegalStateException("chapter " + i + " missed by index");
+						}
+						continue;
+					}
+					candidateCount++;
+					time = System.nanoTime();
+					resultCount += count(chapter, query);
+					scanNanos += System.nanoTime() - time;
+				}
+			}
+			System.out.println("length:" + length
+					+ " index:" + indexNanos / QUERY_COUNT / 1000 / 1000f + "ms"
+					+ " scan:" + scanNanos / QUERY_COUNT / 1000 / 1000f + "ms"
+					+ " candidates:" + candidateCount / QUERY_COUNT);
+		}
+		reader.closeReader();
+	}
+
+	private static String getChapter(String corpus, int offset, int length) {
+		return corpus.substring(offset, offset + length);
+	}
+
+	/**
+	 * 暴力查找，和{@link BookSearcher}一样先折叠大小写
+	 */
+	private static int count(String text, char[] query) {
+		int count = 0;
+		for (int i = 0; i + query.length <= text.length(); i++) {
+			int j = 0;
+			while (j < query.length && NgramIndex.fold(text.charAt(i + j)) == query[j]) {
+				j++;
+			}
+			if (j == query.length) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static String read(String path) throws IOException {
+		InputStream in = new FileInputStream(path);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				out.write(buffer, 0, len);
+			}
+			return out.toString("GBK");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void deleteFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+}
@@ -9,6 +9,8 @@ import android.os.Message;
 import android.util.Log;
 
 import com.season.lib.support.bitmap.BitmapUtil;
+import com.season.ps.gif.base.GifEncoder;
+import com.season.ps.gif.base.GifPalette;
 import com.season.ps.gif.extend.LZWEncoderOrderHolder;
 import com.season.ps.gif.extend.ThreadGifEncoder;
 
@@ -17,9 +19,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -60,6 +64,11 @@ public class GifMaker {
     public int hightQ = 20;
     public int lowQ = 50;//质量1～255，1最高清
 
+    private int mPaletteMode = GifEncoder.PALETTE_PER_FRAME;
+    /** 第一帧训练的共用调色板，其他帧等它训练完再编码*/
+    private volatile GifPalette mSharedPalette;
+    private final CountDownLatch mPaletteLatch = new CountDownLatch(1);
+
     /**
      * 设置是低内存，生成GIF参数修正
      *
@@ -97,6 +106,15 @@ public class GifMaker {
         };
     }
 
+    /**
+     * 设置调色板策略，见{@link GifEncoder#setPaletteMode(int)}，需在添加帧之前调用
+     * 非逐帧模式下第一帧训练的调色板作为全局颜色表，各帧共用或按偏差单独训练
+     */
+    public GifMaker setPaletteMode(int mode) {
+        this.mPaletteMode = mode;
+        return this;
+    }
+
     public GifMaker setOutputPath(String outputPath) {
         this.mOutputPath = outputPath;
         return this;
@@ -155,6 +173,29 @@ public class GifMaker {
         }
     }
 
+    private ThreadGifEncoder createEncoder(OutputStream out, int num, boolean firstFrame) throws InterruptedException {
+        ThreadGifEncoder encoder = new ThreadGifEncoder();
+        encoder.setQuality(isLowerDivice ? lowQ : hightQ);
+        encoder.setDelay(mDelayTime);
+        encoder.setPaletteMode(mPaletteMode);
+        encoder.start(out, num);
+        encoder.setFirstFrame(firstFrame);
+        encoder.setRepeat(0);
+        if (mPaletteMode != GifEncoder.PALETTE_PER_FRAME && !firstFrame) {
+            mPaletteLatch.await();
+            encoder.setGlobalPalette(mSharedPalette);
+        }
+        return encoder;
+    }
+
+    /**
+     * 第一帧编码完成，非逐帧模式下记录共用调色板；失败时为NULL，其他帧各自训练
+     */
+    private void onFirstFrameEncoded(ThreadGifEncoder encoder) {
+        mSharedPalette = encoder.getGlobalPalette();
+        mPaletteLatch.countDown();
+    }
+
     private class EncodeGifRunnable implements Runnable {
 
         int mOrder;
@@ -170,47 +211,38 @@ public class GifMaker {
             try {
                 if (repeatCount <= 1) {
                     ByteArrayOutputStream currentStream = new ByteArrayOutputStream();
-                    ThreadGifEncoder encoder = new ThreadGifEncoder();
-                    encoder.setQuality(isLowerDivice ? lowQ : hightQ);
-                    encoder.setDelay(mDelayTime);
-                    encoder.start(currentStream, mOrder);
-                    encoder.setFirstFrame(mOrder == 0);
-                    encoder.setRepeat(0);
-                    LZWEncoderOrderHolder holder = encoder.addFrame(mBitmap, mOrder);
+                    ThreadGifEncoder encoder = createEncoder(currentStream, mOrder, mOrder == 0);
+                    LZWEncoderOrderHolder holder;
+                    try {
+                        holder = encoder.addFrame(mBitmap, mOrder);
+                    } finally {
+                        if (mOrder == 0) {
+                            onFirstFrameEncoded(encoder);
+                        }
+                    }
                     encoder.finishThread(mOrder == (mTotalWorkSize - 1), holder.getLZWEncoder());
                     holder.setByteArrayOutputStream(currentStream);
                     mEncodeOrders.add(holder);
                 } else {
                     if (mOrder == 0) {
                         ByteArrayOutputStream startStream = new ByteArrayOutputStream();
-                        ThreadGifEncoder encoder = new ThreadGifEncoder();
-                        encoder.setQuality(isLowerDivice ? lowQ : hightQ);
-                        encoder.setDelay(mDelayTime);
-                        encoder.start(startStream, mOrder);
-                        encoder.setFirstFrame(mOrder == 0);
-                        encoder.setRepeat(0);
-                        mStartEncoder = encoder.addFrame(mBitmap, mOrder);
+                        ThreadGifEncoder encoder = createEncoder(startStream, mOrder, true);
+                        try {
+                            mStartEncoder = encoder.addFrame(mBitmap, mOrder);
+                        } finally {
+                            onFirstFrameEncoded(encoder);
+                        }
                         encoder.finishThread(false, mStartEncoder.getLZWEncoder());
                         mStartEncoder.setByteArrayOutputStream(startStream);
                     } else if ((mOrder + 1) * repeatCount >= mTotalWorkSize) {
                         ByteArrayOutputStream endStream = new ByteArrayOutputStream();
-                        ThreadGifEncoder encoder = new ThreadGifEncoder();
-                        encoder.setQuality(isLowerDivice ? lowQ : hightQ);
-                        encoder.setDelay(mDelayTime);
-                        encoder.start(endStream, mOrder);
-                        encoder.setFirstFrame(mOrder == 0);
-                        encoder.setRepeat(0);
+                        ThreadGifEncoder encoder = createEncoder(endStream, mOrder, false);
                         mEndEncoder = encoder.addFrame(mBitmap, mOrder);
                         encoder.finishThread(true, mEndEncoder.getLZWEncoder());
                         mEndEncoder.setByteArrayOutputStream(endStream);
                     }
                     ByteArrayOutputStream currentStream = new ByteArrayOutputStream();
-                    ThreadGifEncoder encoder = new ThreadGifEncoder();
-                    encoder.setQuality(isLowerDivice ? lowQ : hightQ);
-                    encoder.setDelay(mDelayTime);
-                    encoder.start(currentStream, 1);
-                    encoder.setFirstFrame(false);
-                    encoder.setRepeat(0);
+                    ThreadGifEncoder encoder = createEncoder(currentStream, 1, false);
 
                     LZWEncoderOrderHolder holder = encoder.addFrame(mBitmap, mOrder);
                     encoder.finishThread(false, holder.getLZWEncoder());
@@ -35,6 +35,19 @@ import java.io.OutputStream;
 public class GifEncoder {
     private static final String TAG = "AnimatedGifEncoder";
 
+    /**
+     * 每帧单独训练调色板，除第一帧外都写局部颜色表
+     */
+    public static final int PALETTE_PER_FRAME = 0;
+    /**
+     * 所有帧共用全局调色板，不写局部颜色表；全局调色板由第一帧训练或{@link #setGlobalPalette(GifPalette)}指定
+     */
+    public static final int PALETTE_GLOBAL = 1;
+    /**
+     * 沿用全局或上一个调色板，帧的颜色偏差超过{@link #setMaxDrift(float)}时才重新训练
+     */
+    public static final int PALETTE_ADAPTIVE = 2;
+
     protected int width; // image size
 
     protected int height;
@@ -60,6 +73,11 @@ public class GifEncoder {
     protected boolean   firstFrame  = true;
     protected boolean   sizeSet     = false; // if false, TopicGroupAPIAOP size from first frame
     protected int       sample      = 10; // default sample interval for quantizer
+    protected int       paletteMode = PALETTE_PER_FRAME;
+    protected float     maxDrift    = 1.5f; // max drift ratio before retraining in adaptive mode
+    protected GifPalette globalPalette; // palette written as the global color.xml table
+    protected GifPalette palette; // palette of the current frame
+    protected boolean   localPalette; // current frame writes a local color.xml table
 
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
@@ -143,7 +161,7 @@ public class GifEncoder {
             }
             writeGraphicCtrlExt(); // write graphic control extension
             writeImageDesc(); // image descriptor
-            if (!firstFrame) {
+            if (localPalette) {
                 writePalette(); // local color.xml table
             }
             writePixels(); // encode and write pixel data
@@ -181,6 +199,8 @@ public class GifEncoder {
         pixels = null;
         indexedPixels = null;
         colorTab = null;
+        palette = null;
+        globalPalette = null;
         closeStream = false;
         firstFrame = true;
 
@@ -214,6 +234,37 @@ public class GifEncoder {
         sample = quality;
     }
 
+    /**
+     * 设置调色板策略，{@link #PALETTE_PER_FRAME}、{@link #PALETTE_GLOBAL}或{@link #PALETTE_ADAPTIVE}
+     */
+    public void setPaletteMode(int mode) {
+        paletteMode = mode;
+    }
+
+    /**
+     * 自适应模式下帧的颜色偏差和调色板训练帧偏差的最大比例，超过时重新训练，默认1.5
+     */
+    public void setMaxDrift(float ratio) {
+        if (ratio >= 1) {
+            maxDrift = ratio;
+        }
+    }
+
+    /**
+     * 指定全局调色板，需在{@link #start(OutputStream)}之后、添加帧之前调用，
+     * 可用{@link GifPalette#train(java.util.List, int, int)}从全部帧训练，或在多个编码器间共用
+     */
+    public void setGlobalPalette(GifPalette palette) {
+        globalPalette = palette;
+    }
+
+    /**
+     * 全局调色板，第一帧添加后才有
+     */
+    public GifPalette getGlobalPalette() {
+        return globalPalette;
+    }
+
     /**
      * Sets the GIF frame size. The default size is the size of the first frame
      * added if this method is not invoked.
@@ -277,28 +328,22 @@ public class GifEncoder {
      * Analyzes image colors and creates color.xml map.
      */
     protected void analyzePixels() {
-        int len = pixels.length;
-        int nPix = len / 3;
+        int nPix = pixels.length / 3;
         indexedPixels = new byte[nPix];
-        NeuQuant nq = new NeuQuant(pixels, len, sample);
-        // initialize quantizer
-        colorTab = nq.process(); // url reduced palette
-        // convert map from BGR to RGB
-        for (int i = 0; i < colorTab.length; i += 3) {
-            byte temp = colorTab[i];
-            colorTab[i] = colorTab[i + 2];
-            colorTab[i + 2] = temp;
-            usedEntry[i / 3] = false;
+        palette = selectPalette();
+        localPalette = !firstFrame && palette != globalPalette;
+        colorTab = palette.getColorTab();
+        for (int i = 0; i < usedEntry.length; i++) {
+            usedEntry[i] = false;
         }
         // map image pixels to new palette
         int k = 0;
         for (int i = 0; i < nPix; i++) {
-            int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
+            int index = palette.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
             usedEntry[index] = true;
             indexedPixels[i] = (byte) index;
         }
         pixels = null;
-        nq = null;
         colorDepth = 8;
         palSize = 7;
         // TopicGroupAPIAOP closest match to transparent color.xml if specified
@@ -307,6 +352,33 @@ public class GifEncoder {
         }
     }
 
+    /**
+     * 按调色板策略选择当前帧的调色板，需要时训练新的
+     */
+    private GifPalette selectPalette() {
+        if (paletteMode != PALETTE_PER_FRAME) {
+            if (globalPalette == null) {
+                if (firstFrame) {
+                    globalPalette = GifPalette.train(pixels, sample, hasTransparentPixels);
+                    return globalPalette;
+                }
+            } else if (paletteMode == PALETTE_GLOBAL) {
+                if (!hasTransparentPixels || globalPalette.hasTransparent()) {
+                    return globalPalette;
+                }
+            } else {
+                if (globalPalette.accept(pixels, hasTransparentPixels, maxDrift)) {
+                    return globalPalette;
+                }
+                if (palette != null && palette != globalPalette
+                        && palette.accept(pixels, hasTransparentPixels, maxDrift)) {
+                    return palette;
+                }
+            }
+        }
+        return GifPalette.train(pixels, sample, hasTransparentPixels);
+    }
+
     /**
      * Returns index of palette color.xml closest to c
      */
@@ -411,8 +483,8 @@ public class GifEncoder {
         writeShort(width); // image size
         writeShort(height);
         // packed fields
-        if (firstFrame) {
-            // no LCT - GCT is used for first (or only) frame
+        if (!localPalette) {
+            // no LCT - GCT is used for first (or only) frame and frames sharing it
             out.write(0);
         } else {
             // specify normal LCT
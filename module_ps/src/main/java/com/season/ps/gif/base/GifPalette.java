@@ -0,0 +1,154 @@
+package com.season.ps.gif.base;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.List;
+
+/**
+ * 量化后的调色板，可在多帧、多个编码线程间共用
+ * 1.颜色按每通道高6位分桶，桶内首次遇到的颜色用{@link NeuQuant#map(int, int, int)}查找后缓存，之后查表；
+ * RGB_565的帧每个颜色独占一个桶，结果和逐像素查找相同；并发填表时各自写入完整的short，不需要加锁
+ * 2.{@link #getDrift(byte[], int)}为抽样像素和调色板颜色的平均距离，用于判断帧是否还适合这个调色板
+ */
+public final class GifPalette {
+    /** 多帧训练时抽样的最大像素数*/
+    private static final int MAX_SAMPLE_PIXELS = 680 * 680;
+    /** 计算偏差时抽样的间隔*/
+    private static final int DRIFT_STEP = 7;
+
+    private final NeuQuant nq;
+    private final byte[] colorTab; // RGB palette
+    private final short[] lookup = new short[1 << 18]; // RGB666 -> index + 1, 0 = not mapped yet
+    private final boolean hasTransparent;
+    private float baseDrift;
+
+    private GifPalette(NeuQuant nq, boolean hasTransparent) {
+        this.nq = nq;
+        this.hasTransparent = hasTransparent;
+        colorTab = nq.process();
+        // convert map from BGR to RGB
+        for (int i = 0; i < colorTab.length; i += 3) {
+            byte temp = colorTab[i];
+            colorTab[i] = colorTab[i + 2];
+            colorTab[i + 2] = temp;
+        }
+    }
+
+    /**
+     * 用一帧的像素训练
+     *
+     * @param pixels         BGR像素
+     * @param sample         抽样间隔，同{@link GifEncoder#setQuality(int)}
+     * @param hasTransparent 像素中是否有替换成透明色的像素
+     */
+    public static GifPalette train(byte[] pixels, int sample, boolean hasTransparent) {
+        GifPalette palette = new GifPalette(new NeuQuant(pixels, pixels.length, sample), hasTransparent);
+        palette.baseDrift = palette.getDrift(pixels, DRIFT_STEP);
+        return palette;
+    }
+
+    /**
+     * 从全部帧中等间隔抽取像素训练一个全局调色板
+     *
+     * @param transparentColor 透明像素替换成的颜色，同{@link GifEncoder#setTransparent(int)}
+     */
+    public static GifPalette train(List<Bitmap> frames, int transparentColor, int sample) {
+        long total = 0;
+        for (Bitmap frame : frames) {
+            total += (long) frame.getWidth() * frame.getHeight();
+        }
+        int step = (int) Math.max(1, (total + MAX_SAMPLE_PIXELS - 1) / MAX_SAMPLE_PIXELS);
+        byte[] pixels = new byte[(int) Math.min(total, MAX_SAMPLE_PIXELS) * 3];
+        int count = 0;
+        boolean hasTransparent = false;
+        int[] row = null;
+        // the frames are sampled as one continuous stream, so columns are not picked repeatedly
+        int skip = 0;
+        for (Bitmap frame : frames) {
+            int w = frame.getWidth();
+            int h = frame.getHeight();
+            if (row == null || row.length < w) {
+                row = new int[w];
+            }
+            for (int y = 0; y < h && count < pixels.length; y++) {
+                frame.getPixels(row, 0, w, 0, y, w, 1);
+                int x = skip;
+                for (; x < w && count < pixels.length; x += step) {
+                    int pixel = row[x];
+                    if (pixel == Color.TRANSPARENT) {
+                        hasTransparent = true;
+                        pixel = transparentColor;
+                    }
+                    pixels[count++] = (byte) (pixel & 0xFF);
+                    pixels[count++] = (byte) ((pixel >> 8) & 0xFF);
+                    pixels[count++] = (byte) ((pixel >> 16) & 0xFF);
+                }
+                skip = x - w;
+            }
+        }
+        byte[] sampled = new byte[count];
+        System.arraycopy(pixels, 0, sampled, 0, count);
+        return train(sampled, sample, hasTransparent);
+    }
+
+    /**
+     * 像素的调色板序号
+     */
+    public int map(int b, int g, int r) {
+        int key = ((r >> 2) << 12) | ((g >> 2) << 6) | (b >> 2);
+        int index = lookup[key];
+        if (index == 0) {
+            index = nq.map(b, g, r) + 1;
+            lookup[key] = (short) index;
+        }
+        return index - 1;
+    }
+
+    /**
+     * 抽样像素到调色板颜色的平均距离(各通道差的平方和)
+     *
+     * @param pixels BGR像素
+     * @param step   抽样间隔(像素)
+     */
+    public float getDrift(byte[] pixels, int step) {
+        long sum = 0;
+        int count = 0;
+        for (int i = 0; i + 2 < pixels.length; i += step * 3) {
+            int b = pixels[i] & 0xff;
+            int g = pixels[i + 1] & 0xff;
+            int r = pixels[i + 2] & 0xff;
+            int index = map(b, g, r) * 3;
+            int dr = r - (colorTab[index] & 0xff);
+            int dg = g - (colorTab[index + 1] & 0xff);
+            int db = b - (colorTab[index + 2] & 0xff);
+            sum += dr * dr + dg * dg + db * db;
+            count++;
+        }
+        return count == 0 ? 0 : (float) sum / count;
+    }
+
+    /**
+     * 帧是否还适合这个调色板
+     *
+     * @param maxDriftRatio 帧的偏差和训练帧偏差的最大比例
+     */
+    public boolean accept(byte[] pixels, boolean hasTransparentPixels, float maxDriftRatio) {
+        if (hasTransparentPixels && !hasTransparent) {
+            // the transparent color would fall back to a color the frame really uses
+            return false;
+        }
+        return getDrift(pixels, DRIFT_STEP) <= Math.max(baseDrift, 1f) * maxDriftRatio;
+    }
+
+    /**
+     * RGB调色板，共256色，不能修改
+     */
+    public byte[] getColorTab() {
+        return colorTab;
+    }
+
+    public boolean hasTransparent() {
+        return hasTransparent;
+    }
+}
@@ -40,7 +40,7 @@ public class ThreadGifEncoder extends GifEncoder {
             }
             writeGraphicCtrlExt(); // write graphic control extension
             writeImageDesc(); // image descriptor
-            if (!firstFrame) {
+            if (localPalette) {
                 writePalette(); // local color.xml table
             }
             // writePixels(); // encode and write pixel data
@@ -121,6 +121,8 @@ public class ThreadGifEncoder extends GifEncoder {
         pixels = null;
         indexedPixels = null;
         colorTab = null;
+        palette = null;
+        globalPalette = null;
         closeStream = false;
         firstFrame = true;
         return ok;
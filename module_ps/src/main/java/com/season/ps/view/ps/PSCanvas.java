@@ -24,6 +24,7 @@ import com.season.lib.support.dimen.ColorUtil;
 import com.season.lib.support.file.FileManager;
 import com.season.lib.support.dimen.ScreenUtils;
 import com.season.ps.gif.GifMaker;
+import com.season.ps.gif.base.GifEncoder;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -234,8 +235,9 @@ public class PSCanvas extends RelativeLayout{
         //TODO 120毫秒对于文字动画有点卡顿，但是缩小帧间隔，意味着要画更多的帧，这时候我们要绘制的是480*480分辨率的argb8888的bitmap，
         //TODO 内存压力比较大， 如果平衡内存的问题 是否可以对文字类采用类似videoview 画完一帧，再seek到下一帧进行绘制？
         //确定合成总帧数和帧与帧之间的延迟时间
-        mGifMaker = new GifMaker(count / resortCount, recordDelay * resortCount, Executors.newCachedThreadPool()).setOutputPath
-                (absolutePath);
+        //贴纸各帧颜色接近，共用第一帧的调色板，偏差大的帧再单独训练
+        mGifMaker = new GifMaker(count / resortCount, recordDelay * resortCount, Executors.newCachedThreadPool())
+                .setPaletteMode(GifEncoder.PALETTE_ADAPTIVE).setOutputPath(absolutePath);
         if (mGifMaker != null) {
             if (mGifMaker.isGifMaded) {
                 listener.onMakeGifSucceed(mGifMaker.mOutputPath);